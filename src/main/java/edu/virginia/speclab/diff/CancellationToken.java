@@ -0,0 +1,39 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff;
+
+/**
+ * Lets a collation running on one thread be abandoned from another. The work checks
+ * the token between its passes and change blocks, and stops at the next check once
+ * the token is cancelled.
+ */
+public class CancellationToken
+{
+    private volatile boolean cancelled;
+
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+}
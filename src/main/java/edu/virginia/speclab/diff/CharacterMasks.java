@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff;
+
+/**
+ * For a string of up to 64 characters, the positions at which each of its characters
+ * occurs, as the bits of a <code>long</code>. These masks let a string be compared
+ * with another a whole column at a time, in the bit-parallel edit distance and longest
+ * common subsequence algorithms.
+ */
+final class CharacterMasks
+{
+    public static final int MAX_LENGTH = 64;
+
+    private final char[] characters;
+    private final long[] masks;
+    private final boolean[] used;
+
+    public CharacterMasks( CharSequence text, int offset, int length )
+    {
+        if( length > MAX_LENGTH )
+        {
+            throw new IllegalArgumentException("Too long for character masks: " + length);
+        }
+
+        // at most 64 distinct characters, so this table is never more than half full
+        characters = new char[128];
+        masks = new long[128];
+        used = new boolean[128];
+
+        for( int i = 0; i < length; i++ )
+        {
+            char c = text.charAt(offset + i);
+            int slot = findSlot(c);
+            characters[slot] = c;
+            used[slot] = true;
+            masks[slot] |= 1L << i;
+        }
+    }
+
+    private int findSlot( char c )
+    {
+        int slot = (c ^ (c >>> 7)) & 127;
+        while( used[slot] && characters[slot] != c )
+        {
+            slot = (slot + 1) & 127;
+        }
+        return slot;
+    }
+
+    /**
+     * @return The positions of the character in the string.
+     */
+    public long get( char c )
+    {
+        int slot = findSlot(c);
+        return used[slot] ? masks[slot] : 0L;
+    }
+}
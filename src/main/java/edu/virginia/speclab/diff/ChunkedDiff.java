@@ -0,0 +1,466 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.virginia.speclab.diff.document.DocumentModel;
+import edu.virginia.speclab.diff.token.TokenizerSettings;
+import edu.virginia.speclab.util.SimpleLogger;
+
+/**
+ * Diffs documents that are too long to be diffed whole. The documents are lined up on
+ * anchors, runs of <code>ANCHOR_WORDS</code> words that are found once in each of them,
+ * and cut at the anchors into chunks of about <code>CHUNK_LENGTH</code> characters. The
+ * pairs of chunks are diffed on a pool of threads, and their differences are stitched
+ * back together in document order. Only the chunks being diffed are tokenized, so the
+ * token tables of the whole documents are never held in memory.
+ */
+public class ChunkedDiff
+{
+    public static final int CHUNKED_LENGTH = 1000000;
+    public static final int CHUNK_LENGTH = 100000;
+
+    private static final int ANCHOR_WORDS = 12;
+    // only runs whose hashes end in these bits are considered as anchors
+    private static final long SAMPLE_MASK = 15;
+    private static final long WORD_BASE = 0x100000001B3L;
+
+    private DocumentModel baseDocument, witnessDocument;
+    private TokenizerSettings tokenizerSettings;
+    private int threadCount;
+
+    public ChunkedDiff( DocumentModel baseDocument, DocumentModel witnessDocument, TokenizerSettings tokenizerSettings )
+    {
+        this(baseDocument, witnessDocument, tokenizerSettings, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ChunkedDiff( DocumentModel baseDocument, DocumentModel witnessDocument, TokenizerSettings tokenizerSettings,
+            int threadCount )
+    {
+        this.baseDocument = baseDocument;
+        this.witnessDocument = witnessDocument;
+        this.tokenizerSettings = tokenizerSettings;
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    /**
+     * @return <code>true</code> if either document is long enough to be diffed in chunks.
+     */
+    public static boolean isChunked( DocumentModel baseDocument, DocumentModel witnessDocument )
+    {
+        return baseDocument.getDocumentLength() > CHUNKED_LENGTH
+            || witnessDocument.getDocumentLength() > CHUNKED_LENGTH;
+    }
+
+    /**
+     * Diffs each pair of chunks with all the passes of a <code>MultiPassDiff</code>.
+     * @param cancellation Checked before each chunk is diffed and between its passes, may be null.
+     * @return The differences between the whole documents, in their active offsets, or
+     * null if the diff was cancelled.
+     */
+    public DifferenceSet diffDocuments( boolean refineCharacters, CancellationToken cancellation )
+    {
+        int[] boundaries = findChunkBoundaries();
+        int chunkCount = boundaries.length / 2 - 1;
+        SimpleLogger.logInfo("Diffing " + baseDocument.getDocumentLength() + " and " + witnessDocument.getDocumentLength()
+                + " characters in " + chunkCount + " chunks");
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, chunkCount));
+        DifferenceSet differenceSet = new DifferenceSet();
+        differenceSet.setBaseDocument(baseDocument);
+        differenceSet.setWitnessDocument(witnessDocument);
+        try
+        {
+            List chunks = new ArrayList(chunkCount);
+            for( int c = 0; c < chunkCount; c++ )
+            {
+                chunks.add(executor.submit(new Chunk(boundaries[2 * c], boundaries[2 * c + 2],
+                        boundaries[2 * c + 1], boundaries[2 * c + 3], cancellation)));
+            }
+
+            int numberOfSymbols = 0;
+            for( int c = 0; c < chunkCount; c++ )
+            {
+                DifferenceSet chunkDifferences = (DifferenceSet) ((Future) chunks.set(c, null)).get();
+                if( chunkDifferences == null ) return null;
+
+                addChunkDifferences(differenceSet, chunkDifferences, boundaries[2 * c], boundaries[2 * c + 1]);
+                numberOfSymbols += chunkDifferences.getNumberOfSymbols();
+            }
+            differenceSet.setNumberOfSymbols(numberOfSymbols);
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch( ExecutionException e )
+        {
+            Throwable cause = e.getCause();
+            if( cause instanceof RuntimeException ) throw (RuntimeException) cause;
+            if( cause instanceof Error ) throw (Error) cause;
+            throw new RuntimeException(cause);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        if( refineCharacters )
+        {
+            new DifferenceRefiner(baseDocument, witnessDocument).refineDifferences(differenceSet);
+        }
+        return differenceSet;
+    }
+
+    // converts the differences of a chunk into differences in the whole documents
+    private void addChunkDifferences( DifferenceSet differenceSet, DifferenceSet chunkDifferences,
+            int baseStart, int witnessStart )
+    {
+        for( Iterator i = chunkDifferences.getDifferenceList().iterator(); i.hasNext(); )
+        {
+            Difference chunkDifference = (Difference) i.next();
+
+            Difference difference = new Difference(baseDocument, witnessDocument, chunkDifference.getType());
+            difference.setBaseOffset(baseStart + chunkDifference.getOffset(Difference.BASE));
+            difference.setWitnessOffset(witnessStart + chunkDifference.getOffset(Difference.WITNESS));
+            difference.setBaseTextLength(chunkDifference.getLength(Difference.BASE));
+            difference.setWitnessTextLength(chunkDifference.getLength(Difference.WITNESS));
+            difference.setDistance(chunkDifference.getDistance());
+            differenceSet.addDifference(difference);
+        }
+    }
+
+    /**
+     * Lines the documents up on their anchors and cuts them at the anchors that are
+     * <code>CHUNK_LENGTH</code> or more characters on from the last cut in the base text.
+     * @return The base and witness offsets of each cut in turn, starting with the starts
+     * of the documents and ending with their ends.
+     */
+    int[] findChunkBoundaries()
+    {
+        CharSequence baseText = baseDocument.getActiveText();
+        CharSequence witnessText = witnessDocument.getActiveText();
+        int[] anchors = findAnchors(baseText, witnessText);
+
+        IntList boundaries = new IntList();
+        boundaries.add(0);
+        boundaries.add(0);
+        int lastBase = 0, lastWitness = 0;
+        for( int a = 0; a < anchors.length; a += 2 )
+        {
+            int base = anchors[a], witness = anchors[a + 1];
+            if( base - lastBase >= CHUNK_LENGTH && witness > lastWitness
+                && baseText.length() - base >= CHUNK_LENGTH / 2 )
+            {
+                boundaries.add(base);
+                boundaries.add(witness);
+                lastBase = base;
+                lastWitness = witness;
+            }
+        }
+        boundaries.add(baseText.length());
+        boundaries.add(witnessText.length());
+        return boundaries.toArray();
+    }
+
+    /**
+     * Finds the sampled runs of words that occur once in each text with the same
+     * characters, and keeps the longest chain of them that is in the same order in both.
+     * @return The base and witness offsets of each anchor of the chain in turn.
+     */
+    static int[] findAnchors( CharSequence baseText, CharSequence witnessText )
+    {
+        Runs baseRuns = new Runs(baseText);
+        Runs witnessRuns = new Runs(witnessText);
+
+        RunTable table = new RunTable(baseRuns.size() + witnessRuns.size());
+        for( int i = 0; i < baseRuns.size(); i++ )
+        {
+            table.add(baseRuns.hashes.get(i), 0, baseRuns.starts.get(i), baseRuns.ends.get(i));
+        }
+        for( int i = 0; i < witnessRuns.size(); i++ )
+        {
+            table.add(witnessRuns.hashes.get(i), 1, witnessRuns.starts.get(i), witnessRuns.ends.get(i));
+        }
+
+        // the candidates in witness order, with the base offsets they match
+        IntList candidateBase = new IntList();
+        IntList candidateWitness = new IntList();
+        for( int i = 0; i < witnessRuns.size(); i++ )
+        {
+            int slot = table.find(witnessRuns.hashes.get(i));
+            if( table.counts[2 * slot] != 1 || table.counts[2 * slot + 1] != 1 ) continue;
+
+            int baseStart = table.starts[2 * slot], baseEnd = table.ends[2 * slot];
+            int witnessStart = table.starts[2 * slot + 1], witnessEnd = table.ends[2 * slot + 1];
+            if( regionMatches(baseText, baseStart, baseEnd, witnessText, witnessStart, witnessEnd) )
+            {
+                candidateBase.add(baseStart);
+                candidateWitness.add(witnessStart);
+            }
+        }
+
+        // the longest chain with the base offsets increasing, by patience sorting
+        int count = candidateBase.size();
+        int[] tails = new int[count];
+        int[] previous = new int[count];
+        int length = 0;
+        for( int i = 0; i < count; i++ )
+        {
+            int base = candidateBase.get(i);
+            int low = 0, high = length;
+            while( low < high )
+            {
+                int middle = (low + high) >>> 1;
+                if( candidateBase.get(tails[middle]) < base ) low = middle + 1;
+                else high = middle;
+            }
+            previous[i] = (low > 0) ? tails[low - 1] : -1;
+            tails[low] = i;
+            if( low == length ) length++;
+        }
+
+        int[] anchors = new int[2 * length];
+        for( int i = (length > 0) ? tails[length - 1] : -1, a = length - 1; i >= 0; i = previous[i], a-- )
+        {
+            anchors[2 * a] = candidateBase.get(i);
+            anchors[2 * a + 1] = candidateWitness.get(i);
+        }
+        return anchors;
+    }
+
+    private static boolean regionMatches( CharSequence text, int start, int end,
+            CharSequence otherText, int otherStart, int otherEnd )
+    {
+        if( end - start != otherEnd - otherStart ) return false;
+        for( int i = 0; i < end - start; i++ )
+        {
+            if( text.charAt(start + i) != otherText.charAt(otherStart + i) ) return false;
+        }
+        return true;
+    }
+
+    // the finalizer of splitmix64, which spreads the bits of the value over the whole word
+    private static long mix( long value )
+    {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    // a pair of chunks, diffed on a thread of the pool
+    private class Chunk implements Callable
+    {
+        private int baseStart, baseEnd, witnessStart, witnessEnd;
+        private CancellationToken cancellation;
+
+        public Chunk( int baseStart, int baseEnd, int witnessStart, int witnessEnd, CancellationToken cancellation )
+        {
+            this.baseStart = baseStart;
+            this.baseEnd = baseEnd;
+            this.witnessStart = witnessStart;
+            this.witnessEnd = witnessEnd;
+            this.cancellation = cancellation;
+        }
+
+        public Object call()
+        {
+            if( cancellation != null && cancellation.isCancelled() ) return null;
+
+            DocumentModel baseChunk = new DocumentModel(baseDocument, baseStart, baseEnd);
+            DocumentModel witnessChunk = new DocumentModel(witnessDocument, witnessStart, witnessEnd);
+            baseChunk.tokenize(tokenizerSettings);
+            witnessChunk.tokenize(tokenizerSettings);
+
+            MultiPassDiff diff = new MultiPassDiff(baseChunk, witnessChunk, MultiPassDiff.MAX_DIFF_PASSES, false, cancellation);
+
+            // the differences of the chunks wait here until they are stitched together
+            baseChunk.releaseTokenTable();
+            witnessChunk.releaseTokenTable();
+            if( diff.isCancelled() ) return null;
+            return diff.getDifferenceSet();
+        }
+    }
+
+    // the sampled runs of ANCHOR_WORDS words in a text, in text order
+    private static class Runs
+    {
+        private LongList hashes = new LongList();
+        private IntList starts = new IntList();
+        private IntList ends = new IntList();
+
+        public Runs( CharSequence text )
+        {
+            // the weight of the word leaving the window
+            long leaving = 1;
+            for( int i = 1; i < ANCHOR_WORDS; i++ ) leaving *= WORD_BASE;
+
+            // the hashes and starts of the last ANCHOR_WORDS words
+            long[] wordHashes = new long[ANCHOR_WORDS];
+            int[] wordStarts = new int[ANCHOR_WORDS];
+            int wordCount = 0;
+            long rolling = 0;
+
+            long hash = 0;
+            int wordStart = -1;
+            int length = text.length();
+            for( int i = 0; i <= length; i++ )
+            {
+                char c = (i < length) ? text.charAt(i) : ' ';
+                if( Character.isLetterOrDigit(c) )
+                {
+                    if( wordStart < 0 ) wordStart = i;
+                    hash = hash * 31 + c;
+                    continue;
+                }
+                if( wordStart < 0 ) continue;
+
+                int slot = wordCount % ANCHOR_WORDS;
+                long wordHash = mix(hash);
+                if( wordCount >= ANCHOR_WORDS ) rolling -= wordHashes[slot] * leaving;
+                rolling = rolling * WORD_BASE + wordHash;
+                wordHashes[slot] = wordHash;
+                wordStarts[slot] = wordStart;
+                wordCount++;
+
+                if( wordCount >= ANCHOR_WORDS && (rolling & SAMPLE_MASK) == 0 )
+                {
+                    hashes.add(rolling);
+                    starts.add(wordStarts[wordCount % ANCHOR_WORDS]);
+                    ends.add(i);
+                }
+                hash = 0;
+                wordStart = -1;
+            }
+        }
+
+        public int size()
+        {
+            return hashes.size();
+        }
+    }
+
+    // counts the runs with each hash in the two texts, keeping the last of each, by open addressing
+    private static class RunTable
+    {
+        private long[] keys;
+        private boolean[] used;
+        private int[] counts, starts, ends;
+        private int mask;
+
+        public RunTable( int runCount )
+        {
+            int capacity = 16;
+            while( capacity < runCount * 2 ) capacity <<= 1;
+            keys = new long[capacity];
+            used = new boolean[capacity];
+            counts = new int[2 * capacity];
+            starts = new int[2 * capacity];
+            ends = new int[2 * capacity];
+            mask = capacity - 1;
+        }
+
+        public void add( long key, int side, int start, int end )
+        {
+            int slot = find(key);
+            used[slot] = true;
+            keys[slot] = key;
+            counts[2 * slot + side]++;
+            starts[2 * slot + side] = start;
+            ends[2 * slot + side] = end;
+        }
+
+        public int find( long key )
+        {
+            int slot = (int) (key >>> 32) & mask;
+            while( used[slot] && keys[slot] != key ) slot = (slot + 1) & mask;
+            return slot;
+        }
+    }
+
+    private static class IntList
+    {
+        private int[] values = new int[16];
+        private int size;
+
+        public void add( int value )
+        {
+            if( size == values.length )
+            {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        public int get( int index )
+        {
+            return values[index];
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public int[] toArray()
+        {
+            int[] array = new int[size];
+            System.arraycopy(values, 0, array, 0, size);
+            return array;
+        }
+    }
+
+    private static class LongList
+    {
+        private long[] values = new long[16];
+        private int size;
+
+        public void add( long value )
+        {
+            if( size == values.length )
+            {
+                long[] grown = new long[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+
+        public long get( int index )
+        {
+            return values[index];
+        }
+
+        public int size()
+        {
+            return size;
+        }
+    }
+}
@@ -48,6 +48,11 @@ class Correlator
     // block len > any possible real block len 
     private static final int UNREAL = Integer.MAX_VALUE;
     
+    // the longest runs of symbols matched when used once in each file
+    private static final int MAX_SEQUENCE_LENGTH = 4;
+    private static final long SEQUENCE_HASH_BASE = 1000003L;
+    private static final long NO_SEQUENCE = 0L;
+    
     public Correlator( SymbolTable symbolTable )
     {
         this.symbolTable = symbolTable;
@@ -197,7 +202,8 @@ class Correlator
      * scanunique Scans for lines which are used exactly once in each file.
      * Expects both files in symtab, and oldinfo and newinfo valid. The
      * appropriate "other" array entries are set to the line# in the other file.
-     * Claims pseudo-lines at 0 and XXXinfo.maxLine+1 are unique.
+     * Claims pseudo-lines at 0 and XXXinfo.maxLine+1 are unique, as are the lines of
+     * the common prefix and suffix found by the symbol table.
      */
     private void scanUnique()
     {
@@ -206,8 +212,12 @@ class Correlator
 
         int oldline, newline;
         Symbol psymbol;
+        
+        // only the lines between the common prefix and suffix are counted as uses
+        int prefixLength = symbolTable.getPrefixLength();
+        int suffixLength = symbolTable.getSuffixLength();
     
-        for (newline = 1; newline <= newinfo.getSymbolCount(); newline++)
+        for (newline = prefixLength + 1; newline <= newinfo.getSymbolCount() - suffixLength; newline++)
         {
             psymbol = newinfo.getSymbol(newline);
             if (psymbol.symbolIsUnique())
@@ -217,6 +227,17 @@ class Correlator
             }
         }
 
+        // link the runs of symbols both files start and end with
+        for (int line = 1; line <= prefixLength; line++)
+        {
+            recordMatch(line,line);
+        }
+        
+        for (int i = 0; i < suffixLength; i++)
+        {
+            recordMatch(oldinfo.getSymbolCount()-i,newinfo.getSymbolCount()-i);
+        }
+
         // link beginning of the files, before the first symbol
         recordMatch(0,0);
         
@@ -226,7 +247,201 @@ class Correlator
 
         recordMatch(oldLastLine,newLastLine);
     }
-    
+
+    /*
+     * scanUniqueSequences In texts with a repetitive vocabulary few symbols are used
+     * once in each file, leaving long stretches with nothing to scan from. Runs of 2 up
+     * to MAX_SEQUENCE_LENGTH symbols that are used once in each file are matched as
+     * well, shortest first. Only the lines that are still unmatched are considered,
+     * so a run only has to be used once among the unmatched stretches. Runs are found by a
+     * rolling hash of their symbols. Returns true if any run was matched.
+     */
+    private boolean scanUniqueSequences()
+    {
+        boolean matched = false;
+        for( int length = 2; length <= MAX_SEQUENCE_LENGTH; length++ )
+        {
+            matched |= scanUniqueSequences(length);
+        }
+        return matched;
+    }
+
+    private boolean scanUniqueSequences( int length )
+    {
+        FileInfo oldinfo = symbolTable.getOldInfo();
+        FileInfo newinfo = symbolTable.getNewInfo();
+
+        // count the uses of each run in the old file, then those in the new file
+        Runs oldRuns = findRuns(oldinfo, length);
+        if( oldRuns.count == 0 ) return false;
+
+        SequenceCounts counts = new SequenceCounts(oldRuns.count);
+        for( int i = 0; i < oldRuns.count; i++ )
+        {
+            counts.addOldUse(oldRuns.hashes[i], oldRuns.lines[i]);
+        }
+
+        Runs newRuns = findRuns(newinfo, length);
+        for( int i = 0; i < newRuns.count; i++ )
+        {
+            counts.addNewUse(newRuns.hashes[i]);
+        }
+
+        // match the runs used once in each, in the order of the new file
+        boolean matched = false;
+        for( int i = 0; i < newRuns.count; i++ )
+        {
+            int newline = newRuns.lines[i];
+            int oldline = counts.getUniqueOldLine(newRuns.hashes[i]);
+            if( oldline > 0 && isUnmatchedSequence(oldline, newline, length) )
+            {
+                for( int j = 0; j < length; j++ )
+                {
+                    recordMatch(oldline+j,newline+j);
+                }
+                matched = true;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * @return The runs of symbols of the given length that lie within the unmatched
+     * stretches of the file, with their hashes.
+     */
+    private static Runs findRuns( FileInfo info, int length )
+    {
+        long power = 1;
+        for( int i = 1; i < length; i++ )
+        {
+            power *= SEQUENCE_HASH_BASE;
+        }
+
+        Runs runs = new Runs();
+        long hash = 0;
+        int unmatchedRun = 0;
+        for( int line = 1; line <= info.getSymbolCount(); line++ )
+        {
+            if( info.getCrossIndex(line) >= 0 )
+            {
+                unmatchedRun = 0;
+                hash = 0;
+                continue;
+            }
+
+            // roll the first symbol out of the hash once there are enough
+            if( unmatchedRun >= length )
+            {
+                hash -= info.getSymbol(line-length).getHash() * power;
+            }
+            hash = hash * SEQUENCE_HASH_BASE + info.getSymbol(line).getHash();
+            unmatchedRun++;
+
+            if( unmatchedRun >= length && hash != NO_SEQUENCE )
+            {
+                runs.add(line-length+1, hash);
+            }
+        }
+        return runs;
+    }
+
+    private boolean isUnmatchedSequence( int oldline, int newline, int length )
+    {
+        FileInfo oldinfo = symbolTable.getOldInfo();
+        FileInfo newinfo = symbolTable.getNewInfo();
+
+        for( int i = 0; i < length; i++ )
+        {
+            // symbols are shared between the files, so a hash collision shows up here
+            if( oldinfo.getSymbol(oldline+i) != newinfo.getSymbol(newline+i) )
+                return false;
+
+            // an earlier run may have claimed an overlapping line
+            if( oldinfo.getCrossIndex(oldline+i) >= 0 || newinfo.getCrossIndex(newline+i) >= 0 )
+                return false;
+        }
+        return true;
+    }
+
+    private static class Runs
+    {
+        private int count;
+        private int[] lines = new int[16];
+        private long[] hashes = new long[16];
+
+        public void add( int line, long hash )
+        {
+            if( count == lines.length )
+            {
+                int[] grownLines = new int[count * 2];
+                long[] grownHashes = new long[count * 2];
+                System.arraycopy(lines, 0, grownLines, 0, count);
+                System.arraycopy(hashes, 0, grownHashes, 0, count);
+                lines = grownLines;
+                hashes = grownHashes;
+            }
+            lines[count] = line;
+            hashes[count] = hash;
+            count++;
+        }
+    }
+
+    /**
+     * Counts the uses of runs in each file by their hashes, in an open addressed table.
+     */
+    private static class SequenceCounts
+    {
+        private long[] hashes;
+        private int[] oldCounts, newCounts, oldLines;
+        private int mask;
+
+        public SequenceCounts( int maxRuns )
+        {
+            int capacity = Integer.highestOneBit(Math.max(maxRuns, 4)) * 4;
+            hashes = new long[capacity];
+            oldCounts = new int[capacity];
+            newCounts = new int[capacity];
+            oldLines = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        // the slot of the hash, or the empty slot where it belongs
+        private int findSlot( long hash )
+        {
+            int slot = (int) (hash ^ (hash >>> 32)) & mask;
+            while( hashes[slot] != NO_SEQUENCE && hashes[slot] != hash )
+            {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        public void addOldUse( long hash, int line )
+        {
+            int slot = findSlot(hash);
+            hashes[slot] = hash;
+            oldCounts[slot]++;
+            oldLines[slot] = line;
+        }
+
+        public void addNewUse( long hash )
+        {
+            int slot = findSlot(hash);
+            if( hashes[slot] == hash ) newCounts[slot]++;
+        }
+
+        /**
+         * @return The line of the old file where the run starts, if it is used once in each
+         * file, otherwise -1.
+         */
+        public int getUniqueOldLine( long hash )
+        {
+            int slot = findSlot(hash);
+            if( hashes[slot] == hash && oldCounts[slot] == 1 && newCounts[slot] == 1 ) return oldLines[slot];
+            return -1;
+        }
+    }
+
     private void recordMatch( int oldLine, int newLine )
     {
         FileInfo oldinfo = symbolTable.getOldInfo();
@@ -253,6 +468,13 @@ class Correlator
         // scan backwards from sure-matches
         scanBefore();
         
+        // scan the lines left for runs used once in both files, and past those
+        if( scanUniqueSequences() )
+        {
+            scanAfter();
+            scanBefore();
+        }
+        
         // find the fronts and lengths of blocks
         scanBlocks();  
     }
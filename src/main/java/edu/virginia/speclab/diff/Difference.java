@@ -46,6 +46,10 @@ public class Difference implements Serializable
     
     private int distance;
     
+    // the runs of characters that differ within a CHANGE, four entries to a run: the offset 
+    // and length in the base, then in the witness, with offsets relative to the difference
+    private int[] characterChanges;
+    
     public Difference( DocumentModel baseDocument, DocumentModel witnessDocument, int type )
     {
         this.baseRange = new OffsetRange(baseDocument);
@@ -69,6 +73,7 @@ public class Difference implements Serializable
         other.baseRange = new OffsetRange(this.baseRange);
         other.witnessRange = new OffsetRange(this.witnessRange);
     	other.distance = distance;
+    	other.characterChanges = characterChanges;
     	return other;
     }
     /**
@@ -119,6 +124,7 @@ public class Difference implements Serializable
 
     public void setWitnessTextLength(int witnessLength, OffsetRange.Space space)
     {
+        if( witnessLength != witnessRange.getLength(space) ) characterChanges = null;
         witnessRange.set(witnessRange.getStartOffset(space), witnessRange.getStartOffset(space) + witnessLength, space);
     }
 
@@ -133,6 +139,7 @@ public class Difference implements Serializable
 
     public void setBaseTextLength(int baseLength, OffsetRange.Space space)
     {
+       if( baseLength != baseRange.getLength(space) ) characterChanges = null;
        baseRange.set(baseRange.getStartOffset(space), baseRange.getStartOffset(space) + baseLength, space);
     }
 
@@ -229,6 +236,39 @@ public class Difference implements Serializable
         this.distance = distance;
     }
 
+    /**
+     * Records the runs of characters that differ within this difference, as found by 
+     * <code>DifferenceRefiner</code>. The runs are dropped if either side is resized.
+     * @param characterChanges Four entries for each run: its offset and length in the base,
+     * then in the witness, with the offsets relative to the start of this difference.
+     */
+    public void setCharacterChanges(int[] characterChanges)
+    {
+        this.characterChanges = characterChanges;
+    }
+
+    /**
+     * @return The number of runs of differing characters found within this difference, 
+     * or 0 if it hasn't been refined.
+     */
+    public int getCharacterChangeCount()
+    {
+        return (characterChanges == null) ? 0 : characterChanges.length / 4;
+    }
+
+    /**
+     * @return The offset in the document of a run of differing characters.
+     */
+    public int getCharacterChangeOffset(int index, int offsetType)
+    {
+        return getOffset(offsetType) + characterChanges[index*4 + offsetType*2];
+    }
+
+    public int getCharacterChangeLength(int index, int offsetType)
+    {
+        return characterChanges[index*4 + offsetType*2 + 1];
+    }
+
     public OffsetRange getBaseRange()
     {
         return this.baseRange;
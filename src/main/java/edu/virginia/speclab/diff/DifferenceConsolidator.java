@@ -31,6 +31,7 @@ import java.util.Iterator;
 public class DifferenceConsolidator 
 {
 	private DocumentModel baseDoc, witnessDoc; 
+	private TokenizerSettings tokenizerSettings;
 
 
 	
@@ -38,13 +39,15 @@ public class DifferenceConsolidator
 	{
 		this.baseDoc = baseDocument;
 		this.witnessDoc = witnessDocument;
+		
+		// the base document's token table may be released before consolidation is done
+		if(baseDoc!=null)
+			this.tokenizerSettings = baseDoc.getTokenizerSettings();
 	}
 
 	public TokenizerSettings getTokenizerSettings()
 	{
-		if(baseDoc==null)
-			return null;
-		return baseDoc.getTokenizerSettings();
+		return tokenizerSettings;
 	}
 	
 	/**
@@ -56,7 +59,7 @@ public class DifferenceConsolidator
 	 * @return
 	 * Returns true only if connector is made up entirely of ignorable characters.
 	 */
-	private boolean shouldBeIgnored(String connector)
+	private boolean shouldBeIgnored(CharSequence connector)
 	{
 		for(int j = 0 ; j < connector.length(); j++)
 		{
@@ -110,16 +113,16 @@ public class DifferenceConsolidator
 				- endOfWitnessDifference;
 				
 				
-				String baseDifferenceSpace = "";
-				String witnessDifferenceSpace = "";
+				CharSequence baseDifferenceSpace = "";
+				CharSequence witnessDifferenceSpace = "";
 				
 				if(baseDoc!=null)
 				{
-					baseDifferenceSpace = baseDoc.getDocumentText()
-					.substring(endOfBaseDifference,
+					baseDifferenceSpace = baseDoc.getActiveText()
+					.subSequence(endOfBaseDifference,
 							nextDifference.getOffset(Difference.BASE));
-					witnessDifferenceSpace = witnessDoc.getDocumentText()
-					.substring(endOfWitnessDifference,
+					witnessDifferenceSpace = witnessDoc.getActiveText()
+					.subSequence(endOfWitnessDifference,
 							nextDifference.getOffset(Difference.WITNESS));
 				}
 				
@@ -260,8 +263,8 @@ public class DifferenceConsolidator
 					- endOfWitnessDifference;
 					
 					
-					String baseDifferenceSpace = "";
-					String witnessDifferenceSpace = "";
+					CharSequence baseDifferenceSpace = "";
+					CharSequence witnessDifferenceSpace = "";
 					
 					if(baseDoc!=null)
 					{
@@ -270,27 +273,27 @@ public class DifferenceConsolidator
 						//indices to get the substring to test for ignorable characters.
 						if(endOfBaseDifference<=nextDifference.getOffset(Difference.BASE))
 						{
-							baseDifferenceSpace = baseDoc.getDocumentText()
-							.substring(endOfBaseDifference,
+							baseDifferenceSpace = baseDoc.getActiveText()
+							.subSequence(endOfBaseDifference,
 									nextDifference.getOffset(Difference.BASE));
 						}
 						else
 						{
-							baseDifferenceSpace = baseDoc.getDocumentText()
-							.substring(nextDifference.getOffset(Difference.BASE),
+							baseDifferenceSpace = baseDoc.getActiveText()
+							.subSequence(nextDifference.getOffset(Difference.BASE),
 									endOfBaseDifference);
 						}
 						
 						if(endOfWitnessDifference<=nextDifference.getOffset(Difference.WITNESS))
 						{
-							witnessDifferenceSpace = witnessDoc.getDocumentText()
-							.substring(endOfWitnessDifference,
+							witnessDifferenceSpace = witnessDoc.getActiveText()
+							.subSequence(endOfWitnessDifference,
 									nextDifference.getOffset(Difference.WITNESS));
 						}
 						else
 						{
-							witnessDifferenceSpace = witnessDoc.getDocumentText()
-							.substring(nextDifference.getOffset(Difference.WITNESS),
+							witnessDifferenceSpace = witnessDoc.getActiveText()
+							.subSequence(nextDifference.getOffset(Difference.WITNESS),
 									endOfWitnessDifference);
 						}
 					}
@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff;
+
+import java.util.Iterator;
+
+import edu.virginia.speclab.diff.document.DocumentModel;
+
+/**
+ * Finds the characters that differ within short CHANGE differences, such as spelling
+ * variants of a word, and records them on the <code>Difference</code>. The two sides
+ * are aligned on their longest common subsequence of characters, computed a column at a
+ * time on the bits of a <code>long</code>, which is why only differences of up to
+ * <code>MAX_REFINED_LENGTH</code> characters a side are refined.
+ */
+public class DifferenceRefiner
+{
+    public static final int MAX_REFINED_LENGTH = CharacterMasks.MAX_LENGTH;
+
+    private DocumentModel baseDocument, witnessDocument;
+
+    public DifferenceRefiner( DocumentModel baseDocument, DocumentModel witnessDocument )
+    {
+        this.baseDocument = baseDocument;
+        this.witnessDocument = witnessDocument;
+    }
+
+    public void refineDifferences( DifferenceSet differenceSet )
+    {
+        for( Iterator i = differenceSet.getDifferenceList().iterator(); i.hasNext(); )
+        {
+            refineDifference((Difference) i.next());
+        }
+    }
+
+    /**
+     * Records the runs of characters that differ within the difference, if it is a CHANGE
+     * that is short enough and the two sides have any characters in common.
+     */
+    public void refineDifference( Difference difference )
+    {
+        if( difference.getType() != Difference.CHANGE ) return;
+
+        int baseLength = difference.getLength(Difference.BASE);
+        int witnessLength = difference.getLength(Difference.WITNESS);
+        if( baseLength == 0 || witnessLength == 0 ||
+            baseLength > MAX_REFINED_LENGTH || witnessLength > MAX_REFINED_LENGTH )
+        {
+            return;
+        }
+
+        // the sides are aligned back to front, so that the trace back through the table 
+        // runs front to back, matching characters as early as it can
+        String baseText = reverse(baseDocument.getActiveText(), difference.getOffset(Difference.BASE), baseLength);
+        String witnessText = reverse(witnessDocument.getActiveText(), difference.getOffset(Difference.WITNESS), witnessLength);
+
+        // rows[j] holds the column differences of the LCS table after j witness characters:
+        // a bit is clear where the LCS of the base prefix grows by one
+        CharacterMasks masks = new CharacterMasks(baseText, 0, baseLength);
+        long[] rows = new long[witnessLength + 1];
+        rows[0] = -1L;
+        for( int j = 1; j <= witnessLength; j++ )
+        {
+            long v = rows[j - 1];
+            long u = v & masks.get(witnessText.charAt(j - 1));
+            rows[j] = (v + u) | (v - u);
+        }
+
+        // nothing in common, the whole difference is the change
+        if( lcsLength(rows, witnessLength, baseLength) == 0 ) return;
+
+        // trace the alignment back, recording the runs between matches; the reversed
+        // position i is followed by the character at baseLength - i in the difference
+        int[] runs = new int[4 * (Math.min(baseLength, witnessLength) + 1)];
+        int runCount = 0;
+        int i = baseLength, j = witnessLength;
+        int runBaseStart = 0, runWitnessStart = 0;
+        while( i > 0 || j > 0 )
+        {
+            if( i > 0 && j > 0
+                && baseText.charAt(i - 1) == witnessText.charAt(j - 1)
+                && lcsLength(rows, j, i) == lcsLength(rows, j - 1, i - 1) + 1 )
+            {
+                runCount = addRun(runs, runCount, runBaseStart, baseLength - i, runWitnessStart, witnessLength - j);
+                i--;
+                j--;
+                runBaseStart = baseLength - i;
+                runWitnessStart = witnessLength - j;
+            }
+            else if( j > 0 && lcsLength(rows, j - 1, i) == lcsLength(rows, j, i) )
+            {
+                j--;
+            }
+            else
+            {
+                i--;
+            }
+        }
+        runCount = addRun(runs, runCount, runBaseStart, baseLength, runWitnessStart, witnessLength);
+
+        int[] characterChanges = new int[runCount * 4];
+        System.arraycopy(runs, 0, characterChanges, 0, characterChanges.length);
+        difference.setCharacterChanges(characterChanges);
+    }
+
+    private static String reverse( CharSequence text, int offset, int length )
+    {
+        char[] reversed = new char[length];
+        for( int i = 0; i < length; i++ )
+        {
+            reversed[i] = text.charAt(offset + length - 1 - i);
+        }
+        return new String(reversed);
+    }
+
+    // the length of the LCS of the first i base characters and first j witness characters
+    private static int lcsLength( long[] rows, int j, int i )
+    {
+        long prefix = (i == 64) ? -1L : (1L << i) - 1;
+        return Long.bitCount(~rows[j] & prefix);
+    }
+
+    private static int addRun( int[] runs, int runCount, int baseStart, int baseEnd, int witnessStart, int witnessEnd )
+    {
+        if( baseStart == baseEnd && witnessStart == witnessEnd ) return runCount;
+
+        int index = runCount * 4;
+        runs[index] = baseStart;
+        runs[index + 1] = baseEnd - baseStart;
+        runs[index + 2] = witnessStart;
+        runs[index + 3] = witnessEnd - witnessStart;
+        return runCount + 1;
+    }
+}
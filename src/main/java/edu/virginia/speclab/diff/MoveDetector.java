@@ -0,0 +1,332 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.virginia.speclab.diff.document.DocumentModel;
+
+/**
+ * Finds passages that were deleted from one place in the base text and inserted at
+ * another in the witness, so that they can be proposed to the user as moves. Each DELETE
+ * and INSERT of at least <code>MIN_WORDS</code> words is fingerprinted by the MinHash
+ * signature of its overlapping runs of <code>SHINGLE_WORDS</code> words. Blocks whose
+ * signatures agree on a whole band are compared exactly, so the cost grows with the
+ * length of the blocks rather than the number of pairs of them.
+ */
+public class MoveDetector
+{
+    public static final int MIN_WORDS = 8;
+    public static final float DEFAULT_THRESHOLD = 0.5f;
+
+    private static final int SHINGLE_WORDS = 3;
+    private static final int BANDS = 16;
+    private static final int ROWS = 3;
+    private static final int SIGNATURE_SIZE = BANDS * ROWS;
+    private static final long SHINGLE_BASE = 0x100000001B3L;
+
+    private static final long[] SEEDS = new long[SIGNATURE_SIZE];
+    static
+    {
+        long seed = 0x2545F4914F6CDD1DL;
+        for( int i = 0; i < SIGNATURE_SIZE; i++ )
+        {
+            seed = mix(seed + i);
+            SEEDS[i] = seed;
+        }
+    }
+
+    private DocumentModel baseDocument, witnessDocument;
+    private float threshold;
+
+    public MoveDetector( DocumentModel baseDocument, DocumentModel witnessDocument )
+    {
+        this(baseDocument, witnessDocument, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold The fraction of their shingles that a deleted and an inserted block
+     * must share to be proposed as a move.
+     */
+    public MoveDetector( DocumentModel baseDocument, DocumentModel witnessDocument, float threshold )
+    {
+        this.baseDocument = baseDocument;
+        this.witnessDocument = witnessDocument;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Pairs up the deleted and inserted blocks in the list that are most alike. Each block
+     * is part of at most one move.
+     * @param differences A list of <code>Difference</code> objects between the base and
+     * witness documents, in their active offsets.
+     * @return A list of <code>Difference</code> objects of type <code>MOVE</code>, spanning
+     * the deleted block in the base text and the inserted block in the witness.
+     */
+    public List findMoves( List differences )
+    {
+        List deletes = new ArrayList();
+        List inserts = new ArrayList();
+        for( Iterator i = differences.iterator(); i.hasNext(); )
+        {
+            Difference difference = (Difference) i.next();
+            if( difference.getType() == Difference.DELETE )
+            {
+                addBlock(deletes, difference, baseDocument.getActiveText(), Difference.BASE);
+            }
+            else if( difference.getType() == Difference.INSERT )
+            {
+                addBlock(inserts, difference, witnessDocument.getActiveText(), Difference.WITNESS);
+            }
+        }
+
+        List moves = new ArrayList();
+        if( deletes.isEmpty() || inserts.isEmpty() ) return moves;
+
+        // the deleted blocks by each band of their signatures
+        HashMap buckets = new HashMap();
+        for( int d = 0; d < deletes.size(); d++ )
+        {
+            Block delete = (Block) deletes.get(d);
+            for( int band = 0; band < BANDS; band++ )
+            {
+                Long key = new Long(delete.bandKey(band));
+                List bucket = (List) buckets.get(key);
+                if( bucket == null )
+                {
+                    bucket = new ArrayList(1);
+                    buckets.put(key, bucket);
+                }
+                bucket.add(new Integer(d));
+            }
+        }
+
+        // compare each inserted block with the deleted blocks that share a band with it
+        List candidates = new ArrayList();
+        int[] lastCompared = new int[deletes.size()];
+        Arrays.fill(lastCompared, -1);
+        for( int n = 0; n < inserts.size(); n++ )
+        {
+            Block insert = (Block) inserts.get(n);
+            for( int band = 0; band < BANDS; band++ )
+            {
+                List bucket = (List) buckets.get(new Long(insert.bandKey(band)));
+                if( bucket == null ) continue;
+
+                for( Iterator i = bucket.iterator(); i.hasNext(); )
+                {
+                    int d = ((Integer) i.next()).intValue();
+                    if( lastCompared[d] == n ) continue;
+                    lastCompared[d] = n;
+
+                    Block delete = (Block) deletes.get(d);
+                    float similarity = delete.similarity(insert);
+                    if( similarity >= threshold )
+                    {
+                        candidates.add(new Candidate(delete, insert, similarity));
+                    }
+                }
+            }
+        }
+
+        // take the closest pairs first
+        Collections.sort(candidates, new Comparator()
+        {
+            public int compare( Object o1, Object o2 )
+            {
+                Candidate c1 = (Candidate) o1;
+                Candidate c2 = (Candidate) o2;
+                if( c1.similarity != c2.similarity ) return (c1.similarity > c2.similarity) ? -1 : 1;
+                return c2.size() - c1.size();
+            }
+        });
+
+        for( Iterator i = candidates.iterator(); i.hasNext(); )
+        {
+            Candidate candidate = (Candidate) i.next();
+            if( candidate.delete.paired || candidate.insert.paired ) continue;
+            candidate.delete.paired = true;
+            candidate.insert.paired = true;
+
+            Difference move = new Difference(baseDocument, witnessDocument, Difference.MOVE);
+            move.setBaseOffset(candidate.delete.offset);
+            move.setBaseTextLength(candidate.delete.length);
+            move.setWitnessOffset(candidate.insert.offset);
+            move.setWitnessTextLength(candidate.insert.length);
+            moves.add(move);
+        }
+
+        return moves;
+    }
+
+    private static void addBlock( List blocks, Difference difference, CharSequence text, int side )
+    {
+        int offset = difference.getOffset(side);
+        int length = difference.getLength(side);
+        long[] shingles = shingle(text, offset, length);
+        if( shingles != null )
+        {
+            blocks.add(new Block(offset, length, shingles));
+        }
+    }
+
+    /**
+     * The distinct hashes of each run of <code>SHINGLE_WORDS</code> words in the text,
+     * ignoring case and punctuation, in ascending order. The hash of each run is rolled
+     * on from the one before.
+     * @return The shingles, or null if the text has fewer than <code>MIN_WORDS</code> words.
+     */
+    static long[] shingle( CharSequence text, int offset, int length )
+    {
+        long[] words = new long[length / 2 + 1];
+        int wordCount = 0;
+        long hash = 0;
+        boolean inWord = false;
+        for( int i = offset; i < offset + length; i++ )
+        {
+            char c = text.charAt(i);
+            if( Character.isLetterOrDigit(c) )
+            {
+                hash = hash * 31 + Character.toLowerCase(c);
+                inWord = true;
+            }
+            else if( inWord )
+            {
+                words[wordCount++] = mix(hash);
+                hash = 0;
+                inWord = false;
+            }
+        }
+        if( inWord ) words[wordCount++] = mix(hash);
+
+        if( wordCount < MIN_WORDS ) return null;
+
+        // the weight of the word leaving the window
+        long leaving = 1;
+        for( int i = 1; i < SHINGLE_WORDS; i++ ) leaving *= SHINGLE_BASE;
+
+        long[] shingles = new long[wordCount - SHINGLE_WORDS + 1];
+        long rolling = 0;
+        for( int i = 0; i < wordCount; i++ )
+        {
+            if( i >= SHINGLE_WORDS ) rolling -= words[i - SHINGLE_WORDS] * leaving;
+            rolling = rolling * SHINGLE_BASE + words[i];
+            if( i >= SHINGLE_WORDS - 1 ) shingles[i - SHINGLE_WORDS + 1] = rolling;
+        }
+
+        Arrays.sort(shingles);
+        int distinct = 0;
+        for( int i = 0; i < shingles.length; i++ )
+        {
+            if( i == 0 || shingles[i] != shingles[distinct - 1] ) shingles[distinct++] = shingles[i];
+        }
+
+        long[] result = new long[distinct];
+        System.arraycopy(shingles, 0, result, 0, distinct);
+        return result;
+    }
+
+    // the finalizer of splitmix64, which spreads the bits of the value over the whole word
+    private static long mix( long value )
+    {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    // a deleted or inserted block of text, with its shingles and their MinHash signature
+    private static class Block
+    {
+        private int offset, length;
+        private long[] shingles;
+        private long[] signature;
+        private boolean paired;
+
+        public Block( int offset, int length, long[] shingles )
+        {
+            this.offset = offset;
+            this.length = length;
+            this.shingles = shingles;
+
+            signature = new long[SIGNATURE_SIZE];
+            Arrays.fill(signature, Long.MAX_VALUE);
+            for( int i = 0; i < shingles.length; i++ )
+            {
+                for( int j = 0; j < SIGNATURE_SIZE; j++ )
+                {
+                    long value = mix(shingles[i] ^ SEEDS[j]);
+                    if( value < signature[j] ) signature[j] = value;
+                }
+            }
+        }
+
+        public long bandKey( int band )
+        {
+            long key = band;
+            for( int j = band * ROWS; j < (band + 1) * ROWS; j++ )
+            {
+                key = mix(key ^ signature[j]);
+            }
+            return key;
+        }
+
+        // the Jaccard similarity of the two sets of shingles
+        public float similarity( Block other )
+        {
+            int shared = 0;
+            int i = 0, j = 0;
+            while( i < shingles.length && j < other.shingles.length )
+            {
+                if( shingles[i] == other.shingles[j] )
+                {
+                    shared++;
+                    i++;
+                    j++;
+                }
+                else if( shingles[i] < other.shingles[j] ) i++;
+                else j++;
+            }
+            return (float) shared / (shingles.length + other.shingles.length - shared);
+        }
+    }
+
+    private static class Candidate
+    {
+        private Block delete, insert;
+        private float similarity;
+
+        public Candidate( Block delete, Block insert, float similarity )
+        {
+            this.delete = delete;
+            this.insert = insert;
+            this.similarity = similarity;
+        }
+
+        public int size()
+        {
+            return delete.length + insert.length;
+        }
+    }
+}
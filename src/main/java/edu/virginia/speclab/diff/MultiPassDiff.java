@@ -19,8 +19,11 @@
 package edu.virginia.speclab.diff;
 
 import java.util.Iterator;
+import java.util.List;
 
 import edu.virginia.speclab.diff.document.DocumentModel;
+import edu.virginia.speclab.diff.token.Token;
+import edu.virginia.speclab.diff.token.TokenizerSettings;
 
 /**
  * Houses the Multi-pass diff procedure.
@@ -29,11 +32,16 @@ import edu.virginia.speclab.diff.document.DocumentModel;
  */
 public class MultiPassDiff 
 {
-	private static final int MAX_DIFF_PASSES = 10;
+	public static final int MAX_DIFF_PASSES = 10;
 	private DiffAlgorithm diff;
+	private DifferenceConsolidator differenceConsolidator;
 	private DifferenceSet differenceSet;
+	private DocumentModel baseDocument, witnessDocument;
+	private TokenizerSettings tokenizerSettings;
 	
 	private int previousLargestChangeBlock;
+	private int passCount;
+	private boolean cancelled, finished;
 	
 	public DifferenceSet getDifferenceSet() { return differenceSet; }
 	
@@ -46,26 +54,74 @@ public class MultiPassDiff
      */
 	public MultiPassDiff( DocumentModel baseDocument, DocumentModel witnessDocument )
 	{
+		this(baseDocument, witnessDocument, false);
+	}
+	
+    /**
+     * Performs a multi-pass diff as above, then optionally finds the characters that differ
+     * within the short change blocks that are left.
+     * @see DifferenceRefiner
+     */
+	public MultiPassDiff( DocumentModel baseDocument, DocumentModel witnessDocument, boolean refineCharacters )
+	{
+		this(baseDocument, witnessDocument, MAX_DIFF_PASSES, refineCharacters, null);
+	}
+	
+    /**
+     * Performs a multi-pass diff making at most <code>maxPasses</code> passes over the change 
+     * blocks. With no passes, the difference set is that of the first, normal diff, which 
+     * can be refined later by calling <code>makeAdditionalPasses()</code>. 
+     * @param cancellation Checked between passes and change blocks, may be null.
+     */
+	public MultiPassDiff( DocumentModel baseDocument, DocumentModel witnessDocument, int maxPasses, 
+			boolean refineCharacters, CancellationToken cancellation )
+	{
+		this.baseDocument = baseDocument;
+		this.witnessDocument = witnessDocument;
+		
+		// reprints are often identical to the base, in which case there is nothing to diff
+		if( isIdentical(baseDocument, witnessDocument) )
+		{
+			differenceSet = new DifferenceSet();
+			differenceSet.setBaseDocument(baseDocument);
+			differenceSet.setWitnessDocument(witnessDocument);
+			return;
+		}
+		
+		// kept so that later passes don't depend on the documents' token tables
+		tokenizerSettings = baseDocument.getTokenizerSettings();
+		
 		diff = new DiffAlgorithm();	
-		DifferenceSet diffSet = diff.diffDocuments(baseDocument,witnessDocument);
-		DifferenceConsolidator differenceConsolidator = new DifferenceConsolidator(baseDocument,witnessDocument);
-		differenceConsolidator.consolidateDifferences(diffSet);
+		differenceSet = diff.diffDocuments(baseDocument,witnessDocument);
+		differenceConsolidator = new DifferenceConsolidator(baseDocument,witnessDocument);
+		differenceConsolidator.consolidateDifferences(differenceSet);
         
-		/**
-		 * Keeps doing a diff on the change blocks as long as a large change
-		 * block is getting broken down, and the max number of passes haven't
-		 * been made.
-		 */
 		previousLargestChangeBlock = Integer.MAX_VALUE;
-		int iterationCount = 0;
-		while(iterationCount < MAX_DIFF_PASSES
+		passCount = 0;
+		makeAdditionalPasses(maxPasses, refineCharacters, cancellation);
+	}
+
+	/**
+	 * Keeps doing a diff on the change blocks as long as a large change
+	 * block is getting broken down, and the max number of passes haven't
+	 * been made. Picks up from the passes already made. 
+	 * @param cancellation Checked between passes and change blocks, may be null.
+	 */
+	public void makeAdditionalPasses( int maxPasses, boolean refineCharacters, CancellationToken cancellation )
+	{
+		// identical documents have no differences to refine, and the passes are only finished once
+		if( differenceConsolidator == null || finished ) return;
+		
+		DifferenceSet diffSet = differenceSet;
+		while(passCount < maxPasses
+			&& !isCancelled(cancellation)
 			&& diffSet.getLargestChangeBlock() < previousLargestChangeBlock)
 		{
-			iterationCount++;
-//			System.out.println("Iteration number: " + iterationCount);
+			passCount++;
+//			System.out.println("Iteration number: " + passCount);
 //			System.out.println("Largest Change Block: " + diffSet.getLargestChangeBlock());
 //			System.out.println("Previous Largest Change Block: " + previousLargestChangeBlock);
-			differenceSet = makeAdditionalPass(diffSet,baseDocument,witnessDocument);
+			differenceSet = makeAdditionalPass(diffSet,baseDocument,witnessDocument,cancellation);
 			differenceConsolidator.consolidateDifferences(differenceSet);
 			differenceConsolidator.consolidateInsertDelete(differenceSet);
 			// if we are going to look at these differences later, 
@@ -75,11 +131,70 @@ public class MultiPassDiff
 			
 			diffSet=differenceSet;				
 		}
+		
+		if( isCancelled(cancellation) )
+		{
+			cancelled = true;
+			return;
+		}
+		
+		// the first diff is left as it is until passes are made over it
+		if( passCount == 0 ) return;
+		
 		differenceConsolidator.consolidateDifferences(differenceSet);
 		differenceConsolidator.consolidateInsertDelete(differenceSet);
+		finished = true;
+		
+		if( refineCharacters )
+		{
+			new DifferenceRefiner(baseDocument,witnessDocument).refineDifferences(differenceSet);
+		}
+	}
+	
+	private static boolean isCancelled( CancellationToken cancellation )
+	{
+		return cancellation != null && cancellation.isCancelled();
+	}
+	
+	/**
+	 * @return <code>true</code> if the diff was cancelled before all its passes were made.
+	 */
+	public boolean isCancelled()
+	{
+		return cancelled;
 	}
 
-	private DifferenceSet makeAdditionalPass(DifferenceSet originalDifferenceSet,DocumentModel baseDocument,DocumentModel witnessDocument) 
+	/**
+	 * Two documents are identical if their active texts are the same and each pair of tokens 
+	 * has the same content, which they might not if the texts are marked up differently.  
+	 * The hashes of the texts are kept, so most differing documents are told apart at once. 
+	 */
+	private static boolean isIdentical( DocumentModel baseDocument, DocumentModel witnessDocument )
+	{
+		if( baseDocument.getActiveText().equals(witnessDocument.getActiveText()) == false )
+		{
+			return false;
+		}
+		
+		List<Token> baseTokens = baseDocument.getTokenList();
+		List<Token> witnessTokens = witnessDocument.getTokenList();
+		if( baseTokens == null || witnessTokens == null || baseTokens.size() != witnessTokens.size() )
+		{
+			return false;
+		}
+		
+		for( int i = 0; i < baseTokens.size(); i++ )
+		{
+			if( baseTokens.get(i).hasSameContent(witnessTokens.get(i)) == false )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private DifferenceSet makeAdditionalPass(DifferenceSet originalDifferenceSet,DocumentModel baseDocument,DocumentModel witnessDocument,
+			CancellationToken cancellation) 
 	{	
 		DifferenceSet refinedDifferenceSet = new DifferenceSet();
 		refinedDifferenceSet.setBaseDocument(baseDocument);
@@ -91,15 +206,16 @@ public class MultiPassDiff
 			Difference difference = (Difference) i.next();
 			DiffAlgorithm subdiff = new DiffAlgorithm();
 			
-			if( difference.getType() == Difference.CHANGE )
+			// once cancelled, the rest of the change blocks are passed through as they are
+			if( difference.getType() == Difference.CHANGE && !isCancelled(cancellation) )
 			{
                 // SubdocumentModel represents a substring of an original DocumentModel with its xml source metadata (if it exists)
                 DocumentModel subBaseText = new DocumentModel(baseDocument, difference.getOffset(Difference.BASE), difference.getOffset(Difference.BASE) + difference.getLength(Difference.BASE));
                 DocumentModel subWitnessText = new DocumentModel(witnessDocument, difference.getOffset(Difference.WITNESS), difference.getOffset(Difference.WITNESS) + difference.getLength(Difference.WITNESS));
 
 				// perform a diff on the text with the change blocks
-                subBaseText.tokenize(baseDocument.getTokenizerSettings());
-                subWitnessText.tokenize(witnessDocument.getTokenizerSettings());
+                subBaseText.tokenize(tokenizerSettings);
+                subWitnessText.tokenize(tokenizerSettings);
 				DifferenceSet subDifferences = subdiff.diffDocuments(subBaseText,subWitnessText);
 				
 				// add the resulting differences to the new difference set.
@@ -140,17 +256,37 @@ public class MultiPassDiff
 		}
 	}
 
+	/**
+	 * @return The number of passes made over the change blocks after the first diff.
+	 */
+	public int getPassCount()
+	{
+		return passCount;
+	}
+
 	// Given the offset in one document, this finds the offset of that character in the other document.
 	// If there is a perfect match, then it is easy to know what to return.
 	// If it doesn't appear in the other document, then return it's insert point.
 	// If it is part of a change, return -1.
 	public int getBaseOffset(int witnessOffset, boolean getEnd)
 	{
-		return diff.getCorrespondingBaseOffset(witnessOffset, getEnd);
+		return getDiff().getCorrespondingBaseOffset(witnessOffset, getEnd);
 	}
 
 	public int getWitnessOffset(int baseOffset, boolean getEnd)
 	{
-		return diff.getCorrespondingWitnessOffset(baseOffset, getEnd);
+		return getDiff().getCorrespondingWitnessOffset(baseOffset, getEnd);
+	}
+	
+	// Identical documents are only correlated if offsets are looked up between them.
+	private DiffAlgorithm getDiff()
+	{
+		if( diff == null )
+		{
+			diff = new DiffAlgorithm();
+			diff.diffDocuments(baseDocument, witnessDocument);
+			diff.updateDifferenceSet(differenceSet);
+		}
+		return diff;
 	}
 }
@@ -31,6 +31,9 @@ class Symbol
     private int symbolBaseIndex;
     private int linestate;
     private Token token;
+    
+    // another symbol whose token has the same hash, in the unlikely case there is one
+    private Symbol nextWithSameHash;
 
     /**
      * Construct a new symbol table node and fill in its fields.
@@ -80,6 +83,32 @@ class Symbol
         return token.getToken();
     }
     
+    /**
+     * @return <code>true</code> if the token is the same symbol as this one.
+     */
+    public boolean matches(Token other)
+    {
+        return token.hasSameContent(other);
+    }
+    
+    /**
+     * @return The hash of the symbol's token content.
+     */
+    public long getHash()
+    {
+        return token.getContentHash();
+    }
+
+    public Symbol getNextWithSameHash()
+    {
+        return nextWithSameHash;
+    }
+    
+    public void setNextWithSameHash(Symbol symbol)
+    {
+        this.nextWithSameHash = symbol;
+    }
+    
     public int getSymbolLength()
     {
         return token.getToken().length();
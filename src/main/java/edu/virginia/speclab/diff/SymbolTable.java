@@ -23,8 +23,7 @@
 package edu.virginia.speclab.diff;
 
 import java.io.IOException;
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
 
 import edu.virginia.speclab.diff.document.DocumentModel;
@@ -42,9 +41,10 @@ class SymbolTable
 {        
     private DocumentModel baseDocument, witnessDocument;
     private int numberOfSymbols;
+    private int prefixLength, suffixLength;
     
     private FileInfo oldinfo,newinfo;
-    private Hashtable symbolTable;
+    private HashMap<Long,Symbol> symbolTable;
     
     private static final int freshnode = 0, oldonce = 1, newonce = 2,
     bothonce = 3, other = 4;
@@ -54,12 +54,16 @@ class SymbolTable
         this.baseDocument = oldFile;
         this.witnessDocument = newFile;
         
-        symbolTable = new Hashtable();
+        symbolTable = new HashMap<Long,Symbol>();
+        
+        List<Token> oldTokens = oldFile.getTokenList();
+        List<Token> newTokens = newFile.getTokenList();
+        trimCommonSymbols(oldTokens, newTokens);
         
         try
         {
-            oldinfo = inputScan( oldFile, true );
-            newinfo = inputScan( newFile, false );
+            oldinfo = inputScan( oldTokens, true );
+            newinfo = inputScan( newTokens, false );
         } 
         catch (IOException e)
         {
@@ -101,18 +105,54 @@ class SymbolTable
         return symbol;
     }
     
-    private FileInfo inputScan( DocumentModel document, boolean oldFile ) throws IOException
+    /**
+     * Measures the runs of symbols that both documents start and end with. Most witnesses
+     * differ from the base in only a few places, so these runs usually cover most of the
+     * text. They are matched to each other position by position and left out of the
+     * search for unique symbols, which then only has to consider the part in between.
+     */
+    private void trimCommonSymbols( List<Token> oldTokens, List<Token> newTokens )
+    {
+        int oldCount = oldTokens.size();
+        int newCount = newTokens.size();
+        int length = Math.min(oldCount, newCount);
+        
+        while( prefixLength < length 
+               && oldTokens.get(prefixLength).hasSameContent(newTokens.get(prefixLength)) )
+        {
+            prefixLength++;
+        }
+        
+        while( suffixLength < length - prefixLength 
+               && oldTokens.get(oldCount - 1 - suffixLength).hasSameContent(newTokens.get(newCount - 1 - suffixLength)) )
+        {
+            suffixLength++;
+        }
+    }
+    
+    private FileInfo inputScan( List<Token> tokenList, boolean oldFile ) throws IOException
     {
         FileInfo fileInfo = new FileInfo();
-                
-        List tokenList = document.getTokenList();
         
-        for( Iterator i = tokenList.iterator(); i.hasNext(); )
+        int middleEnd = tokenList.size() - suffixLength;
+        int i = 0;
+        for( Token token : tokenList )
         {
-            Token token = (Token) i.next();            
             int symbolIndex = fileInfo.getSymbolCount()+1;            
-            Symbol node = addSymbol(token, oldFile, symbolIndex );
+            Symbol node;
+            
+            // symbols in the common prefix and suffix are matched by position, so they 
+            // don't count towards a symbol being unique
+            if( i < prefixLength || i >= middleEnd )
+            {
+                node = matchSymbol(token);
+            }
+            else
+            {
+                node = addSymbol(token, oldFile, symbolIndex );
+            }
             fileInfo.addSymbol(node, token.getOffset() );
+            i++;
         }        
         
         return fileInfo;
@@ -127,13 +167,21 @@ class SymbolTable
      */
     private Symbol matchSymbol(Token token)
     {
-        Integer hashcode = new Integer(token.hashCode());
-        Symbol symbol = (Symbol) symbolTable.get(hashcode);
+        // symbols are found by the token's hash, then checked against its content
+        Long key = Long.valueOf(token.getContentHash());
+        Symbol first = symbolTable.get(key);
+        
+        Symbol symbol = first;
+        while( symbol != null && !symbol.matches(token) )
+        {
+            symbol = symbol.getNextWithSameHash();
+        }
         
         if( symbol == null )
         {
             symbol = createSymbol(token);
-            symbolTable.put(hashcode,symbol);
+            symbol.setNextWithSameHash(first);
+            symbolTable.put(key,symbol);
         }
         
         return symbol;
@@ -158,6 +206,22 @@ class SymbolTable
         return numberOfSymbols;
     }
     
+    /**
+     * @return The number of symbols both documents start with.
+     */
+    public int getPrefixLength()
+    {
+        return prefixLength;
+    }
+    
+    /**
+     * @return The number of symbols both documents end with, not counting the prefix.
+     */
+    public int getSuffixLength()
+    {
+        return suffixLength;
+    }
+    
     /**
      * @return Returns the oldinfo.
      */
@@ -52,6 +52,9 @@ public class Collation implements Serializable
     private HashSet characterCounts;
     
     private int minChangeDistance;
+    
+    // a first pass collation, shown while the full one is worked out
+    private transient boolean provisional;
         
     public Collation() 
     {
@@ -341,7 +344,7 @@ public class Collation implements Serializable
         if( baseDocument != null )
         {
             this.baseDocumentID = baseDocument.getID();            
-            histogramData = new byte[baseDocument.getDocumentText().length()+1];
+            histogramData = new byte[baseDocument.getDocumentLength()+1];
         }
     }
   
@@ -468,6 +471,20 @@ public class Collation implements Serializable
         return baseDocumentID;
     }
 
+    /**
+     * @return <code>true</code> if this is a quick first pass collation which has not 
+     * been refined or cached yet.
+     */
+    public boolean isProvisional()
+    {
+        return provisional;
+    }
+
+    public void setProvisional(boolean provisional)
+    {
+        this.provisional = provisional;
+    }
+
     public int getMinChangeDistance()
     {
         return minChangeDistance;
@@ -20,9 +20,11 @@ package edu.virginia.speclab.diff.collation;
 
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 
 import edu.virginia.speclab.diff.Difference;
+import edu.virginia.speclab.util.IntPair;
 import edu.virginia.speclab.util.SimpleLogger;
 
 /**
@@ -138,6 +140,58 @@ public class DifferenceMap
         else return differenceSet;
     }
 
+    /**
+     * Reports each difference present in the map once, in the order in which it 
+     * is first encountered walking forward through the document.
+     * @return A <code>List</code> of <code>Difference</code> objects, empty if there are none.
+     */
+    public List getDifferenceList()
+    {
+        LinkedList differenceList = new LinkedList();
+        if( isEmpty() ) return differenceList;
+        
+        HashSet differenceSet = new HashSet();
+        for( int offset = 0; offset < differenceMap.length; offset++ )
+        {
+            Difference difference = differenceMap[offset];
+            
+            if( difference != null && differenceSet.add(difference) )
+            {
+                differenceList.add(difference);
+            }
+        }
+        
+        return differenceList;
+    }
+
+    /**
+     * Run length encodes the offsets at which <code>differencePresent()</code> is true.
+     * @return A <code>List</code> of <code>IntPair</code> objects holding the start and end
+     * offset of each run, in document order.
+     */
+    public List getDifferenceRuns()
+    {
+        LinkedList runList = new LinkedList();
+        if( isEmpty() ) return runList;
+        
+        int start = -1;
+        for( int offset = 0; offset <= differenceMap.length; offset++ )
+        {
+            if( differencePresent(offset) )
+            {
+                // start a new run if we aren't in the midst of one
+                if( start == -1 ) start = offset;
+            }
+            else if( start != -1 )
+            {
+                runList.add( new IntPair(start,offset) );
+                start = -1;
+            }
+        }
+        
+        return runList;
+    }
+
     public int getLength()
     {
         if( differenceMap == null ) return 0;
@@ -23,7 +23,6 @@
 package edu.virginia.speclab.diff.document;
 
 import edu.virginia.speclab.diff.OffsetRange;
-import edu.virginia.speclab.diff.token.JuxtaXMLNode;
 import edu.virginia.speclab.diff.token.Token;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -54,6 +53,9 @@ public class DocumentModel
     protected OffsetRange activeTextRange;
     protected SourceDocumentModel sourceDocument;
 
+    // a view of the active text, replaced when the text or the active range change
+    private DocumentText activeText;
+
 
 	public DocumentModel( DocumentModel document )
 	{
@@ -186,43 +188,16 @@ public class DocumentModel
     {
         tokenTable = new TokenTable( this, settings );
         // We need to see which JuxtaXMLNodes cover each token, 
-        // and figure out what tags are notable up the tree, add all of these
-        // to the token's notable tag set
-        Iterator<Token> tokenIter = tokenTable.getTokenList().iterator();
-        JuxtaXMLNode root = this.getSourceDocument().getXMLRoot();
-        while(tokenIter.hasNext())
+        // and figure out what tags are notable up the tree. The index of notable 
+        // elements is walked alongside the tokens, which are in document order.
+        NotableElementIndex.Cursor notableElements = getSourceDocument().getNotableElementIndex().getCursor();
+        OffsetRange tokenRange = new OffsetRange(this);
+        for( Token token : tokenTable.getTokenList() )
         {
-            Token token = tokenIter.next();
-            // for each character offset in the token, find the JuxtaXMLNode that
-            // covers it
-            OffsetRange tokenRange = new OffsetRange(this, token.getOffset(), token.getOffset() + token.getToken().length(), OffsetRange.Space.ACTIVE);
-            int i = tokenRange.getStartOffset(OffsetRange.Space.PROCESSED);
+            tokenRange.set(token.getOffset(), token.getOffset() + token.getToken().length(), OffsetRange.Space.ACTIVE);
+            int startOffset = tokenRange.getStartOffset(OffsetRange.Space.PROCESSED);
             int endOffset = tokenRange.getEndOffset(OffsetRange.Space.PROCESSED);
-            JuxtaXMLNode node = null;
-
-            while(i < endOffset)
-            {
-                if (node == null)
-                    node = root.getNodeForOffset(i);
-
-                if (node != null)
-                {
-                    token.addNotableTags(node.getNotableTags());
-                    // iterate forward until node changes or we reach the end of the token
-                    while(i < endOffset && node != null && node == node.getNodeForOffset(i)) { ++i; }
-
-                    // reset node by diving into itself for the current offset.
-                    // this will do one of two things:
-                    //   1. return null, because the node no longer comprises this offset, in which case on the
-                    //      next iteration, we will dive through the root again
-                    //   2. return a subnode of node that contains the offset
-                    node = node.getNodeForOffset(i);
-
-                    // in either case, it's likely that our call to token.addNotableTags() will produce a lot
-                    // of redundent tagging, but they will be de-duped and I don't think the extra
-                    // cost is too extravagent. There are ways to correct this if necessary.
-                }
-            }
+            token.setNotableTags(notableElements.getNotableTags(startOffset, endOffset));
         }
     }
 	
@@ -296,7 +271,7 @@ public class DocumentModel
        
     public int getDocumentLength()
     {
-        return getDocumentText().length();
+        return getActiveText().length();
     }
 
     public OffsetRange getActiveTextRange()
@@ -322,13 +297,14 @@ public class DocumentModel
        }
        
        // perform the search 
-       int pos = getDocumentText().toLowerCase().indexOf( searchTxt.toLowerCase(), startPos );
+       DocumentText text = getActiveText();
+       int pos = text.indexOfIgnoreCase( searchTxt, startPos );
        
        if (pos == -1 && wrap ) 
        {
             // wrap and search from start
             SimpleLogger.logInfo("Not found; wrapping");
-            pos = getDocumentText().toLowerCase().indexOf( searchTxt.toLowerCase(), 0 );
+            pos = text.indexOfIgnoreCase( searchTxt, 0 );
        }
        
        return pos;
@@ -336,7 +312,7 @@ public class DocumentModel
     
     public String getSubString( int offset, int length )
     {
-        return getDocumentText().substring( offset, offset+length );
+        return getActiveText().substring( offset, offset+length );
     }
 
     /**
@@ -344,8 +320,30 @@ public class DocumentModel
      */
     public String getDocumentText()
     {
-        if (activeTextRange != null) return activeTextRange.getText(OffsetRange.Space.PROCESSED);
-        else return processedText;
+        return getActiveText().toString();
+    }
+
+    /**
+     * @return The active text, as a view of the processed text that is not copied.
+     */
+    public DocumentText getActiveText()
+    {
+        int start = 0;
+        int end = processedText.length();
+        if (activeTextRange != null)
+        {
+            start = activeTextRange.getStartOffset(OffsetRange.Space.PROCESSED);
+            end = activeTextRange.getEndOffset(OffsetRange.Space.PROCESSED);
+        }
+
+        // the active range can be changed in place, so check it still covers the same text
+        DocumentText text = activeText;
+        if (text == null || !text.isViewOf(processedText, start, end))
+        {
+            text = new DocumentText(processedText, start, end);
+            activeText = text;
+        }
+        return text;
     }
 
     public String getAllProcessedText()
@@ -0,0 +1,151 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff.document;
+
+/**
+ * An immutable view of a range of a document's processed text. Reading characters
+ * or taking a sub-sequence works on the processed text in place; only
+ * <code>toString</code> and <code>substring</code> copy, and only the characters
+ * asked for.
+ */
+public final class DocumentText implements CharSequence
+{
+    private final String text;
+    private final int start;
+    private final int end;
+    private String string;
+    private int hash;
+
+    public DocumentText( String text, int start, int end )
+    {
+        if( start < 0 || end > text.length() || start > end )
+        {
+            throw new IndexOutOfBoundsException("range " + start + "-" + end + " of text of length " + text.length());
+        }
+        this.text = text;
+        this.start = start;
+        this.end = end;
+    }
+
+    public int length()
+    {
+        return end - start;
+    }
+
+    public char charAt( int index )
+    {
+        if( index < 0 || index >= end - start )
+        {
+            throw new IndexOutOfBoundsException("index " + index + " of text of length " + length());
+        }
+        return text.charAt(start + index);
+    }
+
+    public DocumentText subSequence( int subStart, int subEnd )
+    {
+        checkRange(subStart, subEnd);
+        return new DocumentText(text, start + subStart, start + subEnd);
+    }
+
+    /**
+     * @return A copy of the characters from <code>subStart</code> to <code>subEnd</code>.
+     */
+    public String substring( int subStart, int subEnd )
+    {
+        checkRange(subStart, subEnd);
+        return text.substring(start + subStart, start + subEnd);
+    }
+
+    /**
+     * Find the first occurrence of the target at or after <code>fromIndex</code>,
+     * ignoring case.
+     * @return The index of the occurrence, or -1 if there is none.
+     */
+    public int indexOfIgnoreCase( String target, int fromIndex )
+    {
+        int last = end - target.length();
+        for( int i = start + Math.max(fromIndex, 0); i <= last; i++ )
+        {
+            if( text.regionMatches(true, i, target, 0, target.length()) )
+            {
+                return i - start;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return <code>true</code> if this is a view of the given range of the given text.
+     */
+    boolean isViewOf( String otherText, int otherStart, int otherEnd )
+    {
+        return text == otherText && start == otherStart && end == otherEnd;
+    }
+
+    /**
+     * The hash is computed as <code>String.hashCode</code> would compute it for the same
+     * characters, and kept, so documents can be compared cheaply and repeatedly.
+     */
+    public int hashCode()
+    {
+        int h = hash;
+        if( h == 0 )
+        {
+            for( int i = start; i < end; i++ )
+            {
+                h = 31 * h + text.charAt(i);
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    /**
+     * @return <code>true</code> if the other object is a <code>DocumentText</code> with the
+     * same characters.
+     */
+    public boolean equals( Object obj )
+    {
+        if( this == obj ) return true;
+        if( obj instanceof DocumentText == false ) return false;
+
+        DocumentText other = (DocumentText) obj;
+        int length = length();
+        if( other.length() != length || other.hashCode() != hashCode() ) return false;
+        return text.regionMatches(start, other.text, other.start, length);
+    }
+
+    public String toString()
+    {
+        // kept, as the full text is asked for again and again
+        if( string == null )
+        {
+            string = (start == 0 && end == text.length()) ? text : text.substring(start, end);
+        }
+        return string;
+    }
+
+    private void checkRange( int subStart, int subEnd )
+    {
+        if( subStart < 0 || subEnd > end - start || subStart > subEnd )
+        {
+            throw new IndexOutOfBoundsException("range " + subStart + "-" + subEnd + " of text of length " + length());
+        }
+    }
+}
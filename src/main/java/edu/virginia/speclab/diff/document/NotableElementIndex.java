@@ -0,0 +1,195 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff.document;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.virginia.speclab.diff.token.JuxtaXMLNode;
+import edu.virginia.speclab.diff.token.NotableTagSet;
+
+/**
+ * The notable elements of a document's XML tree, flattened into ranges of processed
+ * text sorted by where they start. Tokens are given the notable tags of the elements
+ * they overlap by walking this index alongside the token list, rather than searching
+ * the tree for every character of every token.
+ */
+public class NotableElementIndex
+{
+    private int[] starts;
+    private int[] ends;
+    private String[] names;
+    private int count;
+
+    public NotableElementIndex( JuxtaXMLNode root )
+    {
+        starts = new int[16];
+        ends = new int[16];
+        names = new String[16];
+
+        if( root != null )
+        {
+            addNotableElements(root, root.getStartOffset(), root.getEndOffset());
+        }
+    }
+
+    private void addNotableElements( JuxtaXMLNode node, int parentStart, int parentEnd )
+    {
+        // an element is only ever found inside its parent, so clip it to the parent
+        int start = Math.max(node.getStartOffset(), parentStart);
+        int end = Math.min(node.getEndOffset(), parentEnd);
+        if( start >= end )
+        {
+            return;
+        }
+
+        if( node.isNotable() )
+        {
+            addElement(start, end, node.getName());
+        }
+
+        for( int i = 0; i < node.getChildCount(); i++ )
+        {
+            addNotableElements(node.getChildAt(i), start, end);
+        }
+    }
+
+    private void addElement( int start, int end, String name )
+    {
+        if( count == starts.length )
+        {
+            starts = grow(starts);
+            ends = grow(ends);
+            String[] grownNames = new String[count * 2];
+            System.arraycopy(names, 0, grownNames, 0, count);
+            names = grownNames;
+        }
+
+        // elements are found in document order, so this rarely has to shift anything
+        int i = count++;
+        while( i > 0 && starts[i - 1] > start )
+        {
+            starts[i] = starts[i - 1];
+            ends[i] = ends[i - 1];
+            names[i] = names[i - 1];
+            i--;
+        }
+        starts[i] = start;
+        ends[i] = end;
+        names[i] = name;
+    }
+
+    private static int[] grow( int[] array )
+    {
+        int[] grown = new int[array.length * 2];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+
+    public int getElementCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return A new cursor, positioned at the start of the document.
+     */
+    public Cursor getCursor()
+    {
+        return new Cursor();
+    }
+
+    /**
+     * Looks up the notable tags of ranges of processed text. Ranges are expected in
+     * document order, each starting at or after the one before, as tokens are.
+     */
+    public class Cursor
+    {
+        // the next element that hasn't been reached, and the reached elements that are still open
+        private int next;
+        private int[] open = new int[8];
+        private int openCount;
+
+        private NotableTagSet tags = NotableTagSet.EMPTY;
+        private int lastStart;
+
+        /**
+         * @return The names of the notable elements that overlap the range.
+         */
+        public NotableTagSet getNotableTags( int start, int end )
+        {
+            if( start >= end )
+            {
+                return NotableTagSet.EMPTY;
+            }
+
+            if( start < lastStart )
+            {
+                // out of order, start over
+                next = 0;
+                openCount = 0;
+                tags = NotableTagSet.EMPTY;
+            }
+            lastStart = start;
+
+            boolean changed = false;
+
+            // close the elements that end before this range
+            int stillOpen = 0;
+            for( int i = 0; i < openCount; i++ )
+            {
+                if( ends[open[i]] > start )
+                {
+                    open[stillOpen++] = open[i];
+                }
+            }
+            if( stillOpen != openCount )
+            {
+                openCount = stillOpen;
+                changed = true;
+            }
+
+            // open the elements that start before the end of this range
+            while( next < count && starts[next] < end )
+            {
+                if( ends[next] > start )
+                {
+                    if( openCount == open.length )
+                    {
+                        open = grow(open);
+                    }
+                    open[openCount++] = next;
+                    changed = true;
+                }
+                next++;
+            }
+
+            if( changed )
+            {
+                List<String> openNames = new ArrayList<String>(openCount);
+                for( int i = 0; i < openCount; i++ )
+                {
+                    openNames.add(names[open[i]]);
+                }
+                tags = NotableTagSet.getInstance(openNames);
+            }
+            return tags;
+        }
+    }
+}
@@ -33,6 +33,7 @@ public class SourceDocumentModel {
     protected TagSet notableTags, excludedTags, newlineTags;
     protected Set<String> elementsEncountered;
     protected boolean isXml;
+    private NotableElementIndex notableElementIndex;
 
     public SourceDocumentModel(String flatText, String filename)
     {
@@ -54,6 +55,7 @@ public class SourceDocumentModel {
     {
         this.rawXML = other.rawXML;
         this.rootXMLNode = other.rootXMLNode;
+        this.notableElementIndex = other.notableElementIndex;
         this.offsetMap = other.offsetMap;
         this.isXml = other.isXml;
     }
@@ -68,6 +70,7 @@ public class SourceDocumentModel {
     public void setXMLRoot(JuxtaXMLNode root)
     {
         this.rootXMLNode = root;
+        this.notableElementIndex = null;
     }
 
     public JuxtaXMLNode getXMLRoot()
@@ -75,6 +78,19 @@ public class SourceDocumentModel {
         return this.rootXMLNode;
     }
 
+    /**
+     * @return The notable elements of the XML tree, indexed by offset. The index is
+     * built the first time it is asked for, and again only if the tree is replaced.
+     */
+    public synchronized NotableElementIndex getNotableElementIndex()
+    {
+        if (this.notableElementIndex == null)
+        {
+            this.notableElementIndex = new NotableElementIndex(this.rootXMLNode);
+        }
+        return this.notableElementIndex;
+    }
+
     /**
      * Sets the raw XML content of the document for later reference
      */
@@ -0,0 +1,131 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff.token;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The names of the notable tags that enclose a token. Sets are interned, so the tokens
+ * of a document share the handful of distinct sets it has, and two sets are equal only
+ * if they are the same object.
+ */
+public final class NotableTagSet
+{
+    private static final Map<NotableTagSet, NotableTagSet> internedSets = new HashMap<NotableTagSet, NotableTagSet>();
+
+    public static final NotableTagSet EMPTY = intern(new String[0]);
+
+    private final String[] names;
+    private final long hash;
+
+    private NotableTagSet( String[] names )
+    {
+        this.names = names;
+
+        long h = Token.HASH_SEED;
+        for( String name : names )
+        {
+            h = Token.hash(h, name);
+            h = Token.hash(h, "///");
+        }
+        this.hash = h;
+    }
+
+    /**
+     * @return The interned set of the given tag names.
+     */
+    public static NotableTagSet getInstance( Collection<String> names )
+    {
+        if( names.isEmpty() ) return EMPTY;
+
+        TreeSet<String> sortedNames = new TreeSet<String>(names);
+        return intern(sortedNames.toArray(new String[sortedNames.size()]));
+    }
+
+    private static NotableTagSet intern( String[] sortedNames )
+    {
+        NotableTagSet set = new NotableTagSet(sortedNames);
+        synchronized( internedSets )
+        {
+            NotableTagSet internedSet = internedSets.get(set);
+            if( internedSet == null )
+            {
+                internedSets.put(set, set);
+                internedSet = set;
+            }
+            return internedSet;
+        }
+    }
+
+    /**
+     * @return The interned set of the names in this set and the given names.
+     */
+    public NotableTagSet union( Collection<String> otherNames )
+    {
+        if( containsAll(otherNames) ) return this;
+
+        TreeSet<String> sortedNames = new TreeSet<String>(otherNames);
+        sortedNames.addAll(Arrays.asList(names));
+        return intern(sortedNames.toArray(new String[sortedNames.size()]));
+    }
+
+    private boolean containsAll( Collection<String> otherNames )
+    {
+        for( String name : otherNames )
+        {
+            if( Arrays.binarySearch(names, name) < 0 ) return false;
+        }
+        return true;
+    }
+
+    public boolean isEmpty()
+    {
+        return names.length == 0;
+    }
+
+    /**
+     * @return A 64 bit hash of the names, in order.
+     */
+    public long getHash()
+    {
+        return hash;
+    }
+
+    public int hashCode()
+    {
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    // only used while interning, afterwards sets can be compared by identity
+    public boolean equals( Object obj )
+    {
+        if( this == obj ) return true;
+        if( obj instanceof NotableTagSet == false ) return false;
+        return Arrays.equals(names, ((NotableTagSet) obj).names);
+    }
+
+    public String toString()
+    {
+        return Arrays.toString(names);
+    }
+}
@@ -18,22 +18,37 @@
  
 package edu.virginia.speclab.diff.token;
 
-import java.util.TreeSet;
-import java.util.Arrays;
-import java.util.Iterator;
 import java.util.Set;
 
 public class Token
 {
-    private char[] token;
+    // FNV-1a 64 bit offset basis and prime
+    static final long HASH_SEED = 0xcbf29ce484222325L;
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    private String token;
     private int offset;
-    private Set<String> notableTags;
+    private NotableTagSet notableTags;
+    private long contentHash;
     
     public Token( String token, int offset )
     {
-        this.token = token.toCharArray(); 
+        this.token = token; 
+        this.offset = offset;
+        this.notableTags = NotableTagSet.EMPTY;
+        this.contentHash = computeContentHash();
+    }
+    
+    /**
+     * Create a token without notable tags whose text has already been hashed, as
+     * <code>TokenScanner</code> does. 
+     */
+    Token( String token, int offset, long textHash )
+    {
+        this.token = token; 
         this.offset = offset;
-        this.notableTags = new TreeSet<String>();
+        this.notableTags = NotableTagSet.EMPTY;
+        this.contentHash = mix(textHash);
     }
 
     public int getOffset()
@@ -43,15 +58,33 @@ public class Token
     
     public String getToken()
     {
-        return new String(token);
+        return token;
     }
 
     public void addNotableTags(Set<String> notableTags)
     {
-        this.notableTags.addAll(notableTags);
+        NotableTagSet tags = this.notableTags.union(notableTags);
+        if (tags != this.notableTags) 
+        {
+            this.notableTags = tags;
+            this.contentHash = computeContentHash();
+        }
+    }
+    
+    public void setNotableTags(NotableTagSet notableTags)
+    {
+        if (notableTags != this.notableTags) 
+        {
+            this.notableTags = notableTags;
+            this.contentHash = computeContentHash();
+        }
+    }
+    
+    public NotableTagSet getNotableTags()
+    {
+        return notableTags;
     }
     
-    @Override
     // Use information in the xmlNode to build a hash
     // In this way, the same strings held in different
     // tags will be marked as different by the algorithm.
@@ -59,18 +92,59 @@ public class Token
     // This isn't necessarily the way we'll want to do it
     // officially, but it demonstrates using the XML to
     // differentiate two otherwise identical tokens.
-    public int hashCode()
+    private long computeContentHash()
     {
-        String stringToHash = "";
-
-        Iterator<String> it = notableTags.iterator();
-        while(it.hasNext())
+        return mix(hash(notableTags.getHash(), token));
+    }
+    
+    // spread the bits, so the low bits alone make a good hash too
+    private static long mix(long h)
+    {
+        h ^= (h >>> 33);
+        h *= 0xff51afd7ed558ccdL;
+        h ^= (h >>> 33);
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= (h >>> 33);
+        return h;
+    }
+    
+    static long hash(long h, String text)
+    {
+        for (int i = 0; i < text.length(); i++)
         {
-            String next = it.next();
-            stringToHash += next + "///";
+            h = hash(h, text.charAt(i));
         }
-        stringToHash += getToken();
-        return stringToHash.hashCode();
+        return h;
+    }
+    
+    static long hash(long h, char c)
+    {
+        return (h ^ c) * HASH_PRIME;
+    }
+
+    /**
+     * @return A 64 bit hash of the token text and its notable tags, computed when they are set.
+     */
+    public long getContentHash()
+    {
+        return contentHash;
+    }
+
+    /**
+     * @return <code>true</code> if the other token has the same text and notable tags, 
+     * wherever it is in the document.
+     */
+    public boolean hasSameContent(Token other)
+    {
+        return this.contentHash == other.contentHash 
+            && this.notableTags == other.notableTags
+            && this.token.equals(other.token);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return (int) (contentHash ^ (contentHash >>> 32));
     }
 
     @Override
@@ -82,7 +156,7 @@ public class Token
             return false;
         }
         final Token other = (Token) obj;
-        if (!Arrays.equals(this.token, other.token)) {
+        if (!this.token.equals(other.token)) {
             return false;
         }
         if (this.offset != other.offset) {
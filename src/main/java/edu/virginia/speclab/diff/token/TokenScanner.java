@@ -0,0 +1,287 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff.token;
+
+/**
+ * Splits text into tokens according to a <code>TokenizerSettings</code> object, in a
+ * single pass over the text. The start, length and hash of each token's normalized text
+ * are kept in arrays; the text itself is only made into a string by
+ * <code>getWord</code>, once for each distinct word.
+ *
+ * The rules are those of the Lucene tokenizer this replaces: a token is a run of
+ * letters and digits, or of any non-whitespace if punctuation is kept, lower-cased if
+ * case is filtered and cut at <code>MAX_WORD_LEN</code> characters. If whitespace is
+ * kept, whitespace that doesn't end a token starts one. Characters are classified with
+ * <code>Character</code>, through a table for Latin-1.
+ */
+public final class TokenScanner
+{
+    public static final int MAX_WORD_LEN = 255;
+
+    private static final byte WHITESPACE = 1, LETTER = 2, DIGIT = 4;
+    private static final byte[] LATIN1_CLASSES = new byte[256];
+    private static final char[] LATIN1_LOWER_CASE = new char[256];
+
+    static
+    {
+        for( char c = 0; c < 256; c++ )
+        {
+            byte classes = 0;
+            if( Character.isWhitespace(c) ) classes |= WHITESPACE;
+            if( Character.isLetter(c) ) classes |= LETTER;
+            if( Character.isDigit(c) ) classes |= DIGIT;
+            LATIN1_CLASSES[c] = classes;
+            LATIN1_LOWER_CASE[c] = Character.toLowerCase(c);
+        }
+    }
+
+    private final boolean filterCase;
+    private final boolean filterPunctuation;
+    private final boolean filterWhitespace;
+
+    private CharSequence text;
+    private int count;
+    private int[] starts;
+    private int[] lengths;
+    private long[] hashes;
+
+    // the distinct words seen, by hash, for getWord
+    private long[] wordHashes;
+    private String[] words;
+    private int wordCount;
+
+    public TokenScanner( TokenizerSettings settings )
+    {
+        this.filterCase = settings.filterCase();
+        this.filterPunctuation = settings.filterPunctuation();
+        this.filterWhitespace = settings.filterWhitespace();
+    }
+
+    /**
+     * Split the text into tokens, replacing the tokens of any text scanned before.
+     */
+    public void scan( CharSequence text )
+    {
+        this.text = text;
+        this.count = 0;
+        int capacity = Math.max(16, text.length() / 4);
+        this.starts = new int[capacity];
+        this.lengths = new int[capacity];
+        this.hashes = new long[capacity];
+        this.wordHashes = new long[64];
+        this.words = new String[64];
+        this.wordCount = 0;
+
+        int textLength = text.length();
+        int offset = 0;
+        while( true )
+        {
+            int start = offset;
+            int length = 0;
+            long hash = Token.HASH_SEED;
+
+            while( true )
+            {
+                if( offset >= textLength )
+                {
+                    break;
+                }
+                char c = text.charAt(offset++);
+                int classes = classify(c);
+
+                boolean tokenChar;
+                if( (classes & WHITESPACE) != 0 )
+                {
+                    // whitespace only starts a token, if it is kept
+                    tokenChar = !filterWhitespace && length == 0;
+                }
+                else
+                {
+                    tokenChar = !filterPunctuation || (classes & (LETTER | DIGIT)) != 0;
+                }
+
+                if( tokenChar )
+                {
+                    if( length == 0 ) start = offset - 1;
+                    hash = Token.hash(hash, normalize(c, classes));
+                    if( ++length == MAX_WORD_LEN ) break;
+                }
+                else if( length > 0 )
+                {
+                    // the character that ends a token is consumed with it
+                    break;
+                }
+            }
+
+            if( length == 0 )
+            {
+                return;
+            }
+            addToken(start, length, hash);
+        }
+    }
+
+    private static int classify( char c )
+    {
+        if( c < 256 )
+        {
+            return LATIN1_CLASSES[c];
+        }
+
+        int classes = 0;
+        if( Character.isWhitespace(c) ) classes |= WHITESPACE;
+        if( Character.isLetter(c) ) classes |= LETTER;
+        if( Character.isDigit(c) ) classes |= DIGIT;
+        return classes;
+    }
+
+    private char normalize( char c, int classes )
+    {
+        if( filterCase && (classes & LETTER) != 0 )
+        {
+            return (c < 256) ? LATIN1_LOWER_CASE[c] : Character.toLowerCase(c);
+        }
+        return c;
+    }
+
+    private void addToken( int start, int length, long hash )
+    {
+        if( count == starts.length )
+        {
+            int capacity = count * 2;
+            int[] grownStarts = new int[capacity];
+            int[] grownLengths = new int[capacity];
+            long[] grownHashes = new long[capacity];
+            System.arraycopy(starts, 0, grownStarts, 0, count);
+            System.arraycopy(lengths, 0, grownLengths, 0, count);
+            System.arraycopy(hashes, 0, grownHashes, 0, count);
+            starts = grownStarts;
+            lengths = grownLengths;
+            hashes = grownHashes;
+        }
+        starts[count] = start;
+        lengths[count] = length;
+        hashes[count] = hash;
+        count++;
+    }
+
+    public int getTokenCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return The offset of the token in the scanned text.
+     */
+    public int getStart( int index )
+    {
+        return starts[index];
+    }
+
+    public int getLength( int index )
+    {
+        return lengths[index];
+    }
+
+    /**
+     * @return The hash of the token's normalized text, as computed by <code>Token</code>
+     * for a token without notable tags.
+     */
+    public long getHash( int index )
+    {
+        return hashes[index];
+    }
+
+    /**
+     * @return The normalized text of the token. Tokens with the same text share a string.
+     */
+    public String getWord( int index )
+    {
+        long hash = hashes[index];
+        int mask = wordHashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while( words[slot] != null )
+        {
+            if( wordHashes[slot] == hash && matches(index, words[slot]) )
+            {
+                return words[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String word = createWord(index);
+        wordHashes[slot] = hash;
+        words[slot] = word;
+        if( ++wordCount * 2 > words.length )
+        {
+            growWords();
+        }
+        return word;
+    }
+
+    private boolean matches( int index, String word )
+    {
+        int length = lengths[index];
+        if( word.length() != length ) return false;
+
+        int start = starts[index];
+        for( int i = 0; i < length; i++ )
+        {
+            char c = text.charAt(start + i);
+            if( normalize(c, classify(c)) != word.charAt(i) ) return false;
+        }
+        return true;
+    }
+
+    private String createWord( int index )
+    {
+        int start = starts[index];
+        char[] chars = new char[lengths[index]];
+        for( int i = 0; i < chars.length; i++ )
+        {
+            char c = text.charAt(start + i);
+            chars[i] = normalize(c, classify(c));
+        }
+        return new String(chars);
+    }
+
+    private void growWords()
+    {
+        long[] oldHashes = wordHashes;
+        String[] oldWords = words;
+        wordHashes = new long[oldWords.length * 2];
+        words = new String[oldWords.length * 2];
+
+        int mask = words.length - 1;
+        for( int i = 0; i < oldWords.length; i++ )
+        {
+            if( oldWords[i] != null )
+            {
+                long hash = oldHashes[i];
+                int slot = (int) (hash ^ (hash >>> 32)) & mask;
+                while( words[slot] != null )
+                {
+                    slot = (slot + 1) & mask;
+                }
+                wordHashes[slot] = hash;
+                words[slot] = oldWords[i];
+            }
+        }
+    }
+}
@@ -18,12 +18,10 @@
  
 package edu.virginia.speclab.diff.token;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import edu.virginia.speclab.diff.document.DocumentModel;
-import edu.virginia.speclab.util.SimpleLogger;
 
 public class TokenTable
 {
@@ -33,44 +31,28 @@ public class TokenTable
     
     public TokenTable( DocumentModel document, TokenizerSettings settings )
     {
-        this.tokenList = new ArrayList<Token>();
         this.document = document;
         this.settings = settings;
         tokenize();
     }
     
-    public static TokenReader getTokenReader( TokenizerSettings settings )
-    {
-        return new ConfigurableReader(settings);
-    }
-    
     public void tokenize()
     {       
-        TokenReader tokenReader = getTokenReader(settings);       
-        tokenReader.openDocument(document);
+        TokenScanner scanner = new TokenScanner(settings);
+        scanner.scan(document.getDocumentText());
         
-        try
-        {
-            int nextSymbolOffset = 0;
-            String tokenBuffer;        
-            while ((tokenBuffer = tokenReader.readSymbol()) != null)
-            {
-                nextSymbolOffset = tokenReader.getSymbolOffset();
-                Token token = new Token(tokenBuffer,nextSymbolOffset);
-                tokenList.add(token);                
-            }
-
-            // empty token references the last position in the document 
-            Token endOfDocument = new Token( "", document.getDocumentLength() );
-            tokenList.add(endOfDocument);
-            
-            tokenReader.close();
-        }
-        catch( IOException e )
+        int tokenCount = scanner.getTokenCount();
+        tokenList = new ArrayList<Token>(tokenCount + 1);
+        for (int i = 0; i < tokenCount; i++)
         {
-            SimpleLogger.logError("Error tokenizing file "+document.getDocumentName());
+            // most words occur many times, and the scanner gives tokens a single copy of each
+            Token token = new Token(scanner.getWord(i), scanner.getStart(i), scanner.getHash(i));
+            tokenList.add(token);                
         }
-        
+
+        // empty token references the last position in the document 
+        Token endOfDocument = new Token( "", document.getDocumentLength() );
+        tokenList.add(endOfDocument);
     }
     
     public List<Token> getTokenList()
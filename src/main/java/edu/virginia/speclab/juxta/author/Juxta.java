@@ -32,6 +32,7 @@ import edu.virginia.speclab.diff.DiffAlgorithm;
 import edu.virginia.speclab.exceptions.ErrorHandler;
 import edu.virginia.speclab.exceptions.FatalException;
 import edu.virginia.speclab.exceptions.ReportedException;
+import edu.virginia.speclab.juxta.author.model.DocumentManager;
 import edu.virginia.speclab.juxta.author.model.template.TemplateConfigManager;
 import edu.virginia.speclab.juxta.author.view.JuxtaAuthorFrame;
 import edu.virginia.speclab.juxta.author.view.ui.JuxtaUserInterfaceStyle;
@@ -115,6 +116,14 @@ public class Juxta implements JuxtaUserInterfaceStyle {
         }
     }
 
+    private static void setMaxFileSize(String size) {
+        try {
+            DocumentManager.setMaxFileSize(Long.parseLong(size));
+        } catch (NumberFormatException e) {
+            SimpleLogger.logError("Ignoring the maximum file size \"" + size + "\", which is not a number of bytes.");
+        }
+    }
+
     /**
      * @param args
      */
@@ -129,7 +138,9 @@ public class Juxta implements JuxtaUserInterfaceStyle {
                 if (args != null ) {
                     for ( int i=0; i<args.length; i++) {
                         String arg = args[i];
-                        if ( arg.contains("url=")) {
+                        if ( arg.startsWith("maxFileSize=")) {
+                            setMaxFileSize(arg.substring(12));
+                        } else if ( arg.contains("url=")) {
                             wsUrl = arg.substring(4);
                         } else {
                             startFile = arg;
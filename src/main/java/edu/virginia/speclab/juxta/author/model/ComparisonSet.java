@@ -21,6 +21,7 @@ package edu.virginia.speclab.juxta.author.model;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -28,8 +29,11 @@ import java.util.List;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
 
+import edu.virginia.speclab.diff.CancellationToken;
+import edu.virginia.speclab.diff.ChunkedDiff;
 import edu.virginia.speclab.diff.Difference;
 import edu.virginia.speclab.diff.DifferenceSet;
+import edu.virginia.speclab.diff.MoveDetector;
 import edu.virginia.speclab.diff.MultiPassDiff;
 import edu.virginia.speclab.diff.OffsetRange;
 import edu.virginia.speclab.diff.collation.Collation;
@@ -44,7 +48,8 @@ import edu.virginia.speclab.util.SimpleLogger;
  * This class represents the set of documents under comparison in the current
  * session. It manages the collation process and is the appropriate
  * access point for restoring collations from disk. It can calculate 
- * collation data synchronously or asynchronously. 
+ * collation data synchronously or asynchronously. A quick first pass
+ * collation is made available as soon as it is ready, while the full one is worked out.
  *  
  * @author Nick
  */
@@ -59,6 +64,15 @@ public class ComparisonSet implements MovesManagerListener
     private LinkedList progressListeners;    
     private boolean loadComplete;
     
+    // the collation being worked out, so that it can be cancelled when superseded
+    private volatile CancellationToken collationRun;
+    
+    // first pass collations, by base document, until the full ones are cached
+    private HashMap provisionalCollations;
+    
+    // set while an accepted move is fitted into the existing collations, instead of starting over
+    private boolean acceptingMove;
+    
     private LinkedList loaderCallbacks;
     private static final JsonFactory JSON = new JsonFactory();
 
@@ -74,6 +88,7 @@ public class ComparisonSet implements MovesManagerListener
         this.backgroundLoad = backgroundLoad;
         progressListeners = new LinkedList();
         loaderCallbacks = new LinkedList();
+        provisionalCollations = new HashMap();
         this.tokenizerSettings = TokenizerSettings.getDefaultSettings();
     }
     
@@ -185,6 +200,14 @@ public class ComparisonSet implements MovesManagerListener
     		progress = 0f;
     		updateProgressListeners();
     	}
+    	public void previewed()
+    	{
+    		for( Iterator i = progressListeners.iterator(); i.hasNext(); )
+    		{
+    			ProgressListener progressListener = (ProgressListener) i.next();
+    			progressListener.collationPreviewed(baseText);
+    		}
+    	}
     	private void updateProgressListeners()
     	{
     		for( Iterator i = progressListeners.iterator(); i.hasNext(); )
@@ -246,6 +269,9 @@ public class ComparisonSet implements MovesManagerListener
     
 	public void movesChanged(MovesManager movesManager)
 	{
+		if (acceptingMove)
+			return;
+		
 		// TODO Optimize this by only re-collating the particular document pair that changed.
 		try {
 			reset();
@@ -254,7 +280,140 @@ public class ComparisonSet implements MovesManagerListener
 		}
 	}
 
-	private Collation performMovesCollation( JuxtaDocument baseText )
+	public void proposedMovesChanged(MovesManager movesManager)
+	{
+		// proposals don't change the collations until they are accepted
+	}
+
+	/**
+	 * Accepts a move that was proposed from the inserts and deletes of a collation. The two documents
+	 * aren't collated again: the move is fitted into their existing collations by taking out the
+	 * differences it covers and diffing the moved blocks against each other.
+	 * @param move A move from <code>MovesManager.getProposedMoves()</code>.
+	 * @throws ReportedException If the move can't be created or the collations can't be cached.
+	 */
+	public void acceptProposedMove( MovesManager.FragmentPair move ) throws ReportedException
+	{
+		JuxtaDocument firstText = documentManager.lookupDocument(move.first.getDocumentID());
+		JuxtaDocument secondText = documentManager.lookupDocument(move.second.getDocumentID());
+		int firstStart = move.first.getStartOffset(OffsetRange.Space.ACTIVE);
+		int secondStart = move.second.getStartOffset(OffsetRange.Space.ACTIVE);
+		
+		pauseBackgroundLoader(true);
+		try
+		{
+			acceptingMove = true;
+			try
+			{
+				documentManager.getMovesManager().acceptProposedMove(move);
+			}
+			catch (LoggedException e)
+			{
+				throw new ReportedException(e, e.getMessage());
+			}
+			finally
+			{
+				acceptingMove = false;
+			}
+			
+			addMoveToCollation(firstText, secondText, firstStart);
+			addMoveToCollation(secondText, firstText, secondStart);
+		}
+		finally
+		{
+			pauseBackgroundLoader(false);
+		}
+	}
+	
+	// Rebuilds the cached collation of the base text with the move that starts at baseStart fitted into the 
+	// differences of the witness. The differences of the other witnesses are carried over as they are.
+	private void addMoveToCollation( JuxtaDocument baseText, JuxtaDocument witnessText, int baseStart ) throws ReportedException
+	{
+		Collation cachedCollation = documentManager.loadCollation(baseText);
+		
+		// if it hasn't been collated yet, the move is taken into account when it is
+		if (cachedCollation == null)
+			return;
+		
+		MovesManager movesManager = documentManager.getMovesManager();
+		Collation collation = new Collation(baseText);
+        for( Iterator i = documentManager.getDocumentList().iterator(); i.hasNext(); )
+        {   
+        	JuxtaDocument document = (JuxtaDocument) i.next();
+        	if (baseText.getID() == document.getID())
+        		continue;
+        	
+     		DifferenceSet differenceSet = new DifferenceSet();
+    		differenceSet.setBaseDocument(baseText);
+    		differenceSet.setWitnessDocument(document);
+    		differenceSet.setNumberOfSymbols(0);
+    		List differences = cachedCollation.getDifferences(document);
+    		if (differences != null)
+    		{
+    			for (Iterator j = differences.iterator(); j.hasNext(); )
+    				differenceSet.addDifference((Difference) j.next());
+    		}
+    		
+    		MoveList moveList = movesManager.getAllMoves(baseText.getID(), document.getID());
+    		if (document == witnessText)
+    		{
+    			// the moves between two documents don't overlap, so this is just the new one
+    			MoveList acceptedMoves = moveList.findMoves(baseText.getID(), baseStart);
+    			DifferenceSet fullDifferenceSet = differenceSet;
+        		differenceSet = new DifferenceSet();
+        		differenceSet.setBaseDocument(baseText);
+        		differenceSet.setWitnessDocument(document);
+        		differenceSet.setNumberOfSymbols(0);
+        		truncateDifferencesIntersectingMoves(fullDifferenceSet, differenceSet, acceptedMoves);
+        		
+        		for (int j = 0; j < acceptedMoves.size(); ++j)
+        		{
+            		MovesManager.FragmentPair fp = acceptedMoves.get(j);
+            		DocumentModel baseBlockDocument = new DocumentModel(baseText, fp.first.getStartOffset(OffsetRange.Space.ACTIVE), fp.first.getEndOffset(OffsetRange.Space.ACTIVE));
+            		DocumentModel witnessBlockDocument = new DocumentModel(document, fp.second.getStartOffset(OffsetRange.Space.ACTIVE), fp.second.getEndOffset(OffsetRange.Space.ACTIVE));
+            		addBlockToDifferenceSet( differenceSet,baseBlockDocument, witnessBlockDocument, MultiPassDiff.MAX_DIFF_PASSES, new CancellationToken() );
+        		}
+    		}
+    		
+        	for (int j = 0; j < moveList.size(); ++j)
+        	{
+        		MovesManager.FragmentPair fp = moveList.get(j);
+        		collation.addMove(fp.first.getStartOffset(OffsetRange.Space.ACTIVE), fp.first.getEndOffset(OffsetRange.Space.ACTIVE));
+        	}
+        	collation.addDifferenceSet(differenceSet);
+        }
+        
+        documentManager.cacheCollation(baseText, collation);
+	}
+	
+	// Looks for passages deleted from one place and inserted at another between the base text and each
+	// witness, and offers them to the user as moves.
+	private void proposeMoves( JuxtaDocument baseText, Collation collation )
+	{
+        for( Iterator i = documentManager.getDocumentList().iterator(); i.hasNext(); )
+        {   
+        	JuxtaDocument witnessText = (JuxtaDocument) i.next();
+        	if (baseText.getID() == witnessText.getID())
+        		continue;
+        	
+        	List differences = collation.getDifferences(witnessText);
+        	proposeMoves(baseText, witnessText, (differences != null) ? differences : new LinkedList());
+        }
+	}
+	
+	private void proposeMoves( JuxtaDocument baseText, JuxtaDocument witnessText, List differences )
+	{
+		List moves = new MoveDetector(baseText, witnessText).findMoves(differences);
+		documentManager.getMovesManager().proposeMoves(baseText, witnessText, moves);
+	}
+
+	/**
+	 * Collates every other document against the base text. The first pass diff of each 
+	 * witness is collated and published as a provisional collation, then the passes over 
+	 * the change blocks are made and the full collation is returned. 
+	 * @return The collation, or null if it was cancelled. 
+	 */
+	private Collation performMovesCollation( JuxtaDocument baseText, ProgressUpdater progressUpdater, CancellationToken cancellation )
     {
     	// The user may have created a series of moves where they match up sections of the documents.
     	// They will have left a number of sections unmatched and there is some interpretation of where the
@@ -262,7 +421,7 @@ public class ComparisonSet implements MovesManagerListener
         Collation collation = new Collation(baseText);
     	MovesManager movesManager = documentManager.getMovesManager();
         List documentList = new LinkedList( documentManager.getDocumentList() );        
-        ProgressUpdater progressUpdater = new ProgressUpdater(baseText, documentList.size());
+        List witnessList = new LinkedList();
 
     	// First stab at the problem: Only collate the moves, the unblocked text are all inserts and deletes.
         for( Iterator i = documentList.iterator(); i.hasNext(); )
@@ -273,36 +432,106 @@ public class ComparisonSet implements MovesManagerListener
         	if (baseText.getID() == witnessText.getID())
         		continue;
         	
-        	MovesManager.MoveList moveList = movesManager.getAllMoves(baseText.getID(), witnessText.getID());
-     		DifferenceSet differenceSet = new DifferenceSet();
-    		differenceSet.setBaseDocument(baseText);
-    		differenceSet.setWitnessDocument(witnessText);
-    		differenceSet.setNumberOfSymbols(0);
-      	
-       		/// This call may have added inserts and deletes that overlap a move. So, we have to do the step of weeding out the moves again.
-       		docsAreDiffedNormallyThenBlocksAreRemoved(differenceSet, baseText, witnessText, moveList);
-    		DifferenceSet fullDifferenceSet = differenceSet;
-    		differenceSet = new DifferenceSet();
-    		differenceSet.setBaseDocument(baseText);
-    		differenceSet.setWitnessDocument(witnessText);
-    		differenceSet.setNumberOfSymbols(0);
-    	    truncateDifferencesIntersectingMoves(fullDifferenceSet, differenceSet, moveList);
+        	if( cancellation.isCancelled() ) return null;
         	
-        	for (int j = 0; j < moveList.size(); ++j)
-        	{
-        		MovesManager.FragmentPair fp = moveList.get(j);
-        		DocumentModel baseBlockDocument = new DocumentModel(baseText, fp.first.getStartOffset(OffsetRange.Space.ACTIVE), fp.first.getEndOffset(OffsetRange.Space.ACTIVE));
-        		DocumentModel witnessBlockDocument = new DocumentModel(witnessText, fp.second.getStartOffset(OffsetRange.Space.ACTIVE), fp.second.getEndOffset(OffsetRange.Space.ACTIVE));
-        		addBlockToDifferenceSet( differenceSet,baseBlockDocument, witnessBlockDocument );
-        		collation.addMove(fp.first.getStartOffset(OffsetRange.Space.ACTIVE), fp.first.getEndOffset(OffsetRange.Space.ACTIVE));
-        	}
-            collation.addDifferenceSet(differenceSet);
+        	WitnessCollation witness = new WitnessCollation(witnessText, movesManager.getAllMoves(baseText.getID(), witnessText.getID()));
+        	
+        	// the moves are fitted around the differences of the full diff, so a witness with moves is diffed in full now
+        	int maxPasses = (witness.moveList.size() > 0) ? MultiPassDiff.MAX_DIFF_PASSES : 0;
+        	collateWitness(collation, witness, baseText, maxPasses, cancellation);
+        	witnessList.add(witness);
+        }
+        
+        if( cancellation.isCancelled() ) return null;
+        publishProvisionalCollation(baseText, collation);
+        progressUpdater.previewed();
+
+        // then refine each witness in turn
+        collation = new Collation(baseText);
+        for( Iterator i = witnessList.iterator(); i.hasNext(); )
+        {
+        	WitnessCollation witness = (WitnessCollation) i.next();
+        	collateWitness(collation, witness, baseText, MultiPassDiff.MAX_DIFF_PASSES, cancellation);
+        	
+        	if( cancellation.isCancelled() ) return null;
         	progressUpdater.update();
         }
 
-        progressUpdater.finished();
         return collation;     
     }
+	
+	// A witness part way through collation, with its diff against the base text, 
+	// which is refined after the first pass. Long witnesses are diffed in chunks, 
+	// with all their passes made at once.
+	private static class WitnessCollation
+	{
+		private JuxtaDocument witnessText;
+		private MoveList moveList;
+		private MultiPassDiff diff;
+		private DifferenceSet chunkedDifferenceSet;
+		
+		public WitnessCollation( JuxtaDocument witnessText, MoveList moveList )
+		{
+			this.witnessText = witnessText;
+			this.moveList = moveList;
+		}
+	}
+
+	private void collateWitness(Collation collation, WitnessCollation witness, JuxtaDocument baseText, int maxPasses,
+			CancellationToken cancellation)
+	{
+		JuxtaDocument witnessText = witness.witnessText;
+		MoveList moveList = witness.moveList;
+		
+ 		DifferenceSet differenceSet = new DifferenceSet();
+		differenceSet.setBaseDocument(baseText);
+		differenceSet.setWitnessDocument(witnessText);
+		differenceSet.setNumberOfSymbols(0);
+  	
+   		/// This call may have added inserts and deletes that overlap a move. So, we have to do the step of weeding out the moves again.
+   		docsAreDiffedNormallyThenBlocksAreRemoved(differenceSet, baseText, witness, maxPasses, cancellation);
+		DifferenceSet fullDifferenceSet = differenceSet;
+		differenceSet = new DifferenceSet();
+		differenceSet.setBaseDocument(baseText);
+		differenceSet.setWitnessDocument(witnessText);
+		differenceSet.setNumberOfSymbols(0);
+	    truncateDifferencesIntersectingMoves(fullDifferenceSet, differenceSet, moveList);
+    	
+    	for (int j = 0; j < moveList.size(); ++j)
+    	{
+    		MovesManager.FragmentPair fp = moveList.get(j);
+    		DocumentModel baseBlockDocument = new DocumentModel(baseText, fp.first.getStartOffset(OffsetRange.Space.ACTIVE), fp.first.getEndOffset(OffsetRange.Space.ACTIVE));
+    		DocumentModel witnessBlockDocument = new DocumentModel(witnessText, fp.second.getStartOffset(OffsetRange.Space.ACTIVE), fp.second.getEndOffset(OffsetRange.Space.ACTIVE));
+    		addBlockToDifferenceSet( differenceSet,baseBlockDocument, witnessBlockDocument, maxPasses, cancellation );
+    		collation.addMove(fp.first.getStartOffset(OffsetRange.Space.ACTIVE), fp.first.getEndOffset(OffsetRange.Space.ACTIVE));
+    	}
+        collation.addDifferenceSet(differenceSet);
+	}
+
+	private void publishProvisionalCollation( JuxtaDocument baseText, Collation collation )
+	{
+		collation.setProvisional(true);
+		synchronized( provisionalCollations )
+		{
+			provisionalCollations.put(baseText, collation);
+		}
+	}
+	
+	private Collation getProvisionalCollation( JuxtaDocument baseText )
+	{
+		synchronized( provisionalCollations )
+		{
+			return (Collation) provisionalCollations.get(baseText);
+		}
+	}
+
+	private void removeProvisionalCollation( JuxtaDocument baseText )
+	{
+		synchronized( provisionalCollations )
+		{
+			provisionalCollations.remove(baseText);
+		}
+	}
 
 	private boolean isBetween(int x, int lower, int upper)
 	{
@@ -312,11 +541,35 @@ public class ComparisonSet implements MovesManagerListener
 	}
 	
 	private void docsAreDiffedNormallyThenBlocksAreRemoved(DifferenceSet differenceSet, JuxtaDocument baseText,
-			JuxtaDocument witnessText, MoveList moveList)
+			WitnessCollation witness, int maxPasses, CancellationToken cancellation)
 	{
-		baseText.tokenize(tokenizerSettings);
-		witnessText.tokenize(tokenizerSettings);
-	    MultiPassDiff mpd = new MultiPassDiff(baseText, witnessText);
+		JuxtaDocument witnessText = witness.witnessText;
+		MoveList moveList = witness.moveList;
+		
+		// the moved blocks are looked up in the diff of the whole documents, so only long 
+		// documents without moves are diffed in chunks
+		if (moveList.size() == 0 && ChunkedDiff.isChunked(baseText, witnessText))
+		{
+			if (witness.chunkedDifferenceSet == null)
+				witness.chunkedDifferenceSet = new ChunkedDiff(baseText, witnessText, tokenizerSettings).diffDocuments(true, cancellation);
+			if (witness.chunkedDifferenceSet != null)
+				truncateDifferencesIntersectingMoves(witness.chunkedDifferenceSet, differenceSet, moveList);
+			return;
+		}
+		
+		// the token tables are needed for the first diff, and to look up the moved blocks in it
+		boolean tokenize = witness.diff == null || moveList.size() > 0;
+		if (tokenize)
+		{
+			baseText.tokenize(tokenizerSettings);
+			witnessText.tokenize(tokenizerSettings);
+		}
+		
+		if (witness.diff == null)
+			witness.diff = new MultiPassDiff(baseText, witnessText, maxPasses, maxPasses > 0, cancellation);
+		else
+			witness.diff.makeAdditionalPasses(maxPasses, maxPasses > 0, cancellation);
+	    MultiPassDiff mpd = witness.diff;
 	    DifferenceSet fullDifferenceSet = mpd.getDifferenceSet();
 
 	    // fullDifferenceSet has all the differences as if there are no moves. We want to delete all the differences
@@ -354,8 +607,11 @@ public class ComparisonSet implements MovesManagerListener
 			}
 		}
 		
-	    baseText.releaseTokenTable();
-	    witnessText.releaseTokenTable();
+		if (tokenize)
+		{
+		    baseText.releaseTokenTable();
+		    witnessText.releaseTokenTable();
+		}
 	}
 
 	private void truncateDifferencesIntersectingMoves(
@@ -476,11 +732,12 @@ public class ComparisonSet implements MovesManagerListener
 		}
 	}
 
-	private void addBlockToDifferenceSet(DifferenceSet differenceSet, DocumentModel baseBlockDocument, DocumentModel witnessBlockDocument) {
+	private void addBlockToDifferenceSet(DifferenceSet differenceSet, DocumentModel baseBlockDocument, DocumentModel witnessBlockDocument,
+			int maxPasses, CancellationToken cancellation) {
 		baseBlockDocument.tokenize(tokenizerSettings);
 		witnessBlockDocument.tokenize(tokenizerSettings);
 		
-	    MultiPassDiff mpd = new MultiPassDiff( baseBlockDocument, witnessBlockDocument);
+	    MultiPassDiff mpd = new MultiPassDiff( baseBlockDocument, witnessBlockDocument, maxPasses, maxPasses > 0, cancellation);
 		DifferenceSet blockDifferenceSet = mpd.getDifferenceSet();
 		//adjust for the blocks being in different offsets
 
@@ -531,6 +788,46 @@ public class ComparisonSet implements MovesManagerListener
 		return collation;
     }
 	
+	/**
+	 * Loads the collation for which the supplied document is the base document, or returns
+	 * its provisional first pass collation if the full one is still being worked out. Otherwise 
+	 * the collation is regenerated, as in <code>getCollation()</code>.
+	 * @param baseText The <code>JuxtaDocument</code> object of the base document.
+	 * @return A <code>Collation</code> object, which may be provisional.
+	 * @throws ReportedException If collation of this text fails or we fail to write the cache.
+	 */
+	public Collation getLatestCollation( JuxtaDocument baseText ) throws ReportedException
+	{
+		Collation collation = getAvailableCollation(baseText);
+		
+		if( collation == null )
+		{
+			collation = getCollation(baseText);
+		}
+		
+		return collation;
+	}
+	
+	/**
+	 * Loads the cached collation for which the supplied document is the base document, or
+	 * returns its provisional first pass collation. Unlike <code>getLatestCollation()</code>
+	 * this never collates, so it is safe to call while the background loader is running.
+	 * @param baseText The <code>JuxtaDocument</code> object of the base document.
+	 * @return A <code>Collation</code> object, which may be provisional, or <code>null</code>
+	 * if there is none yet.
+	 */
+	public Collation getAvailableCollation( JuxtaDocument baseText )
+	{
+		Collation collation = documentManager.loadCollation(baseText);
+		
+		if( collation == null )
+		{
+			collation = getProvisionalCollation(baseText);
+		}
+		
+		return collation;
+	}
+	
     
 	/**
 	 * Terminates background collation, does not return until loader is terminated.
@@ -539,6 +836,8 @@ public class ComparisonSet implements MovesManagerListener
     {
         if( backgroundLoader != null )
             backgroundLoader.stopLoader();
+        
+        cancelCollation();
 
         while( backgroundLoader != null && !backgroundLoader.isStopped() )
         {
@@ -556,6 +855,9 @@ public class ComparisonSet implements MovesManagerListener
         {
             backgroundLoader.pause(state);
             
+            // don't wait for the current collation, it is started again on resume
+            if( state ) cancelCollation();
+            
             // sleep till loader changes state
             while( backgroundLoader != null && backgroundLoader.isPaused() != state )
             {
@@ -597,19 +899,43 @@ public class ComparisonSet implements MovesManagerListener
         pauseBackgroundLoader(false);
     }
     
+    /**
+     * Collates the document and caches the collation. 
+     * @return The collation, or null if it was cancelled before it was done.
+     */
     private Collation addDocument( JuxtaDocument document ) throws ReportedException
     {
         SimpleLogger.logInfo("adding document "+document.getDocumentName()+" to comparison set.");
+        CancellationToken cancellation = new CancellationToken();
+        collationRun = cancellation;
+        
+        List documentList = documentManager.getDocumentList();
+        ProgressUpdater progressUpdater = new ProgressUpdater(document, documentList.size());
         //Collation collation = performBlockCollation(document);            
-        Collation collation = performMovesCollation(document);            
+        Collation collation = performMovesCollation(document, progressUpdater, cancellation);
+        if( collation == null )
+        {
+        	SimpleLogger.logInfo("collation of "+document.getDocumentName()+" cancelled.");
+        	return null;
+        }
+        
         documentManager.cacheCollation(document,collation);
+        removeProvisionalCollation(document);
+        proposeMoves(document, collation);
+        progressUpdater.finished();
         return collation;
     }
+    
+    private void cancelCollation()
+    {
+    	CancellationToken cancellation = collationRun;
+    	if( cancellation != null ) cancellation.cancel();
+    }
 
     // This adds a single document to all of the other documents. It doesn't get collated as a base in here.
     private void addToExistingCollations(JuxtaDocument witnessDocument) throws ReportedException
     {   
-        witnessDocument.tokenize(tokenizerSettings);
+        boolean tokenized = false;
         
         for( Iterator i = documentManager.getDocumentList().iterator(); i.hasNext(); )
         {
@@ -622,16 +948,30 @@ public class ComparisonSet implements MovesManagerListener
                 // if the collation has been prepared and exists
                 if( collation != null )
                 {
-                	baseDocument.tokenize(tokenizerSettings);
-                    
                     // compare the documents and record the differences
-            	    MultiPassDiff mpd = new MultiPassDiff(baseDocument, witnessDocument);
-                    DifferenceSet differenceSet = mpd.getDifferenceSet();  
+                    DifferenceSet differenceSet;
+                    if( ChunkedDiff.isChunked(baseDocument, witnessDocument) )
+                    {
+                        differenceSet = new ChunkedDiff(baseDocument, witnessDocument, tokenizerSettings).diffDocuments(true, null);
+                    }
+                    else
+                    {
+                        if( !tokenized )
+                        {
+                            witnessDocument.tokenize(tokenizerSettings);
+                            tokenized = true;
+                        }
+                        baseDocument.tokenize(tokenizerSettings);
+
+                        MultiPassDiff mpd = new MultiPassDiff(baseDocument, witnessDocument, true);
+                        differenceSet = mpd.getDifferenceSet();  
+
+                        // release the token cache
+                        baseDocument.releaseTokenTable();
+                    }
                     
                     collation.addDifferenceSet(differenceSet);
-
-                    // release the token cache
-                    baseDocument.releaseTokenTable();
+                    proposeMoves(baseDocument, witnessDocument, differenceSet.getDifferenceList());
                     
                     // write the collation with the new diffs to the cache
                     documentManager.cacheCollation(baseDocument,collation);
@@ -699,7 +1039,11 @@ public class ComparisonSet implements MovesManagerListener
                 {
                     try
                     {
-                        addDocument(baseText);
+                        // if it was paused part way, collate the document again
+                        if( addDocument(baseText) == null && !stopFlag )
+                        {
+                            documentList.addFirst(baseText);
+                        }
                     } 
                     catch (ReportedException e)
                     {
@@ -779,6 +1123,7 @@ public class ComparisonSet implements MovesManagerListener
         
         // remove the document and its cache file 
         documentManager.removeDocument(deadDocument);
+        removeProvisionalCollation(deadDocument);
         
         List documentList = documentManager.getDocumentList();
 
@@ -791,7 +1136,13 @@ public class ComparisonSet implements MovesManagerListener
             {
                 collation.removeWitness(deadDocument);
                 documentManager.cacheCollation(baseDocument,collation);
-            }            
+            }
+            
+            collation = getProvisionalCollation(baseDocument);
+            if( collation != null )
+            {
+                collation.removeWitness(deadDocument);
+            }
         }
     }
 
@@ -827,6 +1178,11 @@ public class ComparisonSet implements MovesManagerListener
 	{
 	    stopLoader();		
 		documentManager.clearCollationData();
+		synchronized( provisionalCollations )
+		{
+			provisionalCollations.clear();
+		}
+		documentManager.getMovesManager().clearProposedMoves();
 		LinkedList documentList = documentManager.getDocumentList(); 
 		resetProgressListeners(documentList);
 		startLoader(documentList);
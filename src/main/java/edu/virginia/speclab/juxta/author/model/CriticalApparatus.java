@@ -19,7 +19,6 @@
 
 package edu.virginia.speclab.juxta.author.model;
 
-import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -30,13 +29,12 @@ import edu.virginia.speclab.diff.Difference;
 import edu.virginia.speclab.diff.collation.Collation;
 import edu.virginia.speclab.diff.document.Image;
 import edu.virginia.speclab.diff.document.LocationMarker;
-import edu.virginia.speclab.diff.token.ConfigurableReader;
 import edu.virginia.speclab.diff.token.Token;
+import edu.virginia.speclab.diff.token.TokenScanner;
 import edu.virginia.speclab.diff.token.TokenizerSettings;
 import edu.virginia.speclab.exceptions.ReportedException;
 import edu.virginia.speclab.juxta.author.model.manifest.BiblioData;
 import edu.virginia.speclab.util.IntegerCouple;
-import edu.virginia.speclab.util.SimpleLogger;
 
 public class CriticalApparatus
 {
@@ -141,7 +139,7 @@ public class CriticalApparatus
             //also checks in punctuation before the token
             int offset = 1;
             int targetOffset = (token.getOffset()-offset>=0) ? token.getOffset()-offset : 0;
-            char targetChar = baseDocument.getSubString(targetOffset, 1).charAt(0);
+            char targetChar = baseDocument.getActiveText().charAt(targetOffset);
             
             while(Character.isWhitespace(targetChar)||!Character.isLetter(targetChar))
             {
@@ -161,7 +159,7 @@ public class CriticalApparatus
 	            	targetOffset = token.getOffset()-offset;
 	            else
 	            	break;
-	            targetChar = baseDocument.getSubString(targetOffset, 1).charAt(0);
+	            targetChar = baseDocument.getActiveText().charAt(targetOffset);
             }
 
             // no differences here
@@ -276,21 +274,13 @@ public class CriticalApparatus
     
     private String tokenizeText( String text, TokenizerSettings settings )
     {
-        ConfigurableReader tokenizer = new ConfigurableReader(settings);        
-        tokenizer.openString(text);
+        TokenScanner scanner = new TokenScanner(settings);        
+        scanner.scan(text);
         
-        String tokenizedText = null, nextToken;
-        
-        try
-        {
-            while( (nextToken = tokenizer.readSymbol()) != null )
-            {
-                tokenizedText = nextToken + " ";
-            }
-        } 
-        catch (IOException e)
+        String tokenizedText = null;
+        for( int i = 0; i < scanner.getTokenCount(); i++ )
         {
-            SimpleLogger.logError("Error occurred tokenizing text: "+text);
+            tokenizedText = scanner.getWord(i) + " ";
         }
         
         return tokenizedText;
@@ -20,7 +20,6 @@
 package edu.virginia.speclab.juxta.author.model;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -38,6 +37,7 @@ import edu.virginia.speclab.juxta.author.model.template.TemplateConfig;
 import edu.virginia.speclab.juxta.author.model.template.TemplateConfigManager;
 import edu.virginia.speclab.util.EncodingUtils;
 import edu.virginia.speclab.util.FileUtilities;
+import edu.virginia.speclab.util.SimpleLogger;
 
 /**
  * Top level object responsible for loading and saving documents from disk and serializing and 
@@ -49,7 +49,8 @@ import edu.virginia.speclab.util.FileUtilities;
  */
 public class DocumentManager implements Serializable
 {
-    private static final long MAX_FILE_SIZE = 1000000;  // 1M
+    public static final long DEFAULT_MAX_FILE_SIZE = 1000000;  // 1M
+    private static volatile long maxFileSize = DEFAULT_MAX_FILE_SIZE;
     
 	private JuxtaSessionFile sessionFile;
     private LinkedList<JuxtaDocument> documentList;
@@ -158,21 +159,40 @@ public class DocumentManager implements Serializable
      */
     public JuxtaDocument constructDocument( String name, String file) throws ReportedException
     {  
+        JuxtaDocument doc = importDocument(file);
+        nameDocument(doc, name);
+        return doc;
+    }
+
+    /**
+     * Sets the size of the largest file that can be imported. Documents over a million
+     * characters long are collated a chunk at a time.
+     * @param size The size in bytes.
+     */
+    public static void setMaxFileSize( long size )
+    {
+        maxFileSize = size;
+    }
+
+    public static long getMaxFileSize()
+    {
+        return maxFileSize;
+    }
+
+    /**
+     * Copies a file into the session and reads it. The document is not named or added to
+     * the document manager, so several files may be imported at once, each on its own thread.
+     * @param file The path to the document file.
+     * @return A <code>JuxtaDocument</code> object for the specified file.
+     * @throws ReportedException If there is an error loading the file.
+     */
+    JuxtaDocument importDocument( String file ) throws ReportedException
+    {
 		File srcFile = new File(file);
-		if( srcFile.length()>MAX_FILE_SIZE) {
+		if( srcFile.length()>maxFileSize) {
             throw new ReportedException(new Exception(),"The size of the file \"" + srcFile.getName() +
-                    "\" is " + Long.toString(srcFile.length())+ " bytes, which is too large to load.\nTry breaking the larger file into several files that are each smaller than " + Long.toString(MAX_FILE_SIZE)+ " bytes.");
-        }
-		
-		// fix the encoding and leave results in temp file.
-		File originalFile = null;
-		try {
-		    originalFile = EncodingUtils.fixEncoding(new FileInputStream(srcFile), file.endsWith("xml"));
-        } catch (IOException e1) {
-            throw new ReportedException(e1, "Unable to fix encoding of "+file);
+                    "\" is " + Long.toString(srcFile.length())+ " bytes, which is too large to load.\nTry breaking the larger file into several files that are each smaller than " + Long.toString(maxFileSize)+ " bytes.");
         }
-		
-		
 
 		File targetFile = new File( JuxtaSessionFile.JUXTA_TEMP_DIRECTORY + "/" +
 									JuxtaSessionFile.JUXTA_DOCUMENT_DIRECTORY + JuxtaSessionFile.JUXTA_SOURCE_DOCUMENT_DIRECTORY +
@@ -189,33 +209,64 @@ public class DocumentManager implements Serializable
             targetWrapperFile = new File(targetWrapperFileName + ".xml");
         }
 
-        // ensure that this is a unique filename in this dir
-  		targetFile = getUniqueFileName( targetFile );
-        // This too--this represents the "wrapper" doc that contains the bibliodata and a pointer to the source doc
-        targetWrapperFile = getUniqueFileName( targetWrapperFile );
+        synchronized( this )
+        {
+            // ensure that this is a unique filename in this dir
+            targetFile = getUniqueFileName( targetFile );
+            // This too--this represents the "wrapper" doc that contains the bibliodata and a pointer to the source doc
+            targetWrapperFile = getUniqueFileName( targetWrapperFile );
+
+            // claim both names before another import can pick them
+            try
+            {
+                targetFile.getParentFile().mkdirs();
+                targetFile.createNewFile();
+                targetWrapperFile.createNewFile();
+            }
+            catch (IOException e)
+            {
+                throw new ReportedException(e,"unable to copy file.");
+            }
+        }
 
         try
         {
-            // copy the source file to be where we want it right away, we'll just read it from there
-            FileUtilities.copyFile(originalFile,targetFile,false);
+            // copy the source file to be where we want it right away, we'll just read it from there.
+            // It is decoded as it is copied, so the copy is always UTF-8.
+            EncodingUtils.DetectedEncoding encoding = EncodingUtils.copyAsUtf8(srcFile, targetFile, file.endsWith("xml"));
+            if( encoding.isAmbiguous() )
+            {
+                SimpleLogger.logInfo("Encoding of \"" + srcFile.getName() + "\" is uncertain, read it as " + encoding);
+            }
+
+            // parse it and write it out to our final location--this produces two files
+            JuxtaDocumentFactory factory = new JuxtaDocumentFactory();
+            JuxtaDocument doc = factory.importFromFile(targetFile, targetWrapperFile);
+
+            // make sure the image files are where we want them
+            transferImageFiles( doc, srcFile );
+            return doc;
         }
         catch (IOException e)
         {
-            throw new ReportedException(e,"unable to copy file.");
+            targetFile.delete();
+            targetWrapperFile.delete();
+            throw new ReportedException(e,"Unable to fix encoding of "+file);
         }
+        catch (ReportedException e)
+        {
+            targetFile.delete();
+            targetWrapperFile.delete();
+            throw e;
+        }
+    }
 
-        JuxtaDocumentFactory factory = new JuxtaDocumentFactory();
-        JuxtaDocument doc = factory.readFromFile(targetFile);
-        
-        // write it out to our final location--this produces two files
-        factory.writeToFile(doc, targetWrapperFile);
-        
-        // make sure the image files are where we want them
-        transferImageFiles( doc, originalFile );
-        
-        // re-read it to normalize document behavior
-        doc = factory.readFromFile(targetWrapperFile);
-            
+    /**
+     * Gives an imported document a name that is unique among the documents in the 
+     * document manager. 
+     */
+    void nameDocument( JuxtaDocument doc, String name )
+    {
         // if there is not a document name specified by the XML, use the name given
         if( doc.getDocumentName().equals("") ) {
             doc.setDocumentName(getUniqueDocumentName(name));
@@ -223,8 +274,6 @@ public class DocumentManager implements Serializable
             String uniqueName = getUniqueDocumentName(doc.getDocumentName());
             doc.setDocumentName(uniqueName);
         }
-
-        return doc;
     }
 
     public JuxtaDocument addDocument( String name, String file ) throws ReportedException
@@ -326,6 +375,16 @@ public class DocumentManager implements Serializable
      * @throws ReportedException
      */
     public void save(File file, boolean fullSave) throws ReportedException {
+        writeWorkingFiles(fullSave);
+        writeArchive(file, fullSave);
+    }
+
+    /**
+     * Write the documents, templates and moves out to the session directory.
+     * @param fullSave <code>false</code> if the files are being written for export.
+     * @throws ReportedException
+     */
+    public void writeWorkingFiles(boolean fullSave) throws ReportedException {
         saveDocuments();
         this.templateConfig.save();
         if ( fullSave == false ) {
@@ -333,7 +392,16 @@ public class DocumentManager implements Serializable
         } else {
             movesManager.save(JuxtaSessionFile.JUXTA_TEMP_DIRECTORY);
         }
-        sessionFile.save(file, documentList, fullSave);
+    }
+
+    /**
+     * Write the session archive from the files in the session directory. 
+     * @param file
+     * @param fullSave
+     * @throws ReportedException
+     */
+    public void writeArchive(File file, boolean fullSave) throws ReportedException {
+        sessionFile.save(file, new LinkedList<JuxtaDocument>(this.documentList), fullSave);
     }
 
     /**
@@ -37,6 +37,7 @@ public class JuxtaDocument extends DocumentModel {
     private List<JuxtaDocumentListener> listeners;
     private String parseTemplateGuid;
     private List<Integer> acceptedRevisions;
+    private ParseEventRecording parseEvents;
 
     public JuxtaDocument(DocumentModel document, BiblioData biblioData) {
         super(document);
@@ -112,6 +113,18 @@ public class JuxtaDocument extends DocumentModel {
         return sb.toString();
     }
     
+    /**
+     * The events from parsing the source document, replayed when the document
+     * is reparsed. <code>null</code> if the source has to be read again.
+     */
+    ParseEventRecording getParseEvents() {
+        return this.parseEvents;
+    }
+
+    void setParseEvents( ParseEventRecording parseEvents ) {
+        this.parseEvents = parseEvents;
+    }
+    
     /**
      * Check if this document has accepted any revisions
      */
@@ -232,7 +245,7 @@ public class JuxtaDocument extends DocumentModel {
     }
 
     public boolean containsOnlyWhitespace(int start, int end) {
-        String s = this.getDocumentText().substring(start, end);
+        CharSequence s = this.getActiveText().subSequence(start, end);
         for (int i = 0; i < s.length(); i++) {
             if (!Character.isWhitespace(s.charAt(i)))
                 return false;
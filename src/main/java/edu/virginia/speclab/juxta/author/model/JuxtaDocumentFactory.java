@@ -60,6 +60,9 @@ public class JuxtaDocumentFactory {
 
     public static final String DEFAULT_ENCODING = "UTF-8";
 
+    // the root element of the wrapper documents written for each source document
+    private static final String WRAPPER_ROOT_ELEMENT = "juxta-document";
+
     public JuxtaDocumentFactory() {
         this.encodingCharSet = Charset.availableCharsets().get(DEFAULT_ENCODING);
         this.juxtaVersion = Juxta.JUXTA_VERSION;
@@ -78,6 +81,19 @@ public class JuxtaDocumentFactory {
      * @throws ReportedException If there was a problem reading the file.
      */
     public JuxtaDocument readFromFile(File documentFile) throws ReportedException {
+        return readFromFile(documentFile, null);
+    }
+
+    /**
+     * Reads the specified text or xml file, parses it and returns a juxta document model object.
+     * The results of parsing the source document the file refers to are kept in the cache file,
+     * and taken from it instead when the document is read again.
+     * @param documentFile The path to the target file.
+     * @param parseCacheFile The parse cache for the source document, or <code>null</code>.
+     * @return A <code>JuxtaDocument</code> object.
+     * @throws ReportedException If there was a problem reading the file.
+     */
+    public JuxtaDocument readFromFile(File documentFile, File parseCacheFile) throws ReportedException {
         JuxtaDocument document = null;
         try {
             JuxtaXMLParser xmlParser = new JuxtaXMLParser(documentFile, juxtaVersion, encodingCharSet);
@@ -97,37 +113,26 @@ public class JuxtaDocumentFactory {
                 String referencedFilename = docPointer.getReferencedFilename();
                 referencedFile = new File(documentFile.getParent() + File.separator + referencedFilename);
 
-                // Generate a new JuxtaXMLParser for the parsing of the inner file
-                xmlParser = new JuxtaXMLParser(referencedFile, juxtaVersion, encodingCharSet);
-                
-                // setup the parse template
-                if ( parseTemplate != null) {
-                    xmlParser.setExcludedTagSet( parseTemplate.getExcludedTagSet() );
-                    xmlParser.setNotableTagSet( parseTemplate.getNotableTagSet());
-                    xmlParser.setNewlineTagSet( parseTemplate.getNewlineTagSet() );
-                }
-                
-                // Now we know if ths document has accepted changes listed
-                // in the wrapper file. If this is the case, let the parser
-                // know that it shoud use them
-                xmlParser.setRevisionsToAccept( docPointer.getAcceptedRevsisons() );
+                // Generate a new JuxtaXMLParser for the parsing of the inner file, set up with
+                // the parse template and any accepted changes listed in the wrapper file
+                xmlParser = createSourceParser(referencedFile, parseTemplate, docPointer.getAcceptedRevsisons());
 
-                // Parse again!
-                xmlParser.parse();
+                // Parse again! (or restore the last parse if nothing has changed)
+                if (parseCacheFile != null) {
+                    xmlParser.parse(parseCacheFile);
+                } else {
+                    xmlParser.parse();
+                }
 
                 // Generate a SourceDocumentModel from the results of the parsing
-                sourceDoc = new SourceDocumentModel(referencedFile.getName(), xmlParser.getXMLText(),
-                    xmlParser.getRootNode(), xmlParser.getOffsetMap(), 
-                    xmlParser.getDocumentType().equals(DocumentType.XML));
+                sourceDoc = createSourceDocument(referencedFile, xmlParser);
             } else {
                 // This only happens when the document is first read (and there is no wrapper document)
                 // or as a backwards compatability step for previous juxta bundles that did not
                 // separate their documents in this way.
 
                 // Create a SourceDocumentModel from information in our parser.
-                sourceDoc = new SourceDocumentModel(documentFile.getName(), xmlParser.getXMLText(),
-                    xmlParser.getRootNode(), xmlParser.getOffsetMap(), 
-                    xmlParser.getDocumentType().equals(DocumentType.XML));
+                sourceDoc = createSourceDocument(documentFile, xmlParser);
 
                 // We don't have any of this data, so set these to be empty TagSets
                 sourceDoc.setExcludedTagSet(new TagSet());
@@ -150,48 +155,119 @@ public class JuxtaDocumentFactory {
                 }
             }
 
-            // let the SourceDocumentModel know about all of the tags we saw
-            sourceDoc.setElementsEncountered(xmlParser.getElementsEncountered());
+            document = createDocument(documentFile, xmlParser, sourceDoc, biblioData, parseTemplate,
+                docPointer.getAcceptedRevsisons());
+        } catch (IOException e) {
+            throw new ReportedException(e, "An error occured reading the file " + documentFile + ".");
+        }
+        return document;
+    }
 
-            OffsetRange activeRangeFromXPath = null;
-            if (xmlParser.getDocumentType() == JuxtaXMLParser.DocumentType.XML) {
-  
-                JuxtaXMLNode root = xmlParser.getRootNode();
-                activeRangeFromXPath = new OffsetRange();
-                activeRangeFromXPath.set(root.getXMLStartOffset(), root.getXMLEndOffset(), OffsetRange.Space.ORIGINAL);
+    /**
+     * Reads a source file newly added to the session and writes the wrapper document that
+     * refers to it. This gives the same document as reading the wrapper back in with
+     * <code>readFromFile</code>, but the source is only parsed once: the parse template
+     * depends on the root element, so the events of that parse are played back with the
+     * template's tag sets rather than reading the file again.
+     * @param sourceFile The source document, in the session's source document directory.
+     * @param wrapperFile The wrapper document to write.
+     * @return A <code>JuxtaDocument</code> object.
+     * @throws ReportedException If there was a problem reading or writing the files.
+     */
+    public JuxtaDocument importFromFile(File sourceFile, File wrapperFile) throws ReportedException {
+        JuxtaDocument document = null;
+        try {
+            JuxtaXMLParser sourceParser = new JuxtaXMLParser(sourceFile, juxtaVersion, encodingCharSet);
+            sourceParser.parse();
+            BiblioData biblioData = sourceParser.getBiblioData();
+
+            JuxtaXMLParserDocumentPointerTagHandler docPointer = sourceParser.getDocumentPointer();
+            ParseTemplate parseTemplate = getParseTemplate(docPointer, sourceParser.getRootNode());
+            String acceptedRevisions = docPointer.getAcceptedRevsisons();
+
+            // a source with no template of its own gets the default for the wrapper document,
+            // as it would when the wrapper is read back in
+            if (parseTemplate == null) {
+                parseTemplate = getTemplateConfig().getDefaultTemplate(WRAPPER_ROOT_ELEMENT);
             }
 
-            DocumentModel doc = new DocumentModel(sourceDoc, documentFile.getPath(), xmlParser.getFlattenedText(),
-                encodingCharSet.displayName());
+            JuxtaXMLParser xmlParser = createSourceParser(sourceFile, parseTemplate, acceptedRevisions);
+            xmlParser.parse(sourceParser.getParseEvents());
 
-            if (activeRangeFromXPath != null) {
-                doc.setActiveRange(activeRangeFromXPath);
-            }
+            SourceDocumentModel sourceDoc = createSourceDocument(sourceFile, xmlParser);
+            document = createDocument(wrapperFile, xmlParser, sourceDoc, biblioData, parseTemplate,
+                acceptedRevisions);
+        } catch (IOException e) {
+            throw new ReportedException(e, "An error occured reading the file " + sourceFile + ".");
+        }
 
-            doc.setLocationMarkerList(xmlParser.getLocationMarkerList());
-            doc.setNotes(xmlParser.getNotes());
+        writeToFile(document, wrapperFile);
+        return document;
+    }
 
-            // Construct the JuxtaDocument from this document model.
-            document = new JuxtaDocument(doc, biblioData);
-            if ( parseTemplate != null ) {
-                document.setParseTemplateGuid(parseTemplate.getGuid());
-            }
-            document.setAcceptedRevisions( docPointer.getAcceptedRevsisons() );
-            document.setRevisions( xmlParser.getRevisions() );
-            document.setPageBreaks( xmlParser.getPageBreaks() );
-        } catch (IOException e) {
-            throw new ReportedException(e, "An error occured reading the file " + documentFile + ".");
+    private JuxtaXMLParser createSourceParser(File sourceFile, ParseTemplate parseTemplate, String acceptedRevisions)
+        throws FileNotFoundException {
+        JuxtaXMLParser xmlParser = new JuxtaXMLParser(sourceFile, juxtaVersion, encodingCharSet);
+
+        // setup the parse template
+        if ( parseTemplate != null) {
+            xmlParser.setExcludedTagSet( parseTemplate.getExcludedTagSet() );
+            xmlParser.setNotableTagSet( parseTemplate.getNotableTagSet());
+            xmlParser.setNewlineTagSet( parseTemplate.getNewlineTagSet() );
+        }
+
+        // If this document has accepted changes, let the parser
+        // know that it shoud use them
+        xmlParser.setRevisionsToAccept( acceptedRevisions );
+        return xmlParser;
+    }
+
+    private SourceDocumentModel createSourceDocument(File sourceFile, JuxtaXMLParser xmlParser) {
+        return new SourceDocumentModel(sourceFile.getName(), xmlParser.getXMLText(),
+            xmlParser.getRootNode(), xmlParser.getOffsetMap(), 
+            xmlParser.getDocumentType().equals(DocumentType.XML));
+    }
+
+    private JuxtaDocument createDocument(File documentFile, JuxtaXMLParser xmlParser, SourceDocumentModel sourceDoc,
+        BiblioData biblioData, ParseTemplate parseTemplate, String acceptedRevisions) {
+
+        // let the SourceDocumentModel know about all of the tags we saw
+        sourceDoc.setElementsEncountered(xmlParser.getElementsEncountered());
+
+        OffsetRange activeRangeFromXPath = null;
+        if (xmlParser.getDocumentType() == JuxtaXMLParser.DocumentType.XML) {
+
+            JuxtaXMLNode root = xmlParser.getRootNode();
+            activeRangeFromXPath = new OffsetRange();
+            activeRangeFromXPath.set(root.getXMLStartOffset(), root.getXMLEndOffset(), OffsetRange.Space.ORIGINAL);
+        }
+
+        DocumentModel doc = new DocumentModel(sourceDoc, documentFile.getPath(), xmlParser.getFlattenedText(),
+            encodingCharSet.displayName());
+
+        if (activeRangeFromXPath != null) {
+            doc.setActiveRange(activeRangeFromXPath);
         }
+
+        doc.setLocationMarkerList(xmlParser.getLocationMarkerList());
+        doc.setNotes(xmlParser.getNotes());
+
+        // Construct the JuxtaDocument from this document model.
+        JuxtaDocument document = new JuxtaDocument(doc, biblioData);
+        if ( parseTemplate != null ) {
+            document.setParseTemplateGuid(parseTemplate.getGuid());
+        }
+        document.setAcceptedRevisions( acceptedRevisions );
+        document.setRevisions( xmlParser.getRevisions() );
+        document.setPageBreaks( xmlParser.getPageBreaks() );
+        document.setParseEvents( xmlParser.getParseEvents() );
         return document;
     }
-    
+
 
     private ParseTemplate getParseTemplate(JuxtaXMLParserDocumentPointerTagHandler docPointer, JuxtaXMLNode rootNode) {
         
-        TemplateConfig cfg = TemplateConfigManager.getInstance().getConfig(ConfigType.SESSION);
-        if( cfg == null ) {
-            cfg = TemplateConfigManager.getInstance().getConfig(ConfigType.MASTER);
-        }
+        TemplateConfig cfg = getTemplateConfig();
         
         String templateGuid = docPointer.getParseTemplate();
         if (templateGuid == null || templateGuid.length() == 0) {
@@ -203,6 +279,15 @@ public class JuxtaDocumentFactory {
     }
 
 
+    private TemplateConfig getTemplateConfig() {
+        TemplateConfig cfg = TemplateConfigManager.getInstance().getConfig(ConfigType.SESSION);
+        if( cfg == null ) {
+            cfg = TemplateConfigManager.getInstance().getConfig(ConfigType.MASTER);
+        }
+        return cfg;
+    }
+
+
     /**
      * Writes the document to the target source file. This overwrites any existing file.
      * @param document The document to write.
@@ -248,7 +333,15 @@ public class JuxtaDocumentFactory {
             xmlParser.setNotableTagSet(sourceDocument.getNotableTagSet());
             xmlParser.setNewlineTagSet(sourceDocument.getNewlineTagSet());
             xmlParser.setRevisionsToAccept( document.getAcceptedRevisionsString() );
-            xmlParser.parse();
+
+            // replay the events from the last parse if there are any, rather than reading the file again
+            ParseEventRecording parseEvents = document.getParseEvents();
+            if (parseEvents != null && parseEvents.getRawXMLText().equals(sourceDocument.getRawXMLContent())) {
+                xmlParser.parse(parseEvents);
+            } else {
+                xmlParser.parse();
+                document.setParseEvents(xmlParser.getParseEvents());
+            }
 
             JuxtaXMLNode root = xmlParser.getRootNode();
 
@@ -291,7 +384,7 @@ public class JuxtaDocumentFactory {
             StringBuffer buffer = new StringBuffer();
 
             buffer.append("<?xml version=\"1.0\" encoding=\"" + encodingCharSet.displayName() + "\"?>\n");
-            buffer.append("<juxta-document>\n");
+            buffer.append("<" + WRAPPER_ROOT_ELEMENT + ">\n");
 
             writeBilbioData(buffer);
             buffer.append("<juxta-doc-reference filename=\"" + JuxtaSessionFile.JUXTA_SOURCE_DOCUMENT_DIRECTORY
@@ -316,7 +409,7 @@ public class JuxtaDocumentFactory {
             }
 
             buffer.append("</juxta-doc-reference>");
-            buffer.append("</juxta-document>\n");
+            buffer.append("</" + WRAPPER_ROOT_ELEMENT + ">\n");
 
             OutputStreamWriter outStream = new OutputStreamWriter(new FileOutputStream(saveFile), encodingCharSet);
             BufferedWriter writer = new BufferedWriter(outStream);
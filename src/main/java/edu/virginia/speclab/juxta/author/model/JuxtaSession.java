@@ -20,10 +20,18 @@ package edu.virginia.speclab.juxta.author.model;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
-
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.virginia.speclab.diff.OffsetRange;
 import edu.virginia.speclab.diff.OffsetRange.Space;
 import edu.virginia.speclab.diff.collation.Collation;
 import edu.virginia.speclab.diff.token.TokenizerSettings;
@@ -43,6 +51,7 @@ import edu.virginia.speclab.juxta.author.view.JuxtaAuthorFrame;
  */
 public class JuxtaSession {
     private boolean modified;
+    private int modificationCount;
     private boolean exported;
     private File saveFile;
 
@@ -54,6 +63,8 @@ public class JuxtaSession {
     private DocumentManager documentManager;
     private AnnotationManager annotationManager;
     private LinkedList<JuxtaSessionListener> listeners;
+    private SessionJournal journal;
+    private SessionSaver saver;
 
     public static final String DEFAULT_BASE_PATH = System.getProperty("user.dir") + File.separator + "sample";
     public static final String JUXTA_FILE_EXTENSION = "jxt";
@@ -65,6 +76,7 @@ public class JuxtaSession {
         currentCollationFilter = new HashSet<JuxtaDocument>();
         annotationManager = new AnnotationManager(this);
         this.documentManager.getMovesManager().setSession(this);
+        this.saver = new SessionSaver(this);
         this.exported = false;
     }
     
@@ -129,6 +141,14 @@ public class JuxtaSession {
             // convert any move markers found to moves.
             LegacyMoveDataConverter.convertMoveMarkers(session);
 
+            // bring back any changes that were made after the last save, but never saved
+            SessionJournal journal = SessionJournal.open(file);
+            boolean replayed = (journal != null && journal.replay(session));
+            session.attachJournal(journal);
+            if (replayed) {
+                session.markAsModified();
+            }
+
             return session;
         }
     }
@@ -166,33 +186,103 @@ public class JuxtaSession {
                 "Error writing juxta session file, file is null.");
         }
 
-        try {
-            // save the manifest file to the temp dir
-            DocumentManifestXMLFile juxtaFile = new DocumentManifestXMLFile(this);
-            juxtaFile.save();
+        // the working files can't be rewritten while a background save reads them
+        this.saver.waitForSave();
 
-            // save to data file
-            this.documentManager.save(file, true);
-            this.saveFile = file;
-            this.modified = false;
+        int savedRecords = (this.journal != null) ? this.journal.getRecordCount() : 0;
+        int savedModificationCount = this.modificationCount;
+        writeWorkingFiles(true);
+        writeArchive(file, true);
+        saveCompleted(file, savedRecords, savedModificationCount);
+    }
 
-            
-        } catch (IOException e) {
-            throw new ReportedException(e, "Error saving juxta session.");
-        }
+    /**
+     * Serializes this session to the specified file without waiting for the file to 
+     * be written. Only the session's working files are written before this returns.
+     * @param file A valid <code>File</code> object. 
+     * @param callBack Notified on the event dispatch thread when the file has been written.
+     */
+    public void saveSessionInBackground(File file, SaveCallBack callBack) {
+        this.saver.save(file, callBack);
     }
     
     public void saveSessionForExport(File file) throws ReportedException, LoggedException {
+        this.saver.waitForSave();
+        writeWorkingFiles(false);
+        writeArchive(file, false);
+    }
+
+    /**
+     * Write the manifest and the other files of the session to the session directory. 
+     * @param fullSave <code>false</code> if the files are being written for export.
+     */
+    void writeWorkingFiles(boolean fullSave) throws ReportedException {
         try {
             // save the manifest file to the temp dir
             DocumentManifestXMLFile juxtaFile = new DocumentManifestXMLFile(this);
             juxtaFile.save();
-
-            // save to data file
-            this.documentManager.save(file, false);
-            
         } catch (IOException e) {
-            throw new ReportedException(e, "Error saving juxta session for export.");
+            throw new ReportedException(e, "Error saving juxta session.");
+        }
+
+        this.documentManager.writeWorkingFiles(fullSave);
+    }
+
+    /**
+     * Write the session archive from the files in the session directory. This doesn't 
+     * touch the session itself, so it can run while the session is being edited.
+     */
+    void writeArchive(File file, boolean fullSave) throws ReportedException {
+        this.documentManager.writeArchive(file, fullSave);
+    }
+
+    /**
+     * Called when the session has been saved. 
+     * @param file The file the session was saved to.
+     * @param savedRecords The number of journal records when the save began. 
+     * @param savedModificationCount The modification count when the save began.
+     */
+    void saveCompleted(File file, int savedRecords, int savedModificationCount) {
+        this.saveFile = file;
+        if (savedModificationCount == this.modificationCount) {
+            this.modified = false;
+        }
+
+        if (this.journal != null) {
+            this.journal.compact(file, savedRecords);
+        } else {
+            attachJournal(SessionJournal.open(file));
+        }
+        fireSessionSaved();
+    }
+
+    private void attachJournal(SessionJournal journal) {
+        if (this.journal != null) {
+            this.annotationManager.removeListener(this.journal);
+        }
+
+        this.journal = journal;
+        if (this.journal != null) {
+            this.annotationManager.addListener(this.journal);
+        }
+    }
+
+    /**
+     * Obtain the journal of the changes made since the session was last saved.
+     * @return The journal, or <code>null</code> if the session has not been saved yet.
+     */
+    public SessionJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Throw away the changes made since the session was last saved, so they are not 
+     * brought back the next time the session is opened.
+     */
+    public void discardUnsavedChanges() {
+        this.saver.stop();
+        if (this.journal != null) {
+            this.journal.discard();
         }
     }
 
@@ -214,6 +304,12 @@ public class JuxtaSession {
         }
     }
 
+    private void fireSessionSaved() {
+        for (JuxtaSessionListener listener : this.listeners ) {
+            listener.sessionSaved();
+        }
+    }
+
     public void addDocument(JuxtaDocument document, int fragmentStart, int fragmentLength, LoaderCallBack callBack)
         throws ReportedException {
         // This adds the portion of the document that is currently selected in the File View.
@@ -267,24 +363,24 @@ public class JuxtaSession {
 
     }
 
-    private JuxtaDocument addDocument(String documentName, String fileName, String encoding) throws ReportedException {
-        JuxtaDocument document = documentManager.addDocument(documentName, fileName);
-        if (document != null) {
-            comparisonSet.addCollation(document);
-            fireDocumentAdded(document);
-        }
+    private JuxtaDocument addDocument(String documentName, JuxtaDocument document) throws ReportedException {
+        documentManager.nameDocument(document, documentName);
+        documentManager.addExistingDocument(document);
+        comparisonSet.addCollation(document);
+        fireDocumentAdded(document);
 
         markAsModified();
         return document;
     }
 
-    private JuxtaDocument addDocument(String documentName, String fileName, int fragmentStart, int fragmentLength,
-        String encoding) throws ReportedException {
-        JuxtaDocument document = documentManager.addDocumentFragment(documentName, fileName, fragmentStart,fragmentLength);
-        if (document != null) {
-            comparisonSet.addCollation(document);
-            fireDocumentAdded(document);
-        }
+    private JuxtaDocument addDocument(String documentName, JuxtaDocument document, int fragmentStart,
+        int fragmentLength) throws ReportedException {
+        documentManager.nameDocument(document, documentName);
+        documentManager.addExistingDocument(document);
+        document.setActiveRange(new OffsetRange(document, fragmentStart, fragmentStart + fragmentLength,
+            OffsetRange.Space.ACTIVE));
+        comparisonSet.addCollation(document);
+        fireDocumentAdded(document);
 
         markAsModified();
         return document;
@@ -298,6 +394,8 @@ public class JuxtaSession {
     /**
      * Sets the specified document to be the current base text for display purposes. If 
      * the document has not yet been collated as the base text, collate it first then return.
+     * While the document is being collated in the background, its provisional first pass
+     * collation is used instead.
      * @param document The <code>DocumentMode</code> of the new base text.
      * @return <code>true</code> if a collation already existed for this document, <code>false</code> otherwise.  
      * @throws ReportedException If there is an error collating this document.
@@ -306,7 +404,7 @@ public class JuxtaSession {
         if (document == null) {
             this.currentCollation = null;
         } else {
-            Collation collation = this.comparisonSet.getCollation(document);
+            Collation collation = this.comparisonSet.getLatestCollation(document);
 
             if (collation == null)
                 return false;
@@ -320,6 +418,25 @@ public class JuxtaSession {
         return true;
     }
 
+    /**
+     * Replace the provisional collation of the current base text with a newer one, once
+     * the background loader has one. Never collates the document. Call on the event thread.
+     * @param document The base text the loader has a newer collation of.
+     */
+    public void refreshCurrentCollation(JuxtaDocument document) {
+        if (this.currentCollation == null || !this.currentCollation.isProvisional()
+            || this.currentCollation.getBaseDocumentID() != document.getID())
+            return;
+
+        Collation collation = this.comparisonSet.getAvailableCollation(document);
+        if (collation == null || collation == this.currentCollation)
+            return;
+
+        this.currentCollation = collation;
+        currentCollation.setCollationFilter(currentCollationFilter);
+        fireCurrentCollationChanged(currentCollation);
+    }
+
     /**
      * Obtain the <code>DocumentManager</code> object for this session.
      * @return
@@ -340,6 +457,22 @@ public class JuxtaSession {
         this.currentCollation = null;
     }
 
+    /**
+     * Accepts a move proposed by the comparison set and, if it involves the current base text, 
+     * reloads its collation to show the move.
+     * @param move The proposed move.
+     * @throws ReportedException If the move could not be fitted into the collations.
+     */
+    public void acceptProposedMove(MovesManager.FragmentPair move) throws ReportedException {
+        comparisonSet.acceptProposedMove(move);
+
+        if (currentCollation != null) {
+            int baseID = currentCollation.getBaseDocumentID();
+            if (baseID == move.first.getDocumentID() || baseID == move.second.getDocumentID())
+                setBaseText(documentManager.lookupDocument(baseID));
+        }
+    }
+
     public boolean isLineated() {
         return lineated;
     }
@@ -408,6 +541,13 @@ public class JuxtaSession {
         return modified;
     }
 
+    /**
+     * @return A count that goes up every time the session is modified.
+     */
+    public int getModificationCount() {
+        return modificationCount;
+    }
+
     /**
      * Obtain the current save file for this session if there is one. 
      * @return A <code>File</code> pointing to the current save file or null if there isn't one.
@@ -429,7 +569,9 @@ public class JuxtaSession {
      */
     public void markAsModified() {
         this.modified = true;
+        this.modificationCount++;
         this.exported = false;
+        this.saver.sessionModified();
         fireSessionModified();
     }
 
@@ -441,6 +583,10 @@ public class JuxtaSession {
         if (comparisonSet != null)
             comparisonSet.stopLoader();
 
+        // let a save in progress finish
+        this.saver.stop();
+        this.saver.waitForSave();
+
     }
 
     /**
@@ -456,18 +602,48 @@ public class JuxtaSession {
 
     /**
      * Call when parse template <code>template</code> has changed. All documents
-     * that use it will be reparsed.
+     * that use it will be reparsed. The documents are reparsed in parallel, each
+     * from the events recorded when it was last parsed.
      * 
      * @param template
      * @throws ReportedException 
      */
-    public void reparseDocuments(ParseTemplate template) throws ReportedException {
-        for (JuxtaDocument doc : getDocumentManager().getDocumentList()) {
+    public void reparseDocuments(final ParseTemplate template) throws ReportedException {
+        List<Callable<Object>> reparseTasks = new ArrayList<Callable<Object>>();
+        for (final JuxtaDocument doc : getDocumentManager().getDocumentList()) {
             if (doc.getParseTemplateGuid().equals(template.getGuid())) {
-                JuxtaDocumentFactory factory = new JuxtaDocumentFactory(doc.getEncoding());
-                factory.reparseDocument(doc, template);
+                reparseTasks.add(new Callable<Object>() {
+                    public Object call() throws ReportedException {
+                        JuxtaDocumentFactory factory = new JuxtaDocumentFactory(doc.getEncoding());
+                        factory.reparseDocument(doc, template);
+                        return null;
+                    }
+                });
             }
         }
+
+        if (reparseTasks.isEmpty()) {
+            return;
+        }
+
+        int threadCount = Math.min(reparseTasks.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<Object>> results = executor.invokeAll(reparseTasks);
+            for (Future<Object> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ReportedException(e, "Reparsing the documents was interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ReportedException) {
+                throw (ReportedException) e.getCause();
+            }
+            throw new ReportedException(e, "Error reparsing documents.");
+        } finally {
+            executor.shutdown();
+        }
     }
 
     private class DocumentSetLoader extends Thread {
@@ -509,14 +685,29 @@ public class JuxtaSession {
             if (files == null)
                 return;
 
+            // read the files in parallel, each file on its own
+            int threadCount = Math.max(1, Math.min(files.length, Runtime.getRuntime().availableProcessors()));
+            ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+            List<Future<JuxtaDocument>> imports = new ArrayList<Future<JuxtaDocument>>(files.length);
+            for (int i = 0; i < files.length; i++) {
+                final String path = files[i].getAbsolutePath();
+                imports.add(executor.submit(new Callable<JuxtaDocument>() {
+                    public JuxtaDocument call() throws ReportedException {
+                        return documentManager.importDocument(path);
+                    }
+                }));
+            }
+            executor.shutdown();
+
+            // but name, collate and report them in the order they were given
             for (int i = 0; i < files.length; i++) {
                 try {
                     String fileName = files[i].getName();
-                    String path = files[i].getAbsolutePath();
+                    JuxtaDocument document = getImportedDocument(imports.get(i), fileName);
                     if (fragment) {
-                        addDocument(fileName, path, fragmentStart, fragmentLength, fileEncoding);
+                        addDocument(fileName, document, fragmentStart, fragmentLength);
                     } else {
-                        addDocument(fileName, path, fileEncoding);
+                        addDocument(fileName, document);
                     }
                 } catch (LoggedException e) {
                     ErrorHandler.handleException(e);
@@ -526,6 +717,21 @@ public class JuxtaSession {
             if (callBack != null)
                 callBack.loadingComplete();
         }
+
+        private JuxtaDocument getImportedDocument(Future<JuxtaDocument> result, String fileName)
+            throws ReportedException {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ReportedException(e, "Adding the document " + fileName + " was interrupted.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof ReportedException) {
+                    throw (ReportedException) e.getCause();
+                }
+                throw new ReportedException(e, "Error adding the document " + fileName + ".");
+            }
+        }
     }
 
     public AnnotationManager getAnnotationManager() {
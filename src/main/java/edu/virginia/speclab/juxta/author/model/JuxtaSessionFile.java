@@ -27,6 +27,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.zip.ZipException;
 
 import edu.virginia.speclab.diff.collation.Collation;
@@ -42,6 +43,8 @@ import edu.virginia.speclab.juxta.author.model.manifest.DocumentManifestXMLFile;
 import edu.virginia.speclab.juxta.author.model.template.TemplateConfig;
 import edu.virginia.speclab.util.FileUtilities;
 import edu.virginia.speclab.util.SimpleLogger;
+import edu.virginia.speclab.util.ZipArchive;
+import edu.virginia.speclab.util.ZipArchiveWriter;
 
 /**
  * Whereas <code>JuxtaSession</code> represents the session currently in memory,
@@ -60,11 +63,21 @@ public class JuxtaSessionFile
 	private File archiveFile;
     private File sessionFile, sessionBaseDirectory;
     private File cacheDirectory;
+
+    // the archive the session was opened from, its images and collation caches
+    // are only extracted into the session directory when they are needed
+    private static ZipArchive sessionArchive;
+    
+    // the archive is written on the save thread while the session is in use. Writing it holds 
+    // the write lock, changing the files in the session directory or extracting them from the 
+    // archive holds the read lock. Take this before the lock on the class, never after it.
+    private static final ReentrantReadWriteLock sessionFileLock = new ReentrantReadWriteLock();
 	
 	private static final String SYSTEM_TEMP_DIRECTORY = System.getProperty("java.io.tmpdir");
 	public static final String JUXTA_TEMP_DIRECTORY =  SYSTEM_TEMP_DIRECTORY + "/juxta";
 	public static final String JUXTA_DOCUMENT_DIRECTORY =  "docs/";
     public static final String JUXTA_SOURCE_DOCUMENT_DIRECTORY = "source/";
+    public static final String JUXTA_IMAGE_DIRECTORY = "images/";
 	public static final String JUXTA_INDEX_DIRECTORY = "index";
     private static final String CACHE_DIRECTORY = "juxta_cache";
 
@@ -80,6 +93,23 @@ public class JuxtaSessionFile
     {       
         this.archiveFile = archiveFile;
         
+        // wait for a save of the previous session to finish before its directory is cleared
+        sessionFileLock.writeLock().lock();
+        try
+        {
+            openSessionDirectory(archiveFile);
+        }
+        finally
+        {
+            sessionFileLock.writeLock().unlock();
+        }
+    }
+    
+    private void openSessionDirectory( File archiveFile ) throws ReportedException
+    {
+        // the session directory is about to be cleared, so the previous archive is finished with
+        closeSessionArchive();
+
         // create the session directory
         initializeSessionDirectory(new File(JUXTA_TEMP_DIRECTORY));
 
@@ -99,7 +129,13 @@ public class JuxtaSessionFile
         {
 			try 
 			{
-				FileUtilities.unzip(archiveFile,this.sessionBaseDirectory);
+				ZipArchive archive = new ZipArchive(archiveFile,this.sessionBaseDirectory);
+				
+				// extract the manifest, the documents and the session settings now. Images and 
+				// collation caches are the bulk of a large archive, leave them until they are used.
+				archive.extractAll( new String[] { "" }, 
+				                    new String[] { JUXTA_DOCUMENT_DIRECTORY + JUXTA_IMAGE_DIRECTORY, CACHE_DIRECTORY + "/" } );
+				setSessionArchive(archive);
 			} 
 			catch (ZipException e) 
 			{
@@ -167,8 +203,16 @@ public class JuxtaSessionFile
     {
         if( sessionDir.exists() )
         {
-            // delete any existing juxta temp files
-            FileUtilities.recursiveDelete(sessionDir,false);
+            // delete any existing juxta temp files, but keep the journals of unsaved changes
+            File[] listing = sessionDir.listFiles();
+            for( int i=0; i < listing.length; i++ )
+            {
+                File file = listing[i];
+                if( file.getName().equals(SessionJournal.JOURNAL_DIRECTORY) ) continue;
+                
+                if( file.isDirectory() ) FileUtilities.recursiveDelete(file,true);
+                else file.delete();
+            }
         }
         else if( !sessionDir.mkdir() )
         {
@@ -246,7 +290,18 @@ public class JuxtaSessionFile
         DocumentEntry entry = getDocumentEntry(documentID);
         
         if( entry != null )
-            return entry.loadCollation();
+        {
+            sessionFileLock.readLock().lock();
+            try
+            {
+                extractCacheFile(entry);
+                return entry.loadCollation();
+            }
+            finally
+            {
+                sessionFileLock.readLock().unlock();
+            }
+        }
         else 
             return null;
     }
@@ -266,7 +321,7 @@ public class JuxtaSessionFile
 
                 try
                 {
-                    JuxtaDocument document = entry.loadDocument(documentManifest.getJuxtaVersion());                    
+                    JuxtaDocument document = loadDocument(entry, documentManifest.getJuxtaVersion());
                     documentList.add(document);
                 }
                 catch( ReportedException e )
@@ -298,7 +353,19 @@ public class JuxtaSessionFile
         
         if( entry != null )
         {
-            entry.saveDocument(document);
+            sessionFileLock.readLock().lock();
+            try
+            {
+                entry.saveDocument(document);
+                
+                // the archived copies of the document are out of date now
+                discardArchivedFile(entry.getSourceFile());
+                discardArchivedFile(new File(entry.getSourceFile().getParent() + "/" + JUXTA_SOURCE_DOCUMENT_DIRECTORY + document.getSourceDocument().getFileName()));
+            }
+            finally
+            {
+                sessionFileLock.readLock().unlock();
+            }
         }        
     }
     
@@ -317,7 +384,7 @@ public class JuxtaSessionFile
                 DocumentEntry entry = (DocumentEntry) i.next();
 
                 // if this document has a cached collation file
-                if( entry.cacheFileExists() )
+                if( cacheFileExists(entry) )
                 {
                     documentIDList.add( new Integer( entry.getDocumentID() ));
                 }
@@ -374,7 +441,16 @@ public class JuxtaSessionFile
             {
                 documentEntryList.remove(entry);
             }
-            entry.deleteCacheFile();
+            sessionFileLock.readLock().lock();
+            try
+            {
+                deleteCacheFile(entry);
+                deleteParseCacheFile(entry);
+            }
+            finally
+            {
+                sessionFileLock.readLock().unlock();
+            }
         }
     }
     
@@ -394,14 +470,22 @@ public class JuxtaSessionFile
             entry = addDocumentEntry(document);
         }
 
+ 
+        sessionFileLock.readLock().lock();
         try 
         {
+            // the archived cache is out of date now
+            discardArchivedFile(entry.getCacheFile());
             entry.cacheCollation(collation);        
         } 
         catch (IOException e) 
         {
             throw new ReportedException(e, "Unable to cache collation: "+document.getDocumentName());       
         }
+        finally
+        {
+            sessionFileLock.readLock().unlock();
+        }
     }
     
     public String getArchiveFileName()
@@ -420,13 +504,21 @@ public class JuxtaSessionFile
 	 */
 	public void clearCollationData() 
 	{
-        synchronized(documentEntryList)
+        sessionFileLock.readLock().lock();
+        try
+        {
+            synchronized(documentEntryList)
+            {
+        		for( Iterator i = documentEntryList.iterator(); i.hasNext(); )
+        		{
+        			DocumentEntry entry = (DocumentEntry) i.next();
+        			deleteCacheFile(entry);
+        		}
+            }
+        }
+        finally
         {
-    		for( Iterator i = documentEntryList.iterator(); i.hasNext(); )
-    		{
-    			DocumentEntry entry = (DocumentEntry) i.next();
-    			entry.deleteCacheFile();
-    		}
+            sessionFileLock.readLock().unlock();
         }
 	}
 
@@ -452,8 +544,28 @@ public class JuxtaSessionFile
      */
 	public void save( File saveFile, LinkedList documentList, boolean fullSave ) throws ReportedException  
 	{
-		
+        // the cache files can't change or go away until the archive is written
+        sessionFileLock.writeLock().lock();
+        try
+        {
+            saveArchive(saveFile, documentList, fullSave);
+        }
+        finally
+        {
+            sessionFileLock.writeLock().unlock();
+        }
+	}
+	
+	private void saveArchive( File saveFile, LinkedList documentList, boolean fullSave ) throws ReportedException  
+	{
 		HashMap fileMap = new HashMap();
+		HashMap loadedDocuments = new HashMap();
+		for( Iterator i = documentList.iterator(); i.hasNext(); )
+		{
+			JuxtaDocument document = (JuxtaDocument) i.next();
+			loadedDocuments.put(new Integer(document.getID()), document);
+		}
+		
         synchronized(documentEntryList)
         {
             for( Iterator i = documentEntryList.iterator(); i.hasNext(); )
@@ -462,15 +574,22 @@ public class JuxtaSessionFile
                 File sourceFile = entry.getSourceFile();
                 String zipEntryName = JUXTA_DOCUMENT_DIRECTORY+sourceFile.getName();
                 fileMap.put(zipEntryName,sourceFile);
-                String sourceZipEntryName = JUXTA_DOCUMENT_DIRECTORY + JUXTA_SOURCE_DOCUMENT_DIRECTORY + entry.loadDocument(Juxta.JUXTA_VERSION).getSourceDocument().getFileName();
-                fileMap.put(sourceZipEntryName, new File(sourceFile.getParent() + "/" + JUXTA_SOURCE_DOCUMENT_DIRECTORY + entry.loadDocument(Juxta.JUXTA_VERSION).getSourceDocument().getFileName()));
+                String sourceFileName = getSourceDocumentFileName(entry, loadedDocuments);
+                String sourceZipEntryName = JUXTA_DOCUMENT_DIRECTORY + JUXTA_SOURCE_DOCUMENT_DIRECTORY + sourceFileName;
+                fileMap.put(sourceZipEntryName, new File(sourceFile.getParent() + "/" + JUXTA_SOURCE_DOCUMENT_DIRECTORY + sourceFileName));
 
-                if( entry.cacheFileExists() && fullSave )
+                if( fullSave && cacheFileExists(entry) )
                 {
                     File cacheFile = entry.getCacheFile();
                     String cacheZipEntry = "juxta_cache/"+cacheFile.getName();
                     fileMap.put(cacheZipEntry,cacheFile);
                 }
+
+                File parseCacheFile = entry.getParseCacheFile();
+                if( fullSave && ( parseCacheFile.exists() || isArchivedFile(parseCacheFile) ) )
+                {
+                    fileMap.put("juxta_cache/"+parseCacheFile.getName(),parseCacheFile);
+                }
             }
         }
         
@@ -488,10 +607,15 @@ public class JuxtaSessionFile
 		fileMap.put("manifest.xml",new File( JUXTA_TEMP_DIRECTORY + "/manifest.xml" ));
 		fileMap.put("moves.xml",new File( JUXTA_TEMP_DIRECTORY + "/moves.xml" ));
 		fileMap.put("templates.xml",new File( JUXTA_TEMP_DIRECTORY + "/templates.xml" ));
+		
+		// these are written out fresh for every save
+		discardArchivedFile( new File( JUXTA_TEMP_DIRECTORY + "/manifest.xml" ) );
+		discardArchivedFile( new File( JUXTA_TEMP_DIRECTORY + "/moves.xml" ) );
+		discardArchivedFile( new File( JUXTA_TEMP_DIRECTORY + "/templates.xml" ) );
 	
 		try 
 		{
-			FileUtilities.zip(fileMap,saveFile);
+			writeSessionArchive(fileMap, saveFile, fullSave);
 		} 
 		catch (IOException e) 
 		{
@@ -499,6 +623,175 @@ public class JuxtaSessionFile
 		}
 	}
     
+    // the documents in the session were written out by saveDocument() already, so their 
+    // source file names are known. Only parse the wrappers of documents that aren't loaded.
+    private String getSourceDocumentFileName( DocumentEntry entry, HashMap loadedDocuments ) throws ReportedException
+    {
+        JuxtaDocument document = (JuxtaDocument) loadedDocuments.get(new Integer(entry.getDocumentID()));
+        if( document == null )
+        {
+            document = loadDocument(entry, Juxta.JUXTA_VERSION);
+        }
+        return document.getSourceDocument().getFileName();
+    }
+    
+    // the parse cache is taken out of the archive first, a parse rewrites it
+    private JuxtaDocument loadDocument( DocumentEntry entry, String juxtaVersion ) throws ReportedException
+    {
+        File parseCacheFile = entry.getParseCacheFile();
+        sessionFileLock.readLock().lock();
+        try
+        {
+            try
+            {
+                extractArchivedFile(parseCacheFile);
+            }
+            catch (IOException e)
+            {
+                SimpleLogger.logError("Unable to extract parse cache: "+parseCacheFile.getName());
+                discardArchivedFile(parseCacheFile);
+            }
+            return entry.loadDocument(juxtaVersion);
+        }
+        finally
+        {
+            sessionFileLock.readLock().unlock();
+        }
+    }
+    
+    private boolean cacheFileExists( DocumentEntry entry )
+    {
+        return entry.cacheFileExists() || isArchivedFile(entry.getCacheFile());
+    }
+    
+    private File extractCacheFile( DocumentEntry entry )
+    {
+        File cacheFile = entry.getCacheFile();
+        try
+        {
+            extractArchivedFile(cacheFile);
+        }
+        catch (IOException e)
+        {
+            SimpleLogger.logError("Unable to extract collation cache: "+cacheFile.getName());
+        }
+        return cacheFile;
+    }
+    
+    private void deleteCacheFile( DocumentEntry entry )
+    {
+        discardArchivedFile(entry.getCacheFile());
+        entry.deleteCacheFile();
+    }
+    
+    private void deleteParseCacheFile( DocumentEntry entry )
+    {
+        discardArchivedFile(entry.getParseCacheFile());
+        entry.deleteParseCacheFile();
+    }
+    
+    /**
+     * Write the archive. Entries that are unchanged since they were read from the session 
+     * archive are copied from it without being extracted. When the session archive itself 
+     * is written, or the whole session is saved to a new file, the session continues from 
+     * the new archive.
+     */
+    private static void writeSessionArchive( HashMap fileMap, File saveFile, boolean fullSave ) throws IOException
+    {
+        // the archive can be written while the session is in use, don't hold the class lock meanwhile
+        ZipArchive archive = getSessionArchive();
+        boolean overwriting = archive != null && 
+            archive.getArchiveFile().getCanonicalFile().equals(saveFile.getCanonicalFile());
+        
+        // an export leaves the images and caches out, so get them before the archive is replaced
+        if( overwriting && !fullSave )
+        {
+            archive.extractAll( new String[] { "" }, new String[0] );
+        }
+        
+        ZipArchiveWriter.writeArchive(fileMap, saveFile, archive);
+        
+        if( overwriting || fullSave )
+        {
+            if( archive != null )
+            {
+                archive.reopen(saveFile);
+            }
+            else
+            {
+                setSessionArchive(new ZipArchive(saveFile, new File(JUXTA_TEMP_DIRECTORY)));
+            }
+        }
+    }
+    
+    private static synchronized ZipArchive getSessionArchive()
+    {
+        return sessionArchive;
+    }
+    
+    private static synchronized void setSessionArchive( ZipArchive archive )
+    {
+        sessionArchive = archive;
+    }
+    
+    private static synchronized void closeSessionArchive()
+    {
+        if( sessionArchive != null )
+        {
+            sessionArchive.close();
+            sessionArchive = null;
+        }
+    }
+    
+    private static synchronized boolean isArchivedFile( File file )
+    {
+        if( sessionArchive == null ) return false;
+        
+        String entryName = sessionArchive.getEntryName(file);
+        return entryName != null && sessionArchive.isPending(entryName);
+    }
+    
+    private static synchronized void discardArchivedFile( File file )
+    {
+        if( sessionArchive == null ) return;
+        
+        String entryName = sessionArchive.getEntryName(file);
+        if( entryName != null )
+        {
+            sessionArchive.discard(entryName);
+        }
+    }
+    
+    /**
+     * Files in the session directory that came from the session archive are only 
+     * extracted when they are first needed. Call this before reading a file in the
+     * session directory that may not have been extracted yet, such as a page image.
+     * @param file A file in the session directory. 
+     * @return The same file. 
+     * @throws IOException If the file could not be extracted from the archive.
+     */
+    public static File extractArchivedFile( File file ) throws IOException
+    {
+        sessionFileLock.readLock().lock();
+        try
+        {
+            extractSessionFile(file);
+        }
+        finally
+        {
+            sessionFileLock.readLock().unlock();
+        }
+        return file;
+    }
+    
+    private static synchronized void extractSessionFile( File file ) throws IOException
+    {
+        if( sessionArchive != null )
+        {
+            sessionArchive.extract(file);
+        }
+    }
+    
     private LinkedList processImageList(LinkedList documents)
     {
         LinkedList imageList = new LinkedList();
@@ -24,6 +24,7 @@ import edu.virginia.speclab.diff.collation.Collation;
 public interface JuxtaSessionListener
 {
     public void sessionModified();
+    public void sessionSaved();
     public void currentCollationChanged( Collation currentCollation );
     public void currentCollationFilterChanged( Collation currentCollation );
     public void documentAdded( JuxtaDocument document );
@@ -18,15 +18,15 @@
 
 package edu.virginia.speclab.juxta.author.model;
 
-import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.PushbackInputStream;
+import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
@@ -49,7 +49,6 @@ import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
-import org.apache.commons.io.IOUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.xml.sax.Attributes;
@@ -108,6 +107,9 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
     };
 
 
+    private static final int READ_BUFFER_SIZE = 65536;
+    private static SAXParserFactory saxParserFactory;
+
     private DocumentType docType;
     private File file;
     private Charset encodingCharSet;
@@ -123,7 +125,8 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
     private TagSet newlineElements;
     private Set<String> elementsEncountered;
     private Locator locator;
-    private List<Integer> lineToOffsetMap;
+    private int[] lineEndOffsets;
+    private int lineCount;
     private String rawXMLText;
     private int lastXMLPosition;
     private OffsetMap offsetMap;
@@ -143,6 +146,8 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
     private JuxtaXMLParserNoteTagHandler noteTagHandler;
     private JuxtaXMLPageBreakTagHandler pageBreakHandler;
     private HashMap<String, OffsetRange> idOffsetMap;
+    private ParseEventRecording recording;
+    private ParseEventRecording parseEvents;
     
     public JuxtaXMLParser(File file, String juxtaVersion, Charset encodingCharSet) throws FileNotFoundException {
         this.docType = DocumentType.UNKNOWN;
@@ -167,7 +172,6 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
         newlineElements = new TagSet();
 
         elementsEncountered = new HashSet<String>();
-        lineToOffsetMap = new ArrayList<Integer>();
         insideEntity = false;
         insideWhitespaceRun = false;
 
@@ -241,44 +245,96 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
         return docPointerHandler;
     }
 
-    private InputStream stripUtf8Bom(InputStream inputStream) throws IOException {
-        PushbackInputStream pushbackInputStream = new PushbackInputStream(new BufferedInputStream(inputStream), 3);
-        byte[] bom = new byte[3];
-        if (pushbackInputStream.read(bom) != -1) {
-            if (!(bom[0] == (byte) 0xEF && bom[1] == (byte) 0xBB && bom[2] == (byte) 0xBF)) {
-                pushbackInputStream.unread(bom);
-            }
+    // skip the UTF-8 byte order mark if the file starts with one
+    private void skipUtf8Bom(FileChannel channel) throws IOException {
+        ByteBuffer bom = ByteBuffer.allocate(3);
+        while (bom.hasRemaining() && channel.read(bom) != -1) {
+            // keep reading
+        }
+        if (!(bom.position() == 3 && bom.get(0) == (byte) 0xEF && bom.get(1) == (byte) 0xBB && bom.get(2) == (byte) 0xBF)) {
+            channel.position(0);
         }
-        return pushbackInputStream;
     }
     
     /**
      * read doc into lines. determine character offset map for each line.
      * collapse lines into one raw xml string with new lines.
+     * 
+     * The file is decoded and split into lines in a single pass. Lines end at
+     * \n, \r or \r\n, and each ends with a \n in the raw xml string.
      * @throws ReportedException
      */
     private void firstPassReadFile() throws ReportedException {
+        FileInputStream fis = null;
         try {
-            FileInputStream fis = new FileInputStream(this.file);
-            InputStreamReader is = new InputStreamReader(stripUtf8Bom(fis), this.decoder);
-            List<String> lines = IOUtils.readLines(is);
-            StringBuffer rawXMLTextBuffer = new StringBuffer();
-            int offset = 0;
-            lineToOffsetMap.add(new Integer(-1));
-            for (String line : lines) {
-                // Strip out marcon decorators; they break the text components
-                line = line.replaceAll("[~\u0304]", "");
-                int length = line.length();
-                lineToOffsetMap.add(new Integer(offset + length));
-                offset += length + 1;
-                rawXMLTextBuffer.append(line).append("\n");
+            fis = new FileInputStream(this.file);
+            FileChannel channel = fis.getChannel();
+            long fileSize = channel.size();
+            skipUtf8Bom(channel);
+            this.decoder.reset();
+            Reader reader = Channels.newReader(channel, this.decoder, READ_BUFFER_SIZE);
+
+            StringBuilder rawXMLTextBuffer = new StringBuilder((int) Math.min(fileSize + 1, Integer.MAX_VALUE - 1));
+            lineEndOffsets = new int[64];
+            lineCount = 0;
+            addLineEnd(-1);
+
+            char[] buf = new char[READ_BUFFER_SIZE];
+            boolean lineStarted = false;
+            boolean afterCarriageReturn = false;
+            int charsRead;
+            while ((charsRead = reader.read(buf)) != -1) {
+                for (int i = 0; i < charsRead; i++) {
+                    char c = buf[i];
+                    if (c == '\n' && afterCarriageReturn) {
+                        afterCarriageReturn = false;
+                        continue;
+                    }
+                    afterCarriageReturn = (c == '\r');
+
+                    if (c == '\n' || c == '\r') {
+                        addLineEnd(rawXMLTextBuffer.length());
+                        rawXMLTextBuffer.append('\n');
+                        lineStarted = false;
+                    } else {
+                        lineStarted = true;
+                        // Strip out marcon decorators; they break the text components
+                        if (c != '~' && c != '\u0304') {
+                            rawXMLTextBuffer.append(c);
+                        }
+                    }
+                }
+            }
+
+            // the last line need not be terminated
+            if (lineStarted) {
+                addLineEnd(rawXMLTextBuffer.length());
+                rawXMLTextBuffer.append('\n');
             }
             rawXMLText = rawXMLTextBuffer.toString();
         } catch (IOException e) {
             throw new ReportedException(e, "Problem with I/O on file: " + file);
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    // already read
+                }
+            }
         }
     }
 
+    // record the offset of the new line character that ends a line
+    private void addLineEnd(int offset) {
+        if (lineCount == lineEndOffsets.length) {
+            int[] grown = new int[lineCount * 2];
+            System.arraycopy(lineEndOffsets, 0, grown, 0, lineCount);
+            lineEndOffsets = grown;
+        }
+        lineEndOffsets[lineCount++] = offset;
+    }
+
     /**
      * Return the absolute position in the rawXMLText String given by a
      * row number and column number reported (presumably) by the Location object
@@ -292,7 +348,7 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
         if (line == -1 || col == -1)
             return -1;
 
-        return lineToOffsetMap.get(line - 1).intValue() + col;
+        return lineEndOffsets[line - 1] + col;
     }
 
     public File getBaseDirectory() {
@@ -310,16 +366,18 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
     public void parse() throws ReportedException {
         firstPassReadFile();
         offsetMap = new OffsetMap(rawXMLText.length());
+        flattenedText.ensureCapacity(rawXMLText.length());
         
         // Setup special tag handling to cover behavior for
         // add, del, note and pb tags
         setupCustomTagHandling();
 
+        boolean isXML = file.getName().endsWith("xml");
+        ParseEventRecording events = new ParseEventRecording(isXML, rawXMLText, lineEndOffsets, lineCount);
         
         try {
-            if (file.getName().endsWith("xml")) {
-                SAXParserFactory factory = SAXParserFactory.newInstance();
-                parser = factory.newSAXParser();
+            if (isXML) {
+                parser = createSAXParser();
 
                 XMLReader xmlReader = parser.getXMLReader();
                 xmlReader.setProperty("http://xml.org/sax/properties/lexical-handler", this);
@@ -327,7 +385,10 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
                 // ignore external DTDs
                 xmlReader.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
 
+                // keep the events, so a change of tag sets can be replayed without parsing again
+                recording = events;
                 parser.parse(new InputSource(new StringReader(rawXMLText)), this);
+                recording = null;
                 if (getDocumentType() == DocumentType.UNKNOWN) {
                     // If we made it here and we don't know what the document type is,
                     // it's just an XML document
@@ -353,6 +414,104 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
             throw new ReportedException(ex, "SAX Exception: " + ex.getLocalizedMessage());
         } catch (IOException ex) {
             throw new ReportedException(ex, ex.getLocalizedMessage());
+        } finally {
+            recording = null;
+        }
+
+        events.finish();
+        parseEvents = events;
+    }
+
+    /**
+     * Parse the document again from the events recorded by an earlier parse of it. This
+     * gives the same results as <code>parse()</code> with the current tag sets and revisions,
+     * without reading the file or parsing the XML.
+     * @param events The events recorded from the document.
+     * @throws ReportedException If the events can't be played back.
+     */
+    public void parse(ParseEventRecording events) throws ReportedException {
+        rawXMLText = events.getRawXMLText();
+        lineEndOffsets = events.getLineEndOffsets();
+        lineCount = events.getLineCount();
+        offsetMap = new OffsetMap(rawXMLText.length());
+        flattenedText.ensureCapacity(rawXMLText.length());
+        setupCustomTagHandling();
+
+        if (events.isXML()) {
+            try {
+                events.replay(this);
+            } catch (SAXException ex) {
+                throw new ReportedException(ex, "SAX Exception: " + ex.getLocalizedMessage());
+            }
+            if (getDocumentType() == DocumentType.UNKNOWN) {
+                setDocumentType(DocumentType.XML);
+            }
+        } else {
+            processAsPlaintext();
+        }
+        parseEvents = events;
+    }
+
+    /**
+     * The events recorded by the last parse, or <code>null</code> if the results were
+     * restored from a cache.
+     */
+    ParseEventRecording getParseEvents() {
+        return parseEvents;
+    }
+
+    // looking up the parser implementation is slow, so it is only done once
+    private static synchronized SAXParser createSAXParser() throws ParserConfigurationException, SAXException {
+        if (saxParserFactory == null) {
+            saxParserFactory = SAXParserFactory.newInstance();
+        }
+        return saxParserFactory.newSAXParser();
+    }
+
+    /**
+     * Parse the document, or restore the results of an earlier parse from the cache file 
+     * if the document and the tag settings are unchanged since. After a parse, the results
+     * are written to the cache file.
+     * @param cacheFile The cache file for this document.
+     * @throws ReportedException If there was a problem parsing the document.
+     */
+    public void parse(File cacheFile) throws ReportedException {
+        ParsedDocumentCache cache;
+        try {
+            cache = new ParsedDocumentCache(cacheFile, this.file, this.juxtaVersion, this.encodingCharSet,
+                this.excludeElements, this.notableElements, this.newlineElements, this.revisionsToAccept);
+        } catch (IOException e) {
+            // parse() will report the problem with the file
+            parse();
+            return;
+        }
+
+        ParsedDocumentCache.ParseResults results = cache.read(getBaseDirectory());
+        if (results != null) {
+            restore(results);
+        } else {
+            parse();
+            cache.write(this);
+        }
+    }
+
+    private void restore(ParsedDocumentCache.ParseResults results) {
+        // make the same changes to the tag sets that a parse would
+        setupCustomTagHandling();
+
+        this.docType = results.documentType;
+        this.rawXMLText = results.rawXMLText;
+        this.flattenedText = new StringBuffer(results.flattenedText);
+        this.root = results.root;
+        this.offsetMap = results.offsetMap;
+        this.elementsEncountered.addAll(results.elementsEncountered);
+        this.milestoneTagHandler.getLocationMarkerList().addAll(results.locationMarkers);
+        this.addDelTagHandler.getRevisions().addAll(results.revisions);
+        if (this.noteTagHandler != null) {
+            this.noteTagHandler.getNotes().addAll(results.notes);
+        }
+        if (this.pageBreakHandler != null) {
+            this.pageBreakHandler.getPageBreaks().addAll(results.pageBreaks);
         }
     }
 
@@ -458,6 +617,9 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
 
     @Override
     public void endDocument() throws SAXException {
+        if (recording != null) {
+            recording.endDocument();
+        }
         // Allow for indexes at the end of the buffer to (at length()) to correctly map
         offsetMap.mapTargetToSource(flatTextPosition + 1, xmlTextPosition + 1);
         offsetMap.mapSourceToTarget(xmlTextPosition + 1, flatTextPosition + 1);
@@ -465,6 +627,9 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
 
     @Override
     public void startElement(String uri, String localName, String qname, Attributes attr) {
+        if (recording != null) {
+            recording.startElement(qname, attr, locator);
+        }
         if (root == null) {
             // this is the root node. exciting.
             root = new JuxtaXMLNode(qname, flatTextPosition + 1);
@@ -540,6 +705,9 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
 
     @Override
     public void endElement(String uri, String localName, String qname) {
+        if (recording != null) {
+            recording.endElement(qname, locator);
+        }
         int closeTagStartOffset = lastXMLPosition;
         lastXMLPosition = mapLineAndColumnToOffset(locator.getLineNumber(), locator.getColumnNumber());
         int closeTagEndOffset = lastXMLPosition;
@@ -605,6 +773,9 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
 
     @Override
     public void characters(char[] ch, int start, int length) {
+        if (recording != null) {
+            recording.characters(ch, start, length, locator);
+        }
         int mappedOffset = mapLineAndColumnToOffset(locator.getLineNumber(), locator.getColumnNumber());
         int lastLastXMLPosition = lastXMLPosition;
         if (insideEntity)
@@ -677,6 +848,9 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
     }
 
     public void startEntity(String name) throws SAXException {
+        if (recording != null) {
+            recording.startEntity(name);
+        }
         insideEntity = true;
 
         // this is a hack, but the locator gets confused on custom entities and won't tell us where
@@ -686,6 +860,9 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
     }
 
     public void endEntity(String name) throws SAXException {
+        if (recording != null) {
+            recording.endEntity(name);
+        }
         insideEntity = false;
 
         for (int i = charactersInsideEntity; i < rawEntityLength; i++)
@@ -703,6 +880,9 @@ public class JuxtaXMLParser extends DefaultHandler implements LexicalHandler {
     }
 
     public void comment(char[] ch, int start, int length) throws SAXException {
+        if (recording != null) {
+            recording.comment(locator);
+        }
         int startXMLPosition = lastXMLPosition;
         int endXMLPosition = lastXMLPosition = mapLineAndColumnToOffset(locator.getLineNumber(),
             locator.getColumnNumber());
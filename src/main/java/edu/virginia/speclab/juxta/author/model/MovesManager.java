@@ -18,25 +18,22 @@
 
 package edu.virginia.speclab.juxta.author.model;
 
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.FactoryConfigurationError;
-import javax.xml.parsers.ParserConfigurationException;
-
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import edu.virginia.speclab.diff.Difference;
 import edu.virginia.speclab.diff.OffsetRange;
@@ -46,6 +43,7 @@ import edu.virginia.speclab.diff.document.LocationMarker;
 import edu.virginia.speclab.exceptions.LoggedException;
 import edu.virginia.speclab.exceptions.ReportedException;
 import edu.virginia.speclab.util.SimpleLogger;
+import edu.virginia.speclab.util.XMLStreamUtilities;
 
 public class MovesManager 
 {
@@ -167,6 +165,22 @@ public class MovesManager
 			// We should never get this far because we should never be passed an item that doesn't match
 			throw new LoggedException("MovesManager.delete couldn't find the item to delete");
 		}
+		private boolean removePair(int docId1, int docId2)
+		{
+			// Remove all the entries between the two documents, in either order.
+			boolean removed = false;
+			for (Iterator it = list.iterator(); it.hasNext(); )
+			{
+				FragmentPair fp = (FragmentPair)it.next();
+				if (((fp.first.getDocumentID() == docId1) && (fp.second.getDocumentID() == docId2)) ||
+						((fp.first.getDocumentID() == docId2) && (fp.second.getDocumentID() == docId1)))
+				{
+					it.remove();
+					removed = true;
+				}
+			}
+			return removed;
+		}
 		private void removeId(int docId)
 		{
 			// Remove all the entries that contain the docId in either fragment.
@@ -335,10 +349,10 @@ public class MovesManager
 			return ml;
 		}
 
-		private String serialize( OffsetRange.Space offsetSpace )
+		private void serialize( Writer writer, OffsetRange.Space offsetSpace ) throws IOException
 		{
-			String xmlContents = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
-			"<moves>\n";
+			writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+			"<moves>\n");
 			
 			for (int i = 0; i < size(); ++i)
 			{
@@ -349,76 +363,73 @@ public class MovesManager
 				String doc2 = documentManager.lookupDocument(fp.second.getDocumentID()).getDocumentName();
 				if (doc1.compareTo(doc2) < 0)
 				{
-				xmlContents += "\t<move doc1=\"" + doc1 +
-                    "\" space1=\"" + OffsetRange.spaceToString( offsetSpace ) +
-					"\" start1=\"" + fp.first.getStartOffset( offsetSpace ) +
-					"\" end1=\"" + fp.first.getEndOffset( offsetSpace ) +
-					"\" doc2=\"" + doc2 +
-                    "\" space2=\"" + OffsetRange.spaceToString( offsetSpace ) +
-					"\" start2=\"" + fp.second.getStartOffset( offsetSpace ) +
-					"\" end2=\"" + fp.second.getEndOffset( offsetSpace ) + "\" />\n";
+					serializeMove(writer, doc1, fp.first, doc2, fp.second, offsetSpace);
 				}
 				else
 				{
-					xmlContents += "\t<move doc1=\"" + doc2 +
-                    "\" space1=\"" + OffsetRange.spaceToString( offsetSpace ) +
-					"\" start1=\"" + fp.second.getStartOffset( offsetSpace ) +
-					"\" end1=\"" + fp.second.getEndOffset( offsetSpace ) +
-					"\" doc2=\"" + doc1 +
-                    "\" space2=\"" + OffsetRange.spaceToString( offsetSpace ) +
-					"\" start2=\"" + fp.first.getStartOffset( offsetSpace ) +
-					"\" end2=\"" + fp.first.getEndOffset( offsetSpace ) + "\" />\n";
+					serializeMove(writer, doc2, fp.second, doc1, fp.first, offsetSpace);
 				}
 			}
-			xmlContents += "</moves>\n";
-			
-			return xmlContents;
+			writer.write("</moves>\n");
+		}
+		
+		private void serializeMove( Writer writer, String doc1, Fragment first, String doc2, Fragment second,
+				OffsetRange.Space offsetSpace ) throws IOException
+		{
+			writer.write("\t<move doc1=\"");
+			XMLStreamUtilities.writeEscaped(writer, doc1);
+			writer.write("\" space1=\"" + OffsetRange.spaceToString( offsetSpace ) +
+				"\" start1=\"" + first.getStartOffset( offsetSpace ) +
+				"\" end1=\"" + first.getEndOffset( offsetSpace ) +
+				"\" doc2=\"");
+			XMLStreamUtilities.writeEscaped(writer, doc2);
+			writer.write("\" space2=\"" + OffsetRange.spaceToString( offsetSpace ) +
+				"\" start2=\"" + second.getStartOffset( offsetSpace ) +
+				"\" end2=\"" + second.getEndOffset( offsetSpace ) + "\" />\n");
 		}
 		
 		private void clear()
 		{
 			list.clear();
 		}
-		private void deserialize(NodeList moveNodes) throws ReportedException
+		private void deserialize(XMLStreamReader reader) throws ReportedException, XMLStreamException
 		{
 			try
 			{
 				LinkedList docList = documentManager.getDocumentList();
 				
-				for (int i = 0; i < moveNodes.getLength(); i++)
+				while (XMLStreamUtilities.nextChildElement(reader))
 				{
-					Node node = moveNodes.item(i);
-	
-					if (node.getNodeType() == Node.ELEMENT_NODE
-							&& node.getNodeName().equals("move"))
+					if (reader.getLocalName().equals("move"))
 					{
 						FragmentPair fp = new FragmentPair();
-						String str = node.getAttributes().getNamedItem("doc1").getNodeValue();
+						String str = reader.getAttributeValue(null, "doc1");
                         int docId1 = docNameToId(docList, str);
                         DocumentModel doc1 = documentManager.lookupDocument(docId1);
                         
-                        int start1 = Integer.parseInt(node.getAttributes().getNamedItem("start1").getNodeValue());
-                        int end1 = Integer.parseInt(node.getAttributes().getNamedItem("end1").getNodeValue());
-                        Node space1Node = node.getAttributes().getNamedItem("space1");
+                        int start1 = Integer.parseInt(reader.getAttributeValue(null, "start1"));
+                        int end1 = Integer.parseInt(reader.getAttributeValue(null, "end1"));
+                        String space1Name = reader.getAttributeValue(null, "space1");
                         OffsetRange.Space space1 = OffsetRange.Space.ACTIVE;
-                        if (space1Node != null)
-                            space1 = OffsetRange.stringToSpace(space1Node.getNodeValue());
+                        if (space1Name != null)
+                            space1 = OffsetRange.stringToSpace(space1Name);
                         fp.first.set(doc1, start1, end1, space1);
 
-                        str = node.getAttributes().getNamedItem("doc2").getNodeValue();
+                        str = reader.getAttributeValue(null, "doc2");
                         int docId2 = docNameToId(docList, str);
                         DocumentModel doc2 = documentManager.lookupDocument(docId2);
 
-						int start2 = Integer.parseInt(node.getAttributes().getNamedItem("start2").getNodeValue());
-						int end2 = Integer.parseInt(node.getAttributes().getNamedItem("end2").getNodeValue());
-                        Node space2Node = node.getAttributes().getNamedItem("space2");
+						int start2 = Integer.parseInt(reader.getAttributeValue(null, "start2"));
+						int end2 = Integer.parseInt(reader.getAttributeValue(null, "end2"));
+                        String space2Name = reader.getAttributeValue(null, "space2");
                         OffsetRange.Space space2 = OffsetRange.Space.ACTIVE;
-                        if (space2Node != null)
-                            space2 = OffsetRange.stringToSpace(space2Node.getNodeValue());
+                        if (space2Name != null)
+                            space2 = OffsetRange.stringToSpace(space2Name);
                         fp.second.set(doc2, start2, end2, space2);
                         
 						add(fp.first, fp.second);
 					}
+					XMLStreamUtilities.skipElement(reader);
 				}
 			} catch (LoggedException e) {
 				throw new ReportedException(e, e.getMessage());
@@ -437,7 +448,12 @@ public class MovesManager
 		}
 	}
 	
+	// The moves are changed on the event thread and read by the collation thread, so they are changed and
+	// copied while synchronized on the list.
 	private MoveList moveList = new MoveList();
+	// Moves found by comparing the inserts and deletes of a collation, which the user hasn't accepted yet.
+	// These are filled in by the collation thread, so they are always accessed while synchronized on the list.
+	private MoveList proposedMoves = new MoveList();
 	private List<Difference> differenceMap = new LinkedList<Difference>();
 	private DocumentManager documentManager;
     private LinkedList listeners = new LinkedList();
@@ -451,6 +467,17 @@ public class MovesManager
 	
 	// This returns an empty string if the move can be created, or it returns the reason why not.
 	public String canCreate(Fragment left, Fragment right)
+	{
+		MoveList ml;
+		synchronized (moveList)
+		{
+			ml = moveList.filter(left.getDocumentID(), right.getDocumentID());
+		}
+		return canCreate(left, right, ml);
+	}
+	
+	// ml is a copy of the moves between the documents of the two fragments
+	private String canCreate(Fragment left, Fragment right, MoveList ml)
 	{
 		// Before adding a move, check to see that it makes sense. The following cases aren't added:
 		// Illegal: Zero or negative length move.
@@ -458,7 +485,6 @@ public class MovesManager
 			return "Cannot create a move with a negative length";
 		
 		// Illegal: Move that overlaps an existing move.
-		MoveList ml = moveList.filter(left.getDocumentID(), right.getDocumentID());
 		if (ml.isPositionInBlock(left.getDocumentID(), left.getStartOffset(OffsetRange.Space.ACTIVE)))
 			return "Cannot create a move that overlaps an existing move";
 		if (ml.isPositionInBlock(left.getDocumentID(), left.getEndOffset(OffsetRange.Space.ACTIVE)))
@@ -485,14 +511,103 @@ public class MovesManager
 		if (!errMessage.equals(""))
 			throw new LoggedException(errMessage);
 
-		moveList.add(left, right);
+		synchronized (moveList)
+		{
+			moveList.add(left, right);
+		}
+		SessionJournal journal = getJournal();
+		if (journal != null)
+			journal.moveCreated(left, right);
 		fireBlocksChanged();
 	}
 
+	// Replaces the moves proposed between the two documents with the MOVE differences passed, which have
+	// the first document as their base. The ones that couldn't be created as moves are left out.
+	public void proposeMoves(DocumentModel firstDocument, DocumentModel secondDocument, List moves)
+	{
+		// this is called on the collation thread, check against a copy of the moves
+		MoveList existingMoves;
+		synchronized (moveList)
+		{
+			existingMoves = moveList.filter(firstDocument.getID(), secondDocument.getID());
+		}
+		
+		boolean changed;
+		synchronized (proposedMoves)
+		{
+			changed = proposedMoves.removePair(firstDocument.getID(), secondDocument.getID());
+			for (Iterator it = moves.iterator(); it.hasNext(); )
+			{
+				Difference move = (Difference)it.next();
+				int baseOffset = move.getOffset(Difference.BASE);
+				int witnessOffset = move.getOffset(Difference.WITNESS);
+				Fragment left = new Fragment(firstDocument, baseOffset, baseOffset + move.getLength(Difference.BASE));
+				Fragment right = new Fragment(secondDocument, witnessOffset, witnessOffset + move.getLength(Difference.WITNESS));
+				if (canCreate(left, right, existingMoves).equals(""))
+				{
+					proposedMoves.add(left, right);
+					changed = true;
+				}
+			}
+			Collections.sort(proposedMoves.list);
+		}
+		if (changed)
+			notifyProposalListeners();
+	}
+
+	// gets a copy of the moves that have been proposed
+	public MoveList getProposedMoves()
+	{
+		synchronized (proposedMoves)
+		{
+			return proposedMoves.deepCopy();
+		}
+	}
+
+	// turns a proposed move into a move, the same as if the user had created it
+	public void acceptProposedMove(FragmentPair fp) throws LoggedException
+	{
+		synchronized (proposedMoves)
+		{
+			proposedMoves.remove(fp);
+		}
+		try
+		{
+			createMove(fp.first, fp.second);
+		}
+		finally
+		{
+			notifyProposalListeners();
+		}
+	}
+
+	public void dismissProposedMove(FragmentPair fp) throws LoggedException
+	{
+		synchronized (proposedMoves)
+		{
+			proposedMoves.remove(fp);
+		}
+		notifyProposalListeners();
+	}
+
+	public void clearProposedMoves()
+	{
+		synchronized (proposedMoves)
+		{
+			if (proposedMoves.size() == 0)
+				return;
+			proposedMoves.clear();
+		}
+		notifyProposalListeners();
+	}
+
 	// gets all moves containing those two docs
 	public MoveList getAllMoves(int docId1, int docId2)
 	{
-		return moveList.filter(docId1, docId2);
+		synchronized (moveList)
+		{
+			return moveList.filter(docId1, docId2);
+		}
 	}
 
 	public MoveList getMoves()
@@ -502,7 +617,10 @@ public class MovesManager
 
 	public MoveList getAllMoves()
 	{
-		return moveList.deepCopy();
+		synchronized (moveList)
+		{
+			return moveList.deepCopy();
+		}
 	}
 	
 	public String getLocationFromFragment(Fragment frag)
@@ -533,24 +651,50 @@ public class MovesManager
 	// deletes the fragment pair that exactly matches
 	public void deleteMove(FragmentPair fp) throws LoggedException
 	{
-		moveList.remove(fp);
+		synchronized (moveList)
+		{
+			moveList.remove(fp);
+		}
+		SessionJournal journal = getJournal();
+		if (journal != null)
+			journal.moveDeleted(fp);
 		fireBlocksChanged();
 	}
 
 	public void removeDocument(int docId)
 	{
-		moveList.removeId(docId);
+		synchronized (moveList)
+		{
+			moveList.removeId(docId);
+		}
+		synchronized (proposedMoves)
+		{
+			proposedMoves.removeId(docId);
+		}
 		fireBlocksChanged();
+		notifyProposalListeners();
 	}
 	
 	public String serialize()
 	{
-		return moveList.serialize(Space.ORIGINAL);
+		StringWriter writer = new StringWriter();
+		try
+		{
+			moveList.serialize(writer, Space.ORIGINAL);
+		}
+		catch (IOException e)
+		{
+			// not thrown by a StringWriter
+		}
+		return writer.toString();
 	}
 
     public void addListener( MovesManagerListener listener )
     {
-        listeners.add(listener);
+        synchronized (listeners)
+        {
+            listeners.add(listener);
+        }
     }
     
     private void fireBlocksChanged()
@@ -563,65 +707,89 @@ public class MovesManager
     
     private void notifyListeners()
     {
-        for( Iterator i = listeners.iterator(); i.hasNext(); )
+        for( Iterator i = copyListeners().iterator(); i.hasNext(); )
         {
         	MovesManagerListener listener = (MovesManagerListener) i.next();
             listener.movesChanged(this);            
         }
     }
     
+    // proposals are made on the collation thread, the listeners handle moving to the event thread
+    private void notifyProposalListeners()
+    {
+        for( Iterator i = copyListeners().iterator(); i.hasNext(); )
+        {
+        	MovesManagerListener listener = (MovesManagerListener) i.next();
+            listener.proposedMovesChanged(this);            
+        }
+    }
+    
+    private List copyListeners()
+    {
+        synchronized (listeners)
+        {
+            return new ArrayList(listeners);
+        }
+    }
+    
 	public void setSession(JuxtaSession juxtaSession) {
 		this.juxtaSession = juxtaSession;
 		
 	}
 
+	private SessionJournal getJournal()
+	{
+		return (juxtaSession != null) ? juxtaSession.getJournal() : null;
+	}
+
 	final private String xmlFileName = "/moves.xml";
 	
 	public void saveForExport(String folder)
     {
-        String contents = moveList.serialize(Space.ACTIVE);
         String fileName = folder + xmlFileName;
-        writeStringToFile(fileName, contents);
+        writeMovesFile(fileName, Space.ACTIVE);
     }
 	
 	public void save(String folder)
 	{
-		String contents = moveList.serialize(Space.ORIGINAL);
 		String fileName = folder + xmlFileName;
-		writeStringToFile(fileName, contents);
+		writeMovesFile(fileName, Space.ORIGINAL);
 	}
 	
 	public void load(String folder) throws ReportedException
 	{
 		String fileName = folder + xmlFileName;
+		InputStream inStream = null;
 		try
 		{
-			moveList.clear();
+			synchronized (moveList)
+			{
+				moveList.clear();
+			}
 			
 		    File f = new File(fileName);
 		    if (!f.exists())
 		    	return;	// That's ok if the file isn't there. That is the same as not having any moves defined.
 		    
-			DocumentBuilderFactory factory = DocumentBuilderFactory	.newInstance();
-			DocumentBuilder parser = factory.newDocumentBuilder();
-			Node document = parser.parse(fileName);
-			NodeList documentChildren = document.getChildNodes();
-			if (documentChildren != null)
+			inStream = new BufferedInputStream(new FileInputStream(f));
+			XMLStreamReader reader = XMLStreamUtilities.createReader(inStream);
+			while (XMLStreamUtilities.nextChildElement(reader))
 			{
-				for (int i = 0; i < documentChildren.getLength(); i++)
+				if (reader.getLocalName().equals("moves"))
 				{
-					Node currentNode = documentChildren.item(i);
-
-					if (currentNode.getNodeType() == Node.ELEMENT_NODE
-							&& currentNode.getNodeName().equals("moves"))
+					synchronized (moveList)
 					{
-						NodeList moveNodes = currentNode.getChildNodes();
-						moveList.deserialize(moveNodes);
+						moveList.deserialize(reader);
 					}
 				}
+				else
+				{
+					XMLStreamUtilities.skipElement(reader);
+				}
 			}
+			reader.close();
 		}
-		catch (SAXException e)
+		catch (XMLStreamException e)
 		{
 			throw new ReportedException(e, fileName + " is not well formed.");
 		}
@@ -634,22 +802,32 @@ public class MovesManager
 		{
 			throw new ReportedException( "Could not locate factory class.","Factory Configuration Error" );
 		} 
-		catch (ParserConfigurationException e)
+		finally
 		{
-			throw new ReportedException( e, "Could not locate a JAXP Parser.");
+			if (inStream != null)
+			{
+				try
+				{
+					inStream.close();
+				}
+				catch (IOException e)
+				{
+					SimpleLogger.logError(e.getMessage());
+				}
+			}
 		}
 		notifyListeners();
 	}
 	
-	private void writeStringToFile(String fileName, String contents)
+	private void writeMovesFile(String fileName, OffsetRange.Space offsetSpace)
 	{
 		try {
-			Charset utf8 = Charset.forName("UTF-8");
-			OutputStreamWriter outStream = new OutputStreamWriter( new FileOutputStream(fileName), utf8 );
-			BufferedWriter writer = new BufferedWriter(outStream);
-
-			writer.write(contents);
-			writer.close();
+			Writer writer = XMLStreamUtilities.createWriter(new File(fileName));
+			try {
+				moveList.serialize(writer, offsetSpace);
+			} finally {
+				writer.close();
+			}
 		} catch (IOException e) {
 			SimpleLogger.logError(e.getMessage());
 		}	
@@ -21,4 +21,5 @@ package edu.virginia.speclab.juxta.author.model;
 public interface MovesManagerListener
 {
     public void movesChanged(MovesManager movesManager);
+    public void proposedMovesChanged(MovesManager movesManager);
 }
@@ -0,0 +1,263 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.juxta.author.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+/**
+ * A recording of the SAX events <code>JuxtaXMLParser</code> received while parsing a
+ * document, along with the raw text and line table they refer to. None of it depends on
+ * the tag sets or the accepted revisions, so when those change the recording can be
+ * played back through a new parser instead of reading and parsing the XML again.
+ *
+ * Events are kept in primitive arrays: one code per event, and the event's locator
+ * position and arguments in a shared int array. Names and attribute values are stored
+ * once in a string table, and character data in a single buffer.
+ */
+class ParseEventRecording {
+    private static final byte START_ELEMENT = 1;
+    private static final byte END_ELEMENT = 2;
+    private static final byte CHARACTERS = 3;
+    private static final byte START_ENTITY = 4;
+    private static final byte END_ENTITY = 5;
+    private static final byte COMMENT = 6;
+    private static final byte END_DOCUMENT = 7;
+
+    private boolean xml;
+    private String rawXMLText;
+    private int[] lineEndOffsets;
+    private int lineCount;
+
+    private byte[] events;
+    private int eventCount;
+    private int[] data;
+    private int dataCount;
+    private StringBuilder text;
+    private List<String> strings;
+    private Map<String, Integer> stringIndex;
+
+    /**
+     * Start a recording of a parse of the given text.
+     * @param xml <code>false</code> if the document is processed as plain text, in
+     * which case there are no events.
+     */
+    public ParseEventRecording(boolean xml, String rawXMLText, int[] lineEndOffsets, int lineCount) {
+        this.xml = xml;
+        this.rawXMLText = rawXMLText;
+        this.lineEndOffsets = lineEndOffsets;
+        this.lineCount = lineCount;
+
+        this.events = new byte[xml ? 256 : 0];
+        this.data = new int[xml ? 1024 : 0];
+        this.text = new StringBuilder();
+        this.strings = new ArrayList<String>();
+        this.stringIndex = new HashMap<String, Integer>();
+    }
+
+    public boolean isXML() {
+        return xml;
+    }
+
+    public String getRawXMLText() {
+        return rawXMLText;
+    }
+
+    public int[] getLineEndOffsets() {
+        return lineEndOffsets;
+    }
+
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Drop the lookup table used while recording, once the parse is done.
+     */
+    public void finish() {
+        this.stringIndex = null;
+        this.text.trimToSize();
+
+        byte[] trimmedEvents = new byte[this.eventCount];
+        System.arraycopy(this.events, 0, trimmedEvents, 0, this.eventCount);
+        this.events = trimmedEvents;
+        int[] trimmedData = new int[this.dataCount];
+        System.arraycopy(this.data, 0, trimmedData, 0, this.dataCount);
+        this.data = trimmedData;
+    }
+
+    public void startElement(String qname, Attributes attr, Locator locator) {
+        addEvent(START_ELEMENT, locator);
+        addData(addString(qname));
+        addData(attr.getLength());
+        for (int i = 0; i < attr.getLength(); i++) {
+            addData(addString(attr.getQName(i)));
+            addData(addString(attr.getValue(i)));
+        }
+    }
+
+    public void endElement(String qname, Locator locator) {
+        addEvent(END_ELEMENT, locator);
+        addData(addString(qname));
+    }
+
+    public void characters(char[] ch, int start, int length, Locator locator) {
+        addEvent(CHARACTERS, locator);
+        addData(this.text.length());
+        addData(length);
+        this.text.append(ch, start, length);
+    }
+
+    public void startEntity(String name) {
+        addEvent(START_ENTITY, null);
+        addData(addString(name));
+    }
+
+    public void endEntity(String name) {
+        addEvent(END_ENTITY, null);
+        addData(addString(name));
+    }
+
+    // the parser only needs the position of a comment, not its text
+    public void comment(Locator locator) {
+        addEvent(COMMENT, locator);
+    }
+
+    public void endDocument() {
+        addEvent(END_DOCUMENT, null);
+    }
+
+    /**
+     * Play the recorded events back to the parser, in the order they were received.
+     */
+    public void replay(JuxtaXMLParser parser) throws SAXException {
+        ReplayLocator locator = new ReplayLocator();
+        parser.setDocumentLocator(locator);
+        parser.startDocument();
+
+        char[] chars = new char[this.text.length()];
+        this.text.getChars(0, chars.length, chars, 0);
+
+        int d = 0;
+        for (int e = 0; e < this.eventCount; e++) {
+            byte event = this.events[e];
+            if (event == START_ELEMENT || event == END_ELEMENT || event == CHARACTERS || event == COMMENT) {
+                locator.lineNumber = this.data[d++];
+                locator.columnNumber = this.data[d++];
+            }
+
+            switch (event) {
+                case START_ELEMENT: {
+                    String qname = this.strings.get(this.data[d++]);
+                    int attributeCount = this.data[d++];
+                    AttributesImpl attributes = new AttributesImpl();
+                    for (int i = 0; i < attributeCount; i++) {
+                        String name = this.strings.get(this.data[d++]);
+                        String value = this.strings.get(this.data[d++]);
+                        attributes.addAttribute("", "", name, "CDATA", value);
+                    }
+                    parser.startElement("", "", qname, attributes);
+                    break;
+                }
+                case END_ELEMENT:
+                    parser.endElement("", "", this.strings.get(this.data[d++]));
+                    break;
+                case CHARACTERS: {
+                    int start = this.data[d++];
+                    int length = this.data[d++];
+                    parser.characters(chars, start, length);
+                    break;
+                }
+                case START_ENTITY:
+                    parser.startEntity(this.strings.get(this.data[d++]));
+                    break;
+                case END_ENTITY:
+                    parser.endEntity(this.strings.get(this.data[d++]));
+                    break;
+                case COMMENT:
+                    parser.comment(chars, 0, 0);
+                    break;
+                case END_DOCUMENT:
+                    parser.endDocument();
+                    break;
+            }
+        }
+    }
+
+    private void addEvent(byte event, Locator locator) {
+        if (this.eventCount == this.events.length) {
+            byte[] grown = new byte[Math.max(256, this.eventCount * 2)];
+            System.arraycopy(this.events, 0, grown, 0, this.eventCount);
+            this.events = grown;
+        }
+        this.events[this.eventCount++] = event;
+
+        if (locator != null) {
+            addData(locator.getLineNumber());
+            addData(locator.getColumnNumber());
+        }
+    }
+
+    private void addData(int value) {
+        if (this.dataCount == this.data.length) {
+            int[] grown = new int[Math.max(1024, this.dataCount * 2)];
+            System.arraycopy(this.data, 0, grown, 0, this.dataCount);
+            this.data = grown;
+        }
+        this.data[this.dataCount++] = value;
+    }
+
+    private int addString(String s) {
+        Integer index = this.stringIndex.get(s);
+        if (index == null) {
+            index = new Integer(this.strings.size());
+            this.strings.add(s);
+            this.stringIndex.put(s, index);
+        }
+        return index.intValue();
+    }
+
+    private static class ReplayLocator implements Locator {
+        private int lineNumber;
+        private int columnNumber;
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        public int getColumnNumber() {
+            return columnNumber;
+        }
+
+        public String getPublicId() {
+            return null;
+        }
+
+        public String getSystemId() {
+            return null;
+        }
+    }
+}
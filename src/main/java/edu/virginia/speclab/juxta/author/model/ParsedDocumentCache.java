@@ -0,0 +1,568 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.juxta.author.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import edu.virginia.speclab.diff.OffsetRange;
+import edu.virginia.speclab.diff.document.Image;
+import edu.virginia.speclab.diff.document.LocationMarker;
+import edu.virginia.speclab.diff.document.NoteData;
+import edu.virginia.speclab.diff.document.OffsetMap;
+import edu.virginia.speclab.diff.document.PageBreakData;
+import edu.virginia.speclab.diff.document.TagSet;
+import edu.virginia.speclab.diff.token.JuxtaXMLNode;
+import edu.virginia.speclab.exceptions.ReportedException;
+import edu.virginia.speclab.juxta.author.model.JuxtaXMLParser.DocumentType;
+import edu.virginia.speclab.util.FileUtilities;
+import edu.virginia.speclab.util.SimpleLogger;
+
+/**
+ * Keeps the results of parsing a source document in a file, so that a session can be
+ * opened again without reparsing its XML. The cache holds the raw and flattened text,
+ * the offset map, the node tree, the location markers, notes, page breaks and revisions.
+ *
+ * The cache is keyed by a SHA-1 hash of the source file's contents, the tag sets and
+ * accepted revisions it was parsed with, so changing the template or the revisions
+ * makes it stale. A stale or unreadable cache is ignored and the document reparsed.
+ */
+class ParsedDocumentCache {
+    private static final int MAGIC = 0x4A585043;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int EXCLUDED_FLAG = 1;
+    private static final int NOTABLE_FLAG = 2;
+    private static final int EMPTY_TAG_FLAG = 4;
+
+    private File cacheFile;
+    private byte[] key;
+
+    /**
+     * Holds what a parse produces, as read from the cache.
+     */
+    static class ParseResults {
+        DocumentType documentType;
+        String rawXMLText;
+        String flattenedText;
+        JuxtaXMLNode root;
+        OffsetMap offsetMap;
+        Set<String> elementsEncountered;
+        List<LocationMarker> locationMarkers;
+        List<NoteData> notes;
+        List<Revision> revisions;
+        List<PageBreakData> pageBreaks;
+    }
+
+    /**
+     * @param cacheFile The cache file for the document.
+     * @param sourceFile The source document.
+     * @param juxtaVersion The version of Juxta that wrote the session.
+     * @param charset The charset the source is read with.
+     * @param excluded The excluded tag set, before the parser adds its own.
+     * @param notable The notable tag set.
+     * @param newlines The newline tag set.
+     * @param revisionsToAccept The revisions to accept.
+     * @throws IOException If the source file can't be read.
+     */
+    public ParsedDocumentCache(File cacheFile, File sourceFile, String juxtaVersion, Charset charset,
+        TagSet excluded, TagSet notable, TagSet newlines, List<Integer> revisionsToAccept) throws IOException {
+        this.cacheFile = cacheFile;
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 is not available: " + e.getMessage());
+        }
+
+        StringBuffer settings = new StringBuffer();
+        settings.append(FORMAT_VERSION).append('\n');
+        settings.append(sourceFile.getName()).append('\n');
+        settings.append(juxtaVersion).append('\n');
+        settings.append(charset.name()).append('\n');
+        appendTags(settings, excluded);
+        appendTags(settings, notable);
+        appendTags(settings, newlines);
+        settings.append(revisionsToAccept).append('\n');
+        digest.update(settings.toString().getBytes("UTF-8"));
+
+        InputStream inStream = new FileInputStream(sourceFile);
+        try {
+            byte[] buf = new byte[8192];
+            int bytesRead;
+            while ((bytesRead = inStream.read(buf)) != -1) {
+                digest.update(buf, 0, bytesRead);
+            }
+        } finally {
+            inStream.close();
+        }
+        this.key = digest.digest();
+    }
+
+    private static void appendTags(StringBuffer settings, TagSet tags) {
+        settings.append(new TreeSet<String>(tags.getCollection())).append('\n');
+    }
+
+    /**
+     * Read the cache.
+     * @param baseDirectory The directory of the source file, image paths are relative to it.
+     * @return The results of the earlier parse, or <code>null</code> if there is no cache or
+     * it is out of date.
+     */
+    public ParseResults read(File baseDirectory) {
+        if (!this.cacheFile.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.cacheFile)));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            byte[] storedKey = new byte[this.key.length];
+            in.readFully(storedKey);
+            if (!Arrays.equals(storedKey, this.key)) {
+                return null;
+            }
+            return new CacheReader(in, baseDirectory).readResults();
+        } catch (IOException e) {
+            SimpleLogger.logError("Unable to read parse cache " + this.cacheFile.getName() + ": " + e.getMessage());
+            return null;
+        } catch (RuntimeException e) {
+            SimpleLogger.logError("Unable to read parse cache " + this.cacheFile.getName() + ": " + e);
+            return null;
+        } finally {
+            close(in);
+        }
+    }
+
+    /**
+     * Write the results of a parse to the cache. Failing to write the cache is
+     * logged, the document was parsed all the same.
+     */
+    public void write(JuxtaXMLParser parser) {
+        File tempFile = new File(this.cacheFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            this.cacheFile.getParentFile().mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.write(this.key);
+            new CacheWriter(out, parser.getBaseDirectory()).writeResults(parser);
+            out.close();
+            out = null;
+            FileUtilities.replaceFile(tempFile, this.cacheFile);
+        } catch (IOException e) {
+            SimpleLogger.logError("Unable to write parse cache " + this.cacheFile.getName() + ": " + e.getMessage());
+        } catch (ReportedException e) {
+            SimpleLogger.logError("Unable to write parse cache " + this.cacheFile.getName() + ": " + e.getMessage());
+        } finally {
+            close(out);
+            tempFile.delete();
+        }
+    }
+
+    private static void close(Closeable stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // nothing more to do
+            }
+        }
+    }
+
+    private static class CacheWriter {
+        private DataOutputStream out;
+        private String basePath;
+        private Map<String, Integer> symbols;
+
+        public CacheWriter(DataOutputStream out, File baseDirectory) {
+            this.out = out;
+            this.basePath = (baseDirectory != null) ? baseDirectory.getPath() + File.separator : null;
+            this.symbols = new HashMap<String, Integer>();
+        }
+
+        public void writeResults(JuxtaXMLParser parser) throws IOException, ReportedException {
+            DocumentType documentType = parser.getDocumentType();
+            this.out.writeByte(documentType.ordinal());
+            writeString(parser.getXMLText());
+            writeString(parser.getFlattenedText());
+            writeOffsetMap(parser.getOffsetMap());
+
+            JuxtaXMLNode root = parser.getRootNode();
+            this.out.writeBoolean(root != null);
+            if (root != null) {
+                writeNode(root);
+            }
+
+            Set<String> elements = parser.getElementsEncountered();
+            writeCount(elements);
+            for (Iterator<String> i = elements.iterator(); i.hasNext();) {
+                writeSymbol(i.next());
+            }
+
+            // plain text markers are generated from the text each time
+            if (documentType == DocumentType.PLAINTEXT) {
+                writeVarInt(0);
+            } else {
+                List<LocationMarker> markers = parser.getLocationMarkerList();
+                writeCount(markers);
+                for (Iterator<LocationMarker> i = markers.iterator(); i.hasNext();) {
+                    writeMarker(i.next());
+                }
+            }
+
+            List<NoteData> notes = parser.getNotes();
+            writeCount(notes);
+            for (Iterator<NoteData> i = notes.iterator(); i.hasNext();) {
+                NoteData note = i.next();
+                writeSymbol(note.getType());
+                writeString(note.getTargetID());
+                writeRange(note.getNoteRange());
+                writeRange(note.getAnchorRange());
+            }
+
+            List<PageBreakData> pageBreaks = parser.getPageBreaks();
+            writeCount(pageBreaks);
+            for (Iterator<PageBreakData> i = pageBreaks.iterator(); i.hasNext();) {
+                PageBreakData pageBreak = i.next();
+                writeRange(pageBreak.getRange());
+                writeString(pageBreak.getLabel());
+            }
+
+            List<Revision> revisions = parser.getRevisions();
+            writeCount(revisions);
+            for (Iterator<Revision> i = revisions.iterator(); i.hasNext();) {
+                Revision revision = i.next();
+                this.out.writeByte(revision.getType().ordinal());
+                writeRange(revision.getOffsetRange());
+            }
+        }
+
+        private void writeOffsetMap(OffsetMap offsetMap) throws IOException, ReportedException {
+            int size = offsetMap.getSize();
+            writeVarInt(size);
+
+            // the maps mostly step by one, so store the differences
+            int last = 0;
+            for (int i = 0; i <= size; i++) {
+                int value = offsetMap.getTargetOffset(i);
+                writeSignedVarInt(value - last);
+                last = value;
+            }
+            last = 0;
+            for (int i = 0; i <= size; i++) {
+                int value = offsetMap.getSourceOffset(i);
+                writeSignedVarInt(value - last);
+                last = value;
+            }
+        }
+
+        private void writeNode(JuxtaXMLNode node) throws IOException {
+            writeSymbol(node.getName());
+            writeSignedVarInt(node.getStartOffset());
+            writeSignedVarInt(node.getEndOffset() - node.getStartOffset());
+            writeSignedVarInt(node.getXMLStartOffset());
+            writeSignedVarInt(node.getXMLEndOffset() - node.getXMLStartOffset());
+
+            int flags = 0;
+            if (node.isExcluded()) flags |= EXCLUDED_FLAG;
+            if (node.isNotable()) flags |= NOTABLE_FLAG;
+            if (node.isEmptyTag()) flags |= EMPTY_TAG_FLAG;
+            this.out.writeByte(flags);
+
+            Map<String, String> attributes = node.getAttributes();
+            writeVarInt(attributes.size());
+            for (Iterator<Map.Entry<String, String>> i = attributes.entrySet().iterator(); i.hasNext();) {
+                Map.Entry<String, String> attribute = i.next();
+                writeSymbol(attribute.getKey());
+                writeString(attribute.getValue());
+            }
+
+            writeVarInt(node.getChildCount());
+            for (int i = 0; i < node.getChildCount(); i++) {
+                writeNode(node.getChildAt(i));
+            }
+        }
+
+        private void writeMarker(LocationMarker marker) throws IOException {
+            writeString(marker.getID());
+            writeString(marker.getLocationName());
+            writeSymbol(marker.getLocationType());
+            writeSignedVarInt(marker.getNumber());
+            writeSignedVarInt(marker.getStartOffset(OffsetRange.Space.ORIGINAL));
+            writeSignedVarInt(marker.getEndOffset(OffsetRange.Space.ORIGINAL));
+
+            // images sit beside the source file, so the session can move
+            String imagePath = marker.hasImage() ? marker.getImage().getImageFile().getPath() : null;
+            boolean relative = imagePath != null && this.basePath != null && imagePath.startsWith(this.basePath);
+            this.out.writeBoolean(relative);
+            writeString(relative ? imagePath.substring(this.basePath.length()) : imagePath);
+        }
+
+        private void writeRange(OffsetRange range) throws IOException {
+            this.out.writeBoolean(range != null);
+            if (range != null) {
+                writeSignedVarInt(range.getStartOffset(OffsetRange.Space.ORIGINAL));
+                writeSignedVarInt(range.getEndOffset(OffsetRange.Space.ORIGINAL));
+            }
+        }
+
+        private void writeCount(Collection<?> collection) throws IOException {
+            writeVarInt(collection.size());
+        }
+
+        // names repeat throughout a document, each is written once and referred to after
+        private void writeSymbol(String s) throws IOException {
+            Integer index = this.symbols.get(s);
+            if (index != null) {
+                writeVarInt(index.intValue() + 1);
+            } else {
+                writeVarInt(0);
+                writeString(s);
+                this.symbols.put(s, new Integer(this.symbols.size()));
+            }
+        }
+
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                writeVarInt(0);
+            } else {
+                byte[] bytes = s.getBytes("UTF-8");
+                writeVarInt(bytes.length + 1);
+                this.out.write(bytes);
+            }
+        }
+
+        private void writeSignedVarInt(int value) throws IOException {
+            writeVarInt((value << 1) ^ (value >> 31));
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                this.out.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.out.writeByte(value);
+        }
+    }
+
+    private static class CacheReader {
+        private DataInputStream in;
+        private File baseDirectory;
+        private List<String> symbols;
+
+        public CacheReader(DataInputStream in, File baseDirectory) {
+            this.in = in;
+            this.baseDirectory = baseDirectory;
+            this.symbols = new ArrayList<String>();
+        }
+
+        public ParseResults readResults() throws IOException {
+            ParseResults results = new ParseResults();
+            results.documentType = DocumentType.values()[this.in.readUnsignedByte()];
+            results.rawXMLText = readString();
+            results.flattenedText = readString();
+            results.offsetMap = readOffsetMap();
+            results.root = this.in.readBoolean() ? readNode(null) : null;
+
+            int count = readVarInt();
+            results.elementsEncountered = new HashSet<String>();
+            for (int i = 0; i < count; i++) {
+                results.elementsEncountered.add(readSymbol());
+            }
+
+            count = readVarInt();
+            results.locationMarkers = new LinkedList<LocationMarker>();
+            for (int i = 0; i < count; i++) {
+                results.locationMarkers.add(readMarker());
+            }
+
+            count = readVarInt();
+            results.notes = new ArrayList<NoteData>(count);
+            for (int i = 0; i < count; i++) {
+                NoteData note = new NoteData(readSymbol());
+                note.setTargetID(readString());
+                note.setNoteContentRange(readRange());
+                note.setAnchorRange(readRange());
+                results.notes.add(note);
+            }
+
+            count = readVarInt();
+            results.pageBreaks = new ArrayList<PageBreakData>(count);
+            for (int i = 0; i < count; i++) {
+                OffsetRange range = readRange();
+                PageBreakData pageBreak = new PageBreakData();
+                if (range != null) {
+                    pageBreak.setRange(range.getStartOffset(OffsetRange.Space.ORIGINAL),
+                        range.getEndOffset(OffsetRange.Space.ORIGINAL));
+                }
+                pageBreak.setLabel(readString());
+                results.pageBreaks.add(pageBreak);
+            }
+
+            count = readVarInt();
+            results.revisions = new LinkedList<Revision>();
+            for (int i = 0; i < count; i++) {
+                Revision.Type type = Revision.Type.values()[this.in.readUnsignedByte()];
+                results.revisions.add(new Revision(type, readRange()));
+            }
+            return results;
+        }
+
+        private OffsetMap readOffsetMap() throws IOException {
+            int size = readVarInt();
+            OffsetMap offsetMap = new OffsetMap(size);
+            int value = 0;
+            for (int i = 0; i <= size; i++) {
+                value += readSignedVarInt();
+                offsetMap.mapSourceToTarget(i, value);
+            }
+            value = 0;
+            for (int i = 0; i <= size; i++) {
+                value += readSignedVarInt();
+                offsetMap.mapTargetToSource(i, value);
+            }
+            return offsetMap;
+        }
+
+        private JuxtaXMLNode readNode(JuxtaXMLNode parent) throws IOException {
+            String name = readSymbol();
+            int start = readSignedVarInt();
+            int end = start + readSignedVarInt();
+            JuxtaXMLNode node = new JuxtaXMLNode(name, start, end, null);
+            int xmlStart = readSignedVarInt();
+            node.setXMLStartOffset(xmlStart);
+            node.setXMLEndOffset(xmlStart + readSignedVarInt());
+
+            // addChild passes exclusion down, so add the node before setting its flags
+            if (parent != null) {
+                parent.addChild(node);
+            }
+            int flags = this.in.readUnsignedByte();
+            node.setExcluded((flags & EXCLUDED_FLAG) != 0);
+            node.setIsNotable((flags & NOTABLE_FLAG) != 0);
+            node.setIsEmptyTag((flags & EMPTY_TAG_FLAG) != 0);
+
+            int count = readVarInt();
+            for (int i = 0; i < count; i++) {
+                node.setAttribute(readSymbol(), readString());
+            }
+
+            count = readVarInt();
+            for (int i = 0; i < count; i++) {
+                readNode(node);
+            }
+            return node;
+        }
+
+        private LocationMarker readMarker() throws IOException {
+            String id = readString();
+            String name = readString();
+            String type = readSymbol();
+            int number = readSignedVarInt();
+            int start = readSignedVarInt();
+            int end = readSignedVarInt();
+
+            boolean relative = this.in.readBoolean();
+            String imagePath = readString();
+            Image image = null;
+            if (imagePath != null) {
+                image = new Image(relative ? new File(this.baseDirectory, imagePath) : new File(imagePath));
+            }
+
+            LocationMarker marker = new LocationMarker(id, name, type, number, image, start);
+            marker.setEndOffset(end);
+            return marker;
+        }
+
+        private OffsetRange readRange() throws IOException {
+            if (!this.in.readBoolean()) {
+                return null;
+            }
+            OffsetRange range = new OffsetRange();
+            int start = readSignedVarInt();
+            range.set(start, readSignedVarInt(), OffsetRange.Space.ORIGINAL);
+            return range;
+        }
+
+        private String readSymbol() throws IOException {
+            int index = readVarInt();
+            if (index > 0) {
+                return this.symbols.get(index - 1);
+            }
+            String s = readString();
+            this.symbols.add(s);
+            return s;
+        }
+
+        private String readString() throws IOException {
+            int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[length - 1];
+            this.in.readFully(bytes);
+            return new String(bytes, "UTF-8");
+        }
+
+        private int readSignedVarInt() throws IOException {
+            int value = readVarInt();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = this.in.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed parse cache.");
+        }
+    }
+}
@@ -23,5 +23,6 @@ public interface ProgressListener
 {
     public void updateProgress( JuxtaDocument document, float completeness );
     public void collationCompleted( JuxtaDocument document );
+    public void collationPreviewed( JuxtaDocument document );
     public void collationStarted( JuxtaDocument document );
 }
@@ -0,0 +1,484 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.juxta.author.model;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import edu.virginia.speclab.diff.Difference;
+import edu.virginia.speclab.diff.OffsetRange.Space;
+import edu.virginia.speclab.exceptions.LoggedException;
+import edu.virginia.speclab.juxta.author.model.MovesManager.Fragment;
+import edu.virginia.speclab.juxta.author.model.MovesManager.FragmentPair;
+import edu.virginia.speclab.util.FileUtilities;
+import edu.virginia.speclab.util.SimpleLogger;
+
+/**
+ * A log of the changes made to the annotations, moves and accepted revisions of a session
+ * since it was last saved. Each change is queued as it is made, and a background thread appends
+ * it to the journal file and syncs it to the disk, so that the changes can be replayed if the
+ * session is reopened after a crash.
+ * When the session is saved, the journal is cut back to the changes made after the save began.
+ *
+ * The journal lives in the session directory and is named after the archive it belongs to.
+ * It records the time and size of the archive, a journal that doesn't match its archive is
+ * discarded rather than replayed.
+ */
+public class SessionJournal implements AnnotationListener {
+    public static final String JOURNAL_DIRECTORY = "journal";
+
+    private static final String HEADER = "juxta-journal";
+    private static final String ENCODING = "UTF-8";
+
+    private static final String ANNOTATION_ADDED = "annotation-added";
+    private static final String ANNOTATION_REMOVED = "annotation-removed";
+    private static final String ANNOTATION_MARKED = "annotation-marked";
+    private static final String MOVE_CREATED = "move-created";
+    private static final String MOVE_DELETED = "move-deleted";
+    private static final String REVISIONS_ACCEPTED = "revisions-accepted";
+
+    // one writer for all the journals, it goes away when there is nothing to write
+    private static final ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 5, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "SessionJournal");
+            }
+        });
+
+    static {
+        writer.allowCoreThreadTimeOut(true);
+    }
+
+    private File journalFile;
+    private File archiveFile;
+
+    // the records not yet written to the journal file, and the count that includes them
+    private final List<String> pending = new ArrayList<String>();
+    private int recordCount;
+
+    private SessionJournal(File archiveFile) {
+        this.archiveFile = archiveFile;
+        this.journalFile = getJournalFile(archiveFile);
+    }
+
+    /**
+     * Open the journal of the specified archive. Records left in the journal by a session
+     * that was not closed are kept, so they can be replayed.
+     * @param archiveFile The session archive, or <code>null</code> for a new session.
+     * @return The journal, or <code>null</code> if there is no archive to journal against.
+     */
+    public static SessionJournal open(File archiveFile) {
+        if (archiveFile == null) {
+            return null;
+        }
+
+        SessionJournal journal = new SessionJournal(archiveFile);
+        if (journal.journalFile.exists()) {
+            try {
+                List<String> records = journal.readRecords();
+                if (records == null) {
+                    SimpleLogger.logInfo("discarding journal that does not match its archive: " + archiveFile.getName());
+                    journal.journalFile.delete();
+                } else {
+                    journal.recordCount = records.size();
+                }
+            } catch (IOException e) {
+                SimpleLogger.logError("Unable to read session journal: " + journal.journalFile.getPath());
+                journal.journalFile.delete();
+            }
+        }
+        return journal;
+    }
+
+    private static File getJournalFile(File archiveFile) {
+        String path;
+        try {
+            path = archiveFile.getCanonicalPath();
+        } catch (IOException e) {
+            path = archiveFile.getAbsolutePath();
+        }
+
+        String name = archiveFile.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(JuxtaSessionFile.JUXTA_TEMP_DIRECTORY + "/" + JOURNAL_DIRECTORY + "/" + name + "-"
+            + Integer.toHexString(path.hashCode()) + ".log");
+    }
+
+    public File getArchiveFile() {
+        return this.archiveFile;
+    }
+
+    /**
+     * @return The number of changes recorded since the last save.
+     */
+    public int getRecordCount() {
+        synchronized (this.pending) {
+            return this.recordCount;
+        }
+    }
+
+    public void annotationAdded(Annotation annotation) {
+        append(ANNOTATION_ADDED + formatDifference(annotation.getDifference()));
+    }
+
+    public void annotationRemoved(Annotation annotation) {
+        append(ANNOTATION_REMOVED + formatDifference(annotation.getDifference()));
+    }
+
+    public void annotationMarked(Annotation annotation) {
+        String notes = annotation.getNotes();
+        append(ANNOTATION_MARKED + formatDifference(annotation.getDifference()) + "\t"
+            + (notes == null ? "-" : "+" + escape(notes)));
+    }
+
+    public void moveCreated(Fragment left, Fragment right) {
+        append(MOVE_CREATED + formatMove(left, right));
+    }
+
+    public void moveDeleted(FragmentPair move) {
+        append(MOVE_DELETED + formatMove(move.first, move.second));
+    }
+
+    public void revisionsAccepted(JuxtaDocument document) {
+        append(REVISIONS_ACCEPTED + "\t" + document.getID() + "\t" + document.getAcceptedRevisionsString());
+    }
+
+    private static String formatDifference(Difference difference) {
+        return "\t" + difference.getType() + "\t" + difference.getBaseDocumentID() + "\t"
+            + difference.getOffset(Difference.BASE, Space.ORIGINAL) + "\t"
+            + difference.getLength(Difference.BASE, Space.ORIGINAL) + "\t" + difference.getWitnessDocumentID()
+            + "\t" + difference.getOffset(Difference.WITNESS, Space.ORIGINAL) + "\t"
+            + difference.getLength(Difference.WITNESS, Space.ORIGINAL);
+    }
+
+    private static String formatMove(Fragment left, Fragment right) {
+        return "\t" + left.getDocumentID() + "\t" + left.getStartOffset(Space.ORIGINAL) + "\t"
+            + left.getEndOffset(Space.ORIGINAL) + "\t" + right.getDocumentID() + "\t"
+            + right.getStartOffset(Space.ORIGINAL) + "\t" + right.getEndOffset(Space.ORIGINAL);
+    }
+
+    // notes can span lines, keep each record on one line
+    private static String escape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\': sb.append("\\\\"); break;
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String text) {
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                switch (next) {
+                    case 't': sb.append('\t'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    default: sb.append(next);
+                }
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // called on the event thread, the file is written and synced on the writer thread
+    private void append(String record) {
+        synchronized (this.pending) {
+            this.pending.add(record);
+            this.recordCount++;
+        }
+
+        writer.execute(new Runnable() {
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    private synchronized void flush() {
+        List<String> records;
+        synchronized (this.pending) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            records = new ArrayList<String>(this.pending);
+            this.pending.clear();
+        }
+
+        try {
+            if (!this.journalFile.exists()) {
+                writeJournal(this.journalFile, new ArrayList<String>());
+            }
+
+            StringBuilder sb = new StringBuilder();
+            for (Iterator<String> i = records.iterator(); i.hasNext();) {
+                sb.append(i.next()).append('\n');
+            }
+
+            FileOutputStream outStream = new FileOutputStream(this.journalFile, true);
+            try {
+                outStream.write(sb.toString().getBytes(ENCODING));
+                outStream.getFD().sync();
+            } finally {
+                outStream.close();
+            }
+        } catch (IOException e) {
+            SimpleLogger.logError("Unable to write to session journal: " + e.getMessage());
+        }
+    }
+
+    // the journal starts with the time and size of the archive it was written against
+    private String createHeader() {
+        return HEADER + "\t" + this.archiveFile.lastModified() + "\t" + this.archiveFile.length();
+    }
+
+    private void writeJournal(File file, List<String> records) throws IOException {
+        file.getParentFile().mkdirs();
+        File tempFile = File.createTempFile(file.getName() + "-", ".tmp", file.getParentFile());
+        FileOutputStream outStream = new FileOutputStream(tempFile);
+        try {
+            StringBuilder sb = new StringBuilder(createHeader()).append('\n');
+            for (Iterator<String> i = records.iterator(); i.hasNext();) {
+                sb.append(i.next()).append('\n');
+            }
+            outStream.write(sb.toString().getBytes(ENCODING));
+            outStream.getFD().sync();
+        } finally {
+            outStream.close();
+        }
+        FileUtilities.replaceFile(tempFile, file);
+    }
+
+    // returns null if the journal was not written against the current archive
+    private List<String> readRecords() throws IOException {
+        List<String> records = new ArrayList<String>();
+        if (!this.journalFile.exists()) {
+            return records;
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.journalFile),
+            ENCODING));
+        try {
+            String header = reader.readLine();
+            if (header == null || !header.equals(createHeader())) {
+                return null;
+            }
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    records.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return records;
+    }
+
+    /**
+     * Called once the session has been written to an archive. The changes that were
+     * recorded before the save began are in the archive now, the rest are kept.
+     * @param savedFile The archive the session was saved to.
+     * @param savedRecords The record count when the save began.
+     */
+    public synchronized void compact(File savedFile, int savedRecords) {
+        // the records made after this flush go to the compacted journal
+        flush();
+        try {
+            List<String> records = readRecords();
+            List<String> unsaved = new ArrayList<String>();
+            if (records != null && savedRecords < records.size()) {
+                unsaved.addAll(records.subList(savedRecords, records.size()));
+            }
+
+            File previousJournal = this.journalFile;
+            this.archiveFile = savedFile;
+            this.journalFile = getJournalFile(savedFile);
+            if (!previousJournal.equals(this.journalFile)) {
+                previousJournal.delete();
+            }
+
+            if (unsaved.isEmpty()) {
+                this.journalFile.delete();
+            } else {
+                writeJournal(this.journalFile, unsaved);
+            }
+            synchronized (this.pending) {
+                this.recordCount = unsaved.size() + this.pending.size();
+            }
+        } catch (IOException e) {
+            SimpleLogger.logError("Unable to compact session journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forget the recorded changes, when the session is closed without saving them.
+     */
+    public synchronized void discard() {
+        synchronized (this.pending) {
+            this.pending.clear();
+            this.recordCount = 0;
+        }
+        this.journalFile.delete();
+    }
+
+    /**
+     * Apply the recorded changes to a session that was just opened from the archive.
+     * Call this before the journal is attached to the session, so the changes aren't
+     * recorded a second time.
+     * @param session The session opened from the archive of this journal.
+     * @return <code>true</code> if any changes were replayed.
+     */
+    public synchronized boolean replay(JuxtaSession session) {
+        flush();
+        List<String> records;
+        try {
+            records = readRecords();
+        } catch (IOException e) {
+            SimpleLogger.logError("Unable to read session journal: " + e.getMessage());
+            return false;
+        }
+
+        if (records == null || records.isEmpty()) {
+            return false;
+        }
+
+        SimpleLogger.logInfo("replaying " + records.size() + " journal records for " + this.archiveFile.getName());
+
+        boolean revisionsChanged = false;
+        for (Iterator<String> i = records.iterator(); i.hasNext();) {
+            String record = i.next();
+            try {
+                revisionsChanged |= replayRecord(session, record.split("\t", -1));
+            } catch (RuntimeException e) {
+                SimpleLogger.logError("Unable to replay journal record: " + record);
+            } catch (LoggedException e) {
+                SimpleLogger.logError("Unable to replay journal record: " + record + " " + e.getMessage());
+            }
+        }
+
+        // the cached collations were made from the documents before the revisions were accepted
+        if (revisionsChanged) {
+            session.getDocumentManager().clearCollationData();
+        }
+        return true;
+    }
+
+    private boolean replayRecord(JuxtaSession session, String[] fields) throws LoggedException {
+        String type = fields[0];
+        DocumentManager documentManager = session.getDocumentManager();
+        AnnotationManager annotationManager = session.getAnnotationManager();
+
+        if (type.equals(ANNOTATION_ADDED)) {
+            annotationManager.addAnnotation(parseDifference(fields));
+        } else if (type.equals(ANNOTATION_REMOVED) || type.equals(ANNOTATION_MARKED)) {
+            Annotation annotation = findAnnotation(annotationManager, parseDifference(fields));
+            if (annotation == null) {
+                throw new LoggedException("Annotation not found.");
+            }
+
+            if (type.equals(ANNOTATION_REMOVED)) {
+                annotationManager.removeAnnotation(annotation);
+            } else {
+                String notes = fields[8].startsWith("+") ? unescape(fields[8].substring(1)) : null;
+                annotationManager.markAnnotation(annotation, notes);
+            }
+        } else if (type.equals(MOVE_CREATED) || type.equals(MOVE_DELETED)) {
+            MovesManager movesManager = documentManager.getMovesManager();
+            FragmentPair move = MovesManager.newFragmentPair();
+            move.first = parseFragment(documentManager, fields, 1);
+            move.second = parseFragment(documentManager, fields, 4);
+
+            if (type.equals(MOVE_CREATED)) {
+                movesManager.createMove(move.first, move.second);
+            } else {
+                movesManager.deleteMove(move);
+            }
+        } else if (type.equals(REVISIONS_ACCEPTED)) {
+            JuxtaDocument document = documentManager.lookupDocument(Integer.parseInt(fields[1]));
+            if (document == null) {
+                throw new LoggedException("Document not found.");
+            }
+
+            document.setAcceptedRevisions(fields[2]);
+            JuxtaDocumentFactory factory = new JuxtaDocumentFactory(document.getEncoding());
+            factory.reparseDocument(document, null);
+            return true;
+        }
+        return false;
+    }
+
+    private static Difference parseDifference(String[] fields) {
+        Difference difference = new Difference(Integer.parseInt(fields[2]), Integer.parseInt(fields[5]),
+            Integer.parseInt(fields[1]));
+        difference.setBaseOffset(Integer.parseInt(fields[3]), Space.ORIGINAL);
+        difference.setBaseTextLength(Integer.parseInt(fields[4]), Space.ORIGINAL);
+        difference.setWitnessOffset(Integer.parseInt(fields[6]), Space.ORIGINAL);
+        difference.setWitnessTextLength(Integer.parseInt(fields[7]), Space.ORIGINAL);
+        return difference;
+    }
+
+    private static Annotation findAnnotation(AnnotationManager annotationManager, Difference difference) {
+        List annotations = annotationManager.getAnnotations();
+        synchronized (annotations) {
+            for (Iterator i = annotations.iterator(); i.hasNext();) {
+                Annotation annotation = (Annotation) i.next();
+                if (formatDifference(annotation.getDifference()).equals(formatDifference(difference))) {
+                    return annotation;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Fragment parseFragment(DocumentManager documentManager, String[] fields, int start)
+        throws LoggedException {
+        JuxtaDocument document = documentManager.lookupDocument(Integer.parseInt(fields[start]));
+        if (document == null) {
+            throw new LoggedException("Document not found.");
+        }
+
+        Fragment fragment = MovesManager.newFragment();
+        fragment.set(document, Integer.parseInt(fields[start + 1]), Integer.parseInt(fields[start + 2]),
+            Space.ORIGINAL);
+        return fragment;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.juxta.author.model;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+import edu.virginia.speclab.exceptions.ErrorHandler;
+import edu.virginia.speclab.exceptions.ReportedException;
+
+/**
+ * Saves a <code>JuxtaSession</code> without holding up the user interface. The session's
+ * working files are written on the event dispatch thread, which only takes a moment, and the
+ * archive is written from them on a background thread. One save runs at a time, a save
+ * requested while another is running starts when it finishes.
+ *
+ * Once the session has gone unmodified for <code>IDLE_DELAY</code> milliseconds, it is saved
+ * to its archive, which folds the changes in the session journal into the archive.
+ *
+ * All of the methods are meant to be called on the event dispatch thread.
+ */
+public class SessionSaver {
+    public static final int IDLE_DELAY = 15000;
+
+    private JuxtaSession session;
+    private Timer idleTimer;
+    private ExecutorService executor;
+    private SaveTask currentSave;
+    private SaveTask pendingSave;
+
+    public SessionSaver(JuxtaSession session) {
+        this.session = session;
+
+        this.idleTimer = new Timer(IDLE_DELAY, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                saveWhenIdle();
+            }
+        });
+        this.idleTimer.setRepeats(false);
+
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "SessionSaver");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Called whenever the session is modified, restarts the wait for the session to go idle.
+     */
+    public void sessionModified() {
+        if (this.session.getSaveFile() != null && this.session.getJournal() != null) {
+            this.idleTimer.restart();
+        }
+    }
+
+    private void saveWhenIdle() {
+        File saveFile = this.session.getSaveFile();
+        if (saveFile == null || !this.session.isModified()) {
+            return;
+        }
+
+        // documents are still being added or collated, wait for them
+        if (this.currentSave != null || !this.session.getComparisonSet().isLoadComplete()) {
+            this.idleTimer.restart();
+            return;
+        }
+
+        save(saveFile, null);
+    }
+
+    /**
+     * Save the session to the specified archive.
+     * @param file The archive to write.
+     * @param callBack Notified on the event dispatch thread when the save is done, or
+     * <code>null</code> to report errors with the <code>ErrorHandler</code>.
+     */
+    public void save(File file, SaveCallBack callBack) {
+        this.idleTimer.stop();
+
+        SaveTask task = new SaveTask(file, callBack);
+        if (this.currentSave != null) {
+            this.pendingSave = task;
+        } else {
+            start(task);
+        }
+    }
+
+    private void start(SaveTask task) {
+        // changes made from here on are not in this save
+        SessionJournal journal = this.session.getJournal();
+        task.savedRecords = (journal != null) ? journal.getRecordCount() : 0;
+        task.modificationCount = this.session.getModificationCount();
+
+        try {
+            this.session.writeWorkingFiles(true);
+        } catch (ReportedException e) {
+            task.error = e;
+            finished(task);
+            return;
+        }
+
+        this.currentSave = task;
+        task.future = this.executor.submit(task);
+    }
+
+    /**
+     * Block until the running save, and any save waiting behind it, are finished.
+     */
+    public void waitForSave() {
+        while (this.currentSave != null) {
+            SaveTask task = this.currentSave;
+            try {
+                task.future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                // reported by the task itself
+            }
+            task.complete();
+        }
+    }
+
+    /**
+     * Stop waiting for the session to go idle.
+     */
+    public void stop() {
+        this.idleTimer.stop();
+    }
+
+    private void finished(SaveTask task) {
+        if (this.currentSave == task) {
+            this.currentSave = null;
+        }
+
+        if (task.error == null) {
+            this.session.saveCompleted(task.file, task.savedRecords, task.modificationCount);
+            if (task.callBack != null) {
+                task.callBack.saveComplete(task.file);
+            }
+        } else if (task.callBack != null) {
+            task.callBack.saveFailed(task.file, task.error);
+        } else {
+            ErrorHandler.handleException(task.error);
+        }
+
+        if (this.pendingSave != null) {
+            SaveTask next = this.pendingSave;
+            this.pendingSave = null;
+            start(next);
+        }
+    }
+
+    private class SaveTask implements Runnable {
+        private File file;
+        private SaveCallBack callBack;
+        private int savedRecords;
+        private int modificationCount;
+        private Future<?> future;
+        private ReportedException error;
+        private boolean completed;
+
+        public SaveTask(File file, SaveCallBack callBack) {
+            this.file = file;
+            this.callBack = callBack;
+        }
+
+        public void run() {
+            try {
+                session.writeArchive(this.file, true);
+            } catch (ReportedException e) {
+                this.error = e;
+            } catch (RuntimeException e) {
+                this.error = new ReportedException(e, "Error saving juxta session.");
+            }
+
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    complete();
+                }
+            });
+        }
+
+        public void complete() {
+            if (this.completed) {
+                return;
+            }
+            this.completed = true;
+            finished(this);
+        }
+    }
+}
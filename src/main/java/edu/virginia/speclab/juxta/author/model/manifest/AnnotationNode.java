@@ -18,14 +18,14 @@
  
 package edu.virginia.speclab.juxta.author.model.manifest;
 
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import edu.virginia.speclab.diff.Difference;
 import edu.virginia.speclab.diff.OffsetRange;
 import edu.virginia.speclab.exceptions.ReportedException;
 import edu.virginia.speclab.juxta.author.model.Annotation;
+import edu.virginia.speclab.util.XMLStreamUtilities;
 
 public class AnnotationNode
 {
@@ -43,9 +43,9 @@ public class AnnotationNode
 
     private boolean fromOldVersion;
     
-    public AnnotationNode( Node annotationNode ) throws ReportedException
+    public AnnotationNode( XMLStreamReader reader ) throws ReportedException, XMLStreamException
     {
-       loadAnnotationNode(annotationNode);
+       loadAnnotationNode(reader);
     }
     
     public AnnotationNode( Annotation annotation )
@@ -71,15 +71,13 @@ public class AnnotationNode
         return this.fromOldVersion;
     }
 
-    private void loadDifferenceNode( Node differenceNode ) throws ReportedException
+    private void loadDifferenceNode( XMLStreamReader reader ) throws ReportedException, XMLStreamException
     {
-        NamedNodeMap attributes = differenceNode.getAttributes();
-
         // Parse the type 
-        Node nameNode = attributes.getNamedItem("type");
-        if (nameNode != null)
+        String type = reader.getAttributeValue(null, "type");
+        if (type != null)
         {
-            setDifferenceType(nameNode.getNodeValue());
+            setDifferenceType(type);
         }
         else
         {
@@ -88,42 +86,33 @@ public class AnnotationNode
         }
 
         // Gather data from child elements
-        NodeList differenceChildren = differenceNode.getChildNodes();
-
-        if (differenceChildren != null)
+        while (XMLStreamUtilities.nextChildElement(reader))
         {
-           for (int i = 0; i < differenceChildren.getLength(); i++)
-           {
-              Node currentNode = differenceChildren.item(i);
-
-              if ( currentNode.getNodeType() == Node.ELEMENT_NODE &&
-                   currentNode.getNodeName().equals("base")           )
-              {
-                  loadDocumentNode(currentNode,Difference.BASE);
-              }
-              
-              if ( currentNode.getNodeType() == Node.ELEMENT_NODE &&
-                   currentNode.getNodeName().equals("witness")        )
-              {
-                  loadDocumentNode(currentNode,Difference.WITNESS);
-              }
-           }
+            if (reader.getLocalName().equals("base"))
+            {
+                loadDocumentNode(reader,Difference.BASE);
+            }
+            else if (reader.getLocalName().equals("witness"))
+            {
+                loadDocumentNode(reader,Difference.WITNESS);
+            }
+            
+            // the quoted text is not read back
+            XMLStreamUtilities.skipElement(reader);
         }
     }
 
-    private void loadDocumentNode(Node documentNode, int documentType ) throws ReportedException
+    private void loadDocumentNode(XMLStreamReader reader, int documentType ) throws ReportedException
     {
-        NamedNodeMap attributes = documentNode.getAttributes();
-        
         String elementName = documentType==Difference.BASE ? "Base" : "Witness";
         
-        Node docIDNode = attributes.getNamedItem("docid");
-        if (docIDNode != null)
+        String docID = reader.getAttributeValue(null, "docid");
+        if (docID != null)
         {
             if( documentType == Difference.BASE )
-                baseDocumentID = Integer.parseInt(docIDNode.getNodeValue());
+                baseDocumentID = Integer.parseInt(docID);
             else
-                witnessDocumentID = Integer.parseInt(docIDNode.getNodeValue());
+                witnessDocumentID = Integer.parseInt(docID);
         }
         else
         {
@@ -131,13 +120,13 @@ public class AnnotationNode
                                     elementName + " element missing required attribute \"docid\".");
         }
 
-        Node offsetNode = attributes.getNamedItem("offset");
-        if (offsetNode != null)
+        String offset = reader.getAttributeValue(null, "offset");
+        if (offset != null)
         {
             if( documentType == Difference.BASE )
-                baseOffset = Integer.parseInt(offsetNode.getNodeValue());
+                baseOffset = Integer.parseInt(offset);
             else
-                witnessOffset = Integer.parseInt(offsetNode.getNodeValue());
+                witnessOffset = Integer.parseInt(offset);
         }
         else
         {
@@ -145,13 +134,13 @@ public class AnnotationNode
                                      elementName + " element missing required attribute \"offset\".");           
         }
  
-        Node lengthNode = attributes.getNamedItem("length");
-        if (lengthNode != null)
+        String length = reader.getAttributeValue(null, "length");
+        if (length != null)
         {
             if( documentType == Difference.BASE )
-                baseLength = Integer.parseInt(lengthNode.getNodeValue());
+                baseLength = Integer.parseInt(length);
             else
-                witnessLength = Integer.parseInt(lengthNode.getNodeValue());
+                witnessLength = Integer.parseInt(length);
         }
         else
         {           
@@ -160,10 +149,10 @@ public class AnnotationNode
         }
         
 
-        Node spaceNode = attributes.getNamedItem("space");
-        if (spaceNode != null)
+        String spaceName = reader.getAttributeValue(null, "space");
+        if (spaceName != null)
         {
-            OffsetRange.Space space = OffsetRange.stringToSpace(spaceNode.getNodeValue());
+            OffsetRange.Space space = OffsetRange.stringToSpace(spaceName);
             if (documentType == Difference.BASE)
                 baseSpace = space;
             else
@@ -181,45 +170,35 @@ public class AnnotationNode
 
     }
 
-    private void loadAnnotationNode(Node annotationNode) throws ReportedException
+    private void loadAnnotationNode(XMLStreamReader reader) throws ReportedException, XMLStreamException
     {
        boolean foundDifference = false;
 
        // Gather data from child elements
-       NodeList annotationChildren = annotationNode.getChildNodes();
-
-       if (annotationChildren != null)
+       while (XMLStreamUtilities.nextChildElement(reader))
        {
-          for (int i = 0; i < annotationChildren.getLength(); i++)
-          {
-             Node currentNode = annotationChildren.item(i);
+          String elementName = reader.getLocalName();
 
-             if (!foundDifference &&
-                 currentNode.getNodeType() == Node.ELEMENT_NODE &&
-                 currentNode.getNodeName().equals("difference")    )
-             {
-                 loadDifferenceNode(currentNode);
-                 foundDifference = true;
-             }
-         
-             if (currentNode.getNodeType() == Node.ELEMENT_NODE &&
-                 currentNode.getNodeName().equals("notes")           )
-             {                   
-                   Node textNode = currentNode.getFirstChild();
-                   if ( textNode != null && textNode.getNodeType() == Node.TEXT_NODE)
-                      notes = textNode.getNodeValue();
-             }   
-             
-             if (currentNode.getNodeType() == Node.ELEMENT_NODE &&
-                     currentNode.getNodeName().equals("image")           )
-                 {                   
-                       Node textNode = currentNode.getFirstChild();
-                       if ( textNode != null && textNode.getNodeType() == Node.TEXT_NODE)
-                          if( textNode.getNodeValue().equals(Boolean.toString(true)) )
-                              includeImage = true;
-                          else 
-                              includeImage = false;
-                 }   
+          if (!foundDifference && elementName.equals("difference"))
+          {
+              loadDifferenceNode(reader);
+              foundDifference = true;
+          }
+          else if (elementName.equals("notes"))
+          {
+              String text = XMLStreamUtilities.readElementText(reader);
+              if (text != null)
+                 notes = text;
+          }
+          else if (elementName.equals("image"))
+          {
+              String text = XMLStreamUtilities.readElementText(reader);
+              if (text != null)
+                 includeImage = text.equals(Boolean.toString(true));
+          }
+          else
+          {
+              XMLStreamUtilities.skipElement(reader);
           }
        }
 
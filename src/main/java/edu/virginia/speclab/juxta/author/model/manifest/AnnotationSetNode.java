@@ -23,13 +23,14 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import edu.virginia.speclab.diff.Difference;
 import edu.virginia.speclab.exceptions.ReportedException;
 import edu.virginia.speclab.juxta.author.model.Annotation;
 import edu.virginia.speclab.juxta.author.model.JuxtaSession;
+import edu.virginia.speclab.util.XMLStreamUtilities;
 
 public class AnnotationSetNode
 {
@@ -38,11 +39,11 @@ public class AnnotationSetNode
     /**
      * Create a new Comparison object.
      */
-    public AnnotationSetNode(Node annotationSetNode)
-            throws ReportedException
+    public AnnotationSetNode(XMLStreamReader reader)
+            throws ReportedException, XMLStreamException
     {
         annotationNodeList = new LinkedList();
-        loadAnnotationSetNode(annotationSetNode);
+        loadAnnotationSetNode(reader);
     }
 
     public AnnotationSetNode(JuxtaSession session)
@@ -61,24 +62,20 @@ public class AnnotationSetNode
 		}
     }
     
-    private void loadAnnotationSetNode(Node annotationSetNode)
-            throws ReportedException
+    private void loadAnnotationSetNode(XMLStreamReader reader)
+            throws ReportedException, XMLStreamException
     {        
         // Traverse the child elements looking for comparisons and commentary
-        NodeList progressionChildren = annotationSetNode.getChildNodes();
-
-        if (progressionChildren != null)
+        while (XMLStreamUtilities.nextChildElement(reader))
         {
-            for (int i = 0; i < progressionChildren.getLength(); i++)
+            if (reader.getLocalName().equals("annotation"))
             {
-                Node currentNode = progressionChildren.item(i);
-
-                if (currentNode.getNodeType() == Node.ELEMENT_NODE
-                        && currentNode.getNodeName().equals("annotation"))
-                {
-                    AnnotationNode node = new AnnotationNode(currentNode);
-                    annotationNodeList.add(node);
-                } 
+                AnnotationNode node = new AnnotationNode(reader);
+                annotationNodeList.add(node);
+            }
+            else
+            {
+                XMLStreamUtilities.skipElement(reader);
             }
         }
     }
@@ -22,12 +22,12 @@ package edu.virginia.speclab.juxta.author.model.manifest;
 import edu.virginia.speclab.diff.OffsetRange.Space;
 import java.io.File;
 
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import edu.virginia.speclab.exceptions.ReportedException;
 import edu.virginia.speclab.juxta.author.model.JuxtaDocument;
+import edu.virginia.speclab.util.XMLStreamUtilities;
 
 public class ComparandNode
 {
@@ -37,12 +37,12 @@ public class ComparandNode
     private int activeRangeEnd;
     
     /**
-     * Create an empty <code>Comparand</code> object.
+     * Create a <code>Comparand</code> object from a &ltcomparand&gt element.
      *
      */
-    public ComparandNode( Node comparandNode ) throws ReportedException
+    public ComparandNode( XMLStreamReader reader ) throws ReportedException, XMLStreamException
     {
-       loadComparandNode(comparandNode);
+       loadComparandNode(reader);
     }
     
     public ComparandNode( JuxtaDocument document )
@@ -56,36 +56,35 @@ public class ComparandNode
     /**
      * Load the comparand data from a &ltcomparand&gt element.
      * 
-     * @param comparandNode The DOM Node of the comparand element.
+     * @param reader A reader positioned on the start tag of the comparand element.
+     * It is left on the end tag.
      * @throws JuxtaFileParsingException If the comparand element is malformed or not
      * a comparand element.
      */
-    private void loadComparandNode(Node comparandNode) throws ReportedException
+    private void loadComparandNode(XMLStreamReader reader) throws ReportedException, XMLStreamException
     {
        boolean foundFile = false;
 
-       NamedNodeMap attributes = comparandNode.getAttributes();
-
        //   Parse the doc id        
-       Node docid = attributes.getNamedItem("docid");
+       String docid = reader.getAttributeValue(null, "docid");
        if (docid != null)
        {
-          documentID = Integer.parseInt(docid.getNodeValue());           
+          documentID = Integer.parseInt(docid);           
        }
        //	parse the fragment offsets
-       Node fragmentStart = attributes.getNamedItem("activeRangeStart");
+       String fragmentStart = reader.getAttributeValue(null, "activeRangeStart");
        if (fragmentStart != null)
        {
-    	   this.activeRangeStart = Integer.parseInt(fragmentStart.getNodeValue());
+    	   this.activeRangeStart = Integer.parseInt(fragmentStart);
        }
        else
        {
     	   this.activeRangeStart = -1;
        }
-       Node fragmentEnd = attributes.getNamedItem("activeRangeEnd");
+       String fragmentEnd = reader.getAttributeValue(null, "activeRangeEnd");
        if (fragmentEnd != null)
        {
-    	   this.activeRangeEnd = Integer.parseInt(fragmentEnd.getNodeValue());
+    	   this.activeRangeEnd = Integer.parseInt(fragmentEnd);
        }
        else
        {
@@ -93,24 +92,16 @@ public class ComparandNode
        }
        
        // Gather data from child elements
-       NodeList comparandChildren = comparandNode.getChildNodes();
-
-       if (comparandChildren != null)
+       while (XMLStreamUtilities.nextChildElement(reader))
        {
-          for (int i = 0; i < comparandChildren.getLength(); i++)
+          if (reader.getLocalName().equals("file"))
           {
-             Node currentNode = comparandChildren.item(i);
-
-             if (currentNode.getNodeType() == Node.ELEMENT_NODE)
-             {
-                if (currentNode.getNodeName().equals("file"))
-                {
-                   foundFile = true;
-                   Node textNode = currentNode.getFirstChild();
-                   if (textNode.getNodeType() == Node.TEXT_NODE)
-                      file = textNode.getNodeValue();
-                }
-             }
+             foundFile = true;
+             file = XMLStreamUtilities.readElementText(reader);
+          }
+          else
+          {
+             XMLStreamUtilities.skipElement(reader);
           }
        }
 
@@ -23,14 +23,14 @@ import java.io.File;
 import java.util.Iterator;
 import java.util.LinkedList;
 
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import edu.virginia.speclab.diff.token.TokenizerSettings;
 import edu.virginia.speclab.exceptions.ReportedException;
 import edu.virginia.speclab.juxta.author.model.JuxtaDocument;
 import edu.virginia.speclab.juxta.author.model.JuxtaSession;
+import edu.virginia.speclab.util.XMLStreamUtilities;
 
 public class ComparisonSetNode
 {
@@ -41,11 +41,11 @@ public class ComparisonSetNode
     /**
      * Create a new Comparison object.
      */
-    public ComparisonSetNode(Node comparisonNode)
-            throws ReportedException
+    public ComparisonSetNode(XMLStreamReader reader)
+            throws ReportedException, XMLStreamException
     {
         comparandList = new LinkedList();
-        loadComparisonNode(comparisonNode);
+        loadComparisonNode(reader);
     }
 
     public ComparisonSetNode(JuxtaSession session)
@@ -66,21 +66,21 @@ public class ComparisonSetNode
     /**
      * Load the comparison data from the &ltcomparison&gt element.
      * 
-     * @param comparisonNode
-     *            The DOM Node of the comparison element.
+     * @param reader
+     *            A reader positioned on the start tag of the comparison
+     *            element. It is left on the end tag.
      * @throws JuxtaFileParsingException
      *             If the comparison element is malformed or not a comparison
      *             element.
      */
-    private void loadComparisonNode(Node comparisonNode)
-            throws ReportedException
+    private void loadComparisonNode(XMLStreamReader reader)
+            throws ReportedException, XMLStreamException
     {
         // Parse the id
-        NamedNodeMap attributes = comparisonNode.getAttributes();
-        Node idNode = attributes.getNamedItem("name");
+        String idNode = reader.getAttributeValue(null, "name");
         if (idNode != null)
         {
-            name = idNode.getNodeValue();
+            name = idNode;
         } 
         else
         {
@@ -99,43 +99,39 @@ public class ComparisonSetNode
         boolean filterWhitespace = defaultSettings.filterWhitespace();
         
         // Parse the case filter
-        Node filterCaseNode = attributes.getNamedItem("filter-case");
+        String filterCaseNode = reader.getAttributeValue(null, "filter-case");
         if (filterCaseNode != null)
         {
-            filterCase = filterCaseNode.getNodeValue().equals("false") ? false : true;
+            filterCase = filterCaseNode.equals("false") ? false : true;
         } 
 
         // Parse the whitespace filter
-        Node filterWhitespaceNode = attributes.getNamedItem("filter-whitespace");
+        String filterWhitespaceNode = reader.getAttributeValue(null, "filter-whitespace");
         if (filterWhitespaceNode != null)
         {
-            filterWhitespace = filterWhitespaceNode.getNodeValue().equals("false") ? false : true;
+            filterWhitespace = filterWhitespaceNode.equals("false") ? false : true;
         } 
 
         // Parse the punctuation filter
-        Node filterPunctuationNode = attributes.getNamedItem("filter-punctuation");
+        String filterPunctuationNode = reader.getAttributeValue(null, "filter-punctuation");
         if (filterPunctuationNode != null)
         {
-            filterPunctuation = filterPunctuationNode.getNodeValue().equals("false") ? false : true;
+            filterPunctuation = filterPunctuationNode.equals("false") ? false : true;
         } 
         
         settings = new TokenizerSettings(filterCase,filterPunctuation,filterWhitespace);
 
         // Traverse the child elements looking for comparisons and commentary
-        NodeList progressionChildren = comparisonNode.getChildNodes();
-
-        if (progressionChildren != null)
+        while (XMLStreamUtilities.nextChildElement(reader))
         {
-            for (int i = 0; i < progressionChildren.getLength(); i++)
+            if (reader.getLocalName().equals("comparand"))
             {
-                Node currentNode = progressionChildren.item(i);
-
-                if (currentNode.getNodeType() == Node.ELEMENT_NODE
-                        && currentNode.getNodeName().equals("comparand"))
-                {
-                    ComparandNode c = new ComparandNode(currentNode);
-                    comparandList.add(c);
-                } 
+                ComparandNode c = new ComparandNode(reader);
+                comparandList.add(c);
+            }
+            else
+            {
+                XMLStreamUtilities.skipElement(reader);
             }
         }
     }
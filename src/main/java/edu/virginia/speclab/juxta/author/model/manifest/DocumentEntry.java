@@ -50,6 +50,7 @@ public class DocumentEntry
     private File sourceFile, cacheDirectory;
     
     private static final String COLLATION_CACHE_FILE_EXTENSION = "dat";
+    private static final String PARSE_CACHE_FILE_EXTENSION = "parse";
     
 	/**
 	 * Constructs a <code>DocumentEntry</code> from an entry in the manifest 
@@ -86,6 +87,11 @@ public class DocumentEntry
         return new File( cacheDirectory.getAbsolutePath() + "/" + documentID + "." + COLLATION_CACHE_FILE_EXTENSION );
     }
 
+    private File createParseCacheFile()
+    {
+        return new File( cacheDirectory.getAbsolutePath() + "/" + documentID + "." + PARSE_CACHE_FILE_EXTENSION );
+    }
+
 	/**
 	 * Determine if a cache file has been created for this document yet.
 	 * @return <code>true</code> if it has, <code>false</code> otherwise.
@@ -116,6 +122,20 @@ public class DocumentEntry
         }
     }
     
+	/**
+	 * Deletes the corresponding parse cache file from the disk if it
+	 * exists. Otherwise, it returns silently. 
+	 */
+    public void deleteParseCacheFile()
+    {
+        File cacheFile = createParseCacheFile();
+        
+        if( cacheFile.exists() )
+        {
+            cacheFile.delete();
+        }
+    }
+    
     private File createSourceFile( String fileName, File basePath ) throws ReportedException
     {        
     	File file = new File(fileName);
@@ -148,7 +168,9 @@ public class DocumentEntry
     
 	/**
 	 * Constructs a new <code>DocumentModel</code> object for the document
-	 * represented by this entry.
+	 * represented by this entry. The results of parsing the document's source
+	 * are kept in the parse cache file, so that it is only parsed again when
+	 * it or its parse template changes.
 	 * @param The version of Juxta that generated this file.
 	 * @return A <code>DocumentModel</code> object.
 	 * @throws ReportedException If there was an error loading the document.
@@ -157,7 +179,9 @@ public class DocumentEntry
     {
 		JuxtaDocumentFactory documentFactory = new JuxtaDocumentFactory(juxtaVersion);
 		
-		JuxtaDocument document = documentFactory.readFromFile(sourceFile);		
+		// documents that haven't been given an ID yet can't share a cache file
+		File parseCacheFile = ( documentID != 0 ) ? createParseCacheFile() : null;
+		JuxtaDocument document = documentFactory.readFromFile(sourceFile, parseCacheFile);		
 
 		if( documentID != 0 )
 		{
@@ -271,5 +295,10 @@ public class DocumentEntry
 	{
 		return createCollationCacheFile(); 
 	}
+
+	public File getParseCacheFile() 
+	{
+		return createParseCacheFile(); 
+	}
 	
 }
\ No newline at end of file
@@ -20,31 +20,25 @@
 package edu.virginia.speclab.juxta.author.model.manifest;
 
 import edu.virginia.speclab.diff.OffsetRange;
-import java.io.BufferedWriter;
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
+import java.io.InputStream;
+import java.io.Writer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.FactoryConfigurationError;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
-
-import edu.virginia.speclab.diff.document.DocumentWriter;
 import edu.virginia.speclab.diff.token.TokenizerSettings;
 import edu.virginia.speclab.exceptions.ReportedException;
 import edu.virginia.speclab.juxta.author.Juxta;
 import edu.virginia.speclab.juxta.author.model.JuxtaSession;
 import edu.virginia.speclab.util.SimpleLogger;
+import edu.virginia.speclab.util.XMLStreamUtilities;
 
 public class DocumentManifestXMLFile
 {
@@ -90,25 +84,26 @@ public class DocumentManifestXMLFile
     }
 
     /**
-     * Load the Juxta document from a <code>File</close> object.
+     * Load the Juxta document from a <code>File</close> object. The file is read
+     * a piece at a time, no document tree is built for it.
      * @param juxtaFile The Juxta data file.
      * @throws JuxtaFileParsingException
      * @throws JuxtaFileParsingException If the file is not well formed XML or the document
      * itself is not valid.
-     * @throws JuxtaSystemRequirementsException If the JAXP XML processor packages are not installed.
+     * @throws JuxtaSystemRequirementsException If the StAX XML processor packages are not installed.
      */
     private void loadDocument(File juxtaFile) throws ReportedException
     {
+        InputStream inStream = null;
         try
         {
-            DocumentBuilderFactory factory = DocumentBuilderFactory
-                    .newInstance();
-            DocumentBuilder parser = factory.newDocumentBuilder();
-            Node document = parser.parse(juxtaFile);
+            inStream = new BufferedInputStream(new FileInputStream(juxtaFile));
+            XMLStreamReader reader = XMLStreamUtilities.createReader(inStream);
             basePath = new File(juxtaFile.getAbsoluteFile().getParent());
-            loadDocument(document);
+            loadDocument(reader);
+            reader.close();
         }
-        catch (SAXException e)
+        catch (XMLStreamException e)
         {
             throw new ReportedException(e, juxtaFile.getName()
                     + " is not well formed.");
@@ -121,52 +116,68 @@ public class DocumentManifestXMLFile
         catch (FactoryConfigurationError e)
         {
             throw new ReportedException( "Could not locate factory class.","Factory Configuration Error" );
-        } 
-        catch (ParserConfigurationException e)
+        }
+        finally
         {
-            throw new ReportedException( e,
-                    "Could not locate a JAXP Parser.");
+            if (inStream != null)
+            {
+                try
+                {
+                    inStream.close();
+                }
+                catch (IOException e)
+                {
+                    SimpleLogger.logError("Unable to close " + juxtaFile.getName());
+                }
+            }
         }
     }
 
     /**
      * Load the Juxta document from a &ltjuxta&gt element.
      * 
-     * @param document
-     *            The DOM Node of the juxta element.
+     * @param reader
+     *            A reader positioned at the start of the document.
      * @throws JuxtaFileParsingException
      *             If the element is not valid.
      */
-    private void loadDocument(Node document)
-            throws ReportedException
+    private void loadDocument(XMLStreamReader reader)
+            throws ReportedException, XMLStreamException
     {
         boolean juxtaNodeFound = false;
 
-        NodeList documentChildren = document.getChildNodes();
-        if (documentChildren != null)
+        if (XMLStreamUtilities.nextChildElement(reader)
+             && reader.getLocalName().equals("juxta"))
         {
-            for (int i = 0; i < documentChildren.getLength(); i++)
-            {
-                Node currentNode = documentChildren.item(i);
+            loadJuxtaVersion(reader);
 
-                if (currentNode.getNodeType() == Node.ELEMENT_NODE
-                     && currentNode.getNodeName().equals("juxta"))
+            juxtaNodeFound = true;
+            boolean comparisonSetFound = false, annotationSetFound = false;
+            while (XMLStreamUtilities.nextChildElement(reader))
+            {
+                if (!comparisonSetFound && reader.getLocalName().equals("comparison-set"))
+                {
+                    comparisonSetNode = new ComparisonSetNode(reader);
+                    comparisonSetFound = true;
+                }
+                else if (!annotationSetFound && reader.getLocalName().equals("annotation-set"))
                 {
-                	loadJuxtaVersion(currentNode);
-                	
-                    juxtaNodeFound = true;
-                    if( loadComparisonSet(currentNode) )
-                    {
-                        if( !loadAnnotationSet(currentNode) )
-                        {
-                            SimpleLogger.logError("<annotation-set> not found.");
-                        }
-                    }
-                    else
-                    {
-                        throw new ReportedException("<comparison-set> not found.","<comparison-set> not found.");
-                    }                    
+                    annotationSetNode = new AnnotationSetNode(reader);
+                    annotationSetFound = true;
                 }
+                else
+                {
+                    XMLStreamUtilities.skipElement(reader);
+                }
+            }
+
+            if (!comparisonSetFound)
+            {
+                throw new ReportedException("<comparison-set> not found.","<comparison-set> not found.");
+            }
+            if (!annotationSetFound)
+            {
+                SimpleLogger.logError("<annotation-set> not found.");
             }
         }
 
@@ -174,13 +185,12 @@ public class DocumentManifestXMLFile
             throw new ReportedException("Juxta element node not found.","Juxta element node not found.");
     }
 
-    private void loadJuxtaVersion(Node juxtaNode) throws ReportedException {
-        NamedNodeMap attributes = juxtaNode.getAttributes();
-        Node versionNode = attributes.getNamedItem("version");
+    private void loadJuxtaVersion(XMLStreamReader reader) throws ReportedException {
+        String version = reader.getAttributeValue(null, "version");
         
-        if (versionNode != null)
+        if (version != null)
         {
-            juxtaVersion = versionNode.getNodeValue();
+            juxtaVersion = version;
         } 
         else
         {
@@ -196,136 +206,107 @@ public class DocumentManifestXMLFile
             throw e;        
         }		
 	}
-
-	private boolean loadComparisonSet(Node juxtaNode) throws ReportedException
-    {
-        NodeList juxtaChildren = juxtaNode.getChildNodes();
-
-        if (juxtaChildren != null)
-        {
-            for (int i = 0; i < juxtaChildren.getLength(); i++)
-            {
-                Node currentNode = juxtaChildren.item(i);
-
-                if (currentNode.getNodeType() == Node.ELEMENT_NODE
-                        && currentNode.getNodeName().equals("comparison-set"))
-                {                    
-                    comparisonSetNode = new ComparisonSetNode(currentNode);
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
-
-    private boolean loadAnnotationSet(Node juxtaNode) throws ReportedException
-    {
-        NodeList juxtaChildren = juxtaNode.getChildNodes();
-
-        if (juxtaChildren != null)
-        {
-            for (int i = 0; i < juxtaChildren.getLength(); i++)
-            {
-                Node currentNode = juxtaChildren.item(i);
-
-                if (currentNode.getNodeType() == Node.ELEMENT_NODE
-                        && currentNode.getNodeName().equals("annotation-set"))
-                {                    
-                    annotationSetNode = new AnnotationSetNode(currentNode);
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
     
     public LinkedList createDocumentEntrySet() throws ReportedException
     {
         return comparisonSetNode.createDocumentEntryList(basePath,cacheDirectory);
     }
 
+    /**
+     * Write the manifest file. Entries are written out as they are visited rather
+     * than gathered up first.
+     */
     public void save() throws IOException
     {
         SimpleLogger.logInfo("Saving manifest file.");
         
-        StringBuffer buffer = new StringBuffer();
-        
-        buffer.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");        
-        buffer.append("<juxta version=\""+Juxta.JUXTA_VERSION+"\">\n");        
-        buffer.append("\t<comparison-set name=\""+DocumentWriter.escapeText( comparisonSetNode.getName() )+"\" ");
+        Writer writer = XMLStreamUtilities.createWriter(manifestFile);
+        try
+        {
+            writeManifest(writer);
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    private void writeManifest(Writer writer) throws IOException
+    {
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");        
+        writer.write("<juxta version=\""+Juxta.JUXTA_VERSION+"\">\n");        
+        writer.write("\t<comparison-set name=\"");
+        XMLStreamUtilities.writeEscaped(writer, comparisonSetNode.getName());
+        writer.write("\" ");
         
         TokenizerSettings settings = comparisonSetNode.getSettings();
         
         // add tokenizer setting attributes to comparison set element
-        buffer.append("filter-whitespace=\""+settings.filterWhitespace()+"\" ");
-        buffer.append("filter-punctuation=\""+settings.filterPunctuation()+"\" ");
-        buffer.append("filter-case=\""+settings.filterCase()+"\">\n");
+        writer.write("filter-whitespace=\""+settings.filterWhitespace()+"\" ");
+        writer.write("filter-punctuation=\""+settings.filterPunctuation()+"\" ");
+        writer.write("filter-case=\""+settings.filterCase()+"\">\n");
         
         for( Iterator i = comparisonSetNode.getComparandList().iterator(); i.hasNext(); )
         {
             ComparandNode node = (ComparandNode) i.next();
             
-            buffer.append("\t\t<comparand " +
+            writer.write("\t\t<comparand " +
                            "docid=\""+Integer.toString(node.getDocumentID())+"\" " +
                            "activeRangeStart=\""+Integer.toString(node.getActiveRangeStart())+"\" " +
                            "activeRangeEnd=\""+Integer.toString(node.getActiveRangeEnd())+"\" " +
                            ">\n");
-            buffer.append("\t\t\t<file>"+DocumentWriter.escapeText( "docs/"+node.getFileName() )+"</file>\n");                       
-            buffer.append("\t\t</comparand>\n");
+            writer.write("\t\t\t<file>");
+            XMLStreamUtilities.writeEscaped(writer, "docs/"+node.getFileName());
+            writer.write("</file>\n");                       
+            writer.write("\t\t</comparand>\n");
         }
         
-        buffer.append("\t</comparison-set>\n");
+        writer.write("\t</comparison-set>\n");
 
-		buffer.append("\t<annotation-set>\n");
+		writer.write("\t<annotation-set>\n");
 		
         for( Iterator i = annotationSetNode.getAnnotationNodeList().iterator(); i.hasNext(); )
         {
             AnnotationNode node = (AnnotationNode) i.next();
             
-            buffer.append("\t\t<annotation>\n");
-            buffer.append("\t\t\t<difference type=\""+node.getDifferenceTypeString()+"\">\n");
+            writer.write("\t\t<annotation>\n");
+            writer.write("\t\t\t<difference type=\""+node.getDifferenceTypeString()+"\">\n");
 			
-			buffer.append("\t\t\t\t<base docid=\""+node.getBaseDocumentID()+"\" ");
-			buffer.append("offset=\""+node.getBaseOffset()+"\" ");
-			buffer.append("length=\""+node.getBaseLength()+"\" ");
+			writer.write("\t\t\t\t<base docid=\""+node.getBaseDocumentID()+"\" ");
+			writer.write("offset=\""+node.getBaseOffset()+"\" ");
+			writer.write("length=\""+node.getBaseLength()+"\" ");
             // check to see if this is from an old version of juxta; if so, don't
             // write out the "space" attribute--we use this to know whether the
             // annotation is juxta-1.4-aware. (See the AnnotationNode code to
             // see what we do when the @space attribute is missing.)
             if (!node.isFromOldVersion())
-                buffer.append("space=\""+OffsetRange.spaceToString(node.getBaseSpace())+"\" ");
-			buffer.append(">");
-			if( node.getBaseQuote() != null ) buffer.append(node.getBaseQuote());
-			buffer.append("</base>\n");
+                writer.write("space=\""+OffsetRange.spaceToString(node.getBaseSpace())+"\" ");
+			writer.write(">");
+			if( node.getBaseQuote() != null ) XMLStreamUtilities.writeEscaped(writer, node.getBaseQuote());
+			writer.write("</base>\n");
 			
-			buffer.append("\t\t\t\t<witness docid=\""+node.getWitnessDocumentID()+"\" ");
-    		buffer.append("offset=\""+node.getWitnessOffset()+"\" ");
-			buffer.append("length=\""+node.getWitnessLength()+"\" ");
+			writer.write("\t\t\t\t<witness docid=\""+node.getWitnessDocumentID()+"\" ");
+    		writer.write("offset=\""+node.getWitnessOffset()+"\" ");
+			writer.write("length=\""+node.getWitnessLength()+"\" ");
             // check to see if this is from an old version of juxta; if so, don't
             // write out the "space" attribute--we use this to know whether the
             // annotation is juxta-1.4-aware. (See the AnnotationNode code to
             // see what we do when the @space attribute is missing.)
             if (!node.isFromOldVersion())
-                buffer.append("space=\""+OffsetRange.spaceToString(node.getWitnessSpace())+"\" ");
-			buffer.append(">");
-			if( node.getWitnessQuote() != null ) buffer.append(DocumentWriter.escapeText( node.getWitnessQuote() )); 
-			buffer.append("</witness>\n");
-			buffer.append("\t\t\t</difference>\n");
-            buffer.append("\t\t\t<notes>"+DocumentWriter.escapeText( node.getNotes() )+"</notes>\n");
-            buffer.append("\t\t\t<image>"+node.includeImage()+"</image>\n");
-            buffer.append("\t\t</annotation>\n");
+                writer.write("space=\""+OffsetRange.spaceToString(node.getWitnessSpace())+"\" ");
+			writer.write(">");
+			if( node.getWitnessQuote() != null ) XMLStreamUtilities.writeEscaped(writer, node.getWitnessQuote()); 
+			writer.write("</witness>\n");
+			writer.write("\t\t\t</difference>\n");
+            writer.write("\t\t\t<notes>");
+            XMLStreamUtilities.writeEscaped(writer, node.getNotes());
+            writer.write("</notes>\n");
+            writer.write("\t\t\t<image>"+node.includeImage()+"</image>\n");
+            writer.write("\t\t</annotation>\n");
         }
 
-		buffer.append("\t</annotation-set>\n");		
-        buffer.append("</juxta>\n");
-		
-		Charset utf8 = Charset.forName("UTF-8");
-		OutputStreamWriter outStream = new OutputStreamWriter( new FileOutputStream(manifestFile), utf8 );
-		BufferedWriter writer = new BufferedWriter(outStream);
-        writer.write(buffer.toString());
-        writer.close();
+		writer.write("\t</annotation-set>\n");		
+        writer.write("</juxta>\n");
     }
 
     public LinkedList createAnnotationList()
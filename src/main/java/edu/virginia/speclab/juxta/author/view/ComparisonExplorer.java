@@ -44,6 +44,7 @@ import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.Scrollable;
 import javax.swing.SpringLayout;
+import javax.swing.SwingUtilities;
 import javax.swing.border.LineBorder;
 
 import edu.virginia.speclab.diff.collation.Collation;
@@ -849,6 +850,9 @@ public class ComparisonExplorer extends JPanel implements JuxtaUserInterfaceStyl
         }
     }
 
+    public void sessionSaved() {
+    }
+
     public void documentAdded(JuxtaDocument document) {
         if (document != null) {
             addDocument(document);
@@ -879,10 +883,27 @@ public class ComparisonExplorer extends JPanel implements JuxtaUserInterfaceStyl
 
         if (row != null) {
             row.markAsCollated();
+            refreshCurrentCollation(document);
             updateBaseDocument();
         }
     }
 
+    public void collationPreviewed(JuxtaDocument document) {
+        SimpleLogger.logInfo(document.getDocumentName() + ": first pass done");
+        refreshCurrentCollation(document);
+    }
+
+    // replace the provisional collation of the current base text with the latest one. The
+    // loader thread reports progress, the session is only changed on the event thread.
+    private void refreshCurrentCollation(final JuxtaDocument document) {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                if (session != null)
+                    session.refreshCurrentCollation(document);
+            }
+        });
+    }
+
     public boolean getScrollableTracksViewportHeight() {
         return false;
     }
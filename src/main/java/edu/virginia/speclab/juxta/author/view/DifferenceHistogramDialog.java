@@ -217,6 +217,11 @@ public class DifferenceHistogramDialog extends JDialog implements JuxtaUserInter
     {
         // do nothing        
     }
+
+    public void sessionSaved()
+    {
+        // do nothing
+    }
         
     private int getBarWidth( Rectangle graphRectangle )
     {
@@ -393,8 +398,12 @@ public class DifferenceHistogramDialog extends JDialog implements JuxtaUserInter
             if( currentCollation != null )
             {
             	currentCollation.setMinChangeDistance(value);
-            	repaint();
             }
+            
+            // the histogram data was regenerated in place
+            HistogramGraphModel model = histogramPanel.getModel();
+            if( model != null ) model.dataChanged();
+            repaint();
         }
     }
 
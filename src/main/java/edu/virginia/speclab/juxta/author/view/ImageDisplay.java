@@ -24,6 +24,8 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.AdjustmentEvent;
 import java.awt.event.AdjustmentListener;
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 
 import javax.swing.JButton;
@@ -31,6 +33,7 @@ import javax.swing.JScrollPane;
 
 import edu.virginia.speclab.diff.document.Image;
 import edu.virginia.speclab.juxta.author.model.JuxtaDocument;
+import edu.virginia.speclab.juxta.author.model.JuxtaSessionFile;
 import edu.virginia.speclab.juxta.author.view.collation.CollationViewTextArea;
 import edu.virginia.speclab.juxta.author.view.ui.JuxtaUserInterfaceStyle;
 import edu.virginia.speclab.ui.ImagePanel;
@@ -167,5 +170,22 @@ public class ImageDisplay extends ImagePanel implements AdjustmentListener, Juxt
     	this.setImage(null);
     }
     
+    public void setImage( String imageFile )
+    {
+        // page images stay in the session archive until they are first displayed
+        if( imageFile != null )
+        {
+            try
+            {
+                JuxtaSessionFile.extractArchivedFile( new File(imageFile) );
+            }
+            catch (IOException e)
+            {
+                SimpleLogger.logError("Unable to extract image: "+imageFile);
+            }
+        }
+        super.setImage(imageFile);
+    }
+    
 
 }
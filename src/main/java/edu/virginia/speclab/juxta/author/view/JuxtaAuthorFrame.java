@@ -92,6 +92,7 @@ import edu.virginia.speclab.juxta.author.model.JuxtaSession;
 import edu.virginia.speclab.juxta.author.model.JuxtaSessionFile;
 import edu.virginia.speclab.juxta.author.model.JuxtaSessionListener;
 import edu.virginia.speclab.juxta.author.model.LoaderCallBack;
+import edu.virginia.speclab.juxta.author.model.SaveCallBack;
 import edu.virginia.speclab.juxta.author.model.SearchResults;
 import edu.virginia.speclab.juxta.author.model.template.ParseTemplate;
 import edu.virginia.speclab.juxta.author.model.template.TemplateConfig;
@@ -549,6 +550,9 @@ public class JuxtaAuthorFrame extends JFrame implements JuxtaSessionListener, Di
         this.priorTemplate = null;
         if (openSavePromptDialog()) {
             try {
+                // the new session clears out the session directory
+                if (this.session != null)
+                    this.session.close();
                 loadSession(JuxtaSession.createSession(null, this, false));
                 histogramDialog.close();
             } catch (LoggedException e1) {
@@ -585,18 +589,42 @@ public class JuxtaAuthorFrame extends JFrame implements JuxtaSessionListener, Di
         return false;
     }
 
-    // This is the single point of entry for saving the current session.
-    private boolean save(File saveFile) {
+    // Asks where to save the session if there's no save file yet. Returns null if cancelled.
+    private File selectSaveFile(File saveFile) {
         if (saveFile == null) {
             saveFile = openSaveDialog();
 
             // pre-existing file, prompt for overwrite
             if (saveFile != null && saveFile.exists()) {
                 if (overwriteFilePrompt(saveFile.getName()) == false)
-                    return false;
+                    return null;
             }
         }
+        return saveFile;
+    }
 
+    // Saves the current session without waiting for the file to be written.
+    private void saveInBackground(File saveFile) {
+        saveFile = selectSaveFile(saveFile);
+        if (saveFile == null)
+            return;
+
+        saveButton.setEnabled(false);
+        this.session.saveSessionInBackground(saveFile, new SaveCallBack() {
+            public void saveComplete(File file) {
+                updateTitleBar(file.getName());
+            }
+
+            public void saveFailed(File file, ReportedException e) {
+                saveButton.setEnabled(true);
+                ErrorHandler.handleException(e);
+            }
+        });
+    }
+
+    // This is the single point of entry for saving the current session.
+    private boolean save(File saveFile) {
+        saveFile = selectSaveFile(saveFile);
         if (saveFile == null)
             return false;
 
@@ -915,6 +943,7 @@ public class JuxtaAuthorFrame extends JFrame implements JuxtaSessionListener, Di
                 case 0:
                     return save(this.session.getSaveFile());
                 case 1:
+                    this.session.discardUnsavedChanges();
                     return true;
                 case 2:
                     return false;
@@ -1608,7 +1637,7 @@ public class JuxtaAuthorFrame extends JFrame implements JuxtaSessionListener, Di
         }
 
         public void actionPerformed(ActionEvent e) {
-            save(session.getSaveFile());
+            saveInBackground(session.getSaveFile());
         }
 
     }
@@ -1620,7 +1649,7 @@ public class JuxtaAuthorFrame extends JFrame implements JuxtaSessionListener, Di
         }
 
         public void actionPerformed(ActionEvent e) {
-            save(null);
+            saveInBackground(null);
         }
 
     }
@@ -1657,7 +1686,7 @@ public class JuxtaAuthorFrame extends JFrame implements JuxtaSessionListener, Di
                         
                         // warn and offer chance to re-edit if this change resulted in
                         // no text in the document
-                        if (document.getDocumentText().length() == 0) {
+                        if (document.getDocumentLength() == 0) {
                             Object[] options = { "Edit Template", "Continue" };
                             int opt = JOptionPane.showOptionDialog(frame,
                                 "The current parsing template filtered out all text!"
@@ -2233,6 +2262,12 @@ public class JuxtaAuthorFrame extends JFrame implements JuxtaSessionListener, Di
         }
     }
 
+    public void sessionSaved() {
+        if (saveButton != null) {
+            saveButton.setEnabled(this.session.isModified());
+        }
+    }
+
     public void loadingComplete() {
         if (addingDocumentProgressDialog != null && addingDocumentProgressDialog.isVisible()){
             addingDocumentProgressDialog.setVisible(false);
@@ -40,13 +40,16 @@ import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JToolBar;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 import javax.swing.border.CompoundBorder;
 import javax.swing.border.EmptyBorder;
 import javax.swing.border.LineBorder;
 import javax.swing.table.AbstractTableModel;
 
 import edu.virginia.speclab.diff.OffsetRange;
+import edu.virginia.speclab.exceptions.ErrorHandler;
 import edu.virginia.speclab.exceptions.LoggedException;
+import edu.virginia.speclab.exceptions.ReportedException;
 import edu.virginia.speclab.juxta.author.model.DocumentManager;
 import edu.virginia.speclab.juxta.author.model.JuxtaSession;
 import edu.virginia.speclab.juxta.author.model.MovesManager;
@@ -99,6 +102,7 @@ public class MovesPanel extends JPanel implements JuxtaUserInterfaceStyle {
         if (session != null) {
             documentManager = session.getDocumentManager();
             blockTableModel.movesChanged(documentManager.getMovesManager());
+            blockTableModel.proposedMovesChanged(documentManager.getMovesManager());
             documentManager.getMovesManager().addListener(blockTableModel);
         }
     }
@@ -158,12 +162,16 @@ public class MovesPanel extends JPanel implements JuxtaUserInterfaceStyle {
         private static final int LEFT_LOCATION = 1;
         private static final int RIGHT_DOC = 2;
         private static final int RIGHT_LOCATION = 3;
-        private static final int NUM_COLUMNS = 4;
+        private static final int STATUS = 4;
+        private static final int NUM_COLUMNS = 5;
 
+        // the proposed moves are listed after the moves
         private MovesManager.MoveList moveList;
+        private MovesManager.MoveList proposedMoves;
 
         public BlockTable() {
             moveList = new MovesManager(null).new MoveList();
+            proposedMoves = new MovesManager(null).new MoveList();
         }
 
         public void movesChanged(MovesManager movesManager) {
@@ -171,14 +179,30 @@ public class MovesPanel extends JPanel implements JuxtaUserInterfaceStyle {
             fireTableDataChanged();
         }
 
+        public void proposedMovesChanged(final MovesManager movesManager) {
+            // moves are proposed as the collations are done, on the loader thread
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    proposedMoves = movesManager.getProposedMoves();
+                    fireTableDataChanged();
+                }
+            });
+        }
+
         public MovesManager.FragmentPair getMove(int index) {
             if (index >= 0 && index < moveList.size()) {
                 return moveList.get(index);
+            } else if (isProposed(index)) {
+                return proposedMoves.get(index - moveList.size());
             } else {
                 return null;
             }
         }
 
+        public boolean isProposed(int index) {
+            return index >= moveList.size() && index < moveList.size() + proposedMoves.size();
+        }
+
         public boolean isCellEditable(int rowIndex, int columnIndex) {
             return false;
         }
@@ -188,7 +212,7 @@ public class MovesPanel extends JPanel implements JuxtaUserInterfaceStyle {
         }
 
         public int getRowCount() {
-            return moveList.size();
+            return moveList.size() + proposedMoves.size();
         }
 
         public String getColumnName(int column) {
@@ -201,14 +225,16 @@ public class MovesPanel extends JPanel implements JuxtaUserInterfaceStyle {
                     return "Right Document";
                 case RIGHT_LOCATION:
                     return "Right Location";
+                case STATUS:
+                    return "Status";
             }
 
             return null;
         }
 
         public Object getValueAt(int rowIndex, int columnIndex) {
-            if (rowIndex < moveList.size()) {
-                MovesManager.FragmentPair move = moveList.get(rowIndex);
+            if (rowIndex < getRowCount()) {
+                MovesManager.FragmentPair move = getMove(rowIndex);
 
                 switch (columnIndex) {
                     case LEFT_DOC:
@@ -219,6 +245,8 @@ public class MovesPanel extends JPanel implements JuxtaUserInterfaceStyle {
                         return move.second.getDocument();
                     case RIGHT_LOCATION:
                         return getLocation(move.second);
+                    case STATUS:
+                        return isProposed(rowIndex) ? "Proposed" : "";
                 }
             }
 
@@ -241,8 +269,25 @@ public class MovesPanel extends JPanel implements JuxtaUserInterfaceStyle {
             JToolBar rightToolBar = new JToolBar();
             rightToolBar.setFloatable(false);
 
+            JButton acceptButton = new JButton(MARK_AS_MOVED);
+            acceptButton.setToolTipText("Accept selected proposed move");
+
+            acceptButton.addActionListener(new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    try {
+                        int selectedRow = blockTable.getSelectedRow();
+                        if (blockTableModel.isProposed(selectedRow)) {
+                            MovesManager.FragmentPair move = blockTableModel.getMove(selectedRow);
+                            juxtaAuthorFrame.getSession().acceptProposedMove(move);
+                        }
+                    } catch (ReportedException ex) {
+                        ErrorHandler.handleException(ex);
+                    }
+                }
+            });
+
             JButton deleteButton = new JButton(REMOVE_MOVE);
-            deleteButton.setToolTipText("Remove selected move");
+            deleteButton.setToolTipText("Remove selected move, or dismiss selected proposed move");
 
             deleteButton.addActionListener(new ActionListener() {
                 public void actionPerformed(ActionEvent e) {
@@ -250,7 +295,10 @@ public class MovesPanel extends JPanel implements JuxtaUserInterfaceStyle {
                         int selectedRow = blockTable.getSelectedRow();
                         if (selectedRow >= 0) {
                             MovesManager.FragmentPair move = blockTableModel.getMove(selectedRow);
-                            documentManager.getMovesManager().deleteMove(move);
+                            if (blockTableModel.isProposed(selectedRow))
+                                documentManager.getMovesManager().dismissProposedMove(move);
+                            else
+                                documentManager.getMovesManager().deleteMove(move);
                         }
                     } catch (LoggedException ex) {
                         SimpleLogger.logError(ex.getMessage());
@@ -258,6 +306,7 @@ public class MovesPanel extends JPanel implements JuxtaUserInterfaceStyle {
                 }
             });
 
+            rightToolBar.add(acceptButton);
             rightToolBar.add(deleteButton);
 
             JPanel southPanel = new JPanel();
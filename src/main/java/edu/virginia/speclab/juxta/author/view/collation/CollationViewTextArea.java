@@ -29,12 +29,15 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.font.FontRenderContext;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.LinkedList;
 import java.util.List;
 
 import javax.swing.JTextPane;
 import javax.swing.SwingUtilities;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.EditorKit;
 import javax.swing.text.Style;
 import javax.swing.text.StyleConstants;
 import javax.swing.text.View;
@@ -57,6 +60,8 @@ import edu.virginia.speclab.juxta.author.view.AnnotationDialog;
 import edu.virginia.speclab.juxta.author.view.JuxtaAuthorFrame;
 import edu.virginia.speclab.juxta.author.view.LineMarkController;
 import edu.virginia.speclab.ui.LocationMarkStrip;
+import edu.virginia.speclab.ui.VirtualizedEditorKit;
+import edu.virginia.speclab.ui.VirtualizedTextView;
 import edu.virginia.speclab.util.SimpleLogger;
 
 /**
@@ -103,6 +108,7 @@ public class CollationViewTextArea extends JTextPane implements AnnotationListen
         this.highlightMgr = new HighlightManager(this);
         this.markController = new LineMarkController(locationMarkStrip);
         this.selectionTracker = new TextSelectionTracker(this);
+        addPropertyChangeListener(VirtualizedTextView.LAYOUT_PROPERTY, new LayoutChangeListener());
         
         // default plain text style
         Style plain = addStyle("plain", null);
@@ -120,6 +126,14 @@ public class CollationViewTextArea extends JTextPane implements AnnotationListen
         StyleConstants.setItalic(pb, true);
     }
 
+    /**
+     * Only the paragraphs near the visible part of the document are laid out,
+     * so large witnesses open as quickly as small ones.
+     */
+    protected EditorKit createDefaultEditorKit() {
+        return new VirtualizedEditorKit();
+    }
+
     public void setTextFont(Font newFont) {
         this.setFont(newFont);
     }
@@ -554,10 +568,10 @@ public class CollationViewTextArea extends JTextPane implements AnnotationListen
      * @param docPercent
      */
     public void scrollToPercent(float position) {
-        if (getText() == null){
+        if (getDocument() == null){
             return;
         }
-        int textLength = getText().length();
+        int textLength = getDocument().getLength();
         int targetPosition = Math.round((float) textLength * position);
 
         try {
@@ -705,4 +719,19 @@ public class CollationViewTextArea extends JTextPane implements AnnotationListen
         int pos = pbd.getRange().getStartOffset(Space.ACTIVE);
         centerOffset(pos);
     }
+
+    // paragraph heights are estimated until the paragraphs are first displayed, so
+    // the overlays have to be positioned again when the estimates are replaced
+    private class LayoutChangeListener implements PropertyChangeListener {
+        public void propertyChange(PropertyChangeEvent evt) {
+            updateSize();
+            if ( notesManager != null ) {
+                notesManager.layoutChanged();
+            }
+            if ( breakManager != null ) {
+                breakManager.layoutChanged();
+            }
+            redraw();
+        }
+    }
 }
@@ -174,7 +174,7 @@ public class HighlightManager {
         int start = 0;
         int end = 0;
         int currentFrequency = -1;
-        int docLen = this.document.getDocumentText().length();
+        int docLen = this.document.getDocumentLength();
 
         // run length encode frequency data to generate highlighting        
         for (int i = 0; i <= docLen; i++) {
@@ -178,6 +178,13 @@ public class NotesManager implements ComponentListener {
     }
     
     public void componentResized(ComponentEvent arg0) {
+        layoutChanged();
+    }
+
+    /**
+     * Position the notes again after the layout of the text has changed
+     */
+    public void layoutChanged() {
         this.notes.clear();
         createNotes();
         this.textPane.repaint();
@@ -109,6 +109,13 @@ public class PageBreakManager  implements ComponentListener {
     }
     
     public void componentResized(ComponentEvent arg0) {
+        layoutChanged();
+    }
+
+    /**
+     * Position the page break markers again after the layout of the text has changed
+     */
+    public void layoutChanged() {
         this.breakPoints.clear();
         createPageBreaks();
         this.textPane.repaint();
@@ -332,6 +332,9 @@ public class RevisionManager implements MouseListener, MouseMotionListener {
     public void commitChanges(JuxtaSession session) throws LoggedException {
         JuxtaDocument doc = this.view.getJuxtaDocument();
         doc.setAcceptedRevisions(this.workingRevisionIndexes);
+        if ( session.getJournal() != null ) {
+            session.getJournal().revisionsAccepted(doc);
+        }
         JuxtaDocumentFactory factory = new JuxtaDocumentFactory(doc.getEncoding());
         factory.reparseDocument(doc, null);
         session.refreshComparisonSet();
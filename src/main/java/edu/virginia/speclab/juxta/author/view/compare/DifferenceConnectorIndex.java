@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.juxta.author.view.compare;
+
+import java.awt.Graphics2D;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Holds the <code>DifferenceConnector</code> objects for one layout of the compare view,
+ * sorted by their position in the base text. Connector positions are in text area
+ * coordinates, so the index stays valid while scrolling and only needs to be rebuilt
+ * when the text is laid out again.
+ *
+ * Alongside the sorted connectors, the index keeps the running maximum of the connector
+ * bottoms and the trailing minimum of the connector tops for each side. These let it find
+ * the connectors that can touch a band of the view with two binary searches.
+ */
+class DifferenceConnectorIndex {
+    private DifferenceConnector[] connectors;
+
+    // largest bottom of any connector at or before each index
+    private int[] leftBottomMax, rightBottomMax;
+
+    // smallest top of any connector at or after each index
+    private int[] leftTopMin, rightTopMin;
+
+    public static final DifferenceConnectorIndex EMPTY = new DifferenceConnectorIndex(null);
+
+    public DifferenceConnectorIndex(List<DifferenceConnector> connectorList) {
+        if (connectorList == null) {
+            this.connectors = new DifferenceConnector[0];
+        } else {
+            this.connectors = connectorList.toArray(new DifferenceConnector[connectorList.size()]);
+        }
+
+        Arrays.sort(this.connectors, new Comparator<DifferenceConnector>() {
+            public int compare(DifferenceConnector a, DifferenceConnector b) {
+                if (a.getLeftPosition() != b.getLeftPosition()) {
+                    return (a.getLeftPosition() < b.getLeftPosition()) ? -1 : 1;
+                }
+                if (a.getRightPosition() != b.getRightPosition()) {
+                    return (a.getRightPosition() < b.getRightPosition()) ? -1 : 1;
+                }
+                return 0;
+            }
+        });
+
+        int size = this.connectors.length;
+        this.leftBottomMax = new int[size];
+        this.rightBottomMax = new int[size];
+        this.leftTopMin = new int[size];
+        this.rightTopMin = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            DifferenceConnector connector = this.connectors[i];
+            int leftBottom = connector.getLeftPosition() + connector.getLeftLength();
+            int rightBottom = connector.getRightPosition() + connector.getRightLength();
+            this.leftBottomMax[i] = (i > 0) ? Math.max(this.leftBottomMax[i - 1], leftBottom) : leftBottom;
+            this.rightBottomMax[i] = (i > 0) ? Math.max(this.rightBottomMax[i - 1], rightBottom) : rightBottom;
+        }
+
+        for (int i = size - 1; i >= 0; i--) {
+            DifferenceConnector connector = this.connectors[i];
+            int leftTop = connector.getLeftPosition();
+            int rightTop = connector.getRightPosition();
+            this.leftTopMin[i] = (i < size - 1) ? Math.min(this.leftTopMin[i + 1], leftTop) : leftTop;
+            this.rightTopMin[i] = (i < size - 1) ? Math.min(this.rightTopMin[i + 1], rightTop) : rightTop;
+        }
+    }
+
+    public int size() {
+        return connectors.length;
+    }
+
+    public DifferenceConnector get(int index) {
+        return connectors[index];
+    }
+
+    // index of the first connector that is not entirely above both of the specified positions
+    private int firstBelow(int leftTop, int rightTop) {
+        int low = 0, high = connectors.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (leftBottomMax[mid] >= leftTop || rightBottomMax[mid] >= rightTop) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    // index of the first connector after which all connectors are entirely below both positions
+    private int firstAfter(int leftBottom, int rightBottom) {
+        int low = 0, high = connectors.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (leftTopMin[mid] > leftBottom && rightTopMin[mid] > rightBottom) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Render the connectors that may be visible in the connector lane. Connectors that are
+     * entirely above or below the view on both sides are never visited.
+     */
+    public void render(Graphics2D g2, int connectorLaneWidth, int viewHeight, int leftViewPosition,
+        int rightViewPosition) {
+        int start = firstBelow(leftViewPosition, rightViewPosition);
+        int end = firstAfter(leftViewPosition + viewHeight, rightViewPosition + viewHeight);
+
+        for (int i = start; i < end; i++) {
+            connectors[i].render(g2, connectorLaneWidth, viewHeight, leftViewPosition, rightViewPosition);
+        }
+    }
+
+    /**
+     * Obtain the first connector whose bracket on the specified side contains the position.
+     * @param position A position in text area coordinates.
+     * @param which either <code>DocumentCompareView.LEFT</code> or <code>DocumentCompareView.RIGHT</code>
+     * @return A <code>DifferenceConnector</code> or <code>null</code> if there isn't one present.
+     */
+    public DifferenceConnector find(int position, int which) {
+        int[] bottomMax = (which == DifferenceCompareRenderingConstants.LEFT) ? leftBottomMax : rightBottomMax;
+        int[] topMin = (which == DifferenceCompareRenderingConstants.LEFT) ? leftTopMin : rightTopMin;
+
+        // skip the connectors that all end before this position
+        int low = 0, high = connectors.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (bottomMax[mid] >= position) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+
+        // stop once all the remaining connectors start after this position
+        for (int i = low; i < connectors.length && topMin[i] <= position; i++) {
+            DifferenceConnector connector = connectors[i];
+            int top, bottom;
+            if (which == DifferenceCompareRenderingConstants.LEFT) {
+                top = connector.getLeftPosition();
+                bottom = top + connector.getLeftLength();
+            } else {
+                top = connector.getRightPosition();
+                bottom = top + connector.getRightLength();
+            }
+
+            if (position >= top && position <= bottom) {
+                return connector;
+            }
+        }
+
+        return null;
+    }
+}
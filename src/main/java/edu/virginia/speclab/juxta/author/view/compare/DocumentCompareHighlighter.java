@@ -22,11 +22,22 @@ package edu.virginia.speclab.juxta.author.view.compare;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Shape;
 import java.awt.geom.Area;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 
 import javax.swing.JPanel;
+import javax.swing.JViewport;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.DefaultHighlighter;
 import javax.swing.text.Highlighter;
@@ -46,12 +57,18 @@ import edu.virginia.speclab.util.SimpleLogger;
 // * Regular Difference: all of the differences in this document. The set of items
 // to be highlighted are in differenceMap.
 // * Hovered Difference: When the mouse hovers over a difference, it turns a different
-// color.
+// color. Within a refined change, the letters that differ are drawn darker.
 // * Selection (focused): This is the actual control's selection, when the control is focused
 // * Selection (unfocused): This is the actual control's selection, when the control is not focused
 // * Move: all of the moves in the document
 // * Emphasis: This is an area that is explicitly requested to be highlighted, for instance, after a Find.
 // It is drawn in the same color as the hovered difference.
+//
+// The highlights are kept in two layers. The bottom layer holds the move fills and the
+// regular differences, merged into one highlight per run. Only the runs near the visible
+// part of the text are installed, and they are swapped as the view scrolls. The top layer
+// holds everything else, and is the only part redone when the hover, selection, emphasis
+// or search results change.
 
 class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants, MovesManagerListener
 {
@@ -171,6 +188,7 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
 
     private DefaultHighlighter.DefaultHighlightPainter differencePainter;
     private DefaultHighlighter.DefaultHighlightPainter highlightPainter;
+    private DefaultHighlighter.DefaultHighlightPainter characterChangePainter;
     private DefaultHighlighter.DefaultHighlightPainter searchResultPainter;
     private DefaultHighlighter.DefaultHighlightPainter selectionPainter;
     private DefaultHighlighter.DefaultHighlightPainter selectionPainterFocus;
@@ -179,12 +197,32 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
     private DefaultHighlighter.DefaultHighlightPainter allSearchResultPainter;
 	//private boolean grayedOut;
 	//private int fragStart, fragEnd;
+    
+    // run length encoded differences, sorted by offset
+    private int[] runStarts;
+    private int[] runEnds;
+    
+    // highlight tags of the installed runs, keyed by their start and end offsets
+    private HashMap<Long,Object> installedRuns;
+    private int installedFirst, installedLast;
+    private boolean runsChanged;
+    
+    // the offset ranges of the moves on this side of the comparison
+    private int[] moveRanges;
+    
+    // highlight tags of the top layer
+    private List<Object> overlayTags;
+    private boolean overlaysInstalled;
+    
+    // set when the text is replaced, which invalidates every installed highlight
+    private boolean textReplaced;
 	
 	public DocumentCompareHighlighter( JTextComponent textArea )
 	{
         this.textArea = textArea;
         differencePainter = new DefaultHighlighter.DefaultHighlightPainter(FIRST_COLOR);
         highlightPainter = new DefaultHighlighter.DefaultHighlightPainter(FIRST_COLOR_BRIGHTEST);
+        characterChangePainter = new DefaultHighlighter.DefaultHighlightPainter(FIRST_COLOR_DARKER_WITH_ALPHA);
         searchResultPainter = new DefaultHighlighter.DefaultHighlightPainter(Color.ORANGE);
         allSearchResultPainter = new DefaultHighlighter.DefaultHighlightPainter(Color.YELLOW);
         
@@ -198,12 +236,40 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
 
         DefaultHighlighter highlighter = (DefaultHighlighter)textArea.getHighlighter();        
 		highlighter.setDrawsLayeredHighlights(false);
+		
+		installedRuns = new HashMap<Long,Object>();
+		overlayTags = new ArrayList<Object>();
+		installedFirst = installedLast = -1;
+		
+		textArea.getDocument().addDocumentListener(new TextReplacedListener());
+		
+		// install the runs that come into view as the text scrolls
+		if( textArea.getParent() instanceof JViewport )
+		{
+			JViewport viewport = (JViewport) textArea.getParent();
+			viewport.addChangeListener( new ChangeListener() {
+				public void stateChanged(ChangeEvent e) 
+				{
+					installVisibleRuns();
+				}
+			});
+		}
 	}
     
-    private void clear()
+	// remove every highlight and install both layers again
+    private void rebuildHighlighting()
     {
         Highlighter highlighter = textArea.getHighlighter();        
         highlighter.removeAllHighlights();
+        installedRuns.clear();
+        overlayTags.clear();
+        overlaysInstalled = false;
+        installedFirst = installedLast = -1;
+        textReplaced = false;
+        
+		highlightMove(movePainter, null);
+		installVisibleRuns();
+		renderOverlays();
      }
 
 	public void movesChanged(MovesManager movesManager) {
@@ -211,7 +277,45 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
 			moveList = null;
 		else
 			moveList = movesManager.getAllMoves(idBase, idWitness);
-		renderAllHighlighting();
+		
+		// the move fills sit below the differences, so a change to them means starting over
+		int[] ranges = getMoveRanges();
+		if( textReplaced || !Arrays.equals(ranges,moveRanges) )
+		{
+			moveRanges = ranges;
+			rebuildHighlighting();
+		}
+		else
+		{
+			renderOverlays();
+		}
+	}
+	
+	public void proposedMovesChanged(MovesManager movesManager) {
+		// proposed moves are not highlighted until they are accepted
+	}
+	
+	private int[] getMoveRanges()
+	{
+		if (moveList == null)
+			return new int[0];
+		
+		int[] ranges = new int[moveList.size()*2];
+		for (int i = 0; i < moveList.size(); ++i)
+		{
+			FragmentPair fp = moveList.get(i);
+			if (textType == Difference.BASE)
+			{
+				ranges[i*2] = fp.first.getStartOffset(OffsetRange.Space.ACTIVE);
+				ranges[i*2+1] = fp.first.getEndOffset(OffsetRange.Space.ACTIVE)+1;
+			}
+			else
+			{
+				ranges[i*2] = fp.second.getStartOffset(OffsetRange.Space.ACTIVE);
+				ranges[i*2+1] = fp.second.getEndOffset(OffsetRange.Space.ACTIVE)+1;
+			}
+		}
+		return ranges;
 	}
 
 	private void highlightSelection()
@@ -227,9 +331,9 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
         	try 
         	{
         		if (textArea.hasFocus())
-        			highlighter.addHighlight(selStart, selEnd, selectionPainterFocus);
+        			overlayTags.add(highlighter.addHighlight(selStart, selEnd, selectionPainterFocus));
         		else
-        			highlighter.addHighlight(selStart, selEnd, selectionPainter);
+        			overlayTags.add(highlighter.addHighlight(selStart, selEnd, selectionPainter));
 		    } 
         	catch (BadLocationException e) 
         	{
@@ -238,21 +342,18 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
         }
  	}
        
-	private void highlightMove(RectangleHighlighter painter)
+	private void highlightMove(RectangleHighlighter painter, List<Object> tags)
 	{
-       if (moveList == null)
+       if (moveRanges == null)
     	   return;
 
 		Highlighter highlighter = textArea.getHighlighter();
 		try 
 		{
-			for (int i = 0; i < moveList.size(); ++i)
+			for (int i = 0; i < moveRanges.length; i += 2)
 			{
-				FragmentPair fp = moveList.get(i);
-				if (textType == Difference.BASE)
-					highlighter.addHighlight(fp.first.getStartOffset(OffsetRange.Space.ACTIVE), fp.first.getEndOffset(OffsetRange.Space.ACTIVE)+1, painter);
-				else
-					highlighter.addHighlight(fp.second.getStartOffset(OffsetRange.Space.ACTIVE), fp.second.getEndOffset(OffsetRange.Space.ACTIVE)+1, painter);
+				Object tag = highlighter.addHighlight(moveRanges[i], moveRanges[i+1], painter);
+				if (tags != null) tags.add(tag);
 			}
 		} 
 		catch (BadLocationException e) 
@@ -270,7 +371,7 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
 		try 
 		{
 			for (int i = 0; i < searchHighlights.length; ++i)
-					highlighter.addHighlight(searchHighlights[i].x, searchHighlights[i].y, allSearchResultPainter);
+					overlayTags.add(highlighter.addHighlight(searchHighlights[i].x, searchHighlights[i].y, allSearchResultPainter));
 		} 
 		catch (BadLocationException e) 
 		{
@@ -278,48 +379,60 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
 		}        
  	}
 	
-	private void addHighlight( int start, int end )
+	private Object addHighlight( int start, int end )
 	{
 	    try 
 	    {
 	        // Highlight the selected position
             Highlighter highlighter = textArea.getHighlighter();
-			highlighter.addHighlight(start, end, differencePainter);
+			return highlighter.addHighlight(start, end, differencePainter);
 	    } 
 	    catch (BadLocationException e) 
 	    {
 	        SimpleLogger.logError("Attempted to highlight bad location: "+e);
 	    }        
+	    return null;
 	}
 	
     public void redrawSelection()
     {
-    	renderAllHighlighting();
+    	renderOverlays();
     }
 
     public void clearHighlight()
     {
     	differenceHovered = null;
-    	renderAllHighlighting();
+    	renderOverlays();
     }
     
 	public void highlightDifference( Difference difference)
 	{
 		differenceHovered = difference;
 		//textTypeHovered =textType;
-		renderAllHighlighting();
+		renderOverlays();
+	}
+	
+	private void removeOverlays()
+	{
+		Highlighter highlighter = textArea.getHighlighter();
+		for( Iterator<Object> i = overlayTags.iterator(); i.hasNext(); )
+		{
+			highlighter.removeHighlight(i.next());
+		}
+		overlayTags.clear();
+		overlaysInstalled = false;
 	}
 
-	private void renderAllHighlighting()
+	// redo the top layer of highlights, leaving the differences and move fills in place
+	private void renderOverlays()
 	{
-		clear();
-		highlightMove(movePainter);
-        renderComparisonHighlights();
+		removeOverlays();
 		highlightSearches();
 		renderHighlightedRange();
         highlightSelection();
         renderHoveredDifference();               
-		highlightMove(movePainterOutline);
+		highlightMove(movePainterOutline, overlayTags);
+		overlaysInstalled = true;
 	}
     
 	private void renderHoveredDifference()
@@ -343,7 +456,18 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
 
                 // Highlight the selected position                
                 Highlighter highlighter = textArea.getHighlighter();
-                highlighter.addHighlight(start, end, highlightPainter);
+                overlayTags.add(highlighter.addHighlight(start, end, highlightPainter));
+                
+                // pick out the letters that differ, if the change has been refined
+                for( int i = 0; i < differenceHovered.getCharacterChangeCount(); i++ )
+                {
+                    int length = differenceHovered.getCharacterChangeLength(i, textType);
+                    if( length > 0 )
+                    {
+                        int changeStart = differenceHovered.getCharacterChangeOffset(i, textType);
+                        overlayTags.add(highlighter.addHighlight(changeStart, changeStart + length, characterChangePainter));
+                    }
+                }
             } 
             catch (BadLocationException e) 
             {
@@ -351,47 +475,123 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
             }
         }
 	}
+	
+	// merge the differences into runs, one highlight will be used per run
+	private void loadDifferenceRuns()
+	{
+		List runs = (differenceMap == null) ? new ArrayList() : differenceMap.getDifferenceRuns();
+		
+		runStarts = new int[runs.size()];
+		runEnds = new int[runs.size()];
+		int index = 0;
+		for( Iterator i = runs.iterator(); i.hasNext(); index++ )
+		{
+			IntPair run = (IntPair) i.next();
+			runStarts[index] = run.x;
+			runEnds[index] = run.y;
+		}
+		runsChanged = true;
+	}
+	
+	// the range of offsets that are on screen, padded by a screen above and below
+	private int[] getVisibleRange()
+	{
+		int documentLength = textArea.getDocument().getLength();
+		if( !(textArea.getParent() instanceof JViewport) ) return new int[] { 0, documentLength };
+		
+		Rectangle visible = textArea.getVisibleRect();
+		if( visible.height <= 0 ) return new int[] { 0, 0 };
+		
+		int top = visible.y - visible.height;
+		int bottom = visible.y + visible.height*2;
+		int start = textArea.viewToModel(new Point(0, (top > 0) ? top : 0));
+		int end = textArea.viewToModel(new Point(textArea.getWidth(), bottom));
+		
+		if( start < 0 ) start = 0;
+		if( end < 0 || end > documentLength ) end = documentLength;
+		return new int[] { start, end };
+	}
+	
+	// index of the first run that ends after the offset
+	private int findFirstRun( int offset )
+	{
+		int low = 0, high = runEnds.length;
+		while( low < high )
+		{
+			int mid = (low + high) >>> 1;
+			if( runEnds[mid] > offset ) high = mid;
+			else low = mid + 1;
+		}
+		return low;
+	}
     
-	private void renderComparisonHighlights()
+	// index of the first run that starts at or after the offset
+	private int findLastRun( int offset )
 	{
-        if( differenceMap == null ) return;
-        	    
-        int start = 0;
-        int end = 0;
-        boolean inRun = false;
+		int low = 0, high = runStarts.length;
+		while( low < high )
+		{
+			int mid = (low + high) >>> 1;
+			if( runStarts[mid] >= offset ) high = mid;
+			else low = mid + 1;
+		}
+		return low;
+	}
+	
+	// bring the installed runs in line with the visible part of the text
+	private void installVisibleRuns()
+	{
+        if( runStarts == null || textReplaced ) return;
         
-        int documentLength = differenceMap.getLength();
+        int[] range = getVisibleRange();
+        int first = findFirstRun(range[0]);
+        int last = findLastRun(range[1]+1);
+        if( last < first ) last = first;
         
-        // run length encode frequency data to generate highlighting        
-	    for( int i=0; i <= documentLength; i++ )
-	    {
-            // there is something to highlight here
-	        if ( differenceMap.differencePresent(i) )
-	        {                
-                // check to see if we are in the midst of a run
-                if( inRun )
-                {
-				    end++;
-                }
-                else
-                {
-                    // if we aren't in the middle of a run, start a new one
-                    start = i;
-                    end = i+1;
-					inRun = true;
-                }
-            }
-            else
-            {
-                // if we are in the midst of a run, end it
-                if( inRun )
-                {
-                    addHighlight(start,end);
-                    start = end = -1;
-                    inRun = false;
-                }
-            }
-	    }
+        if( !runsChanged && first == installedFirst && last == installedLast ) return;
+        
+        Highlighter highlighter = textArea.getHighlighter();
+        
+        // keep the runs that are still wanted, note the ones that are missing
+        HashMap<Long,Object> keptRuns = new HashMap<Long,Object>();
+        List<Integer> missingRuns = new ArrayList<Integer>();
+        for( int i = first; i < last; i++ )
+        {
+        	Long key = new Long( ((long)runStarts[i] << 32) | runEnds[i] );
+        	Object tag = installedRuns.remove(key);
+        	if( tag != null ) keptRuns.put(key,tag);
+        	else missingRuns.add(new Integer(i));
+        }
+        
+        // remove the runs that scrolled away or no longer exist
+        for( Iterator<Object> i = installedRuns.values().iterator(); i.hasNext(); )
+        {
+        	highlighter.removeHighlight(i.next());
+        }
+        installedRuns = keptRuns;
+        
+        // the new runs must go below the top layer
+        if( missingRuns.size() > 0 )
+        {
+        	boolean restoreOverlays = overlaysInstalled;
+        	removeOverlays();
+        	
+        	for( Iterator<Integer> i = missingRuns.iterator(); i.hasNext(); )
+        	{
+        		int index = i.next().intValue();
+        		Object tag = addHighlight(runStarts[index],runEnds[index]);
+        		if( tag != null ) 
+        		{
+        			installedRuns.put(new Long( ((long)runStarts[index] << 32) | runEnds[index] ), tag);
+        		}
+        	}
+        	
+        	if( restoreOverlays ) renderOverlays();
+        }
+        
+        installedFirst = first;
+        installedLast = last;
+        runsChanged = false;
 	}
 
     public void updateModel( DifferenceMap map, int textType, int idBase, int idWitness, MovesManager movesManager  )
@@ -401,8 +601,40 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
     	this.textType = textType;
         this.differenceMap = map;        
     	differenceHovered = null;
-    	movesChanged(movesManager);
-        renderAllHighlighting();
+    	loadDifferenceRuns();
+    	
+    	// if neither the text nor the moves changed, only the runs that differ are swapped
+    	moveList = (movesManager == null) ? null : movesManager.getAllMoves(idBase, idWitness);
+    	int[] ranges = getMoveRanges();
+    	if( textReplaced || !Arrays.equals(ranges,moveRanges) )
+    	{
+    		moveRanges = ranges;
+    		rebuildHighlighting();
+    	}
+    	else
+    	{
+    		installVisibleRuns();
+    		renderOverlays();
+    	}
+    }
+    
+    // once the text is replaced the positions of the installed highlights are meaningless
+    private class TextReplacedListener implements DocumentListener
+    {
+		public void insertUpdate(DocumentEvent e) 
+		{
+			textReplaced = true;
+		}
+
+		public void removeUpdate(DocumentEvent e) 
+		{
+			textReplaced = true;
+		}
+
+		public void changedUpdate(DocumentEvent e) 
+		{
+			// attribute changes do not move the highlights
+		}
     }
 
 //    public boolean isHighlightOn()
@@ -421,14 +653,14 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
 		emphasisStart = start;
 		emphasisEnd = end;
     	differenceHovered = null;
-		renderAllHighlighting();
+		renderOverlays();
 	}  
 	
 	public void clearHighlightRange()
 	{
 		hasEmphasis = false;
     	differenceHovered = null;
-		renderAllHighlighting();
+		renderOverlays();
 	}
 	
 	private void renderHighlightedRange() {
@@ -436,8 +668,8 @@ class DocumentCompareHighlighter implements DifferenceCompareRenderingConstants,
 			try {
 				// Highlight the selected position
 				Highlighter highlighter = textArea.getHighlighter();
-				highlighter.addHighlight(emphasisStart, emphasisEnd,
-						searchResultPainter);
+				overlayTags.add(highlighter.addHighlight(emphasisStart, emphasisEnd,
+						searchResultPainter));
 			} catch (BadLocationException e) {
 				SimpleLogger.logError("Attempted to highlight bad location: "
 						+ e);
@@ -33,6 +33,8 @@ import java.awt.event.FocusListener;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionListener;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -70,6 +72,7 @@ import edu.virginia.speclab.juxta.author.view.MovesPanel;
 import edu.virginia.speclab.juxta.author.view.ui.DropDownTitlePanel;
 import edu.virginia.speclab.ui.DualScrollingTextPanel;
 import edu.virginia.speclab.ui.Renderer;
+import edu.virginia.speclab.ui.VirtualizedTextView;
 import edu.virginia.speclab.util.IntPair;
 import edu.virginia.speclab.util.SimpleLogger;
 
@@ -92,7 +95,8 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
 
     private DocumentCompareHighlighter leftHighlighter;
     private DocumentCompareHighlighter rightHighlighter;
-    private List differenceConnectorList;
+    private DifferenceConnectorIndex differenceConnectors;
+    private DifferenceConnectorIndex moveConnectors;
     private MovesManager.MoveList moveList;
     private DifferenceMap baseDifferenceMap, witnessDifferenceMap;
 
@@ -159,6 +163,10 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
 
         dualTextPanel.setRenderer(this);
         dualTextPanel.addComponentListener(new ResizeListener());
+        LayoutChangeListener layoutChangeListener = new LayoutChangeListener();
+        leftText.addPropertyChangeListener("font", layoutChangeListener);
+        leftText.addPropertyChangeListener(VirtualizedTextView.LAYOUT_PROPERTY, layoutChangeListener);
+        rightText.addPropertyChangeListener(VirtualizedTextView.LAYOUT_PROPERTY, layoutChangeListener);
 
         setLayout(new BorderLayout());
 
@@ -417,8 +425,8 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
     }
 
     public void finishSelectingViews() {
+        loadMoveList(session.getDocumentManager().getMovesManager());
         updateConnectors();
-        movesChanged(session.getDocumentManager().getMovesManager());
 
         markController.updateLineMarkers(baseDocument, dualTextPanel.getLeftTextArea());
         markControllerRight.updateLineMarkers(witnessDocument, dualTextPanel.getRightTextArea());
@@ -461,7 +469,8 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
                 Collation baseCollation = null, witnessCollation = null;
 
                 if (session == null || baseDocument == null || witnessDocument == null) {
-                    differenceConnectorList = new LinkedList();
+                    differenceConnectors = DifferenceConnectorIndex.EMPTY;
+                    moveConnectors = DifferenceConnectorIndex.EMPTY;
                     dualScrollController.updateScrollData();
                     leftHighlighter.updateModel(null, 0, 0, 0, null);
                     rightHighlighter.updateModel(null, 0, 0, 0, null);
@@ -496,21 +505,26 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
                 rightHighlighter.updateModel(witnessDifferenceMap, Difference.WITNESS, baseDocument.getID(),
                     witnessDocument.getID(), session.getDocumentManager().getMovesManager());
 
-                // calculate shape of difference connectors
-                differenceConnectorList = createConnectorList();
-
-                // create the arrays to drive scroll data
-                dualScrollController.updateScrollData();
-
+                layoutConnectors();
             }
         });
     }
 
+    // calculate shape of difference connectors from the current difference maps, these 
+    // stay valid until the text is laid out again
+    private void layoutConnectors() {
+        differenceConnectors = new DifferenceConnectorIndex(createConnectorList());
+        moveConnectors = new DifferenceConnectorIndex(createMoveConnectorList());
+
+        // create the arrays to drive scroll data
+        dualScrollController.updateScrollData();
+    }
+
     // translates a text offset into the text area into a y-offset in the window
     private static int obtainScreenPosition(JTextComponent rightTextArea, int offset) {
         int position = -1;
         try {
-            position = rightTextArea.modelToView(offset).y;
+            position = VirtualizedTextView.getLinePosition(rightTextArea, offset);
         } catch (BadLocationException e) {
             SimpleLogger.logError("Bad witness offset while create difference connectors: " + offset);
         }
@@ -525,30 +539,12 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
      * @return A <code>DifferenceConnector</code> or <code>null</code> if there isn't one present. 
      */
     public DifferenceConnector getConnector(int lineNumber, int which) {
-        for (Iterator j = differenceConnectorList.iterator(); j.hasNext();) {
-            DifferenceConnector connector = (DifferenceConnector) j.next();
-
-            int top = 0, bottom = 0;
-
-            // get the connector bounds for the specified side of the connector
-            if (which == LEFT) {
-                top = connector.getLeftPosition();
-                bottom = connector.getLeftPosition() + connector.getLeftLength();
-            } else {
-                top = connector.getRightPosition();
-                bottom = connector.getRightPosition() + connector.getRightLength();
-            }
-
-            // convert line number to screen pixels
-            int currentPosition = lineNumber * dualTextPanel.getLineHeight();
-
-            // if the position is within this connector, return it
-            if (currentPosition >= top && currentPosition <= bottom) {
-                return connector;
-            }
-        }
+        if (differenceConnectors == null)
+            return null;
 
-        return null;
+        // convert line number to screen pixels
+        int currentPosition = lineNumber * dualTextPanel.getLineHeight();
+        return differenceConnectors.find(currentPosition, which);
     }
 
     public void movesChanged(MovesManager movesManager) {
@@ -556,7 +552,7 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
             SimpleLogger.logInfo("DocumentCompareView didn't update its move blocks because a pointer was null");
             return;
         }
-        moveList = movesManager.getAllMoves(baseDocument.getID(), witnessDocument.getID());
+        loadMoveList(movesManager);
         dualTextPanel.repaint();
 
         updateConnectors();
@@ -564,6 +560,18 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
         markControllerRight.updateLineMarkers(witnessDocument, dualTextPanel.getRightTextArea());
     }
 
+    public void proposedMovesChanged(MovesManager movesManager) {
+        // proposed moves are listed in the moves panel, not drawn until they are accepted
+    }
+
+    private void loadMoveList(MovesManager movesManager) {
+        if ((movesManager == null) || (baseDocument == null) || (witnessDocument == null)) {
+            moveList = null;
+            return;
+        }
+        moveList = movesManager.getAllMoves(baseDocument.getID(), witnessDocument.getID());
+    }
+
     private Rectangle calcMovePosition(Rectangle top, Rectangle bottom, int scrollPosition, boolean isLeftSide) {
         Rectangle rect = new Rectangle();
         int margin = 0;
@@ -574,9 +582,10 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
         return rect;
     }
 
-    private void renderMoves(Graphics2D g2) {
+    private List<DifferenceConnector> createMoveConnectorList() {
+        List<DifferenceConnector> moveConnectorList = new ArrayList<DifferenceConnector>();
         if (moveList == null)
-            return;
+            return moveConnectorList;
 
         JTextComponent leftTextArea = dualTextPanel.getLeftTextArea();
         JTextComponent rightTextArea = dualTextPanel.getRightTextArea();
@@ -586,126 +595,87 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
             try {
                 Rectangle r0 = leftTextArea.modelToView(fp.first.getStartOffset(OffsetRange.Space.ACTIVE));
                 Rectangle r1 = leftTextArea.modelToView(fp.first.getEndOffset(OffsetRange.Space.ACTIVE));
-                Rectangle rMove = calcMovePosition(r0, r1, 0/*dualTextPanel.getLeftPosition()*/, true);
-                //				g2.drawRect(rMove.x, rMove.y, rMove.width, rMove.height);
+                Rectangle rMove = calcMovePosition(r0, r1, 0, true);
 
                 Rectangle r2 = rightTextArea.modelToView(fp.second.getStartOffset(OffsetRange.Space.ACTIVE));
                 Rectangle r3 = rightTextArea.modelToView(fp.second.getEndOffset(OffsetRange.Space.ACTIVE));
-                Rectangle rMove2 = calcMovePosition(r2, r3, 0/*dualTextPanel.getRightPosition()*/, false);
-                //				g2.drawRect(rMove2.x, rMove2.y, rMove2.width, rMove2.height);
-                //				Rectangle rConnector = calcMoveConnector(rMove, rMove2);
-                //				g2.drawLine(rConnector.x, rConnector.y, rConnector.width, rConnector.height);
-                // int baseTextOffset, int leftPosition,  int leftLength, int rightPosition, int rightLength
+                Rectangle rMove2 = calcMovePosition(r2, r3, 0, false);
+
                 DifferenceConnector connector = new DifferenceConnector(
                     fp.first.getStartOffset(OffsetRange.Space.ACTIVE), rMove.y, rMove.height, rMove2.y, rMove2.height,
                     DifferenceConnector.MOVE_STYLE);
-                connector.render(g2, dualTextPanel.getCenterWidth(), dualTextPanel.getHeight(),
-                    dualTextPanel.getLeftPosition(), dualTextPanel.getRightPosition());
+                moveConnectorList.add(connector);
 
             } catch (BadLocationException e) {
-                SimpleLogger.logError("Bad move while rendering the center pane.");
+                SimpleLogger.logError("Bad move while laying out the center pane.");
             }
         }
+
+        return moveConnectorList;
     }
 
-    private List createConnectorList() {
+    private List<DifferenceConnector> createConnectorList() {
         // We're going to fill this list with DifferenceConnector objects.
-        LinkedList diffConnectorList = new LinkedList();
-
-        //
-        // First, marshal all of the data we will need to create the connector list.
-        //
+        List<DifferenceConnector> diffConnectorList = new ArrayList<DifferenceConnector>();
 
         // need these
         JTextComponent leftTextArea = dualTextPanel.getLeftTextArea();
         JTextComponent rightTextArea = dualTextPanel.getRightTextArea();
-
-        // find the height of a line at the current font size
-        // it doesn't matter which one we use, because we are going to
-        // use this to look up connectors which all touch both docs. 
-        int lineCount = dualTextPanel.getLineCount(LEFT);
-
-        // the set of differences that already have connectors
-        HashSet renderedDifferences = new HashSet();
+        int lineHeight = dualTextPanel.getLineHeight();
 
         // no differences found for this witness document, return empty list
         if (baseDifferenceMap == null)
             return diffConnectorList;
 
-        // The basic strategy here is to walk down the base document, line-by-line, 
-        // and for each line create a list of the differences encountered on that line.
-        // For each difference, we prepare one and only one DifferenceConnector 
-        // object, which will later be renderer in renderToSurface().
+        // The basic strategy here is to take each difference in the base document once
+        // and prepare one DifferenceConnector for it, positioned in text area coordinates.
+        // The connectors are later culled to the visible band in renderToSurface().
         //
         // Variables with the suffix "Position" refer to screen coordinates. 
         // Variables with the suffix "Offset" refer to document offsets.
         //
-        for (int line = 0; line < lineCount; line++) {
-            // screen Y position of this line
-            int linePosition = line * dualTextPanel.getLineHeight();
-
-            // calculate offsets for this line
-            int lineStartOffset = leftTextArea.viewToModel(new Point(0, linePosition));
-            int lineEndOffset = leftTextArea.viewToModel(new Point(leftTextArea.getWidth(), linePosition));
+        for (Iterator i = baseDifferenceMap.getDifferenceList().iterator(); i.hasNext();) {
+            Difference difference = (Difference) i.next();
 
-            // the set of differences found on the current line 
-            HashSet differencesOnLine = baseDifferenceMap.getDifferences(lineStartOffset, lineEndOffset);
+            // screen Y position of the line the difference starts on
+            int leftPosition = obtainScreenPosition(leftTextArea, difference.getOffset(Difference.BASE));
+            int rightPosition = obtainScreenPosition(rightTextArea, difference.getOffset(Difference.WITNESS));
 
-            // skip this line, no differences found
-            if (differencesOnLine == null)
+            // if we obtained an invalid screen position, skip this difference
+            if (leftPosition == -1 || rightPosition == -1)
                 continue;
 
-            // go through each difference on this line and draw a connector to the witness
-            for (Iterator i = differencesOnLine.iterator(); i.hasNext();) {
-                Difference difference = (Difference) i.next();
-
-                // skip this difference if we already have a connector for it
-                if (renderedDifferences.contains(difference))
-                    continue;
-                else
-                    renderedDifferences.add(difference);
+            // zero length renders a point instead of a bracket
+            int leftLength = 0;
+            int rightLength = 0;
 
-                // figure out the screen positions for the top of the difference areas
-                int leftPosition = linePosition;
-                int rightPosition = obtainScreenPosition(rightTextArea, difference.getOffset(Difference.WITNESS));
+            // figure out the length of the bracket areas
 
-                // if we obtained an invalid screen position, skip this difference
-                if (rightPosition == -1)
+            if (difference.getType() != Difference.INSERT) {
+                int baseEndOffset = difference.getOffset(Difference.BASE) + difference.getLength(Difference.BASE);
+                int leftEndPosition = obtainScreenPosition(leftTextArea, baseEndOffset);
+                if (leftEndPosition == -1)
                     continue;
-
-                // zero length renders a point instead of a bracket
-                int leftLength = 0;
-                int rightLength = 0;
-
-                // figure out the length of the bracket areas
-
-                if (difference.getType() != Difference.INSERT) {
-                    int baseEndOffset = difference.getOffset(Difference.BASE) + difference.getLength(Difference.BASE);
-                    int leftEndPosition = obtainScreenPosition(leftTextArea, baseEndOffset);
-                    if (leftEndPosition == -1)
-                        continue;
-                    leftLength = (leftEndPosition - leftPosition) + dualTextPanel.getLineHeight();
-                } else
-                    // this is a dot, so bump it to the middle of the line
-                    leftPosition += dualTextPanel.getLineHeight() / 2;
-
-                if (difference.getType() != Difference.DELETE) {
-                    int witnessEndOffset = difference.getOffset(Difference.WITNESS)
-                        + difference.getLength(Difference.WITNESS);
-                    int rightEndPosition = obtainScreenPosition(rightTextArea, witnessEndOffset);
-                    if (rightEndPosition == -1)
-                        continue;
-                    rightLength = (rightEndPosition - rightPosition) + dualTextPanel.getLineHeight();
-                } else
-                    // this is a dot, so bump it to the middle of the line
-                    rightPosition += dualTextPanel.getLineHeight() / 2;
-
-                // create a connector for this difference
-                DifferenceConnector connector = new DifferenceConnector(difference.getOffset(Difference.BASE),
-                    leftPosition, leftLength, rightPosition, rightLength, DifferenceConnector.DIFFERENCE_STYLE);
-                diffConnectorList.add(connector);
-            }
-
+                leftLength = (leftEndPosition - leftPosition) + lineHeight;
+            } else
+                // this is a dot, so bump it to the middle of the line
+                leftPosition += lineHeight / 2;
+
+            if (difference.getType() != Difference.DELETE) {
+                int witnessEndOffset = difference.getOffset(Difference.WITNESS)
+                    + difference.getLength(Difference.WITNESS);
+                int rightEndPosition = obtainScreenPosition(rightTextArea, witnessEndOffset);
+                if (rightEndPosition == -1)
+                    continue;
+                rightLength = (rightEndPosition - rightPosition) + lineHeight;
+            } else
+                // this is a dot, so bump it to the middle of the line
+                rightPosition += lineHeight / 2;
+
+            // create a connector for this difference
+            DifferenceConnector connector = new DifferenceConnector(difference.getOffset(Difference.BASE),
+                leftPosition, leftLength, rightPosition, rightLength, DifferenceConnector.DIFFERENCE_STYLE);
+            diffConnectorList.add(connector);
         }
 
         // return the resulting list
@@ -718,15 +688,18 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
         g2.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_SPEED);
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
-        if (differenceConnectorList != null) {
-            // iterate through the connectors and render them
-            for (Iterator i = differenceConnectorList.iterator(); i.hasNext();) {
-                DifferenceConnector connector = (DifferenceConnector) i.next();
-                connector.render(g2, dualTextPanel.getCenterWidth(), dualTextPanel.getHeight(),
-                    dualTextPanel.getLeftPosition(), dualTextPanel.getRightPosition());
-            }
+        // render only the connectors that touch the visible band of the two views
+        int leftViewPosition = dualTextPanel.getLeftPosition();
+        int rightViewPosition = dualTextPanel.getRightPosition();
+
+        if (differenceConnectors != null) {
+            differenceConnectors.render(g2, dualTextPanel.getCenterWidth(), dualTextPanel.getHeight(),
+                leftViewPosition, rightViewPosition);
+        }
+        if (moveConnectors != null) {
+            moveConnectors.render(g2, dualTextPanel.getCenterWidth(), dualTextPanel.getHeight(),
+                leftViewPosition, rightViewPosition);
         }
-        renderMoves(g2);
     }
 
     // since word wrapping can reposition differences in the text, we need to recalculate
@@ -738,6 +711,17 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
         }
     }
 
+    // the connector positions depend on the line height and on the measured heights of the
+    // paragraphs, so lay them out again when the font changes or the text views are measured.
+    // The differences themselves are unchanged, so the difference maps are kept.
+    private class LayoutChangeListener implements PropertyChangeListener {
+        public void propertyChange(PropertyChangeEvent evt) {
+            if (session != null && baseDocument != null && witnessDocument != null) {
+                layoutConnectors();
+            }
+        }
+    }
+
     private class RollOverTracker implements MouseMotionListener {
         private JTextComponent textArea;
         private int which;
@@ -941,6 +925,9 @@ public class DocumentCompareView extends JPanel implements Renderer, JuxtaSessio
         updateDocumentLists();
     }
 
+    public void sessionSaved() {
+    }
+
     public void currentCollationFilterChanged(Collation currentCollation) {
         // do nothing
 
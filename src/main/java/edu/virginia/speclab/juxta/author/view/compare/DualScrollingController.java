@@ -21,9 +21,9 @@ package edu.virginia.speclab.juxta.author.view.compare;
 import java.awt.event.AdjustmentEvent;
 import java.awt.event.AdjustmentListener;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import edu.virginia.speclab.diff.Difference;
 import edu.virginia.speclab.diff.OffsetRange;
@@ -47,8 +47,15 @@ class DualScrollingController implements AdjustmentListener {
     private List<Integer> leftOffsetArray;
     private List<Integer> rightOffsetArray;
 
-    // maps scroll positions to base text offsets
-    private Map<Integer, Integer> offsetMap;
+    // maps base text offsets to scroll positions, sorted by offset
+    private TreeMap<Integer, Integer> offsetMap;
+
+    // the number of pixels each panel has scrolled at the start of each line of scroll data
+    private int[] leftScrollPrefix;
+    private int[] rightScrollPrefix;
+
+    // the line height the scroll data was calculated with
+    private int scrollLineHeight;
 
     // used when controlling scrolling to calculate scroll delta
     private int lastPosition;
@@ -82,8 +89,8 @@ class DualScrollingController implements AdjustmentListener {
         int initialSize = (leftLineCount > rightLineCount) ? leftLineCount : rightLineCount;
         this.leftOffsetArray = new ArrayList<Integer>();
         this.rightOffsetArray = new ArrayList<Integer>();
-        this.scrollData = new ArrayList<ScrollCommand>();
-        this.offsetMap = new HashMap<Integer, Integer>(initialSize);
+        this.scrollData = new ArrayList<ScrollCommand>(initialSize);
+        this.offsetMap = new TreeMap<Integer, Integer>();
 
         // get ready to loop
         int leftPosition = 0, rightPosition = 0, offset = 0;
@@ -152,6 +159,20 @@ class DualScrollingController implements AdjustmentListener {
         // until it hits 0, will scroll the doc to some point near the end.
         this.offsetMap.put(0,0);
 
+        // accumulate the scroll commands into a monotone mapping from scroll bar position
+        // to the position of each panel
+        int commandCount = this.scrollData.size();
+        this.scrollLineHeight = lineHeight;
+        this.leftScrollPrefix = new int[commandCount + 1];
+        this.rightScrollPrefix = new int[commandCount + 1];
+        for (int line = 0; line < commandCount; line++) {
+            ScrollCommand command = this.scrollData.get(line);
+            int leftStep = command.equals(ScrollCommand.LEFT_STOP_COMMAND) ? 0 : lineHeight;
+            int rightStep = command.equals(ScrollCommand.RIGHT_STOP_COMMAND) ? 0 : lineHeight;
+            this.leftScrollPrefix[line + 1] = this.leftScrollPrefix[line] + leftStep;
+            this.rightScrollPrefix[line + 1] = this.rightScrollPrefix[line] + rightStep;
+        }
+
         //clear the extra elements
         while (this.leftOffsetArray.size() != leftPosition) {
             this.leftOffsetArray.remove(leftPosition);
@@ -189,43 +210,12 @@ class DualScrollingController implements AdjustmentListener {
             return;
         }
 
-        // initialize scroll delta accumulators
-        int leftScrollAmount = 0;
-        int rightScrollAmount = 0;
-
-        // positive if scroll down, negative scrolling up
-        int direction = (positionDelta > 0) ? 1 : -1;
-
-        // loop through all the lines passed over by this movement and stop the scrolling
-        // (subtract from movement) whenever we encounter a stop command in the scroll
-        // data.                        
-        for (int offset = 0; offset < Math.abs(positionDelta); offset++) {
-            // the line for this iteration         
-            int line = (lastPosition + (offset * direction)) / dualTextPanel.getLineHeight();
-
-            // if the line is in range for this pane, get the scroll command
-            ScrollCommand command;
-            if (line >= scrollData.size() || line < 0)
-                command = ScrollCommand.GO_COMMAND;
-            else
-                command = (ScrollCommand) scrollData.get(line);
-
-            // scroll left panel if not told to stop
-            if (command.equals(ScrollCommand.LEFT_STOP_COMMAND) == false) {
-                if (direction > 0)
-                    leftScrollAmount++;
-                else
-                    leftScrollAmount--;
-            }
-
-            // scroll right panel if not told to stop
-            if (command.equals(ScrollCommand.RIGHT_STOP_COMMAND) == false) {
-                if (direction > 0)
-                    rightScrollAmount++;
-                else
-                    rightScrollAmount--;
-            }
-        }
+        // the distance each panel travels is the difference of its mapped positions, 
+        // panels are held still over the lines where they are told to stop
+        int leftScrollAmount = mapScrollPosition(position, leftScrollPrefix, ScrollCommand.LEFT_STOP_COMMAND)
+            - mapScrollPosition(lastPosition, leftScrollPrefix, ScrollCommand.LEFT_STOP_COMMAND);
+        int rightScrollAmount = mapScrollPosition(position, rightScrollPrefix, ScrollCommand.RIGHT_STOP_COMMAND)
+            - mapScrollPosition(lastPosition, rightScrollPrefix, ScrollCommand.RIGHT_STOP_COMMAND);
 
         //SimpleLogger.logInfo("delta="+positionDelta+" left="+leftScrollAmount+" right="+rightScrollAmount );
 
@@ -240,6 +230,26 @@ class DualScrollingController implements AdjustmentListener {
         documentCompareView.repaint();
     }
 
+    // translate a scroll bar position into the position of one of the panels, using the
+    // running totals built from the scroll data
+    private int mapScrollPosition(int position, int[] scrollPrefix, ScrollCommand stopCommand) {
+        if (position <= 0)
+            return position;
+
+        int line = position / scrollLineHeight;
+        int commandCount = scrollData.size();
+
+        // past the end of the scroll data both panels scroll freely
+        if (line >= commandCount)
+            return scrollPrefix[commandCount] + (position - commandCount * scrollLineHeight);
+
+        ScrollCommand command = scrollData.get(line);
+        if (command.equals(stopCommand))
+            return scrollPrefix[line];
+        else
+            return scrollPrefix[line] + (position - line * scrollLineHeight);
+    }
+
     public void scrollToWithOffset(int offset, boolean isBaseSelected) {
         Integer mappedValue;
         if (isBaseSelected)
@@ -281,17 +291,14 @@ class DualScrollingController implements AdjustmentListener {
     // positions only contain the beginning of each location, but this may be called with any
     // character location.
     private Integer findHighestPositionLessThanOffset(int offset) {
-        //System.out.println("Find pos for offset: " + offset);
-        while (offset >= 0) {
-            Integer position = (Integer) offsetMap.get(new Integer(offset));
-            if (position == null) {
-                --offset;
-            } else {
-                //System.out.println("Found match at: " + position);
-                return position;
-            }
-        }
-        return null;
+        if (offset < 0)
+            return null;
+
+        Map.Entry<Integer, Integer> entry = offsetMap.floorEntry(new Integer(offset));
+        if (entry == null)
+            return null;
+
+        return entry.getValue();
     }
 
     public int getScrollPosition(Difference difference) {
@@ -33,6 +33,7 @@ import org.apache.velocity.runtime.RuntimeConstants;
 import edu.virginia.speclab.diff.document.Image;
 import edu.virginia.speclab.exceptions.ReportedException;
 import edu.virginia.speclab.juxta.author.model.CriticalApparatus;
+import edu.virginia.speclab.juxta.author.model.JuxtaSessionFile;
 import edu.virginia.speclab.util.FileUtilities;
 
 public class CriticalApparartusReport {
@@ -112,6 +113,7 @@ public class CriticalApparartusReport {
 
             try {
                 // copy the file to the image sub-directory
+                JuxtaSessionFile.extractArchivedFile(srcFile);
                 FileUtilities.copyFile(srcFile, destFile, false);
             } catch (IOException e) {
                 // problem copying file, store for later
@@ -42,8 +42,11 @@ import javax.swing.JTextArea;
 import javax.swing.JViewport;
 import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeListener;
+import javax.swing.plaf.basic.BasicTextAreaUI;
 import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
 import javax.swing.text.JTextComponent;
+import javax.swing.text.View;
 
 import edu.virginia.speclab.util.ImageLoader;
 
@@ -453,6 +456,18 @@ public class DualScrollingTextPanel extends JPanel {
             setMargin( new Insets(0, 5, 0, 5));
         }
 
+        /**
+         * Display the text through a view that only lays out the paragraphs
+         * near the visible part of the document.
+         */
+        public void updateUI() {
+            setUI(new BasicTextAreaUI() {
+                public View create(Element elem) {
+                    return new VirtualizedTextView(elem, null);
+                }
+            });
+        }
+
         public void setWatermark(boolean display) {
             this.display = display;
         }
@@ -0,0 +1,56 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.ui;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.Element;
+import javax.swing.text.StyledEditorKit;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+/**
+ * A styled editor kit that displays its documents through a <code>VirtualizedTextView</code>,
+ * so that only the paragraphs near the visible part of the document are laid out. The
+ * paragraphs themselves are displayed by the standard styled text views.
+ */
+public class VirtualizedEditorKit extends StyledEditorKit {
+    private ViewFactory factory;
+
+    public ViewFactory getViewFactory() {
+        if ( this.factory == null ) {
+            this.factory = new VirtualizedViewFactory(super.getViewFactory());
+        }
+        return this.factory;
+    }
+
+    private static class VirtualizedViewFactory implements ViewFactory {
+        private ViewFactory styledFactory;
+
+        public VirtualizedViewFactory( ViewFactory styledFactory ) {
+            this.styledFactory = styledFactory;
+        }
+
+        public View create(Element elem) {
+            if ( AbstractDocument.SectionElementName.equals(elem.getName()) ) {
+                return new VirtualizedTextView(elem, this.styledFactory);
+            }
+            return this.styledFactory.create(elem);
+        }
+    }
+}
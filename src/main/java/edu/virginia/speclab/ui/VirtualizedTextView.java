@@ -0,0 +1,748 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.ui;
+
+import java.awt.Color;
+import java.awt.Container;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.JComponent;
+import javax.swing.SwingUtilities;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+/**
+ * A read-only root view that only lays out the paragraphs near the part of the text
+ * that is actually shown. The standard Swing views build and lay out a view for every
+ * line of the document up front, which for a multi-megabyte witness costs a great deal
+ * of memory and several seconds before anything appears.
+ *
+ * This view keeps a paragraph offset index instead: the height of every paragraph, kept
+ * in a Fenwick tree so that the position of a paragraph and the paragraph at a position
+ * can both be found in logarithmic time. Paragraphs that have never been displayed carry
+ * a height estimated from the font metrics and the length of their text. Views for the
+ * paragraphs that are painted or queried are created on demand and held in a small
+ * cache. When painting replaces an estimate with a measured height the text component
+ * is notified through the <code>LAYOUT_PROPERTY</code> client property so that overlays
+ * which cache positions can lay themselves out again.
+ */
+public class VirtualizedTextView extends View {
+
+    /**
+     * Client property on the text component that changes whenever painting has replaced
+     * estimated paragraph heights with measured ones.
+     */
+    public static final String LAYOUT_PROPERTY = "VirtualizedTextView.layout";
+
+    // number of paragraph views kept alive
+    private static final int CACHED_PARAGRAPHS = 256;
+
+    private static final int DEFAULT_LINE_HEIGHT = 15;
+    private static final int DEFAULT_CHAR_WIDTH = 7;
+
+    private ViewFactory paragraphFactory;
+    private LinkedHashMap<Integer,View> paragraphViews;
+    private int width;
+
+    // the paragraph offset index, built on first use
+    private int[] heights;
+    private int[] heightTree;
+    private BitSet measured;
+    private int totalHeight;
+
+    private int lineHeight;
+    private int charWidth;
+
+    private boolean creatingView;
+    private boolean notificationPending;
+    private int layoutGeneration;
+
+    /**
+     * Create a view over the paragraphs of the specified element.
+     * @param elem The root or section element of the document.
+     * @param paragraphFactory The factory used to create the view for each paragraph
+     * element, or <code>null</code> to display every paragraph as word-wrapped plain text
+     * in the font of the text component.
+     */
+    public VirtualizedTextView( Element elem, ViewFactory paragraphFactory ) {
+        super(elem);
+        this.paragraphFactory = paragraphFactory;
+        this.paragraphViews = new LinkedHashMap<Integer,View>(CACHED_PARAGRAPHS, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Integer,View> eldest) {
+                if ( size() > CACHED_PARAGRAPHS ) {
+                    eldest.getValue().setParent(null);
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public void setParent(View parent) {
+        super.setParent(parent);
+        if ( parent == null ) {
+            releaseParagraphViews();
+            this.heights = null;
+        }
+    }
+
+    public float getPreferredSpan(int axis) {
+        if ( axis == View.X_AXIS ) {
+            return (this.width > 0 && this.width < Integer.MAX_VALUE) ? this.width : 0;
+        }
+        ensureIndex();
+        return this.totalHeight;
+    }
+
+    public float getMinimumSpan(int axis) {
+        if ( axis == View.X_AXIS ) {
+            return 0;
+        }
+        return getPreferredSpan(axis);
+    }
+
+    public float getMaximumSpan(int axis) {
+        if ( axis == View.X_AXIS ) {
+            return Integer.MAX_VALUE;
+        }
+        return getPreferredSpan(axis);
+    }
+
+    public void setSize(float w, float h) {
+        int newWidth = (int)w;
+        if ( newWidth != this.width ) {
+            this.width = newWidth;
+
+            // every paragraph wraps differently at the new width
+            if ( this.heights != null ) {
+                releaseParagraphViews();
+                estimateHeights();
+            }
+        }
+    }
+
+    public void paint(Graphics g, Shape a) {
+        ensureIndex();
+        if ( this.heights.length == 0 ) {
+            return;
+        }
+
+        Rectangle alloc = a.getBounds();
+        Rectangle clip = g.getClipBounds();
+        if ( clip == null ) {
+            clip = alloc;
+        }
+
+        int top = Math.max(0, clip.y - alloc.y);
+        int bottom = clip.y + clip.height - alloc.y;
+        int index = findParagraph(top);
+        int y = getParagraphOffset(index);
+        boolean changed = false;
+
+        Rectangle paragraphAlloc = new Rectangle();
+        while ( index < this.heights.length && y < bottom ) {
+            View view = getParagraphView(index);
+            changed |= commitHeight(index, view);
+            paragraphAlloc.setBounds(alloc.x, alloc.y + y, this.width, this.heights[index]);
+            view.paint(g, paragraphAlloc);
+            y += this.heights[index];
+            index++;
+        }
+
+        if ( changed ) {
+            fireLayoutChanged();
+        }
+    }
+
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        ensureIndex();
+        if ( pos < getStartOffset() || pos > getEndOffset() ) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+
+        int index = getParagraphIndex(pos);
+        View view = getParagraphView(index);
+        return view.modelToView(pos, getParagraphAllocation(index, view, a), b);
+    }
+
+    public int viewToModel(float x, float y, Shape a, Position.Bias[] bias) {
+        ensureIndex();
+        bias[0] = Position.Bias.Forward;
+        if ( this.heights.length == 0 ) {
+            return getStartOffset();
+        }
+
+        Rectangle alloc = a.getBounds();
+        int index = findParagraph(Math.max(0, (int)y - alloc.y));
+        View view = getParagraphView(index);
+        Rectangle paragraphAlloc = getParagraphAllocation(index, view, a);
+        float paragraphY = Math.max(paragraphAlloc.y, Math.min(y, paragraphAlloc.y + paragraphAlloc.height - 1));
+        return view.viewToModel(x, paragraphY, paragraphAlloc, bias);
+    }
+
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        documentChanged(e);
+    }
+
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        documentChanged(e);
+    }
+
+    public void changedUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        documentChanged(e);
+    }
+
+    public void preferenceChanged(View child, boolean width, boolean height) {
+        if ( this.creatingView ) {
+            return;
+        }
+
+        // the child will be measured again the next time it is painted
+        if ( child != null && this.heights != null ) {
+            int index = getParagraphIndex(child.getStartOffset());
+            if ( this.paragraphViews.get(index) == child ) {
+                this.measured.clear(index);
+            }
+        }
+        super.preferenceChanged(this, width, height);
+    }
+
+    /**
+     * @return The number of paragraphs in the paragraph offset index.
+     */
+    public int getParagraphCount() {
+        ensureIndex();
+        return this.heights.length;
+    }
+
+    /**
+     * @return The y position of the paragraph containing the specified character
+     * offset, relative to the top of this view.
+     */
+    public int getParagraphPosition( int offset ) {
+        ensureIndex();
+        return getParagraphOffset(getParagraphIndex(offset));
+    }
+
+    /**
+     * @return The y position of the line holding the specified character offset, relative
+     * to the top of this view. The line is looked up in the view of its paragraph if that
+     * is cached, and otherwise estimated from the font metrics, so no paragraph view is
+     * created to answer the query.
+     */
+    public int getLinePosition( int offset ) {
+        ensureIndex();
+        if ( this.heights.length == 0 ) {
+            return 0;
+        }
+
+        int index = getParagraphIndex(offset);
+        int y = getParagraphOffset(index);
+        View view = this.paragraphViews.get(index);
+        if ( view != null ) {
+            try {
+                Rectangle paragraphAlloc = new Rectangle(0, y, this.width, this.heights[index]);
+                return view.modelToView(offset, paragraphAlloc, Position.Bias.Forward).getBounds().y;
+            } catch (BadLocationException e) {
+                // fall back on the estimate
+            }
+        }
+
+        int charsPerLine = Math.max(1, this.width / this.charWidth);
+        int line = (offset - getElement().getElement(index).getStartOffset()) / charsPerLine;
+        return y + Math.max(0, Math.min(line * this.lineHeight, this.heights[index] - this.lineHeight));
+    }
+
+    /**
+     * Find the y position of the line holding the offset in the text component, without
+     * laying out its paragraph if the component is displayed by a <code>VirtualizedTextView</code>.
+     */
+    public static int getLinePosition( JTextComponent text, int offset ) throws BadLocationException {
+        View root = text.getUI().getRootView(text);
+        if ( root.getViewCount() > 0 && root.getView(0) instanceof VirtualizedTextView ) {
+            VirtualizedTextView view = (VirtualizedTextView)root.getView(0);
+            if ( offset < view.getStartOffset() || offset > view.getEndOffset() ) {
+                throw new BadLocationException("Invalid position", offset);
+            }
+            return text.getInsets().top + view.getLinePosition(offset);
+        }
+
+        Rectangle r = text.modelToView(offset);
+        if ( r == null ) {
+            throw new BadLocationException("Text is not laid out", offset);
+        }
+        return r.y;
+    }
+
+    private void documentChanged(DocumentEvent e) {
+        if ( this.heights == null ) {
+            return;
+        }
+
+        Element root = getElement();
+        if ( e.getChange(root) != null ) {
+            // paragraphs were added or removed, rebuild the index when next needed
+            releaseParagraphViews();
+            this.heights = null;
+        } else {
+            // the paragraphs are the same, only those touched by the edit need a new view
+            int first = getParagraphIndex(e.getOffset());
+            int last = first;
+            if ( e.getType() != DocumentEvent.EventType.REMOVE ) {
+                last = getParagraphIndex(e.getOffset() + e.getLength());
+            }
+
+            for ( int i = first; i <= last; i++ ) {
+                View view = this.paragraphViews.remove(i);
+                if ( view != null ) {
+                    view.setParent(null);
+                }
+                this.measured.clear(i);
+                setParagraphHeight(i, estimateHeight(root.getElement(i)));
+            }
+        }
+
+        super.preferenceChanged(this, true, true);
+    }
+
+    private void ensureIndex() {
+        if ( this.heights != null ) {
+            return;
+        }
+
+        int count = getElement().getElementCount();
+        this.heights = new int[count];
+        this.heightTree = new int[count+1];
+        this.measured = new BitSet(count);
+        estimateHeights();
+    }
+
+    private void estimateHeights() {
+        updateMetrics();
+
+        Element root = getElement();
+        int count = this.heights.length;
+        this.measured.clear();
+        this.totalHeight = 0;
+        for ( int i = 0; i < count; i++ ) {
+            this.heights[i] = estimateHeight(root.getElement(i));
+            this.heightTree[i+1] = this.heights[i];
+            this.totalHeight += this.heights[i];
+        }
+
+        // build the tree bottom up in linear time
+        for ( int i = 1; i <= count; i++ ) {
+            int parent = i + (i & -i);
+            if ( parent <= count ) {
+                this.heightTree[parent] += this.heightTree[i];
+            }
+        }
+    }
+
+    private void updateMetrics() {
+        this.lineHeight = DEFAULT_LINE_HEIGHT;
+        this.charWidth = DEFAULT_CHAR_WIDTH;
+
+        Container host = getContainer();
+        if ( host != null && host.getFont() != null ) {
+            FontMetrics metrics = host.getFontMetrics(host.getFont());
+            if ( metrics.getHeight() > 0 ) {
+                this.lineHeight = metrics.getHeight();
+            }
+            if ( metrics.charWidth('n') > 0 ) {
+                this.charWidth = metrics.charWidth('n');
+            }
+        }
+    }
+
+    private int estimateHeight( Element paragraph ) {
+        int length = paragraph.getEndOffset() - paragraph.getStartOffset() - 1;
+        if ( this.width <= 0 || this.width == Integer.MAX_VALUE || length <= 0 ) {
+            return this.lineHeight;
+        }
+
+        int charsPerLine = Math.max(1, this.width / this.charWidth);
+        int lines = (length + charsPerLine - 1) / charsPerLine;
+        return lines * this.lineHeight;
+    }
+
+    private boolean commitHeight( int index, View view ) {
+        if ( this.measured.get(index) ) {
+            return false;
+        }
+
+        this.measured.set(index);
+        int height = (int)Math.ceil(view.getPreferredSpan(View.Y_AXIS));
+        if ( height == this.heights[index] ) {
+            return false;
+        }
+
+        setParagraphHeight(index, height);
+        return true;
+    }
+
+    private void setParagraphHeight( int index, int height ) {
+        int delta = height - this.heights[index];
+        this.heights[index] = height;
+        this.totalHeight += delta;
+        for ( int i = index+1; i < this.heightTree.length; i += (i & -i) ) {
+            this.heightTree[i] += delta;
+        }
+    }
+
+    // y position of the top of the paragraph, the sum of the heights of all paragraphs before it
+    private int getParagraphOffset( int index ) {
+        int offset = 0;
+        for ( int i = index; i > 0; i -= (i & -i) ) {
+            offset += this.heightTree[i];
+        }
+        return offset;
+    }
+
+    // index of the paragraph that covers the y position
+    private int findParagraph( int y ) {
+        int count = this.heights.length;
+        int index = 0;
+        int remaining = y;
+        for ( int step = Integer.highestOneBit(Math.max(count,1)); step > 0; step >>= 1 ) {
+            int next = index + step;
+            if ( next <= count && this.heightTree[next] <= remaining ) {
+                index = next;
+                remaining -= this.heightTree[next];
+            }
+        }
+        return Math.min(index, count-1);
+    }
+
+    private int getParagraphIndex( int offset ) {
+        int index = getElement().getElementIndex(offset);
+        return Math.max(0, Math.min(index, this.heights.length-1));
+    }
+
+    private Rectangle getParagraphAllocation( int index, View view, Shape a ) {
+        Rectangle alloc = a.getBounds();
+        int height = (int)Math.ceil(view.getPreferredSpan(View.Y_AXIS));
+        return new Rectangle(alloc.x, alloc.y + getParagraphOffset(index), this.width, height);
+    }
+
+    private View getParagraphView( int index ) {
+        View view = this.paragraphViews.get(index);
+        if ( view == null ) {
+            Element paragraph = getElement().getElement(index);
+            this.creatingView = true;
+            try {
+                if ( this.paragraphFactory != null ) {
+                    view = this.paragraphFactory.create(paragraph);
+                } else {
+                    view = new PlainParagraphView(paragraph);
+                }
+                view.setParent(this);
+                view.setSize(this.width, Integer.MAX_VALUE);
+                view.setSize(this.width, view.getPreferredSpan(View.Y_AXIS));
+            } finally {
+                this.creatingView = false;
+            }
+            this.paragraphViews.put(index, view);
+        }
+        return view;
+    }
+
+    private void releaseParagraphViews() {
+        for ( Iterator<View> i = this.paragraphViews.values().iterator(); i.hasNext(); ) {
+            i.next().setParent(null);
+        }
+        this.paragraphViews.clear();
+    }
+
+    private void fireLayoutChanged() {
+        super.preferenceChanged(this, false, true);
+
+        if ( this.notificationPending ) {
+            return;
+        }
+
+        final Container host = getContainer();
+        if ( host instanceof JComponent ) {
+            this.notificationPending = true;
+            SwingUtilities.invokeLater( new Runnable() {
+                public void run() {
+                    notificationPending = false;
+                    layoutGeneration++;
+                    ((JComponent)host).putClientProperty(LAYOUT_PROPERTY, new Integer(layoutGeneration));
+                    host.repaint();
+                }
+            });
+        }
+    }
+
+    /**
+     * Displays one paragraph as plain text in the font of the text component,
+     * wrapped at word boundaries.
+     */
+    private class PlainParagraphView extends View implements TabExpander {
+
+        // end of each row, relative to the start of the paragraph
+        private int[] rowEnds;
+        private int layoutWidth;
+        private int tabBase;
+        private Segment text;
+
+        public PlainParagraphView( Element elem ) {
+            super(elem);
+            this.text = new Segment();
+            this.layoutWidth = -1;
+        }
+
+        public float getPreferredSpan(int axis) {
+            if ( axis == View.X_AXIS ) {
+                return Math.max(this.layoutWidth, 0);
+            }
+            return getRowCount() * getMetrics().getHeight();
+        }
+
+        public void setSize(float w, float h) {
+            int newWidth = (int)w;
+            if ( newWidth != this.layoutWidth ) {
+                this.layoutWidth = newWidth;
+                this.rowEnds = null;
+            }
+        }
+
+        public void paint(Graphics g, Shape a) {
+            JTextComponent host = (JTextComponent)getContainer();
+            FontMetrics metrics = getMetrics();
+            Rectangle alloc = a.getBounds();
+            Highlighter highlighter = host.getHighlighter();
+            LayeredHighlighter layeredHighlighter = null;
+            if ( highlighter instanceof LayeredHighlighter ) {
+                layeredHighlighter = (LayeredHighlighter)highlighter;
+            }
+
+            g.setFont(host.getFont());
+            this.tabBase = alloc.x;
+
+            int start = getStartOffset();
+            int end = getEndOffset();
+            int[] ends = getRowEnds();
+            int p0 = start;
+            int y = alloc.y + metrics.getAscent();
+            for ( int row = 0; row < ends.length; row++ ) {
+                int p1 = start + ends[row];
+                if ( layeredHighlighter != null ) {
+                    int highlightEnd = (p1 == end) ? (p1 - 1) : p1;
+                    layeredHighlighter.paintLayeredHighlights(g, p0, highlightEnd, a, host, this);
+                }
+                drawRow(g, host, p0, p1, alloc.x, y);
+                p0 = p1;
+                y += metrics.getHeight();
+            }
+        }
+
+        private void drawRow( Graphics g, JTextComponent host, int p0, int p1, int x, int y ) {
+            Color foreground = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+            int selectionStart = host.getSelectionStart();
+            int selectionEnd = host.getSelectionEnd();
+
+            try {
+                if ( selectionStart == selectionEnd || selectionEnd <= p0 || selectionStart >= p1 ) {
+                    drawText(g, foreground, p0, p1, x, y);
+                } else {
+                    int s0 = Math.max(p0, selectionStart);
+                    int s1 = Math.min(p1, selectionEnd);
+                    x = drawText(g, foreground, p0, s0, x, y);
+                    x = drawText(g, host.getSelectedTextColor(), s0, s1, x, y);
+                    drawText(g, foreground, s1, p1, x, y);
+                }
+            } catch ( BadLocationException e ) {
+                // the paragraph is out of date, it will be rebuilt
+            }
+        }
+
+        private int drawText( Graphics g, Color color, int p0, int p1, int x, int y ) throws BadLocationException {
+            if ( p1 <= p0 ) {
+                return x;
+            }
+            getDocument().getText(p0, p1 - p0, this.text);
+            g.setColor(color);
+            return Utilities.drawTabbedText(this.text, x, y, g, this, p0);
+        }
+
+        public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+            int start = getStartOffset();
+            if ( pos < start || pos > getEndOffset() ) {
+                throw new BadLocationException("Invalid position", pos);
+            }
+
+            Rectangle alloc = a.getBounds();
+            alloc.height = getMetrics().getHeight();
+            alloc.width = 1;
+            this.tabBase = alloc.x;
+
+            int testPos = (b == Position.Bias.Forward) ? pos : Math.max(start, pos - 1);
+            int row = findRow(testPos - start);
+            int p0 = start + rowStart(row);
+            alloc.y += alloc.height * row;
+            if ( pos > p0 ) {
+                getDocument().getText(p0, pos - p0, this.text);
+                alloc.x += Utilities.getTabbedTextWidth(this.text, getMetrics(), alloc.x, this, p0);
+            }
+            return alloc;
+        }
+
+        public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+            bias[0] = Position.Bias.Forward;
+
+            Rectangle alloc = a.getBounds();
+            int x = (int)fx;
+            int y = (int)fy;
+            int start = getStartOffset();
+            int end = getEndOffset();
+            if ( y < alloc.y ) {
+                return start;
+            }
+
+            int[] ends = getRowEnds();
+            int row = (y - alloc.y) / getMetrics().getHeight();
+            if ( row >= ends.length ) {
+                return end - 1;
+            }
+
+            int p0 = start + rowStart(row);
+            int p1 = start + ends[row];
+            if ( x < alloc.x ) {
+                return p0;
+            }
+
+            try {
+                this.tabBase = alloc.x;
+                getDocument().getText(p0, p1 - p0, this.text);
+                int n = Utilities.getTabbedTextOffset(this.text, getMetrics(), alloc.x, x, this, p0);
+                return Math.min(p0 + n, p1 - 1);
+            } catch ( BadLocationException e ) {
+                return p0;
+            }
+        }
+
+        public float nextTabStop(float x, int tabOffset) {
+            Document doc = getDocument();
+            Object size = doc.getProperty(PlainDocument.tabSizeAttribute);
+            int tabSize = ((size instanceof Integer) ? ((Integer)size).intValue() : 8) * getMetrics().charWidth('m');
+            if ( tabSize == 0 ) {
+                return x;
+            }
+            int tabs = ((int)x - this.tabBase) / tabSize;
+            return this.tabBase + ((tabs + 1) * tabSize);
+        }
+
+        private int getRowCount() {
+            return getRowEnds().length;
+        }
+
+        private int rowStart( int row ) {
+            return (row > 0) ? this.rowEnds[row-1] : 0;
+        }
+
+        private int findRow( int offset ) {
+            int[] ends = getRowEnds();
+            int low = 0, high = ends.length - 1;
+            while ( low < high ) {
+                int mid = (low + high) >>> 1;
+                if ( ends[mid] > offset ) {
+                    high = mid;
+                } else {
+                    low = mid + 1;
+                }
+            }
+            return low;
+        }
+
+        private int[] getRowEnds() {
+            if ( this.rowEnds == null ) {
+                this.rowEnds = breakRows();
+            }
+            return this.rowEnds;
+        }
+
+        private int[] breakRows() {
+            int start = getStartOffset();
+            int end = getEndOffset();
+            if ( this.layoutWidth <= 0 || this.layoutWidth == Integer.MAX_VALUE ) {
+                return new int[] { end - start };
+            }
+
+            FontMetrics metrics = getMetrics();
+            int[] ends = new int[8];
+            int count = 0;
+            int p0 = start;
+            this.tabBase = 0;
+
+            try {
+                while ( p0 < end ) {
+                    // every character is at least a pixel wide, so no row holds more than this
+                    int limit = Math.min(end, p0 + this.layoutWidth + 1);
+                    getDocument().getText(p0, limit - p0, this.text);
+                    int p1 = p0 + Utilities.getBreakLocation(this.text, metrics, 0, this.layoutWidth, this, p0);
+                    if ( p1 <= p0 ) {
+                        p1 = p0 + 1;
+                    }
+
+                    if ( count == ends.length ) {
+                        int[] grown = new int[count*2];
+                        System.arraycopy(ends, 0, grown, 0, count);
+                        ends = grown;
+                    }
+                    ends[count++] = p1 - start;
+                    p0 = p1;
+                }
+            } catch ( BadLocationException e ) {
+                return new int[] { end - start };
+            }
+
+            int[] result = new int[count];
+            System.arraycopy(ends, 0, result, 0, count);
+            return result;
+        }
+
+        private FontMetrics getMetrics() {
+            Container host = getContainer();
+            Font font = host.getFont();
+            return host.getFontMetrics(font);
+        }
+    }
+}
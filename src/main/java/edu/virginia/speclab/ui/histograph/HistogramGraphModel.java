@@ -28,6 +28,8 @@ public class HistogramGraphModel
     private int maxValue;
     private String labelXAxis, labelYAxis;
     private byte data[];
+    private byte pyramid[][];
+    private int dataVersion;
     private LinkedList markers = new LinkedList();
 	private float selectionAreaPosition;
 	private float selectionAreaScale;
@@ -66,6 +68,59 @@ public class HistogramGraphModel
     {
         this.data = histogramData;
         this.maxValue = maxValue;
+        buildPyramid();
+    }
+    
+    /**
+     * Call when the contents of the histogram data array have been modified in 
+     * place, so that the max pyramid can be rebuilt and any cached renderings of 
+     * this model discarded.
+     */
+    public void dataChanged()
+    {
+        buildPyramid();
+        dataVersion++;
+    }
+    
+    /**
+     * Incremented each time the histogram data changes. Views may compare this
+     * against the version they last rendered to decide if they must redraw.
+     * @return The current data version.
+     */
+    public int getDataVersion()
+    {
+        return dataVersion;
+    }
+    
+    // Build a multi-resolution max pyramid over the data. Level zero is the data itself, 
+    // each following level holds the maximum of each pair of entries in the level below.
+    private void buildPyramid()
+    {
+        if( data == null )
+        {
+            pyramid = null;
+            return;
+        }
+        
+        LinkedList levels = new LinkedList();
+        byte level[] = data;
+        levels.add(level);
+        
+        while( level.length > 1 )
+        {
+            byte nextLevel[] = new byte[(level.length+1)/2];
+            for( int i=0; i < nextLevel.length; i++ )
+            {
+                int left = i*2;
+                int right = left+1;
+                if( right < level.length && level[right] > level[left] ) nextLevel[i] = level[right];
+                else nextLevel[i] = level[left];
+            }
+            levels.add(nextLevel);
+            level = nextLevel;
+        }
+        
+        pyramid = (byte[][]) levels.toArray(new byte[levels.size()][]);
     }
         
     public void addMarker( int value )
@@ -97,6 +152,7 @@ public class HistogramGraphModel
             data[i] = (byte)Math.round(Math.random() * 100.0);                
         }               
         
+        buildPyramid();
         addMarker(maxValue/2);
     }
     
@@ -115,6 +171,43 @@ public class HistogramGraphModel
         return scaledValue;
     }
 
+    /**
+     * Returns the largest scaled data point in the range <code>start</code> to 
+     * <code>end</code> (exclusive). The range is resolved against the max pyramid, 
+     * so at most two entries are examined per level.
+     * @param start The first index of the range.
+     * @param end The index after the last index of the range.
+     * @return A value between 0.0 and 1.0.
+     */
+    public double getScaledMaximum( int start, int end )
+    {
+        if( pyramid == null || maxValue <= 0 ) return 0;
+        if( start < 0 ) start = 0;
+        if( end > data.length ) end = data.length;
+        
+        int maximum = 0;
+        for( int level=0; start < end; level++ )
+        {
+            byte levelData[] = pyramid[level];
+            if( (start & 1) == 1 ) 
+            {
+                if( levelData[start] > maximum ) maximum = levelData[start];
+                start++;
+            }
+            if( (end & 1) == 1 ) 
+            {
+                end--;
+                if( levelData[end] > maximum ) maximum = levelData[end];
+            }
+            start >>= 1;
+            end >>= 1;
+        }
+        
+        double scaledValue = (double)maximum / (double)maxValue;
+        if(scaledValue > 1.0) scaledValue = 1.0;
+        return scaledValue;
+    }
+
     public String getLabelXAxis()
     {
         return labelXAxis;
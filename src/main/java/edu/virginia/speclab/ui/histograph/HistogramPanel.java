@@ -28,6 +28,7 @@ import java.awt.Graphics2D;
 import java.awt.Insets;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -49,6 +50,11 @@ public class HistogramPanel extends JPanel
 	private String xLabel;
 	private Color selectionAreaColor;
 	
+	// cached rendering of the graph bars, recreated when the model data or size changes
+	private BufferedImage graphImage;
+	private HistogramGraphModel graphImageModel;
+	private int graphImageVersion;
+	
 	private static final int GUTTER_HEIGHT = 4;
 	private static final int BORDER_WIDTH = 1;
     
@@ -87,35 +93,11 @@ public class HistogramPanel extends JPanel
                     graphRectangle.width,
                     graphRectangle.height);
         
-		final int dataSetSize = model.getDataSetSize();
-		
-		double[] accumulatedData = new double[graphRectangle.width]; 
-
-		// calculate the height of the bars of the graph
-        for( int i=0; i < dataSetSize; i++ )
-        {
-			double dataPoint =  model.getScaledDataPoint(i);
-			            
-            float percentAcrossGraph = (float)i/(float)dataSetSize;
-            int index = (int)Math.floor(percentAcrossGraph * graphRectangle.width);            
-			
-            // if this value is greater than the existing value, replace it
-			if( dataPoint > accumulatedData[index] ) accumulatedData[index] = dataPoint; 
-        }
-
 		// render the graph
-        for( int x=0; x < graphRectangle.width; x++ )
-        {
-			double dataPoint = accumulatedData[x];			
-			if( dataPoint > 1.0 ) dataPoint = 1.0;
-			
-			int heightOfBar = (int)Math.floor(dataPoint * graphRectangle.height);
-			int xPositionOfBar = x + graphRectangle.x;
-            int yPositionOfBar = (graphRectangle.height - heightOfBar) + graphRectangle.y;
-            
-            g2.setPaint(colorScale.getColor(dataPoint));
-            g2.drawLine(xPositionOfBar,yPositionOfBar,xPositionOfBar,yPositionOfBar+heightOfBar);
-        }
+		if( graphRectangle.width > 0 && graphRectangle.height > 0 )
+		{
+			g2.drawImage(getGraphImage(graphRectangle),graphRectangle.x,graphRectangle.y,null);
+		}
 
         // add the markers
         LinkedList markers = model.getMarkers();
@@ -133,6 +115,47 @@ public class HistogramPanel extends JPanel
                     graphRectangle.height);        
     }
     
+    // obtain the rendered bars of the graph, only redrawing them if the data or size changed
+    private BufferedImage getGraphImage( Rectangle graphRectangle )
+    {
+        if( graphImage != null && 
+            graphImageModel == model &&
+            graphImageVersion == model.getDataVersion() &&
+            graphImage.getWidth() == graphRectangle.width &&
+            graphImage.getHeight() == graphRectangle.height )
+        {
+            return graphImage;
+        }
+        
+        graphImage = new BufferedImage(graphRectangle.width,graphRectangle.height,BufferedImage.TYPE_INT_ARGB);
+        graphImageModel = model;
+        graphImageVersion = model.getDataVersion();
+        
+        Graphics2D g2 = graphImage.createGraphics();
+        g2.setPaint(backgroundColor);
+        g2.fillRect(0,0,graphRectangle.width,graphRectangle.height);
+
+        final long dataSetSize = model.getDataSetSize();
+        final long width = graphRectangle.width;
+        
+        for( int x=0; x < graphRectangle.width; x++ )
+        {
+            // the span of data points that fall into this column of pixels
+            int start = (int)((x*dataSetSize + width-1) / width);
+            int end = (int)(((x+1)*dataSetSize + width-1) / width);
+            double dataPoint = model.getScaledMaximum(start,end);
+            
+            int heightOfBar = (int)Math.floor(dataPoint * graphRectangle.height);
+            int yPositionOfBar = graphRectangle.height - heightOfBar;
+            
+            g2.setPaint(colorScale.getColor(dataPoint));
+            g2.drawLine(x,yPositionOfBar,x,yPositionOfBar+heightOfBar);
+        }
+        
+        g2.dispose();
+        return graphImage;
+    }
+    
     private void renderMarker( Graphics2D g2, Color lineColor, Double marker, Rectangle graphRectangle )
     {
     	int xPositionOfBar = (int)Math.floor(marker.doubleValue() * graphRectangle.width) + graphRectangle.x;
@@ -154,6 +177,7 @@ public class HistogramPanel extends JPanel
     public void setGraphBackground( Color backgroundColor )
     {
         this.backgroundColor = backgroundColor;
+        this.graphImage = null;
         super.setBackground(backgroundColor);
     }
     
@@ -215,6 +239,7 @@ public class HistogramPanel extends JPanel
 
 	public void setBackgroundColor(Color backgroundColor) {
 		this.backgroundColor = backgroundColor;
+		this.graphImage = null;
 	}
 	
 	public void setSelectionAreaColor( Color selectionAreaColor ) {
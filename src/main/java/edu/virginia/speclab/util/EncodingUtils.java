@@ -1,17 +1,21 @@
 package edu.virginia.speclab.util;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
 import java.util.logging.Logger;
 
 import org.apache.commons.io.IOUtils;
@@ -22,197 +26,438 @@ import org.mozilla.universalchardet.UniversalDetector;
 public final class EncodingUtils {
 
     private static final Logger LOG = Logger.getLogger("EncodingUtils");
-    
+
+    // only this much of a file is looked at to decide its encoding
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    // the XML declaration, if any, is looked for this far into the text
+    private static final int DECLARATION_SCAN_SIZE = 1024;
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * The encoding detected for a file, along with how sure the detection is.
+     */
+    public static final class DetectedEncoding {
+        /** Below this confidence a detection is considered ambiguous. */
+        public static final float AMBIGUOUS_CONFIDENCE = 0.5f;
+
+        private final Charset charset;
+        private final int bomLength;
+        private final float confidence;
+
+        private DetectedEncoding(Charset charset, int bomLength, float confidence) {
+            this.charset = charset;
+            this.bomLength = bomLength;
+            this.confidence = confidence;
+        }
+
+        public Charset getCharset() {
+            return this.charset;
+        }
+
+        /**
+         * @return The length in bytes of the byte order mark at the start of the
+         * content, or 0 if there is none.
+         */
+        public int getBomLength() {
+            return this.bomLength;
+        }
+
+        /**
+         * @return A value from 0 (a guess) to 1 (certain, e.g. from a byte order mark).
+         */
+        public float getConfidence() {
+            return this.confidence;
+        }
+
+        public boolean isAmbiguous() {
+            return this.confidence < AMBIGUOUS_CONFIDENCE;
+        }
+
+        public String toString() {
+            return this.charset.name() + " (confidence " + this.confidence + ")";
+        }
+    }
+
     /**
      * Normalize the content to UTF-8 and strip any tags that say otherwise
      * @return A file containing the UTF-8 contents
-     * @throws IOException 
+     * @throws IOException
      */
     public static File fixEncoding( InputStream source, boolean isXml ) throws IOException {
-        File tmpSrc = File.createTempFile("src", "dat");
-        FileOutputStream fos =  new FileOutputStream(tmpSrc);
-        IOUtils.copyLarge(source, fos);
-        IOUtils.closeQuietly(fos);
- 
-        String encoding = EncodingUtils.detectEncoding(tmpSrc);
-        if ( encoding.equalsIgnoreCase("UTF-8") ) {
-            if ( isXml ) {
-                EncodingUtils.stripXmlDeclaration(tmpSrc);
+        File utf8Out = File.createTempFile("utf8out","dat");
+        copyAsUtf8(source, utf8Out, isXml);
+        return utf8Out;
+    }
+
+    /**
+     * Decode the source in its detected encoding and write it to the target file
+     * as UTF-8, in a single pass. For XML the declaration is dropped, since it may
+     * name the original encoding. It will be added on when the content is
+     * validated and added to the repo.
+     * @param source The content to copy. It is closed when done.
+     * @return The encoding the source was read in.
+     * @throws IOException
+     */
+    public static DetectedEncoding copyAsUtf8( InputStream source, File target, boolean isXml ) throws IOException {
+        InputStream in = new BufferedInputStream(source, COPY_BUFFER_SIZE);
+        try {
+            DetectedEncoding encoding = detectEncoding(in);
+            copyAsUtf8(in, target, isXml, encoding, CodingErrorAction.REPLACE);
+            return encoding;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Decode the source file in its detected encoding and write it to the target file
+     * as UTF-8. When the sample the encoding was detected from is not conclusive, the
+     * copy stops at the first malformed input and the encoding is detected again from
+     * the whole file, e.g. for text that is plain ASCII until past the sample.
+     * @return The encoding the source was read in.
+     * @throws IOException
+     */
+    public static DetectedEncoding copyAsUtf8( File source, File target, boolean isXml ) throws IOException {
+        DetectedEncoding encoding = detectEncoding(source);
+        if ( encoding.isAmbiguous() ) {
+            try {
+                copyAsUtf8(source, target, isXml, encoding, CodingErrorAction.REPORT);
+                return encoding;
+            } catch (CharacterCodingException e) {
+                LOG.info("Unable to read as " + encoding + ", detecting from the whole file");
+                encoding = detectEncodingOfWholeFile(source);
             }
-            return tmpSrc;
         }
-        
-        LOG.info("Converting from "+encoding+" to UTF-8");
-        
-        // stream the input in original encoding to output in UTF-8
-        File utf8Out = File.createTempFile("utf8out","dat");
-        Reader in = null;
-        if ( encoding == "UNK" ) {
-            in  = new InputStreamReader(new FileInputStream(tmpSrc) );
-        } else {
-            in  = new InputStreamReader(new FileInputStream(tmpSrc), encoding);
-        }
-        Writer out = new OutputStreamWriter(new FileOutputStream(utf8Out), "UTF-8");
-        int c;
-        while ((c = in.read()) != -1){
-            out.write(c);
-        }
-        IOUtils.closeQuietly(in);
-        IOUtils.closeQuietly(out);
-        tmpSrc.delete();
-        
-        // lastly, strip the xml declaration. It will be added on
-        // when the content is validated and added to the repo
-        if ( isXml ) {
-            EncodingUtils.stripXmlDeclaration(utf8Out);
+        copyAsUtf8(source, target, isXml, encoding, CodingErrorAction.REPLACE);
+        return encoding;
+    }
+
+    private static void copyAsUtf8( File source, File target, boolean isXml, DetectedEncoding encoding,
+        CodingErrorAction action ) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(source), COPY_BUFFER_SIZE);
+        try {
+            copyAsUtf8(in, target, isXml, encoding, action);
+        } finally {
+            IOUtils.closeQuietly(in);
         }
-        return utf8Out;
     }
-    
-    private static void stripXmlDeclaration(File tmpSrc) throws IOException {
-        BufferedReader r = new BufferedReader( new FileReader(tmpSrc ));
-        File out = File.createTempFile("fix", "dat");
-        FileOutputStream fos = new FileOutputStream(out);
-        boolean pastHeader = false;
-        while (true) {
-            String line = r.readLine();
-            if ( line != null ) {
-                if ( pastHeader == false && line.contains("<?xml") ) {
-                    pastHeader = true;
-                    int pos = line.indexOf("<?xml");
-                    int end = line.indexOf("?>", pos);
-                    line = line.substring(0,pos)+line.substring(end+2);
+
+    private static void copyAsUtf8( InputStream in, File target, boolean isXml, DetectedEncoding encoding,
+        CodingErrorAction action ) throws IOException {
+        Reader reader = null;
+        Writer out = null;
+        try {
+            if ( encoding.getCharset().equals(UTF8) == false ) {
+                LOG.info("Converting from "+encoding+" to UTF-8");
+            }
+            reader = createReader(in, encoding, action);
+            out = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(target), COPY_BUFFER_SIZE), UTF8);
+
+            char[] buf = new char[COPY_BUFFER_SIZE];
+            int length = 0;
+            if ( isXml ) {
+                // read enough to see the whole declaration, then leave it out
+                int nread;
+                while (length < DECLARATION_SCAN_SIZE && (nread = reader.read(buf, length, buf.length - length)) != -1) {
+                    length += nread;
                 }
-                line += "\n";
-                fos.write(line.getBytes());
-            } else {
+                length = stripXmlDeclaration(buf, length);
+                out.write(buf, 0, length);
+            }
+            while ((length = reader.read(buf)) != -1) {
+                out.write(buf, 0, length);
+            }
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Detect the encoding of a file from a bounded sample of its start.
+     */
+    public static DetectedEncoding detectEncoding( File srcFile ) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(srcFile), COPY_BUFFER_SIZE);
+        try {
+            return detectEncoding(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Detect the encoding of a stream from a bounded sample of its start. The stream
+     * must support mark and reset; it is left positioned where it was.
+     */
+    public static DetectedEncoding detectEncoding( InputStream in ) throws IOException {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        in.mark(SAMPLE_SIZE + 1);
+        int length = 0;
+        int nread;
+        while (length < sample.length && (nread = in.read(sample, length, sample.length - length)) != -1) {
+            length += nread;
+        }
+        boolean complete = (length < sample.length || in.read() == -1);
+        in.reset();
+        return detectEncoding(sample, length, complete);
+    }
+
+    /**
+     * Open a reader over the stream in the given encoding, skipping any byte order
+     * mark. Malformed input is replaced rather than reported.
+     */
+    public static Reader createReader( InputStream in, DetectedEncoding encoding ) throws IOException {
+        return createReader(in, encoding, CodingErrorAction.REPLACE);
+    }
+
+    private static Reader createReader( InputStream in, DetectedEncoding encoding, CodingErrorAction action )
+        throws IOException {
+        long remaining = encoding.getBomLength();
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if ( skipped <= 0 ) {
                 break;
             }
+            remaining -= skipped;
         }
-        IOUtils.closeQuietly(fos);
-        IOUtils.copy(new FileInputStream(out), new FileOutputStream(tmpSrc));
-        out.delete();
+        CharsetDecoder decoder = encoding.getCharset().newDecoder();
+        decoder.onMalformedInput(action);
+        decoder.onUnmappableCharacter(action);
+        return new InputStreamReader(in, decoder);
     }
 
-    private static String detectEncoding(File srcFile) throws IOException {
-        
-        // feed chunks of data to the detector until it is done
+    private static DetectedEncoding detectEncoding( byte[] sample, int length, boolean complete ) {
+
+        // a byte order mark settles it
+        if ( length >= 3 && (sample[0] & 0xFF) == 0xEF && (sample[1] & 0xFF) == 0xBB && (sample[2] & 0xFF) == 0xBF ) {
+            return new DetectedEncoding(UTF8, 3, 1.0f);
+        }
+        if ( length >= 2 && (sample[0] & 0xFF) == 0xFE && (sample[1] & 0xFF) == 0xFF ) {
+            return new DetectedEncoding(Charset.forName("UTF-16BE"), 2, 1.0f);
+        }
+        if ( length >= 2 && (sample[0] & 0xFF) == 0xFF && (sample[1] & 0xFF) == 0xFE ) {
+            return new DetectedEncoding(Charset.forName("UTF-16LE"), 2, 1.0f);
+        }
+
+        // XML in UTF-16 without a byte order mark starts with a '<' next to a zero byte
+        if ( length >= 4 && sample[0] == '<' && sample[1] == 0 && sample[2] != 0 && sample[3] == 0 ) {
+            return new DetectedEncoding(Charset.forName("UTF-16LE"), 0, 0.9f);
+        }
+        if ( length >= 4 && sample[0] == 0 && sample[1] == '<' && sample[2] == 0 && sample[3] != 0 ) {
+            return new DetectedEncoding(Charset.forName("UTF-16BE"), 0, 0.9f);
+        }
+
+        // a declaration that could be read byte by byte cannot be naming a wide encoding
+        Charset declared = lookupCharset(scanForEncodingDeclaration(sample, length));
+        if ( declared != null && (declared.name().startsWith("UTF-16") || declared.name().startsWith("UTF-32")) ) {
+            declared = null;
+        }
+        int utf8 = checkUtf8(sample, length, complete);
+
+        // plain ASCII reads the same in nearly anything; trust the declaration
+        // if there is one. Beyond the sample there may be more to it, without
+        // a declaration UTF-8 is only a guess until the rest has been read.
+        if ( utf8 == ASCII ) {
+            float confidence = complete ? 1.0f : (declared != null ? 0.7f : 0.4f);
+            return new DetectedEncoding(declared != null ? declared : UTF8, 0, confidence);
+        }
+
+        // multi-byte sequences that happen to be valid UTF-8 are rare in anything else
+        if ( utf8 == VALID_UTF8 ) {
+            float confidence = (declared == null || declared.equals(UTF8)) ? 0.95f : 0.6f;
+            return new DetectedEncoding(UTF8, 0, confidence);
+        }
+
+        if ( declared != null && declared.equals(UTF8) == false ) {
+            return new DetectedEncoding(declared, 0, 0.8f);
+        }
+
+        // above failed, fall back on statistical detection over the sample
         UniversalDetector detector = new UniversalDetector(null);
-        byte[] buf = new byte[4096];
-        int nread;
-        String encoding = "utf-8";
-        FileInputStream fis = null;
+        detector.handleData(sample, 0, length);
+        boolean decided = detector.isDone();
+        detector.dataEnd();
+        Charset detected = lookupCharset(detector.getDetectedCharset());
+        if ( detected != null ) {
+            return new DetectedEncoding(detected, 0, decided ? 0.7f : 0.5f);
+        }
+
+        // try a different encoding detector
+        detected = lookupCharset(alternateEncodeDetect(sample, length));
+        if ( detected != null ) {
+            return new DetectedEncoding(detected, 0, 0.3f);
+        }
+
+        LOG.warning("Unable to detect encoding");
+        return new DetectedEncoding(Charset.defaultCharset(), 0, 0.0f);
+    }
+
+    /**
+     * Detect the encoding from all of the file, statistically. Used when the sample
+     * turned out not to be representative of the rest.
+     */
+    private static DetectedEncoding detectEncodingOfWholeFile( File srcFile ) throws IOException {
+        UniversalDetector detector = new UniversalDetector(null);
+        InputStream in = new FileInputStream(srcFile);
         try {
-            fis = new FileInputStream(srcFile);
-            while ((nread = fis.read(buf)) > 0 && !detector.isDone()) {
+            byte[] buf = new byte[COPY_BUFFER_SIZE];
+            int nread;
+            while (detector.isDone() == false && (nread = in.read(buf)) != -1) {
                 detector.handleData(buf, 0, nread);
             }
-            detector.dataEnd();
-            IOUtils.closeQuietly(fis);
-            encoding = detector.getDetectedCharset();
-            if ( encoding != null ){
-                return encoding;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        boolean decided = detector.isDone();
+        detector.dataEnd();
+        Charset detected = lookupCharset(detector.getDetectedCharset());
+        if ( detected != null ) {
+            return new DetectedEncoding(detected, 0, decided ? 0.7f : 0.5f);
+        }
+
+        // the text is mostly ASCII and is not UTF-8, the usual single byte encoding
+        LOG.warning("Unable to detect encoding, reading as windows-1252");
+        return new DetectedEncoding(Charset.forName("windows-1252"), 0, 0.0f);
+    }
+
+    private static final int ASCII = 0;
+    private static final int VALID_UTF8 = 1;
+    private static final int INVALID_UTF8 = 2;
+
+    /**
+     * Check whether the sample is well formed UTF-8. A sequence cut off by the end
+     * of an incomplete sample is not held against it.
+     */
+    private static int checkUtf8( byte[] sample, int length, boolean complete ) {
+        int result = ASCII;
+        int i = 0;
+        while (i < length) {
+            int b = sample[i] & 0xFF;
+            if ( b < 0x80 ) {
+                i++;
+                continue;
             }
-            
-            // above failed, try a different encoding detector
-            encoding =  EncodingUtils.alternateEncodeDetect(srcFile);
-            if ( encoding != null ){
-                return encoding;
+
+            int trailing;
+            if ( b >= 0xC2 && b <= 0xDF ) {
+                trailing = 1;
+            } else if ( b >= 0xE0 && b <= 0xEF ) {
+                trailing = 2;
+            } else if ( b >= 0xF0 && b <= 0xF4 ) {
+                trailing = 3;
+            } else {
+                return INVALID_UTF8;
             }
-            
-            // all else fails, just look for an encoding declaration in the src
-            encoding = EncodingUtils.scanFileForEncodingDeclaration(srcFile);
-            if ( encoding == null ) {
-                LOG.warning("Unable to detect encoding");
-                encoding = "UNK";
+            if ( i + trailing >= length ) {
+                return complete ? INVALID_UTF8 : VALID_UTF8;
             }
- 
-        } catch (IOException e ) {
-            LOG.severe("Encoding detection failed: "+ e.getMessage());
-            encoding = "UNK";
-        } finally {
-            IOUtils.closeQuietly(fis);
+            for (int j = 1; j <= trailing; j++) {
+                if ( (sample[i + j] & 0xC0) != 0x80 ) {
+                    return INVALID_UTF8;
+                }
+            }
+            result = VALID_UTF8;
+            i += trailing + 1;
         }
-        return encoding;
+        return result;
     }
-    
-    private static String scanFileForEncodingDeclaration(File srcFile) throws IOException {
-        BufferedReader r = new BufferedReader( new FileReader(srcFile ));
-        boolean foundHeader = false;
-        String encoding = null;
-        while (true) {
-            String line = r.readLine();
-            if ( line != null ) {
-                if ( foundHeader == false && line.contains("<?xml") ) {
-                    foundHeader = true;
-                    int pos = line.indexOf("<?xml");
-                    int encPos = line.indexOf("encoding=", pos);
-                    if  (encPos > -1 ) {
-                        line = line.replaceAll("\"", "'");
-                        int end = line.indexOf("'", encPos+10);
-                        encoding = line.substring(encPos+10, end);
-                        break;
-                    } else {
-                        int end = line.indexOf("?>", pos);
-                        if ( end > -1 ) {
-                            break;
-                        }
-                    }
-                } else if (foundHeader == true ) {
-                    int encPos = line.indexOf("encoding=");
-                    if  (encPos > -1 ) {
-                        line = line.replaceAll("\"", "'");
-                        int end = line.indexOf("'", encPos+10);
-                        encoding = line.substring(encPos+10, end);
-                        break;
-                    } else {
-                        int end = line.indexOf("?>");
-                        if ( end > -1 ) {
-                            break;
-                        }
-                    }
-                }
-            } else {
-                break;
+
+    /**
+     * Look for an encoding named in an XML declaration at the start of the sample.
+     * The declaration itself is always ASCII in the encodings found here.
+     * @return The encoding name, or null if there is none.
+     */
+    private static String scanForEncodingDeclaration( byte[] sample, int length ) {
+        String head = new String(sample, 0, Math.min(length, DECLARATION_SCAN_SIZE), Charset.forName("ISO-8859-1"));
+        int pos = head.indexOf("<?xml");
+        if ( pos == -1 || head.substring(0, pos).trim().length() > 0 ) {
+            return null;
+        }
+        int end = head.indexOf("?>", pos);
+        if ( end == -1 ) {
+            return null;
+        }
+        String declaration = head.substring(pos, end);
+        int encPos = declaration.indexOf("encoding");
+        if ( encPos == -1 ) {
+            return null;
+        }
+        declaration = declaration.substring(encPos + 8).trim();
+        if ( declaration.startsWith("=") == false ) {
+            return null;
+        }
+        declaration = declaration.substring(1).trim();
+        if ( declaration.length() == 0 ) {
+            return null;
+        }
+        char quote = declaration.charAt(0);
+        int close = declaration.indexOf(quote, 1);
+        if ( (quote != '"' && quote != '\'') || close == -1 ) {
+            return null;
+        }
+        return declaration.substring(1, close);
+    }
+
+    /**
+     * Remove the XML declaration from the start of the text in the buffer.
+     * @return The length of the text that remains.
+     */
+    private static int stripXmlDeclaration( char[] buf, int length ) {
+        int pos = 0;
+        while (pos < length && Character.isWhitespace(buf[pos])) {
+            pos++;
+        }
+        if ( pos + 5 > length || new String(buf, pos, 5).equals("<?xml") == false ) {
+            return length;
+        }
+        for (int end = pos + 5; end + 1 < length; end++) {
+            if ( buf[end] == '?' && buf[end + 1] == '>' ) {
+                System.arraycopy(buf, end + 2, buf, pos, length - end - 2);
+                return length - (end + 2 - pos);
             }
         }
-        IOUtils.closeQuietly(r);
-        return encoding;
+        return length;
+    }
+
+    private static Charset lookupCharset( String name ) {
+        if ( name == null ) {
+            return null;
+        }
+        try {
+            if ( Charset.isSupported(name) ) {
+                return Charset.forName(name);
+            }
+        } catch (IllegalCharsetNameException e) {
+            LOG.warning("Unknown encoding name: " + name);
+        }
+        return null;
     }
 
-    private static String alternateEncodeDetect(File testFile) throws IOException {
+    private static String alternateEncodeDetect( byte[] sample, int length ) {
 
         nsDetector det = new nsDetector();
         DetectListener listener = new DetectListener();
         det.Init( listener );
 
-        BufferedInputStream imp = new BufferedInputStream(new FileInputStream(testFile));
-        byte[] buf = new byte[1024];
-        int len;
-        boolean done = false;
-        boolean isAscii = true;
-        while ((len = imp.read(buf, 0, buf.length)) != -1) {
-            if (isAscii) {
-                isAscii = det.isAscii(buf, len);
-            }
-            if (!isAscii && !done) {
-                done = det.DoIt(buf, len, false);
-            }
+        if ( det.isAscii(sample, length) == false ) {
+            det.DoIt(sample, length, false);
         }
         det.DataEnd();
-        imp.close();
         return listener.getEncoding();
     }
-    
+
     private static class DetectListener implements nsICharsetDetectionObserver {
         private String encoding;
         public String getEncoding() {
             return this.encoding;
         }
-        
+
         public void Notify(String charset) {
             this.encoding = charset;
         }
-        
+
     }
 }
@@ -137,6 +137,31 @@ public class FileUtilities
         }
 	}
 
+	/**
+	 * Replace the target file with the source file. The source is renamed over the target,
+	 * so the target holds either its old contents or the new ones. Where the platform can't
+	 * rename over an existing file, the target is moved aside first and restored on failure.
+	 */
+	public static void replaceFile( File srcFile, File targetFile ) throws IOException
+	{
+		if( srcFile.renameTo(targetFile) ) return;
+
+		File backupFile = File.createTempFile(targetFile.getName() + "-", ".bak", targetFile.getAbsoluteFile().getParentFile());
+		backupFile.delete();
+		if( targetFile.exists() && !targetFile.renameTo(backupFile) )
+		{
+			throw new IOException("Unable to replace file: " + targetFile.getPath());
+		}
+
+		if( !srcFile.renameTo(targetFile) )
+		{
+			backupFile.renameTo(targetFile);
+			throw new IOException("Unable to replace file: " + targetFile.getPath());
+		}
+
+		backupFile.delete();
+	}
+
 	public static void readFile(File srcFile, OutputStream destStream )	throws IOException 
 	{
 		FileInputStream srcStream = new FileInputStream(srcFile);
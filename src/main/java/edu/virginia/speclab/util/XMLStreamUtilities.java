@@ -0,0 +1,150 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+
+package edu.virginia.speclab.util;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Helpers for reading the session's XML files one element at a time with a
+ * StAX <code>XMLStreamReader</code>, and for writing them straight to disk.
+ */
+public class XMLStreamUtilities
+{
+	private static XMLInputFactory inputFactory;
+
+	private static synchronized XMLInputFactory getInputFactory()
+	{
+		if( inputFactory == null )
+		{
+			inputFactory = XMLInputFactory.newInstance();
+			inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		}
+		return inputFactory;
+	}
+
+	/**
+	 * Create a reader for the stream. Closing the reader does not close the stream.
+	 */
+	public static XMLStreamReader createReader( InputStream inStream ) throws XMLStreamException
+	{
+		return getInputFactory().createXMLStreamReader(inStream);
+	}
+
+	/**
+	 * Advance to the next child element of the element the reader is in. Text and
+	 * comments are skipped.
+	 * @return <code>true</code> with the reader on the child's start tag, or
+	 * <code>false</code> with the reader on the end tag of the enclosing element.
+	 */
+	public static boolean nextChildElement( XMLStreamReader reader ) throws XMLStreamException
+	{
+		while( reader.hasNext() )
+		{
+			int event = reader.next();
+			if( event == XMLStreamConstants.START_ELEMENT ) return true;
+			if( event == XMLStreamConstants.END_ELEMENT ) return false;
+		}
+		return false;
+	}
+
+	/**
+	 * Skip the element the reader is on, leaving the reader on its end tag.
+	 */
+	public static void skipElement( XMLStreamReader reader ) throws XMLStreamException
+	{
+		int depth = 1;
+		while( depth > 0 && reader.hasNext() )
+		{
+			int event = reader.next();
+			if( event == XMLStreamConstants.START_ELEMENT ) depth++;
+			else if( event == XMLStreamConstants.END_ELEMENT ) depth--;
+		}
+	}
+
+	/**
+	 * Read the text of the element the reader is on, leaving the reader on its end tag.
+	 * Child elements are skipped.
+	 * @return The text, or <code>null</code> if the element is empty.
+	 */
+	public static String readElementText( XMLStreamReader reader ) throws XMLStreamException
+	{
+		StringBuffer text = null;
+		int depth = 1;
+		while( depth > 0 && reader.hasNext() )
+		{
+			int event = reader.next();
+			if( event == XMLStreamConstants.START_ELEMENT ) depth++;
+			else if( event == XMLStreamConstants.END_ELEMENT ) depth--;
+			else if( depth == 1 && ( event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA ||
+					event == XMLStreamConstants.SPACE ) )
+			{
+				if( text == null ) text = new StringBuffer();
+				text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+			}
+		}
+		return text == null ? null : text.toString();
+	}
+
+	/**
+	 * Open a buffered UTF-8 writer on the file.
+	 */
+	public static Writer createWriter( File file ) throws IOException
+	{
+		return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+	}
+
+	/**
+	 * Write text to an element's content or an attribute value, escaping markup
+	 * characters and quotes.
+	 */
+	public static void writeEscaped( Writer writer, String s ) throws IOException
+	{
+		int start = 0;
+		for( int i=0; i < s.length(); i++ )
+		{
+			String entity;
+			switch( s.charAt(i) )
+			{
+				case '&': entity = "&amp;"; break;
+				case '<': entity = "&lt;"; break;
+				case '>': entity = "&gt;"; break;
+				case '"': entity = "&quot;"; break;
+				default: continue;
+			}
+			writer.write(s, start, i - start);
+			writer.write(entity);
+			start = i + 1;
+		}
+		writer.write(s, start, s.length() - start);
+	}
+}
@@ -0,0 +1,470 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * A zip archive that is extracted into a target directory one entry at a time, as
+ * the entries are needed. The archive is read through <code>ZipFile</code> random
+ * access, so extracting an entry does not require reading the entries before it.
+ * Entries that are extracted, or discarded because the file in the target directory
+ * has been replaced, are never extracted again.
+ *
+ * The archive also reads the zip central directory itself, so that an entry whose
+ * file has not changed since it was extracted can be copied into a new archive
+ * without being decompressed and compressed again (see <code>ZipArchiveWriter</code>).
+ */
+public class ZipArchive
+{
+	private File archiveFile;
+	private File targetDirectory;
+	private ZipFile zipFile;
+
+	// entries that have not been written to the target directory yet
+	private HashMap<String,ZipEntry> pendingEntries;
+
+	// modification time and length of each extracted file, as extracted
+	private HashMap<String,long[]> extractedFiles;
+
+	// location of the compressed data of each entry, empty if the archive could not be indexed
+	private HashMap<String,RawEntry> rawEntries;
+
+	/**
+	 * Open the archive. Nothing is extracted until it is asked for.
+	 * @param archiveFile The zip file to read.
+	 * @param targetDirectory The directory the entries are extracted into.
+	 * @throws ZipException If the file is not a valid zip file.
+	 * @throws IOException If the file can not be read.
+	 */
+	public ZipArchive( File archiveFile, File targetDirectory ) throws ZipException, IOException
+	{
+		this.targetDirectory = targetDirectory.getCanonicalFile();
+		open(archiveFile);
+	}
+
+	/**
+	 * Switch to a new version of the archive, typically one that was just written from
+	 * the target directory. Entries whose files are present in the target directory are
+	 * taken to be extracted, all the others are pending.
+	 * @param archiveFile The new archive file.
+	 * @throws IOException If the file can not be read.
+	 */
+	public synchronized void reopen( File archiveFile ) throws IOException
+	{
+		release();
+		open(archiveFile);
+	}
+
+	private void open( File archiveFile ) throws ZipException, IOException
+	{
+		this.archiveFile = archiveFile;
+		this.zipFile = new ZipFile(archiveFile);
+		this.pendingEntries = new HashMap<String,ZipEntry>();
+		this.extractedFiles = new HashMap<String,long[]>();
+
+		Enumeration entries = this.zipFile.entries();
+		while (entries.hasMoreElements())
+		{
+			ZipEntry zipEntry = (ZipEntry) entries.nextElement();
+			if( !zipEntry.isDirectory() )
+			{
+				File file = getTargetFile(zipEntry.getName());
+				if( file.exists() )
+				{
+					recordExtractedFile(zipEntry.getName(), file);
+				}
+				else
+				{
+					this.pendingEntries.put(zipEntry.getName(), zipEntry);
+				}
+			}
+		}
+
+		this.rawEntries = readCentralDirectory(archiveFile);
+
+		SimpleLogger.logInfo("opened archive: " + archiveFile.getPath() + " entries: " + this.pendingEntries.size());
+	}
+
+	private void recordExtractedFile( String entryName, File file )
+	{
+		this.extractedFiles.put(entryName, new long[] { file.lastModified(), file.length() });
+	}
+
+	private synchronized ZipFile getZipFile() throws IOException
+	{
+		if( this.zipFile == null )
+		{
+			this.zipFile = new ZipFile(this.archiveFile);
+		}
+		return this.zipFile;
+	}
+
+	public File getArchiveFile()
+	{
+		return this.archiveFile;
+	}
+
+	/**
+	 * @return The location in the target directory of the specified entry.
+	 */
+	public File getTargetFile( String entryName )
+	{
+		return new File(this.targetDirectory, entryName);
+	}
+
+	/**
+	 * Obtain the name of the entry that extracts to the specified file.
+	 * @return The entry name, or <code>null</code> if the file is not in the target directory.
+	 */
+	public String getEntryName( File file )
+	{
+		String targetPath = this.targetDirectory.getPath() + File.separator;
+		String path;
+		try
+		{
+			path = file.getCanonicalPath();
+		}
+		catch (IOException e)
+		{
+			path = file.getAbsolutePath();
+		}
+
+		if( !path.startsWith(targetPath) )
+		{
+			return null;
+		}
+		return path.substring(targetPath.length()).replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Determine if the specified entry is in the archive and has not been extracted yet.
+	 */
+	public synchronized boolean isPending( String entryName )
+	{
+		return this.pendingEntries.containsKey(entryName);
+	}
+
+	/**
+	 * Extract the specified entry if it has not already been extracted. A file that
+	 * already exists in the target directory is never overwritten.
+	 * @return The location of the entry in the target directory.
+	 * @throws IOException If the entry could not be extracted.
+	 */
+	public synchronized File extract( String entryName ) throws IOException
+	{
+		File destFile = getTargetFile(entryName);
+		ZipEntry zipEntry = this.pendingEntries.remove(entryName);
+
+		if( zipEntry != null && !destFile.exists() && zipEntry.getSize() > 0 )
+		{
+			InputStream inStream = getZipFile().getInputStream(zipEntry);
+			try
+			{
+				writeFile(inStream, destFile);
+			}
+			finally
+			{
+				inStream.close();
+			}
+			recordExtractedFile(entryName, destFile);
+			SimpleLogger.logInfo("extracted file: " + destFile.getPath());
+		}
+
+		return destFile;
+	}
+
+	/**
+	 * Extract the specified file from the archive if it is in the target directory
+	 * and has not been extracted yet.
+	 * @return The file.
+	 * @throws IOException If the entry could not be extracted.
+	 */
+	public File extract( File file ) throws IOException
+	{
+		String entryName = getEntryName(file);
+		if( entryName != null && isPending(entryName) )
+		{
+			extract(entryName);
+		}
+		return file;
+	}
+
+	/**
+	 * Extract every pending entry whose name starts with one of the included prefixes
+	 * and with none of the excluded prefixes.
+	 * @param includedPrefixes Entry name prefixes to extract, the empty string matches every entry.
+	 * @param excludedPrefixes Entry name prefixes to leave in the archive, may be <code>null</code>.
+	 * @throws IOException If an entry could not be extracted.
+	 */
+	public synchronized void extractAll( String[] includedPrefixes, String[] excludedPrefixes ) throws IOException
+	{
+		List<String> entryNames = new ArrayList<String>(this.pendingEntries.keySet());
+		for( Iterator<String> i = entryNames.iterator(); i.hasNext(); )
+		{
+			String entryName = i.next();
+			if( startsWithAny(entryName, includedPrefixes) && !startsWithAny(entryName, excludedPrefixes) )
+			{
+				extract(entryName);
+			}
+		}
+	}
+
+	private static boolean startsWithAny( String name, String[] prefixes )
+	{
+		if( prefixes == null ) return false;
+
+		for( int i=0; i < prefixes.length; i++ )
+		{
+			if( name.startsWith(prefixes[i]) ) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Forget the specified entry, so that it is never extracted or copied. Used when the 
+	 * file in the target directory has been replaced or deleted.
+	 */
+	public synchronized void discard( String entryName )
+	{
+		this.pendingEntries.remove(entryName);
+		this.extractedFiles.remove(entryName);
+	}
+
+	/**
+	 * Determine if the archived copy of the specified entry is still the current content
+	 * of the file, so that the entry can be copied into a new archive as it is.
+	 * @param entryName The name of the entry.
+	 * @param file The file the entry is to be written from.
+	 */
+	public synchronized boolean isUnchanged( String entryName, File file )
+	{
+		if( !this.rawEntries.containsKey(entryName) || !entryName.equals(getEntryName(file)) )
+		{
+			return false;
+		}
+
+		if( this.pendingEntries.containsKey(entryName) )
+		{
+			return !file.exists();
+		}
+
+		long[] extracted = this.extractedFiles.get(entryName);
+		return extracted != null && file.exists() && 
+			file.lastModified() == extracted[0] && file.length() == extracted[1];
+	}
+
+	RawEntry getRawEntry( String entryName )
+	{
+		return this.rawEntries.get(entryName);
+	}
+
+	/**
+	 * Copy the compressed data of the specified entry to the stream.
+	 */
+	synchronized void copyRawEntry( RawEntry entry, OutputStream outStream ) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(this.archiveFile, "r");
+		try
+		{
+			// the local header has its own name and extra field lengths
+			byte[] header = new byte[30];
+			file.seek(entry.localHeaderOffset);
+			file.readFully(header);
+			if( readInt(header, 0) != 0x04034b50 )
+			{
+				throw new ZipException("Invalid local header for entry: " + entry.name);
+			}
+			file.seek(entry.localHeaderOffset + 30 + readShort(header, 26) + readShort(header, 28));
+
+			byte[] buf = new byte[65535];
+			long remaining = entry.compressedSize;
+			while (remaining > 0)
+			{
+				int bytesRead = file.read(buf, 0, (int) Math.min(buf.length, remaining));
+				if( bytesRead == -1 )
+				{
+					throw new ZipException("Unexpected end of archive reading entry: " + entry.name);
+				}
+				outStream.write(buf, 0, bytesRead);
+				remaining -= bytesRead;
+			}
+		}
+		finally
+		{
+			file.close();
+		}
+	}
+
+	/**
+	 * Close the file handle of the archive, without forgetting which entries are pending.
+	 * It is opened again when another entry has to be extracted.
+	 */
+	public synchronized void release()
+	{
+		if( this.zipFile == null ) return;
+
+		try
+		{
+			this.zipFile.close();
+		}
+		catch (IOException e)
+		{
+			SimpleLogger.logError("Unable to close archive: " + this.archiveFile.getPath());
+		}
+		this.zipFile = null;
+	}
+
+	/**
+	 * Close the archive. Entries that have not been extracted are no longer available.
+	 */
+	public synchronized void close()
+	{
+		this.pendingEntries.clear();
+		this.extractedFiles.clear();
+		this.rawEntries.clear();
+		release();
+	}
+
+	/**
+	 * The location and compression of the data of an entry, from the central directory.
+	 */
+	static class RawEntry
+	{
+		String name;
+		int method;
+		int dosTime;
+		long crc;
+		long compressedSize;
+		long size;
+		long localHeaderOffset;
+	}
+
+	// reads the central directory, zip64 archives and archives with comments are not indexed
+	private static HashMap<String,RawEntry> readCentralDirectory( File archiveFile )
+	{
+		HashMap<String,RawEntry> entries = new HashMap<String,RawEntry>();
+
+		try
+		{
+			RandomAccessFile file = new RandomAccessFile(archiveFile, "r");
+			try
+			{
+				byte[] end = new byte[22];
+				if( file.length() < end.length ) return entries;
+				file.seek(file.length() - end.length);
+				file.readFully(end);
+				if( readInt(end, 0) != 0x06054b50 ) return entries;
+
+				int count = readShort(end, 10);
+				long directorySize = readInt(end, 12) & 0xffffffffL;
+				long directoryOffset = readInt(end, 16) & 0xffffffffL;
+				if( count == 0xffff || directoryOffset == 0xffffffffL ) return entries;
+
+				byte[] directory = new byte[(int) directorySize];
+				file.seek(directoryOffset);
+				file.readFully(directory);
+
+				int pos = 0;
+				for( int i=0; i < count; i++ )
+				{
+					if( readInt(directory, pos) != 0x02014b50 ) return new HashMap<String,RawEntry>();
+
+					RawEntry entry = new RawEntry();
+					int flags = readShort(directory, pos + 8);
+					entry.method = readShort(directory, pos + 10);
+					entry.dosTime = readInt(directory, pos + 12);
+					entry.crc = readInt(directory, pos + 16) & 0xffffffffL;
+					entry.compressedSize = readInt(directory, pos + 20) & 0xffffffffL;
+					entry.size = readInt(directory, pos + 24) & 0xffffffffL;
+					int nameLength = readShort(directory, pos + 28);
+					int extraLength = readShort(directory, pos + 30);
+					int commentLength = readShort(directory, pos + 32);
+					entry.localHeaderOffset = readInt(directory, pos + 42) & 0xffffffffL;
+					entry.name = new String(directory, pos + 46, nameLength, "UTF-8");
+
+					// encrypted entries can not be copied
+					if( (flags & 1) == 0 && (entry.method == 0 || entry.method == 8) )
+					{
+						entries.put(entry.name, entry);
+					}
+					pos += 46 + nameLength + extraLength + commentLength;
+				}
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+		catch (IOException e)
+		{
+			SimpleLogger.logError("Unable to index archive: " + archiveFile.getPath());
+			entries.clear();
+		}
+
+		return entries;
+	}
+
+	private static int readShort( byte[] b, int pos )
+	{
+		return (b[pos] & 0xff) | ((b[pos+1] & 0xff) << 8);
+	}
+
+	private static int readInt( byte[] b, int pos )
+	{
+		return readShort(b, pos) | (readShort(b, pos + 2) << 16);
+	}
+
+	private static void writeFile( InputStream srcStream, File destFile ) throws IOException
+	{
+		File parentDirectory = destFile.getParentFile();
+		if( !parentDirectory.exists() )
+		{
+			parentDirectory.mkdirs();
+		}
+
+		OutputStream destStream = new FileOutputStream(destFile);
+		try
+		{
+			byte[] buf = new byte[65535];
+			int bytesRead;
+			while ((bytesRead = srcStream.read(buf)) != -1)
+			{
+				destStream.write(buf, 0, bytesRead);
+			}
+		}
+		finally
+		{
+			destStream.close();
+		}
+	}
+}
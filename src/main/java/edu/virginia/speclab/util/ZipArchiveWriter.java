@@ -0,0 +1,552 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a zip archive from a map of entry names to files. Entries whose files have not
+ * changed since they were extracted from the previous version of the archive are copied
+ * from it as they are, without being decompressed. Images that are already compressed
+ * are stored, and the remaining entries are compressed in parallel, except for large
+ * files, which are compressed straight into the archive rather than held in memory. The archive is
+ * written to a temporary file which then replaces the target, so the target is never
+ * left half written.
+ */
+public class ZipArchiveWriter
+{
+	private static final int THREAD_COUNT = Math.max(1, Runtime.getRuntime().availableProcessors());
+	private static final String[] STORED_EXTENSIONS = { ".jpg", ".jpeg", ".png", ".gif" };
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	// files larger than this are compressed by the writer straight into the archive
+	private static final long STREAMED_SIZE = 4 * 1024 * 1024;
+	private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+
+	// the central directory and each entry take a little room besides their data
+	private static final long ENTRY_OVERHEAD = 1024;
+	private static final long MAX_ARCHIVE_SIZE = 0xffffffffL;
+	private static final int MAX_ENTRIES = 0xffff;
+
+	private OutputStream outStream;
+	private long offset;
+	private ByteArrayOutputStream centralDirectory;
+	private int entryCount;
+
+	private ZipArchiveWriter( File file ) throws IOException
+	{
+		this.outStream = new BufferedOutputStream(new FileOutputStream(file), 65536);
+		this.centralDirectory = new ByteArrayOutputStream();
+	}
+
+	/**
+	 * Write the files to the target archive, replacing it if it exists. As with
+	 * <code>FileUtilities.zip</code>, a file that can not be read is left out of the
+	 * archive and the error is thrown once the archive is complete.
+	 * @param fileMap A map of entry names to the files to store under them.
+	 * @param targetZip The archive to write.
+	 * @param previousArchive The archive the unchanged entries are copied from, or <code>null</code>.
+	 * @throws IOException If the archive could not be written, or a file could not be read.
+	 */
+	public static void writeArchive( Map fileMap, File targetZip, ZipArchive previousArchive ) throws IOException
+	{
+		File directory = targetZip.getAbsoluteFile().getParentFile();
+		File tempFile = File.createTempFile(targetZip.getName() + "-", ".tmp", directory);
+		IOException heldException = null;
+		boolean written = false;
+
+		SimpleLogger.logInfo("writing archive: "+targetZip.getPath());
+
+		try
+		{
+			if( fitsArchive(fileMap, previousArchive) )
+			{
+				heldException = write(fileMap, tempFile, previousArchive);
+			}
+			else
+			{
+				// too large for a plain zip file, let the zip stream write the zip64 records
+				FileUtilities.zip(new HashMap(fileMap), tempFile);
+			}
+			written = true;
+		}
+		finally
+		{
+			if( !written )
+			{
+				tempFile.delete();
+			}
+		}
+
+		// the previous archive may be the target, which can not be replaced while it is open
+		if( previousArchive != null )
+		{
+			previousArchive.release();
+		}
+		FileUtilities.replaceFile(tempFile, targetZip);
+
+		SimpleLogger.logInfo("archive complete!");
+
+		if( heldException != null )
+		{
+			throw heldException;
+		}
+	}
+
+	private static boolean fitsArchive( Map fileMap, ZipArchive previousArchive )
+	{
+		if( fileMap.size() >= MAX_ENTRIES ) return false;
+
+		long size = 0;
+		for( Iterator i = fileMap.entrySet().iterator(); i.hasNext(); )
+		{
+			Map.Entry mapEntry = (Map.Entry) i.next();
+			String name = (String) mapEntry.getKey();
+			File file = (File) mapEntry.getValue();
+
+			if( previousArchive != null && previousArchive.isUnchanged(name, file) )
+			{
+				size += previousArchive.getRawEntry(name).compressedSize;
+			}
+			else
+			{
+				size += file.length();
+			}
+			size += ENTRY_OVERHEAD;
+		}
+		return size < MAX_ARCHIVE_SIZE;
+	}
+
+	private static IOException write( Map fileMap, File file, final ZipArchive previousArchive ) throws IOException
+	{
+		IOException heldException = null;
+		List<String> names = new ArrayList<String>(new TreeSet<String>(fileMap.keySet()));
+		List<Future<PreparedEntry>> preparedEntries = new ArrayList<Future<PreparedEntry>>(names.size());
+		ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+		ZipArchiveWriter writer = new ZipArchiveWriter(file);
+
+		try
+		{
+			// keep only a few entries ahead of the writer, each holds its compressed data
+			int window = THREAD_COUNT * 2;
+			int submitted = 0;
+			for( int i=0; i < names.size(); i++ )
+			{
+				for( ; submitted < names.size() && submitted < i + window; submitted++ )
+				{
+					final String name = names.get(submitted);
+					final File entryFile = (File) fileMap.get(name);
+
+					if( previousArchive != null && previousArchive.isUnchanged(name, entryFile) )
+					{
+						preparedEntries.add(executor.submit(new Callable<PreparedEntry>() {
+							public PreparedEntry call() {
+								return new PreparedEntry(name, previousArchive.getRawEntry(name));
+							}
+						}));
+					}
+					else if( !isCompressedMedia(name) && entryFile.length() > STREAMED_SIZE )
+					{
+						preparedEntries.add(executor.submit(new Callable<PreparedEntry>() {
+							public PreparedEntry call() {
+								PreparedEntry entry = new PreparedEntry(name, null);
+								entry.method = DEFLATED;
+								entry.dosTime = toDosTime(entryFile.lastModified());
+								entry.streamed = true;
+								return entry;
+							}
+						}));
+					}
+					else
+					{
+						preparedEntries.add(executor.submit(new Callable<PreparedEntry>() {
+							public PreparedEntry call() throws IOException {
+								return prepareEntry(name, entryFile);
+							}
+						}));
+					}
+				}
+
+				PreparedEntry entry;
+				try
+				{
+					entry = preparedEntries.get(i).get();
+					preparedEntries.set(i, null);
+				}
+				catch (ExecutionException e)
+				{
+					if( e.getCause() instanceof IOException )
+					{
+						// hold the exception till we finish writing out the file.
+						heldException = (IOException) e.getCause();
+						continue;
+					}
+					throw new IOException("Unable to compress archive entry: " + names.get(i));
+				}
+				catch (InterruptedException e)
+				{
+					throw new IOException("Interrupted writing archive entry: " + names.get(i));
+				}
+
+				SimpleLogger.logInfo("adding file to zip: " + entry.name);
+				writer.writeEntry(entry, (File) fileMap.get(entry.name), previousArchive);
+			}
+
+			writer.finish();
+		}
+		finally
+		{
+			executor.shutdownNow();
+			writer.outStream.close();
+		}
+
+		return heldException;
+	}
+
+	// compress the file, or compute the checksum of an image that will be stored
+	private static PreparedEntry prepareEntry( String name, File file ) throws IOException
+	{
+		PreparedEntry entry = new PreparedEntry(name, null);
+		entry.method = isCompressedMedia(name) ? STORED : DEFLATED;
+		entry.dosTime = toDosTime(file.lastModified());
+
+		CRC32 crc = new CRC32();
+		Deflater deflater = null;
+		ByteArrayOutputStream compressed = null;
+		OutputStream deflaterStream = null;
+		if( entry.method == DEFLATED )
+		{
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			compressed = new ByteArrayOutputStream((int) Math.min(file.length() / 2 + 64, Integer.MAX_VALUE));
+			deflaterStream = new DeflaterOutputStream(compressed, deflater, 65536);
+		}
+
+		InputStream inStream = new FileInputStream(file);
+		try
+		{
+			byte[] buf = new byte[65536];
+			int bytesRead;
+			while ((bytesRead = inStream.read(buf)) != -1)
+			{
+				crc.update(buf, 0, bytesRead);
+				entry.size += bytesRead;
+				if( deflaterStream != null )
+				{
+					deflaterStream.write(buf, 0, bytesRead);
+				}
+			}
+
+			if( deflaterStream != null )
+			{
+				deflaterStream.close();
+				entry.data = compressed.toByteArray();
+				entry.compressedSize = entry.data.length;
+			}
+			else
+			{
+				entry.compressedSize = entry.size;
+			}
+		}
+		finally
+		{
+			inStream.close();
+			if( deflater != null )
+			{
+				deflater.end();
+			}
+		}
+
+		entry.crc = crc.getValue();
+		return entry;
+	}
+
+	private static boolean isCompressedMedia( String name )
+	{
+		String lowerName = name.toLowerCase();
+		for( int i=0; i < STORED_EXTENSIONS.length; i++ )
+		{
+			if( lowerName.endsWith(STORED_EXTENSIONS[i]) ) return true;
+		}
+		return false;
+	}
+
+	private void writeEntry( PreparedEntry entry, File file, ZipArchive previousArchive ) throws IOException
+	{
+		long expectedSize = entry.streamed ? file.length() : entry.compressedSize;
+		if( this.offset + expectedSize + ENTRY_OVERHEAD >= MAX_ARCHIVE_SIZE )
+		{
+			throw new IOException("Archive is too large to write entry: " + entry.name);
+		}
+
+		byte[] name = entry.name.getBytes("UTF-8");
+		boolean utf8Name = name.length != entry.name.length();
+		for( int i=0; i < name.length && !utf8Name; i++ )
+		{
+			utf8Name = (name[i] < 0);
+		}
+
+		int version = (entry.method == DEFLATED) ? 20 : 10;
+		int flags = utf8Name ? 0x800 : 0;
+		if( entry.streamed )
+		{
+			// the checksum and sizes follow the data
+			flags |= DATA_DESCRIPTOR_FLAG;
+		}
+		long headerOffset = this.offset;
+
+		// local file header
+		byte[] header = new byte[30];
+		writeInt(header, 0, 0x04034b50);
+		writeShort(header, 4, version);
+		writeShort(header, 6, flags);
+		writeShort(header, 8, entry.method);
+		writeInt(header, 10, entry.dosTime);
+		writeInt(header, 14, (int) entry.crc);
+		writeInt(header, 18, (int) entry.compressedSize);
+		writeInt(header, 22, (int) entry.size);
+		writeShort(header, 26, name.length);
+		writeShort(header, 28, 0);
+		write(header);
+		write(name);
+
+		// entry data
+		if( entry.streamed )
+		{
+			writeDeflatedFile(entry, file);
+		}
+		else if( entry.rawEntry != null )
+		{
+			previousArchive.copyRawEntry(entry.rawEntry, this.outStream);
+		}
+		else if( entry.data != null )
+		{
+			this.outStream.write(entry.data);
+		}
+		else
+		{
+			copyStoredFile(file, entry.size);
+		}
+		this.offset += entry.compressedSize;
+
+		if( entry.streamed )
+		{
+			if( this.offset + ENTRY_OVERHEAD >= MAX_ARCHIVE_SIZE )
+			{
+				throw new IOException("Archive is too large to write entry: " + entry.name);
+			}
+
+			byte[] descriptor = new byte[16];
+			writeInt(descriptor, 0, 0x08074b50);
+			writeInt(descriptor, 4, (int) entry.crc);
+			writeInt(descriptor, 8, (int) entry.compressedSize);
+			writeInt(descriptor, 12, (int) entry.size);
+			write(descriptor);
+		}
+
+		// central directory record
+		byte[] record = new byte[46];
+		writeInt(record, 0, 0x02014b50);
+		writeShort(record, 4, 20);
+		writeShort(record, 6, version);
+		writeShort(record, 8, flags);
+		writeShort(record, 10, entry.method);
+		writeInt(record, 12, entry.dosTime);
+		writeInt(record, 16, (int) entry.crc);
+		writeInt(record, 20, (int) entry.compressedSize);
+		writeInt(record, 24, (int) entry.size);
+		writeShort(record, 28, name.length);
+		writeInt(record, 42, (int) headerOffset);
+		this.centralDirectory.write(record);
+		this.centralDirectory.write(name);
+		this.entryCount++;
+	}
+
+	// compress the file into the archive, recording its checksum and sizes on the entry
+	private void writeDeflatedFile( PreparedEntry entry, File file ) throws IOException
+	{
+		final OutputStream archiveStream = this.outStream;
+		final long[] written = new long[1];
+		OutputStream countingStream = new OutputStream() {
+			public void write( int b ) throws IOException
+			{
+				archiveStream.write(b);
+				written[0]++;
+			}
+
+			public void write( byte[] b, int off, int len ) throws IOException
+			{
+				archiveStream.write(b, off, len);
+				written[0] += len;
+			}
+		};
+
+		CRC32 crc = new CRC32();
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		InputStream inStream = new FileInputStream(file);
+		try
+		{
+			DeflaterOutputStream deflaterStream = new DeflaterOutputStream(countingStream, deflater, 65536);
+			byte[] buf = new byte[65536];
+			int bytesRead;
+			while ((bytesRead = inStream.read(buf)) != -1)
+			{
+				crc.update(buf, 0, bytesRead);
+				entry.size += bytesRead;
+				deflaterStream.write(buf, 0, bytesRead);
+			}
+			deflaterStream.finish();
+		}
+		finally
+		{
+			inStream.close();
+			deflater.end();
+		}
+
+		entry.crc = crc.getValue();
+		entry.compressedSize = written[0];
+	}
+
+	private void copyStoredFile( File file, long size ) throws IOException
+	{
+		InputStream inStream = new FileInputStream(file);
+		try
+		{
+			byte[] buf = new byte[65536];
+			long remaining = size;
+			while (remaining > 0)
+			{
+				int bytesRead = inStream.read(buf, 0, (int) Math.min(buf.length, remaining));
+				if( bytesRead == -1 )
+				{
+					throw new IOException("File changed while it was being archived: " + file.getPath());
+				}
+				this.outStream.write(buf, 0, bytesRead);
+				remaining -= bytesRead;
+			}
+		}
+		finally
+		{
+			inStream.close();
+		}
+	}
+
+	private void finish() throws IOException
+	{
+		long directoryOffset = this.offset;
+		byte[] directory = this.centralDirectory.toByteArray();
+		write(directory);
+
+		byte[] end = new byte[22];
+		writeInt(end, 0, 0x06054b50);
+		writeShort(end, 8, this.entryCount);
+		writeShort(end, 10, this.entryCount);
+		writeInt(end, 12, directory.length);
+		writeInt(end, 16, (int) directoryOffset);
+		write(end);
+		this.outStream.flush();
+	}
+
+	private void write( byte[] b ) throws IOException
+	{
+		this.outStream.write(b);
+		this.offset += b.length;
+	}
+
+	private static int toDosTime( long time )
+	{
+		Calendar calendar = Calendar.getInstance();
+		calendar.setTimeInMillis(time);
+		int year = calendar.get(Calendar.YEAR);
+		if( year < 1980 )
+		{
+			return (1 << 21) | (1 << 16);
+		}
+		return ((year - 1980) << 25) | ((calendar.get(Calendar.MONTH) + 1) << 21) |
+			(calendar.get(Calendar.DAY_OF_MONTH) << 16) | (calendar.get(Calendar.HOUR_OF_DAY) << 11) |
+			(calendar.get(Calendar.MINUTE) << 5) | (calendar.get(Calendar.SECOND) >> 1);
+	}
+
+	private static void writeShort( byte[] b, int pos, int value )
+	{
+		b[pos] = (byte) value;
+		b[pos+1] = (byte) (value >> 8);
+	}
+
+	private static void writeInt( byte[] b, int pos, int value )
+	{
+		writeShort(b, pos, value);
+		writeShort(b, pos + 2, value >> 16);
+	}
+
+	/**
+	 * An entry ready to be written: either copied from the previous archive,
+	 * compressed into memory, an image to be stored from its file, or a large
+	 * file to be compressed as it is written.
+	 */
+	private static class PreparedEntry
+	{
+		String name;
+		ZipArchive.RawEntry rawEntry;
+		byte[] data;
+		boolean streamed;
+		int method;
+		int dosTime;
+		long crc;
+		long compressedSize;
+		long size;
+
+		PreparedEntry( String name, ZipArchive.RawEntry rawEntry )
+		{
+			this.name = name;
+			this.rawEntry = rawEntry;
+			if( rawEntry != null )
+			{
+				this.method = rawEntry.method;
+				this.dosTime = rawEntry.dosTime;
+				this.crc = rawEntry.crc;
+				this.compressedSize = rawEntry.compressedSize;
+				this.size = rawEntry.size;
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff;
+
+import java.util.List;
+import java.util.Random;
+
+import edu.virginia.speclab.diff.document.DocumentModel;
+import edu.virginia.speclab.diff.token.TokenizerSettings;
+import junit.framework.TestCase;
+
+public class ChunkedDiffTest extends TestCase
+{
+    private static final String[] WORDS = { "blessed", "damozel", "leaned", "out", "from", "the", "gold",
+        "bar", "of", "Heaven", "her", "eyes", "were", "deeper", "than", "depth", "waters", "stilled",
+        "at", "even", "she", "had", "three", "lilies", "in", "hand", "and", "stars", "hair", "seven" };
+
+    public void testShortDocuments()
+    {
+        DocumentModel document = new DocumentModel("text.txt", "The blessed damozel", "UTF-8");
+        assertFalse(ChunkedDiff.isChunked(document, document));
+
+        ChunkedDiff diff = new ChunkedDiff(document, document, TokenizerSettings.getDefaultSettings());
+        assertEquals(4, diff.findChunkBoundaries().length);
+    }
+
+    public void testAnchors()
+    {
+        // only some runs of words are sampled as anchors, so give it a few hundred distinct ones
+        Random random = new Random(3);
+        String[] parts = new String[3];
+        for( int p = 0; p < parts.length; p++ )
+        {
+            StringBuffer part = new StringBuffer();
+            for( int w = 0; w < 200; w++ )
+            {
+                part.append(' ').append(WORDS[random.nextInt(WORDS.length)]).append(p * 200 + w);
+            }
+            parts[p] = part.toString();
+        }
+        String baseText = "The blessed damozel" + parts[0] + parts[1] + parts[2] + ".";
+        String witnessText = "The blessed damozel" + parts[0] + parts[2] + parts[1] + ".";
+
+        int[] anchors = ChunkedDiff.findAnchors(baseText, witnessText);
+        assertTrue(anchors.length > 0);
+        for( int a = 0; a < anchors.length; a += 2 )
+        {
+            // the same words, in the same order in both texts
+            assertEquals(baseText.substring(anchors[a], anchors[a] + 20), witnessText.substring(anchors[a + 1], anchors[a + 1] + 20));
+            if( a > 0 )
+            {
+                assertTrue(anchors[a] > anchors[a - 2]);
+                assertTrue(anchors[a + 1] > anchors[a - 1]);
+            }
+        }
+
+        // the words before the moved block line up
+        assertEquals(anchors[0], anchors[1]);
+    }
+
+    public void testMatchesWholeDiff()
+    {
+        Random random = new Random(7);
+        StringBuffer base = new StringBuffer();
+        StringBuffer witness = new StringBuffer();
+        while( base.length() < 3 * ChunkedDiff.CHUNK_LENGTH )
+        {
+            String word = WORDS[random.nextInt(WORDS.length)];
+            base.append(word).append(' ');
+            int edit = random.nextInt(100);
+            if( edit == 0 ) witness.append("variant ");
+            else if( edit != 1 ) witness.append(word).append(' ');
+        }
+
+        DocumentModel baseDocument = new DocumentModel("base.txt", base.toString(), "UTF-8");
+        DocumentModel witnessDocument = new DocumentModel("witness.txt", witness.toString(), "UTF-8");
+        ChunkedDiff chunkedDiff = new ChunkedDiff(baseDocument, witnessDocument, TokenizerSettings.getDefaultSettings(), 2);
+        assertTrue(chunkedDiff.findChunkBoundaries().length > 4);
+        List chunked = chunkedDiff.diffDocuments(true, null).getDifferenceList();
+        assertAligned(base.toString(), witness.toString(), chunked);
+
+        baseDocument.tokenize(TokenizerSettings.getDefaultSettings());
+        witnessDocument.tokenize(TokenizerSettings.getDefaultSettings());
+        List whole = new MultiPassDiff(baseDocument, witnessDocument, true).getDifferenceSet().getDifferenceList();
+
+        // a deleted word that is repeated may be placed on either of its copies
+        assertEquals(whole.size(), chunked.size());
+        for( int i = 0; i < whole.size(); i++ )
+        {
+            Difference wholeDifference = (Difference) whole.get(i);
+            Difference chunkedDifference = (Difference) chunked.get(i);
+            assertEquals(wholeDifference.getType(), chunkedDifference.getType());
+            assertEquals(wholeDifference.getLength(Difference.BASE), chunkedDifference.getLength(Difference.BASE));
+            assertEquals(wholeDifference.getLength(Difference.WITNESS), chunkedDifference.getLength(Difference.WITNESS));
+        }
+    }
+
+    public void testCancelled()
+    {
+        DocumentModel base = new DocumentModel("base.txt", "The blessed damozel leaned out", "UTF-8");
+        DocumentModel witness = new DocumentModel("witness.txt", "The blest damozel leaned out", "UTF-8");
+        CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+        assertNull(new ChunkedDiff(base, witness, TokenizerSettings.getDefaultSettings()).diffDocuments(true, cancellation));
+    }
+
+    // the words between the differences are the same in both texts
+    private static void assertAligned( String baseText, String witnessText, List differences )
+    {
+        int baseEnd = 0, witnessEnd = 0;
+        for( int i = 0; i <= differences.size(); i++ )
+        {
+            int baseStart = baseText.length(), witnessStart = witnessText.length();
+            Difference difference = null;
+            if( i < differences.size() )
+            {
+                difference = (Difference) differences.get(i);
+                baseStart = difference.getOffset(Difference.BASE);
+                witnessStart = difference.getOffset(Difference.WITNESS);
+            }
+
+            assertTrue(baseStart >= baseEnd && witnessStart >= witnessEnd);
+            assertEquals(baseText.substring(baseEnd, baseStart).trim(), witnessText.substring(witnessEnd, witnessStart).trim());
+            if( difference == null ) break;
+
+            baseEnd = baseStart + difference.getLength(Difference.BASE);
+            witnessEnd = witnessStart + difference.getLength(Difference.WITNESS);
+        }
+    }
+}
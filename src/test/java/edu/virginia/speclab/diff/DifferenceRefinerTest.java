@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff;
+
+import java.util.List;
+import java.util.Random;
+
+import edu.virginia.speclab.diff.document.DocumentModel;
+import edu.virginia.speclab.diff.token.TokenizerSettings;
+import junit.framework.TestCase;
+
+public class DifferenceRefinerTest extends TestCase
+{
+    public void testSpellingVariant()
+    {
+        Difference difference = refine("colour", "color");
+        assertEquals(1, difference.getCharacterChangeCount());
+        assertEquals(4, difference.getCharacterChangeOffset(0, Difference.BASE));
+        assertEquals(1, difference.getCharacterChangeLength(0, Difference.BASE));
+        assertEquals(4, difference.getCharacterChangeOffset(0, Difference.WITNESS));
+        assertEquals(0, difference.getCharacterChangeLength(0, Difference.WITNESS));
+    }
+
+    public void testSeveralRuns()
+    {
+        // "Heaven" and "heav'n" share "eav" and "n"
+        Difference difference = refine("Heaven", "heav'n");
+        assertEquals(2, difference.getCharacterChangeCount());
+        assertEquals(0, difference.getCharacterChangeOffset(0, Difference.BASE));
+        assertEquals(1, difference.getCharacterChangeLength(0, Difference.WITNESS));
+        assertEquals(4, difference.getCharacterChangeOffset(1, Difference.BASE));
+        assertEquals(1, difference.getCharacterChangeLength(1, Difference.BASE));
+        assertEquals(4, difference.getCharacterChangeOffset(1, Difference.WITNESS));
+        assertEquals(1, difference.getCharacterChangeLength(1, Difference.WITNESS));
+    }
+
+    public void testNothingInCommon()
+    {
+        assertEquals(0, refine("gold", "bar").getCharacterChangeCount());
+    }
+
+    public void testResizeDropsRuns()
+    {
+        Difference difference = refine("colour", "color");
+        difference.setBaseTextLength(3);
+        assertEquals(0, difference.getCharacterChangeCount());
+    }
+
+    public void testMultiPassDiff()
+    {
+        String baseText = "The blessed damozel leaned out from the gold bar of Heaven";
+        String witnessText = "The blest damozel leaned out from the gold bar of Heav'n";
+        DocumentModel base = new DocumentModel("base.txt", baseText, "UTF-8");
+        DocumentModel witness = new DocumentModel("witness.txt", witnessText, "UTF-8");
+        base.tokenize(TokenizerSettings.getDefaultSettings());
+        witness.tokenize(TokenizerSettings.getDefaultSettings());
+
+        List differences = new MultiPassDiff(base, witness, true).getDifferenceSet().getDifferenceList();
+        assertEquals(2, differences.size());
+
+        Difference first = (Difference) differences.get(0);
+        assertEquals(1, first.getCharacterChangeCount());
+        assertEquals(baseText.indexOf("sed"), first.getCharacterChangeOffset(0, Difference.BASE));
+        assertEquals(3, first.getCharacterChangeLength(0, Difference.BASE));
+        assertEquals(witnessText.indexOf("t damozel"), first.getCharacterChangeOffset(0, Difference.WITNESS));
+        assertEquals(1, first.getCharacterChangeLength(0, Difference.WITNESS));
+    }
+
+    public void testDistance()
+    {
+        Random random = new Random(3);
+        for( int n = 0; n < 500; n++ )
+        {
+            String s = randomString(random, random.nextInt(50));
+            String t = randomString(random, random.nextInt(80));
+            assertEquals(s + "/" + t, levenshtein(s, t), TRStringDistance.getDistance(s, t));
+        }
+    }
+
+    private Difference refine( String baseText, String witnessText )
+    {
+        DocumentModel base = new DocumentModel("base.txt", baseText, "UTF-8");
+        DocumentModel witness = new DocumentModel("witness.txt", witnessText, "UTF-8");
+        Difference difference = new Difference(base, witness, Difference.CHANGE);
+        difference.setBaseOffset(0);
+        difference.setBaseTextLength(baseText.length());
+        difference.setWitnessOffset(0);
+        difference.setWitnessTextLength(witnessText.length());
+
+        new DifferenceRefiner(base, witness).refineDifference(difference);
+        return difference;
+    }
+
+    private static String randomString( Random random, int length )
+    {
+        char[] chars = new char[length];
+        for( int i = 0; i < length; i++ )
+        {
+            chars[i] = "abcde\u00e9\u03b1".charAt(random.nextInt(7));
+        }
+        return new String(chars);
+    }
+
+    private static int levenshtein( String s, String t )
+    {
+        int[][] d = new int[s.length() + 1][t.length() + 1];
+        for( int i = 0; i <= s.length(); i++ ) d[i][0] = i;
+        for( int j = 0; j <= t.length(); j++ ) d[0][j] = j;
+        for( int i = 1; i <= s.length(); i++ )
+        {
+            for( int j = 1; j <= t.length(); j++ )
+            {
+                int cost = (s.charAt(i - 1) == t.charAt(j - 1)) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1), d[i - 1][j - 1] + cost);
+            }
+        }
+        return d[s.length()][t.length()];
+    }
+}
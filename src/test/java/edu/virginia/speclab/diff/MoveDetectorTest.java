@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import edu.virginia.speclab.diff.document.DocumentModel;
+import edu.virginia.speclab.diff.token.TokenizerSettings;
+import junit.framework.TestCase;
+
+public class MoveDetectorTest extends TestCase
+{
+    private static final String FIRST = "The blessed damozel leaned out from the gold bar of Heaven; ";
+    private static final String SECOND = "Her eyes were deeper than the depth of waters stilled at even; ";
+    private static final String THIRD = "She had three lilies in her hand, and the stars in her hair were seven. ";
+    private static final String FOURTH = "Her robe, ungirt from clasp to hem, no wrought flowers did adorn. ";
+
+    public void testTransposedPassage()
+    {
+        String baseText = FIRST + SECOND + THIRD + FOURTH;
+        String witnessText = FIRST + THIRD + FOURTH + SECOND;
+        List moves = findMoves(baseText, witnessText);
+
+        assertEquals(1, moves.size());
+        Difference move = (Difference) moves.get(0);
+        assertEquals(Difference.MOVE, move.getType());
+        assertTrue(contains(baseText, move, Difference.BASE, "deeper than the depth"));
+        assertTrue(contains(witnessText, move, Difference.WITNESS, "deeper than the depth"));
+        assertTrue(move.getOffset(Difference.BASE) < baseText.indexOf(THIRD));
+        assertTrue(move.getOffset(Difference.WITNESS) > witnessText.indexOf(FOURTH));
+    }
+
+    public void testRevisedPassage()
+    {
+        // moved, with a word changed on the way
+        String baseText = FIRST + SECOND + THIRD + FOURTH;
+        String witnessText = FIRST + THIRD + FOURTH + SECOND.replace("waters", "water");
+        assertEquals(1, findMoves(baseText, witnessText).size());
+    }
+
+    public void testUnrelatedPassages()
+    {
+        String baseText = FIRST + SECOND + THIRD;
+        String witnessText = FIRST + THIRD + FOURTH;
+        assertEquals(0, findMoves(baseText, witnessText).size());
+    }
+
+    public void testShortPassages()
+    {
+        String text = "gold bar heaven gold bar heaven";
+        DocumentModel document = new DocumentModel("text.txt", text, "UTF-8");
+
+        Difference delete = new Difference(document, document, Difference.DELETE);
+        delete.setBaseOffset(0);
+        delete.setBaseTextLength(15);
+        Difference insert = new Difference(document, document, Difference.INSERT);
+        insert.setWitnessOffset(16);
+        insert.setWitnessTextLength(15);
+        List differences = new LinkedList();
+        differences.add(delete);
+        differences.add(insert);
+
+        assertEquals(0, new MoveDetector(document, document).findMoves(differences).size());
+    }
+
+    public void testShingles()
+    {
+        // the same runs of words, whatever the case and punctuation
+        String text = "One two three four five six seven eight";
+        long[] shingles = MoveDetector.shingle(text, 0, text.length());
+        assertEquals(6, shingles.length);
+        String other = "one, TWO three -- four five six seven eight!";
+        for( int i = 0; i < shingles.length; i++ )
+        {
+            assertEquals(shingles[i], MoveDetector.shingle(other, 0, other.length())[i]);
+        }
+
+        assertNull(MoveDetector.shingle(text, 0, text.indexOf(" eight")));
+    }
+
+    private static List findMoves( String baseText, String witnessText )
+    {
+        DocumentModel base = new DocumentModel("base.txt", baseText, "UTF-8");
+        DocumentModel witness = new DocumentModel("witness.txt", witnessText, "UTF-8");
+        base.tokenize(TokenizerSettings.getDefaultSettings());
+        witness.tokenize(TokenizerSettings.getDefaultSettings());
+
+        List differences = new MultiPassDiff(base, witness, true).getDifferenceSet().getDifferenceList();
+        return new MoveDetector(base, witness).findMoves(differences);
+    }
+
+    private static boolean contains( String text, Difference move, int side, String passage )
+    {
+        int offset = move.getOffset(side);
+        return text.substring(offset, offset + move.getLength(side)).indexOf(passage) >= 0;
+    }
+}
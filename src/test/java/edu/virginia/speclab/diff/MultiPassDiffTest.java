@@ -0,0 +1,166 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff;
+
+import java.util.List;
+import java.util.Random;
+
+import edu.virginia.speclab.diff.document.DocumentModel;
+import edu.virginia.speclab.diff.token.TokenizerSettings;
+import junit.framework.TestCase;
+
+public class MultiPassDiffTest extends TestCase
+{
+    private static final String BASE_TEXT = "The blessed damozel leaned out from the gold bar of Heaven; " +
+            "her eyes were deeper than the depth of waters stilled at even; " +
+            "she had three lilies in her hand, and the stars in her hair were seven.";
+
+    public void testIdentical()
+    {
+        MultiPassDiff diff = diff(BASE_TEXT, new String(BASE_TEXT));
+        assertTrue(diff.getDifferenceSet().getDifferenceList().isEmpty());
+
+        // offsets are still mapped between the documents
+        int offset = BASE_TEXT.indexOf("gold");
+        assertEquals(offset, diff.getBaseOffset(offset, false));
+        assertEquals(offset, diff.getWitnessOffset(offset, false));
+    }
+
+    public void testChangesAmongRepeatedWords()
+    {
+        // "her" and "the" are repeated in the common prefix and suffix
+        String witnessText = BASE_TEXT.replace("deeper", "deep").replace("three", "two");
+        List differences = diff(BASE_TEXT, witnessText).getDifferenceSet().getDifferenceList();
+        assertEquals(2, differences.size());
+
+        Difference first = (Difference) differences.get(0);
+        assertEquals(Difference.CHANGE, first.getType());
+        assertEquals(BASE_TEXT.indexOf("deeper"), first.getOffset(Difference.BASE));
+        assertEquals("deeper".length(), first.getLength(Difference.BASE));
+        assertEquals("deep".length(), first.getLength(Difference.WITNESS));
+
+        Difference second = (Difference) differences.get(1);
+        assertEquals(Difference.CHANGE, second.getType());
+        assertEquals(witnessText.indexOf("two"), second.getOffset(Difference.WITNESS));
+    }
+
+    public void testInsertAtEnd()
+    {
+        List differences = diff(BASE_TEXT, BASE_TEXT + " Her hair was yellow").getDifferenceSet().getDifferenceList();
+        assertEquals(1, differences.size());
+
+        Difference insert = (Difference) differences.get(0);
+        assertEquals(Difference.INSERT, insert.getType());
+        assertEquals(BASE_TEXT.length() + 1, insert.getOffset(Difference.WITNESS));
+    }
+
+    public void testSmallVocabulary()
+    {
+        // no word is used only once, but most pairs of words are
+        String[] vocabulary = { "the", "sea", "wind", "land", "and", "over", "under", "rose" };
+        Random random = new Random(1);
+        String[] words = new String[400];
+        for( int i = 0; i < words.length; i++ )
+        {
+            words[i] = vocabulary[random.nextInt(vocabulary.length)];
+        }
+        String baseText = join(words);
+        words[100] = "damozel";
+        words[300] = "stars";
+        String witnessText = join(words);
+
+        MultiPassDiff diff = diff(baseText, witnessText);
+        List differences = diff.getDifferenceSet().getDifferenceList();
+        assertEquals(2, differences.size());
+        assertEquals(1, diff.getPassCount());
+
+        Difference second = (Difference) differences.get(1);
+        assertEquals(Difference.CHANGE, second.getType());
+        assertEquals(witnessText.indexOf("stars"), second.getOffset(Difference.WITNESS));
+        assertEquals("stars".length(), second.getLength(Difference.WITNESS));
+    }
+
+    public void testFirstPassThenRefine()
+    {
+        String witnessText = BASE_TEXT.replace("deeper than the depth", "deep as the depths")
+                .replace("three lilies", "two lilies");
+        List expected = diff(BASE_TEXT, witnessText).getDifferenceSet().getDifferenceList();
+
+        DocumentModel base = document("base.txt", BASE_TEXT);
+        DocumentModel witness = document("witness.txt", witnessText);
+        MultiPassDiff diff = new MultiPassDiff(base, witness, 0, false, null);
+        assertEquals(0, diff.getPassCount());
+
+        // the passes don't need the token tables
+        base.releaseTokenTable();
+        witness.releaseTokenTable();
+        diff.makeAdditionalPasses(MultiPassDiff.MAX_DIFF_PASSES, false, null);
+        assertFalse(diff.isCancelled());
+
+        List differences = diff.getDifferenceSet().getDifferenceList();
+        assertEquals(expected.size(), differences.size());
+        for( int i = 0; i < expected.size(); i++ )
+        {
+            Difference expectedDifference = (Difference) expected.get(i);
+            Difference difference = (Difference) differences.get(i);
+            assertEquals(expectedDifference.getType(), difference.getType());
+            assertEquals(expectedDifference.getOffset(Difference.BASE), difference.getOffset(Difference.BASE));
+            assertEquals(expectedDifference.getLength(Difference.BASE), difference.getLength(Difference.BASE));
+            assertEquals(expectedDifference.getOffset(Difference.WITNESS), difference.getOffset(Difference.WITNESS));
+            assertEquals(expectedDifference.getLength(Difference.WITNESS), difference.getLength(Difference.WITNESS));
+        }
+    }
+
+    public void testCancelled()
+    {
+        String witnessText = BASE_TEXT.replace("deeper", "deep");
+        CancellationToken cancellation = new CancellationToken();
+        cancellation.cancel();
+
+        MultiPassDiff diff = new MultiPassDiff(document("base.txt", BASE_TEXT), document("witness.txt", witnessText),
+                MultiPassDiff.MAX_DIFF_PASSES, true, cancellation);
+        assertTrue(diff.isCancelled());
+        assertEquals(0, diff.getPassCount());
+
+        // the first diff is still there
+        assertEquals(1, diff.getDifferenceSet().getDifferenceList().size());
+    }
+
+    private static String join( String[] words )
+    {
+        StringBuilder text = new StringBuilder();
+        for( String word : words )
+        {
+            text.append(word).append(' ');
+        }
+        return text.toString();
+    }
+
+    private MultiPassDiff diff( String baseText, String witnessText )
+    {
+        return new MultiPassDiff(document("base.txt", baseText), document("witness.txt", witnessText));
+    }
+
+    private static DocumentModel document( String fileName, String text )
+    {
+        DocumentModel document = new DocumentModel(fileName, text, "UTF-8");
+        document.tokenize(TokenizerSettings.getDefaultSettings());
+        return document;
+    }
+}
@@ -27,7 +27,7 @@ import edu.virginia.speclab.diff.MultiPassDiff;
 import edu.virginia.speclab.diff.document.DocumentModel;
 import edu.virginia.speclab.diff.token.Token;
 import edu.virginia.speclab.diff.token.TokenReader;
-import edu.virginia.speclab.diff.token.TokenTable;
+import edu.virginia.speclab.diff.token.WordReader;
 import edu.virginia.speclab.diff.token.TokenizerSettings;
 import edu.virginia.speclab.util.SimpleLogger;
 
@@ -51,38 +51,11 @@ public class WhiteSpaceReaderTest
         
     }
 
-    public static void tokenizeLuceneReader( DocumentModel document )
-    {
-        LinkedList tokenList = new LinkedList();
-        
-        TokenReader tokenReader = TokenTable.getTokenReader(new TokenizerSettings(true,true,true));
-        tokenReader.openDocument(document);
-        
-        try
-        {
-            int nextSymbolOffset = 0;
-            String tokenBuffer;        
-            while ((tokenBuffer = tokenReader.readSymbol()) != null)
-            {
-                nextSymbolOffset = tokenReader.getSymbolOffset();
-                Token token = new Token(tokenBuffer,nextSymbolOffset);
-                tokenList.add(token);
-                System.out.println(nextSymbolOffset+"|"+tokenBuffer);
-            }
-            
-            tokenReader.close();
-        }
-        catch( IOException e )
-        {
-            SimpleLogger.logError("Error tokenizing file "+document.getDocumentName());
-        }        
-    }
-
     public static void tokenizeWordReader( DocumentModel document )
     {
         LinkedList tokenList = new LinkedList();
         
-        TokenReader tokenReader = TokenTable.getTokenReader(new TokenizerSettings(true,true,true));
+        TokenReader tokenReader = new WordReader();
         tokenReader.openDocument(document);
         
         try
@@ -0,0 +1,77 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff.document;
+
+import edu.virginia.speclab.diff.OffsetRange;
+import junit.framework.TestCase;
+
+public class DocumentTextTest extends TestCase
+{
+    private static final String TEXT = "The blessed Damozel leaned out\nFrom the gold bar of Heaven;";
+
+    public void testView()
+    {
+        DocumentText text = new DocumentText(TEXT, 4, 19);
+        assertEquals("blessed Damozel", text.toString());
+        assertEquals(15, text.length());
+        assertEquals('D', text.charAt(8));
+
+        DocumentText word = text.subSequence(8, 15);
+        assertEquals("Damozel", word.toString());
+        assertEquals("moz", word.substring(2, 5));
+
+        try
+        {
+            text.charAt(15);
+            fail("read past the end of the view");
+        }
+        catch( IndexOutOfBoundsException e )
+        {
+            // expected
+        }
+    }
+
+    public void testIndexOfIgnoreCase()
+    {
+        DocumentText text = new DocumentText(TEXT, 0, TEXT.length());
+        assertEquals(12, text.indexOfIgnoreCase("DAMOZEL", 0));
+        assertEquals(36, text.indexOfIgnoreCase("the", 1));
+        assertEquals(-1, text.indexOfIgnoreCase("the", 37));
+
+        // matches must lie inside the view
+        assertEquals(-1, new DocumentText(TEXT, 0, 18).indexOfIgnoreCase("damozel", 0));
+    }
+
+    public void testActiveRangeChanges()
+    {
+        DocumentModel document = new DocumentModel("damozel.txt", TEXT, "UTF-8");
+        assertSame(document.getActiveText(), document.getActiveText());
+        assertSame(TEXT, document.getDocumentText());
+
+        // the active range is changed in place
+        document.getActiveTextRange().set(12, 19, OffsetRange.Space.PROCESSED);
+        assertEquals("Damozel", document.getDocumentText());
+        assertEquals(7, document.getDocumentLength());
+        assertEquals("moz", document.getSubString(2, 3));
+        assertEquals(0, document.search(0, "DAMOZEL", false));
+
+        document.setProcessedText("Her eyes were deeper than the depth");
+        assertEquals("Her eyes were deeper than the depth", document.getDocumentText());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff.document;
+
+import java.util.Arrays;
+
+import edu.virginia.speclab.diff.token.JuxtaXMLNode;
+import edu.virginia.speclab.diff.token.NotableTagSet;
+import junit.framework.TestCase;
+
+public class NotableElementIndexTest extends TestCase
+{
+    // <TEI><p>her eyes <add>were <hi>deeper</hi></add> than</p><del>the depth</del></TEI>
+    private JuxtaXMLNode createTree()
+    {
+        JuxtaXMLNode root = new JuxtaXMLNode("TEI", 0, 40, null);
+        JuxtaXMLNode p = addElement(root, "p", 0, 30, false);
+        JuxtaXMLNode add = addElement(p, "add", 9, 25, true);
+        addElement(add, "hi", 14, 20, true);
+        addElement(root, "del", 31, 40, true);
+        return root;
+    }
+
+    private JuxtaXMLNode addElement( JuxtaXMLNode parent, String name, int start, int end, boolean notable )
+    {
+        JuxtaXMLNode node = new JuxtaXMLNode(name, start, end, parent);
+        node.setIsNotable(notable);
+        parent.addChild(node);
+        return node;
+    }
+
+    public void testTokensInOrder()
+    {
+        NotableElementIndex index = new NotableElementIndex(createTree());
+        assertEquals(3, index.getElementCount());
+
+        NotableElementIndex.Cursor cursor = index.getCursor();
+        assertSame(NotableTagSet.EMPTY, cursor.getNotableTags(0, 3));
+        assertSame(NotableTagSet.EMPTY, cursor.getNotableTags(4, 8));
+        assertSame(tags("add"), cursor.getNotableTags(9, 13));
+        assertSame(tags("add", "hi"), cursor.getNotableTags(14, 20));
+        // a token that runs out of an element keeps its tags
+        assertSame(tags("add"), cursor.getNotableTags(21, 27));
+        assertSame(NotableTagSet.EMPTY, cursor.getNotableTags(30, 30));
+        assertSame(tags("del"), cursor.getNotableTags(35, 40));
+
+        // starting over is allowed
+        assertSame(tags("add", "hi"), cursor.getNotableTags(12, 16));
+    }
+
+    public void testPlainText()
+    {
+        JuxtaXMLNode root = new JuxtaXMLNode("root", 0, 40, null);
+        NotableElementIndex.Cursor cursor = new NotableElementIndex(root).getCursor();
+        assertSame(NotableTagSet.EMPTY, cursor.getNotableTags(0, 10));
+    }
+
+    private NotableTagSet tags( String... names )
+    {
+        return NotableTagSet.getInstance(Arrays.asList(names));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff.token;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class TokenScannerTest extends TestCase
+{
+    public void testWords()
+    {
+        TokenScanner scanner = scan("Her eyes, Ὅμηρος  ÉTÉ 1870!", true, true, true);
+        assertEquals(Arrays.asList("her", "eyes", "ὅμηρος", "été", "1870"), words(scanner));
+        assertEquals(10, scanner.getStart(2));
+        assertEquals(6, scanner.getLength(2));
+        assertEquals(Token.hash(Token.HASH_SEED, "ὅμηρος"), scanner.getHash(2));
+    }
+
+    public void testPunctuationAndCase()
+    {
+        TokenScanner scanner = scan("Her eyes, were deeper.", false, false, true);
+        assertEquals(Arrays.asList("Her", "eyes,", "were", "deeper."), words(scanner));
+    }
+
+    public void testWhitespace()
+    {
+        // whitespace starts a token unless it ends one, and is followed by what comes next
+        TokenScanner scanner = scan("a  b\t\tc", true, true, false);
+        assertEquals(Arrays.asList("a", " b", "\tc"), words(scanner));
+        assertEquals(2, scanner.getStart(1));
+    }
+
+    public void testLongWords()
+    {
+        char[] word = new char[TokenScanner.MAX_WORD_LEN + 10];
+        Arrays.fill(word, 'a');
+        TokenScanner scanner = scan(new String(word), true, true, true);
+        assertEquals(2, scanner.getTokenCount());
+        assertEquals(TokenScanner.MAX_WORD_LEN, scanner.getStart(1));
+        assertEquals(10, scanner.getLength(1));
+    }
+
+    public void testSharedWords()
+    {
+        TokenScanner scanner = scan("The damozel, the DAMOZEL", true, true, true);
+        assertSame(scanner.getWord(0), scanner.getWord(2));
+        assertSame(scanner.getWord(1), scanner.getWord(3));
+    }
+
+    private TokenScanner scan( String text, boolean filterCase, boolean filterPunctuation, boolean filterWhitespace )
+    {
+        TokenScanner scanner = new TokenScanner(new TokenizerSettings(filterCase, filterPunctuation, filterWhitespace));
+        scanner.scan(text);
+        return scanner;
+    }
+
+    private List<String> words( TokenScanner scanner )
+    {
+        List<String> words = new ArrayList<String>();
+        for( int i = 0; i < scanner.getTokenCount(); i++ )
+        {
+            words.add(scanner.getWord(i));
+        }
+        return words;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.diff.token;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class TokenTest extends TestCase
+{
+    public void testInternedTagSets()
+    {
+        NotableTagSet set = NotableTagSet.getInstance(Arrays.asList("hi", "add"));
+        assertSame(set, NotableTagSet.getInstance(Arrays.asList("add", "hi")));
+        assertSame(set, set.union(Collections.singleton("hi")));
+        assertSame(NotableTagSet.EMPTY, NotableTagSet.getInstance(Collections.<String>emptySet()));
+
+        NotableTagSet larger = set.union(Collections.singleton("del"));
+        assertNotSame(set, larger);
+        assertSame(larger, NotableTagSet.getInstance(Arrays.asList("del", "hi", "add")));
+    }
+
+    public void testSameContent()
+    {
+        Token token = new Token("damozel", 4);
+        Token elsewhere = new Token("damozel", 120);
+        assertTrue(token.hasSameContent(elsewhere));
+        assertEquals(token.getContentHash(), elsewhere.getContentHash());
+        assertFalse(token.hasSameContent(new Token("damsel", 4)));
+
+        // the same word in a notable tag is a different symbol
+        elsewhere.addNotableTags(Collections.singleton("add"));
+        assertFalse(token.hasSameContent(elsewhere));
+        assertTrue(token.getContentHash() != elsewhere.getContentHash());
+
+        token.addNotableTags(Collections.singleton("add"));
+        assertTrue(token.hasSameContent(elsewhere));
+        assertSame(token.getNotableTags(), elsewhere.getNotableTags());
+    }
+}
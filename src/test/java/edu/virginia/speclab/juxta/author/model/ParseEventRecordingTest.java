@@ -0,0 +1,144 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.juxta.author.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import edu.virginia.speclab.diff.OffsetRange;
+import edu.virginia.speclab.diff.document.OffsetMap;
+import edu.virginia.speclab.diff.document.TagSet;
+import edu.virginia.speclab.diff.token.JuxtaXMLNode;
+import edu.virginia.speclab.exceptions.ReportedException;
+import edu.virginia.speclab.juxta.author.Juxta;
+import junit.framework.TestCase;
+
+public class ParseEventRecordingTest extends TestCase
+{
+    private static final String SOURCE =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        "<TEI>\n" +
+        "<teiHeader><title>Header</title></teiHeader>\n" +
+        "<text>\r\n" +
+        "<!-- the first stanza -->\n" +
+        "<lg n=\"1\"><l xml:id=\"first\">The blessed damozel  leaned out</l>\n" +
+        "<l>From the <del>gold</del><add>golden</add> bar of Heaven &amp; earth;</l></lg>\n" +
+        "<note target=\"first\">A note.</note><pb n=\"2\"/>\n" +
+        "<l>Her eyes were deeper than the depth</l>\n" +
+        "</text>\n" +
+        "</TEI>";
+
+    private File sourceFile;
+
+    protected void setUp() throws Exception
+    {
+        sourceFile = File.createTempFile("damozel", ".xml");
+        FileOutputStream outStream = new FileOutputStream(sourceFile);
+        outStream.write(SOURCE.getBytes("UTF-8"));
+        outStream.close();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        sourceFile.delete();
+    }
+
+    public void testReplayWithOtherTagSets() throws IOException, ReportedException
+    {
+        JuxtaXMLParser recorded = createParser("teiHeader", "");
+        recorded.parse();
+        ParseEventRecording events = recorded.getParseEvents();
+        assertNotNull(events);
+
+        // the file is not read again
+        sourceFile.delete();
+
+        String[][] settings = { { "teiHeader", "" }, { "lg", "" }, { "note", "0" }, { "text", "1" } };
+        for( int i=0; i < settings.length; i++ )
+        {
+            writeSource();
+            JuxtaXMLParser parsed = createParser(settings[i][0], settings[i][1]);
+            parsed.parse();
+            sourceFile.delete();
+
+            JuxtaXMLParser replayed = createParser(settings[i][0], settings[i][1]);
+            replayed.parse(events);
+            assertEquals(settings[i][0], describe(parsed), describe(replayed));
+        }
+    }
+
+    private JuxtaXMLParser createParser( String excludedTag, String revisions ) throws IOException
+    {
+        JuxtaXMLParser parser = new JuxtaXMLParser(sourceFile, Juxta.JUXTA_VERSION, Charset.forName("UTF-8"));
+        TagSet excluded = new TagSet();
+        excluded.includeTag(excludedTag);
+        parser.setExcludedTagSet(excluded);
+        TagSet notable = new TagSet();
+        notable.includeTag("pb");
+        parser.setNotableTagSet(notable);
+        TagSet newlines = new TagSet();
+        newlines.includeTag("l");
+        parser.setNewlineTagSet(newlines);
+        parser.setRevisionsToAccept(revisions);
+        return parser;
+    }
+
+    private void writeSource() throws IOException
+    {
+        FileOutputStream outStream = new FileOutputStream(sourceFile);
+        outStream.write(SOURCE.getBytes("UTF-8"));
+        outStream.close();
+    }
+
+    private String describe( JuxtaXMLParser parser ) throws ReportedException
+    {
+        StringBuffer description = new StringBuffer();
+        description.append(parser.getFlattenedText()).append('\n');
+
+        OffsetMap offsetMap = parser.getOffsetMap();
+        for( int i=0; i <= offsetMap.getSize(); i++ )
+        {
+            description.append(offsetMap.getTargetOffset(i)).append(',').append(offsetMap.getSourceOffset(i)).append(' ');
+        }
+        description.append('\n');
+
+        describeNode(parser.getRootNode(), description);
+        description.append(parser.getNotes().size()).append(' ');
+        description.append(parser.getPageBreaks().size()).append(' ');
+        for( int i=0; i < parser.getRevisions().size(); i++ )
+        {
+            Revision revision = parser.getRevisions().get(i);
+            description.append(revision.getType()).append(revision.getStartOffset(OffsetRange.Space.ORIGINAL)).append(' ');
+        }
+        return description.toString();
+    }
+
+    private void describeNode( JuxtaXMLNode node, StringBuffer description )
+    {
+        description.append(node.getXPath()).append(' ').append(node.getStartOffset()).append('-').append(node.getEndOffset());
+        description.append(' ').append(node.getXMLStartOffset()).append('-').append(node.getXMLEndOffset());
+        description.append(' ').append(node.isExcluded()).append(node.isNotable()).append(node.getAttributes()).append('\n');
+        for( int i=0; i < node.getChildCount(); i++ )
+        {
+            describeNode(node.getChildAt(i), description);
+        }
+    }
+}
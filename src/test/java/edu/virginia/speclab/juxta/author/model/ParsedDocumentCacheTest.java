@@ -0,0 +1,233 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.juxta.author.model;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import edu.virginia.speclab.diff.OffsetRange;
+import edu.virginia.speclab.diff.document.LocationMarker;
+import edu.virginia.speclab.diff.document.NoteData;
+import edu.virginia.speclab.diff.document.OffsetMap;
+import edu.virginia.speclab.diff.document.PageBreakData;
+import edu.virginia.speclab.diff.document.TagSet;
+import edu.virginia.speclab.diff.token.JuxtaXMLNode;
+import edu.virginia.speclab.exceptions.ReportedException;
+import edu.virginia.speclab.juxta.author.Juxta;
+import edu.virginia.speclab.util.FileUtilities;
+import junit.framework.TestCase;
+
+public class ParsedDocumentCacheTest extends TestCase
+{
+    private static final String SOURCE =
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+        "<TEI>\n" +
+        "<teiHeader><title>Header &amp; title</title></teiHeader>\n" +
+        "<text>\n" +
+        "<pb n=\"1\"/>\n" +
+        "<lg n=\"1\">\n" +
+        "<l n=\"1\" xml:id=\"first\">The blessed damozel leaned out</l>\n" +
+        "<l n=\"2\">From the <del>gold</del><add>golden</add> bar of Heaven;</l>\n" +
+        "</lg>\n" +
+        "<m_s id=\"m1\" type=\"stanza\" img=\"page1.jpg\"/>Her eyes were deeper<m_e refid=\"m1\"/>\n" +
+        "<note target=\"first\">A note on the first line.</note>\n" +
+        "<pb n=\"2\"/>\n" +
+        "<l>Than the depth of waters stilled at even;</l>\n" +
+        "</text>\n" +
+        "</TEI>\n";
+
+    private File workDirectory;
+    private File sourceFile;
+    private File cacheFile;
+
+    protected void setUp() throws Exception
+    {
+        workDirectory = File.createTempFile("parsecache", "");
+        workDirectory.delete();
+        workDirectory.mkdirs();
+
+        sourceFile = new File(workDirectory, "damozel.xml");
+        FileOutputStream outStream = new FileOutputStream(sourceFile);
+        outStream.write(SOURCE.getBytes("UTF-8"));
+        outStream.close();
+        cacheFile = new File(workDirectory, "1.parse");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        FileUtilities.recursiveDelete(workDirectory, true);
+    }
+
+    public void testRestoreFromCache() throws IOException, ReportedException
+    {
+        JuxtaXMLParser parsed = createParser("teiHeader", "");
+        parsed.parse();
+
+        JuxtaXMLParser first = createParser("teiHeader", "");
+        first.parse(cacheFile);
+        assertTrue(cacheFile.exists());
+        assertParsedAlike(parsed, first);
+
+        // the second time around the results come from the cache
+        long written = cacheFile.lastModified();
+        JuxtaXMLParser second = createParser("teiHeader", "");
+        second.parse(cacheFile);
+        assertEquals(written, cacheFile.lastModified());
+        assertParsedAlike(parsed, second);
+        assertEquals(1, second.getNotes().size());
+        assertEquals(2, second.getPageBreaks().size());
+        assertEquals(2, second.getRevisions().size());
+        assertEquals(new File(workDirectory, ".." + File.separator + "images" + File.separator + "page1.jpg"),
+            firstImageMarker(second).getImage().getImageFile());
+    }
+
+    public void testStaleCache() throws IOException, ReportedException
+    {
+        createParser("teiHeader", "").parse(cacheFile);
+
+        // a different template or set of accepted revisions means another parse
+        JuxtaXMLParser parsed = createParser("lg", "1");
+        parsed.parse();
+        JuxtaXMLParser cached = createParser("lg", "1");
+        cached.parse(cacheFile);
+        assertParsedAlike(parsed, cached);
+
+        // as does a corrupt cache
+        FileOutputStream outStream = new FileOutputStream(cacheFile);
+        outStream.write(new byte[] { 1, 2, 3 });
+        outStream.close();
+        cached = createParser("lg", "1");
+        cached.parse(cacheFile);
+        assertParsedAlike(parsed, cached);
+    }
+
+    private JuxtaXMLParser createParser( String excludedTag, String revisions ) throws IOException
+    {
+        JuxtaXMLParser parser = new JuxtaXMLParser(sourceFile, Juxta.JUXTA_VERSION, Charset.forName("UTF-8"));
+        TagSet excluded = new TagSet();
+        excluded.excludeTag(excludedTag);
+        parser.setExcludedTagSet(excluded);
+        TagSet newlines = new TagSet();
+        newlines.includeTag("l");
+        parser.setNewlineTagSet(newlines);
+        parser.setRevisionsToAccept(revisions);
+        return parser;
+    }
+
+    private void assertParsedAlike( JuxtaXMLParser expected, JuxtaXMLParser actual ) throws ReportedException
+    {
+        assertEquals(expected.getDocumentType(), actual.getDocumentType());
+        assertEquals(expected.getXMLText(), actual.getXMLText());
+        assertEquals(expected.getFlattenedText(), actual.getFlattenedText());
+        assertEquals(expected.getElementsEncountered(), actual.getElementsEncountered());
+
+        OffsetMap expectedMap = expected.getOffsetMap();
+        OffsetMap actualMap = actual.getOffsetMap();
+        assertEquals(expectedMap.getSize(), actualMap.getSize());
+        for( int i=0; i <= expectedMap.getSize(); i++ )
+        {
+            assertEquals(expectedMap.getTargetOffset(i), actualMap.getTargetOffset(i));
+            assertEquals(expectedMap.getSourceOffset(i), actualMap.getSourceOffset(i));
+        }
+
+        assertNodesAlike(expected.getRootNode(), actual.getRootNode());
+
+        List<LocationMarker> expectedMarkers = expected.getLocationMarkerList();
+        List<LocationMarker> actualMarkers = actual.getLocationMarkerList();
+        assertEquals(expectedMarkers.size(), actualMarkers.size());
+        for( int i=0; i < expectedMarkers.size(); i++ )
+        {
+            LocationMarker expectedMarker = expectedMarkers.get(i);
+            LocationMarker actualMarker = actualMarkers.get(i);
+            assertEquals(expectedMarker.getID(), actualMarker.getID());
+            assertEquals(expectedMarker.getLocationName(), actualMarker.getLocationName());
+            assertEquals(expectedMarker.getLocationType(), actualMarker.getLocationType());
+            assertEquals(expectedMarker.getNumber(), actualMarker.getNumber());
+            assertEquals(expectedMarker.hasImage(), actualMarker.hasImage());
+            assertRangesAlike(expectedMarker, actualMarker);
+        }
+
+        List<NoteData> expectedNotes = expected.getNotes();
+        List<NoteData> actualNotes = actual.getNotes();
+        assertEquals(expectedNotes.size(), actualNotes.size());
+        for( int i=0; i < expectedNotes.size(); i++ )
+        {
+            assertEquals(expectedNotes.get(i).getType(), actualNotes.get(i).getType());
+            assertEquals(expectedNotes.get(i).getTargetID(), actualNotes.get(i).getTargetID());
+            assertRangesAlike(expectedNotes.get(i).getNoteRange(), actualNotes.get(i).getNoteRange());
+            assertRangesAlike(expectedNotes.get(i).getAnchorRange(), actualNotes.get(i).getAnchorRange());
+        }
+
+        List<PageBreakData> expectedBreaks = expected.getPageBreaks();
+        List<PageBreakData> actualBreaks = actual.getPageBreaks();
+        assertEquals(expectedBreaks.size(), actualBreaks.size());
+        for( int i=0; i < expectedBreaks.size(); i++ )
+        {
+            assertEquals(expectedBreaks.get(i).getLabel(), actualBreaks.get(i).getLabel());
+            assertRangesAlike(expectedBreaks.get(i).getRange(), actualBreaks.get(i).getRange());
+        }
+
+        List<Revision> expectedRevisions = expected.getRevisions();
+        List<Revision> actualRevisions = actual.getRevisions();
+        assertEquals(expectedRevisions.size(), actualRevisions.size());
+        for( int i=0; i < expectedRevisions.size(); i++ )
+        {
+            assertEquals(expectedRevisions.get(i).getType(), actualRevisions.get(i).getType());
+            assertRangesAlike(expectedRevisions.get(i).getOffsetRange(), actualRevisions.get(i).getOffsetRange());
+        }
+    }
+
+    private void assertNodesAlike( JuxtaXMLNode expected, JuxtaXMLNode actual )
+    {
+        assertEquals(expected.getXPath(), actual.getXPath());
+        assertEquals(expected.getStartOffset(), actual.getStartOffset());
+        assertEquals(expected.getEndOffset(), actual.getEndOffset());
+        assertEquals(expected.getXMLStartOffset(), actual.getXMLStartOffset());
+        assertEquals(expected.getXMLEndOffset(), actual.getXMLEndOffset());
+        assertEquals(expected.isExcluded(), actual.isExcluded());
+        assertEquals(expected.isNotable(), actual.isNotable());
+        assertEquals(expected.isEmptyTag(), actual.isEmptyTag());
+        assertEquals(expected.getAttributes(), actual.getAttributes());
+        assertEquals(expected.getChildCount(), actual.getChildCount());
+        for( int i=0; i < expected.getChildCount(); i++ )
+        {
+            assertNodesAlike(expected.getChildAt(i), actual.getChildAt(i));
+        }
+    }
+
+    private void assertRangesAlike( OffsetRange expected, OffsetRange actual )
+    {
+        assertEquals(expected.getStartOffset(OffsetRange.Space.ORIGINAL), actual.getStartOffset(OffsetRange.Space.ORIGINAL));
+        assertEquals(expected.getEndOffset(OffsetRange.Space.ORIGINAL), actual.getEndOffset(OffsetRange.Space.ORIGINAL));
+    }
+
+    private LocationMarker firstImageMarker( JuxtaXMLParser parser )
+    {
+        List<LocationMarker> markers = parser.getLocationMarkerList();
+        for( int i=0; i < markers.size(); i++ )
+        {
+            if( markers.get(i).hasImage() ) return markers.get(i);
+        }
+        fail("no marker with an image");
+        return null;
+    }
+}
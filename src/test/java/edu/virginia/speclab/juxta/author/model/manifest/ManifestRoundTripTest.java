@@ -0,0 +1,197 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.juxta.author.model.manifest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import edu.virginia.speclab.diff.Difference;
+import edu.virginia.speclab.diff.OffsetRange;
+import edu.virginia.speclab.exceptions.LoggedException;
+import edu.virginia.speclab.exceptions.ReportedException;
+import edu.virginia.speclab.juxta.author.Juxta;
+import edu.virginia.speclab.juxta.author.model.Annotation;
+import edu.virginia.speclab.juxta.author.model.DocumentManager;
+import edu.virginia.speclab.juxta.author.model.JuxtaDocument;
+import edu.virginia.speclab.juxta.author.model.MovesManager;
+import edu.virginia.speclab.util.FileUtilities;
+import junit.framework.TestCase;
+
+public class ManifestRoundTripTest extends TestCase
+{
+    private static final String[] SAMPLE_FILES = { "sample/welcome.jxt", "sample/renaissance.jxt", "sample/whitman_leaves.jxt" };
+
+    private File workDirectory;
+
+    protected void setUp() throws Exception
+    {
+        workDirectory = File.createTempFile("manifest", "");
+        workDirectory.delete();
+        workDirectory.mkdirs();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        FileUtilities.recursiveDelete(workDirectory, true);
+    }
+
+    public void testSampleManifests() throws IOException, ReportedException
+    {
+        for( int i=0; i < SAMPLE_FILES.length; i++ )
+        {
+            String original = readEntry(new File(SAMPLE_FILES[i]), "manifest.xml");
+            File manifestFile = writeFile(new File(workDirectory, "manifest.xml"), original);
+
+            DocumentManifestXMLFile manifest = new DocumentManifestXMLFile(manifestFile, workDirectory);
+            manifest.save();
+
+            // the manifest is written out just as it was read, apart from the version
+            String expected = original.replaceFirst("<juxta version=\"[^\"]*\">", "<juxta version=\"" + Juxta.JUXTA_VERSION + "\">");
+            assertEquals(SAMPLE_FILES[i], expected, readFile(manifestFile));
+            assertTrue(manifest.getTokenizerSettings().filterWhitespace());
+        }
+    }
+
+    public void testAnnotations() throws IOException, ReportedException
+    {
+        String original =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<juxta version=\"" + Juxta.JUXTA_VERSION + "\">\n" +
+            "\t<comparison-set name=\"Poems &amp; &quot;Prose&quot;\" filter-whitespace=\"true\" filter-punctuation=\"false\" filter-case=\"true\">\n" +
+            "\t\t<comparand docid=\"12\" activeRangeStart=\"0\" activeRangeEnd=\"140\" >\n" +
+            "\t\t\t<file>docs/a &amp; b.xml</file>\n" +
+            "\t\t</comparand>\n" +
+            "\t</comparison-set>\n" +
+            "\t<annotation-set>\n" +
+            "\t\t<annotation>\n" +
+            "\t\t\t<difference type=\"change\">\n" +
+            "\t\t\t\t<base docid=\"12\" offset=\"10\" length=\"4\" space=\"original\" ></base>\n" +
+            "\t\t\t\t<witness docid=\"14\" offset=\"22\" length=\"7\" space=\"original\" ></witness>\n" +
+            "\t\t\t</difference>\n" +
+            "\t\t\t<notes>&lt;i&gt;sic&lt;/i&gt; &amp; see &quot;errata&quot;</notes>\n" +
+            "\t\t\t<image>true</image>\n" +
+            "\t\t</annotation>\n" +
+            "\t\t<annotation>\n" +
+            "\t\t\t<difference type=\"delete\">\n" +
+            "\t\t\t\t<base docid=\"14\" offset=\"3\" length=\"5\" ></base>\n" +
+            "\t\t\t\t<witness docid=\"12\" offset=\"3\" length=\"0\" ></witness>\n" +
+            "\t\t\t</difference>\n" +
+            "\t\t\t<notes></notes>\n" +
+            "\t\t\t<image>false</image>\n" +
+            "\t\t</annotation>\n" +
+            "\t</annotation-set>\n" +
+            "</juxta>\n";
+        File manifestFile = writeFile(new File(workDirectory, "manifest.xml"), original);
+
+        DocumentManifestXMLFile manifest = new DocumentManifestXMLFile(manifestFile, workDirectory);
+        assertFalse(manifest.getTokenizerSettings().filterPunctuation());
+
+        List annotations = manifest.createAnnotationList();
+        assertEquals(2, annotations.size());
+
+        Annotation first = (Annotation) annotations.get(0);
+        Difference difference = first.getDifference();
+        assertEquals(Difference.CHANGE, difference.getType());
+        assertEquals(12, difference.getBaseDocumentID());
+        assertEquals(14, difference.getWitnessDocumentID());
+        assertEquals(22, difference.getOffset(Difference.WITNESS, OffsetRange.Space.ORIGINAL));
+        assertEquals(7, difference.getLength(Difference.WITNESS, OffsetRange.Space.ORIGINAL));
+        assertEquals("<i>sic</i> & see \"errata\"", first.getNotes());
+        assertTrue(first.includeImage());
+        assertFalse(first.isFromOldVersion());
+
+        Annotation second = (Annotation) annotations.get(1);
+        assertEquals(Difference.DELETE, second.getDifference().getType());
+        assertEquals("", second.getNotes());
+        assertFalse(second.includeImage());
+        assertTrue(second.isFromOldVersion());
+
+        manifest.save();
+        assertEquals(original, readFile(manifestFile));
+    }
+
+    public void testMoves() throws IOException, LoggedException
+    {
+        File sessionFile = new File(workDirectory, "welcome.jxt");
+        FileUtilities.copyFile(new File(SAMPLE_FILES[0]), sessionFile, false);
+
+        DocumentManager documentManager = new DocumentManager(sessionFile);
+        documentManager.loadManifest();
+        MovesManager movesManager = documentManager.getMovesManager();
+
+        Iterator i = documentManager.getDocumentList().iterator();
+        JuxtaDocument first = (JuxtaDocument) i.next();
+        JuxtaDocument second = (JuxtaDocument) i.next();
+        movesManager.createMove(movesManager.new Fragment(first, 10, 25), movesManager.new Fragment(second, 17, 27));
+        movesManager.createMove(movesManager.new Fragment(second, 48, 52), movesManager.new Fragment(first, 3, 8));
+        String serialized = movesManager.serialize();
+
+        File folder = new File(workDirectory, "moves");
+        folder.mkdirs();
+        movesManager.save(folder.getPath());
+        assertEquals(serialized, readFile(new File(folder, "moves.xml")));
+
+        movesManager.load(folder.getPath());
+        assertEquals(2, movesManager.getMoves().size());
+        assertEquals(serialized, movesManager.serialize());
+    }
+
+    private String readEntry( File archiveFile, String entryName ) throws IOException
+    {
+        ZipFile zipFile = new ZipFile(archiveFile);
+        ZipEntry entry = zipFile.getEntry(entryName);
+        String content = readStream(zipFile.getInputStream(entry));
+        zipFile.close();
+        return content;
+    }
+
+    private String readFile( File file ) throws IOException
+    {
+        return readStream(new FileInputStream(file));
+    }
+
+    private String readStream( InputStream inStream ) throws IOException
+    {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int bytesRead;
+        while ((bytesRead = inStream.read(buf)) != -1)
+        {
+            outStream.write(buf, 0, bytesRead);
+        }
+        inStream.close();
+        return outStream.toString("UTF-8");
+    }
+
+    private File writeFile( File file, String content ) throws IOException
+    {
+        FileOutputStream outStream = new FileOutputStream(file);
+        outStream.write(content.getBytes("UTF-8"));
+        outStream.close();
+        return file;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class EncodingUtilsTest extends TestCase
+{
+    private File targetFile;
+
+    protected void setUp() throws Exception
+    {
+        targetFile = File.createTempFile("encoding", ".xml");
+    }
+
+    protected void tearDown() throws Exception
+    {
+        targetFile.delete();
+    }
+
+    public void testByteOrderMark() throws IOException
+    {
+        byte[] content = concat(new byte[] { (byte) 0xFF, (byte) 0xFE }, "<?xml version=\"1.0\"?>\n<a>über</a>".getBytes("UTF-16LE"));
+        EncodingUtils.DetectedEncoding encoding = copy(content, true);
+        assertEquals("UTF-16LE", encoding.getCharset().name());
+        assertEquals(1.0f, encoding.getConfidence());
+        assertEquals("\n<a>über</a>", readTarget());
+    }
+
+    public void testDeclaredEncoding() throws IOException
+    {
+        byte[] content = "<?xml version='1.0' encoding='ISO-8859-1'?><a>café crème</a>".getBytes("ISO-8859-1");
+        EncodingUtils.DetectedEncoding encoding = copy(content, true);
+        assertEquals("ISO-8859-1", encoding.getCharset().name());
+        assertFalse(encoding.isAmbiguous());
+        assertEquals("<a>café crème</a>", readTarget());
+    }
+
+    public void testUtf8() throws IOException
+    {
+        // the declaration is kept for anything but XML
+        String text = "<?xml version=\"1.0\"?>\r\nGrüße aus Köln";
+        EncodingUtils.DetectedEncoding encoding = copy(text.getBytes("UTF-8"), false);
+        assertEquals("UTF-8", encoding.getCharset().name());
+        assertFalse(encoding.isAmbiguous());
+        assertEquals(text, readTarget());
+    }
+
+    public void testLatin1AfterAsciiSample() throws IOException
+    {
+        // nothing but ASCII until past the sample the encoding is detected from
+        StringBuffer text = new StringBuffer();
+        while (text.length() < 100 * 1024)
+        {
+            text.append("The blessed damozel leaned out from the gold bar of Heaven.\n");
+        }
+        text.append("Her robe, ungirt from clasp to hem, no wrought flowers did adorn: café crème.\n");
+        byte[] content = text.toString().getBytes("ISO-8859-1");
+        assertTrue(copy(content, false).isAmbiguous());
+
+        File sourceFile = File.createTempFile("encoding", ".txt");
+        try
+        {
+            FileOutputStream outStream = new FileOutputStream(sourceFile);
+            outStream.write(content);
+            outStream.close();
+
+            EncodingUtils.DetectedEncoding encoding = EncodingUtils.copyAsUtf8(sourceFile, targetFile, false);
+            assertFalse("UTF-8".equals(encoding.getCharset().name()));
+            assertEquals(text.toString(), readTarget());
+        }
+        finally
+        {
+            sourceFile.delete();
+        }
+    }
+
+    private EncodingUtils.DetectedEncoding copy( byte[] content, boolean isXml ) throws IOException
+    {
+        return EncodingUtils.copyAsUtf8(new ByteArrayInputStream(content), targetFile, isXml);
+    }
+
+    private String readTarget() throws IOException
+    {
+        byte[] content = new byte[(int) targetFile.length()];
+        FileInputStream inStream = new FileInputStream(targetFile);
+        int length = 0;
+        while (length < content.length)
+        {
+            length += inStream.read(content, length, content.length - length);
+        }
+        inStream.close();
+        return new String(content, "UTF-8");
+    }
+
+    private byte[] concat( byte[] first, byte[] second )
+    {
+        byte[] result = new byte[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ *  Copyright 2002-2010 The Rector and Visitors of the
+ *                      University of Virginia. All rights reserved.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ */
+
+package edu.virginia.speclab.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import junit.framework.TestCase;
+
+public class ZipArchiveWriterTest extends TestCase
+{
+    private File workDirectory;
+
+    protected void setUp() throws Exception
+    {
+        workDirectory = File.createTempFile("zipwriter", "");
+        workDirectory.delete();
+        workDirectory.mkdirs();
+    }
+
+    protected void tearDown() throws Exception
+    {
+        FileUtilities.recursiveDelete(workDirectory, true);
+    }
+
+    public void testRewriteArchive() throws IOException
+    {
+        File sourceDirectory = new File(workDirectory, "source");
+        File targetDirectory = new File(workDirectory, "target");
+        File archiveFile = new File(workDirectory, "session.jxt");
+
+        HashMap fileMap = new HashMap();
+        fileMap.put("manifest.xml", writeFile(new File(sourceDirectory, "manifest.xml"), "<manifest/>"));
+        fileMap.put("docs/a.xml", writeFile(new File(sourceDirectory, "docs/a.xml"), "<doc>first</doc>"));
+        fileMap.put("docs/images/page.png", writeFile(new File(sourceDirectory, "docs/images/page.png"), "not really a png"));
+        ZipArchiveWriter.writeArchive(fileMap, archiveFile, null);
+
+        assertEquals("<doc>first</doc>", readEntry(archiveFile, "docs/a.xml"));
+        assertEquals(ZipEntry.STORED, getMethod(archiveFile, "docs/images/page.png"));
+        assertEquals(ZipEntry.DEFLATED, getMethod(archiveFile, "manifest.xml"));
+
+        // change one entry, leave the image in the archive and write over it
+        ZipArchive archive = new ZipArchive(archiveFile, targetDirectory);
+        archive.extract("manifest.xml");
+        archive.extract("docs/a.xml");
+        writeFile(new File(targetDirectory, "docs/a.xml"), "<doc>second</doc>");
+
+        fileMap = new HashMap();
+        fileMap.put("manifest.xml", new File(targetDirectory, "manifest.xml"));
+        fileMap.put("docs/a.xml", new File(targetDirectory, "docs/a.xml"));
+        fileMap.put("docs/images/page.png", new File(targetDirectory, "docs/images/page.png"));
+        assertTrue(archive.isUnchanged("docs/images/page.png", new File(targetDirectory, "docs/images/page.png")));
+        assertTrue(archive.isUnchanged("manifest.xml", new File(targetDirectory, "manifest.xml")));
+        assertFalse(archive.isUnchanged("docs/a.xml", new File(targetDirectory, "docs/a.xml")));
+        ZipArchiveWriter.writeArchive(fileMap, archiveFile, archive);
+        archive.reopen(archiveFile);
+
+        assertEquals("<manifest/>", readEntry(archiveFile, "manifest.xml"));
+        assertEquals("<doc>second</doc>", readEntry(archiveFile, "docs/a.xml"));
+        assertEquals("not really a png", readEntry(archiveFile, "docs/images/page.png"));
+        assertTrue(archive.isPending("docs/images/page.png"));
+
+        archive.close();
+        // no temporary or backup files are left beside the archive
+        assertEquals(3, workDirectory.list().length);
+    }
+
+    public void testLargeEntry() throws IOException
+    {
+        File sourceDirectory = new File(workDirectory, "source");
+        File archiveFile = new File(workDirectory, "session.jxt");
+
+        // larger than the entries that are compressed into memory
+        StringBuffer text = new StringBuffer();
+        for( int i = 0; text.length() < 5 * 1024 * 1024; i++ )
+        {
+            text.append("The blessed damozel leaned out from the gold bar of Heaven, line ").append(i).append('\n');
+        }
+        HashMap fileMap = new HashMap();
+        fileMap.put("docs/large.txt", writeFile(new File(sourceDirectory, "docs/large.txt"), text.toString()));
+        fileMap.put("manifest.xml", writeFile(new File(sourceDirectory, "manifest.xml"), "<manifest/>"));
+        ZipArchiveWriter.writeArchive(fileMap, archiveFile, null);
+
+        assertEquals(text.toString(), readEntry(archiveFile, "docs/large.txt"));
+        assertEquals("<manifest/>", readEntry(archiveFile, "manifest.xml"));
+
+        // the checksum and sizes after the data are read by a stream reader
+        ZipInputStream zipStream = new ZipInputStream(new FileInputStream(archiveFile));
+        int entries = 0;
+        while( zipStream.getNextEntry() != null )
+        {
+            entries++;
+        }
+        zipStream.close();
+        assertEquals(2, entries);
+
+        // and the streamed entry is copied as it is into the next version of the archive
+        File targetDirectory = new File(workDirectory, "target");
+        ZipArchive archive = new ZipArchive(archiveFile, targetDirectory);
+        archive.extract("manifest.xml");
+        writeFile(new File(targetDirectory, "manifest.xml"), "<manifest version=\"2\"/>");
+        fileMap = new HashMap();
+        fileMap.put("manifest.xml", new File(targetDirectory, "manifest.xml"));
+        fileMap.put("docs/large.txt", new File(targetDirectory, "docs/large.txt"));
+        assertTrue(archive.isUnchanged("docs/large.txt", new File(targetDirectory, "docs/large.txt")));
+        ZipArchiveWriter.writeArchive(fileMap, archiveFile, archive);
+        archive.close();
+
+        assertEquals(text.toString(), readEntry(archiveFile, "docs/large.txt"));
+        assertEquals("<manifest version=\"2\"/>", readEntry(archiveFile, "manifest.xml"));
+    }
+
+    private File writeFile( File file, String content ) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        FileOutputStream outStream = new FileOutputStream(file);
+        outStream.write(content.getBytes("UTF-8"));
+        outStream.close();
+        return file;
+    }
+
+    private String readEntry( File archiveFile, String entryName ) throws IOException
+    {
+        ZipFile zipFile = new ZipFile(archiveFile);
+        InputStream inStream = zipFile.getInputStream(zipFile.getEntry(entryName));
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream();
+        byte[] buf = new byte[1024];
+        int bytesRead;
+        while ((bytesRead = inStream.read(buf)) != -1)
+        {
+            outStream.write(buf, 0, bytesRead);
+        }
+        inStream.close();
+        zipFile.close();
+        return outStream.toString("UTF-8");
+    }
+
+    private int getMethod( File archiveFile, String entryName ) throws IOException
+    {
+        ZipFile zipFile = new ZipFile(archiveFile);
+        int method = zipFile.getEntry(entryName).getMethod();
+        zipFile.close();
+        return method;
+    }
+}